@@ -1,6 +1,7 @@
 package danbikel.lisp;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.ref.*;
 
 /**
@@ -15,12 +16,24 @@ import java.lang.ref.*;
  * In this way, the programmer need never be concerned about the symbol
  * map monotonically growing simply because the program continues to
  * instantiate new symbols.
+ * <p>
+ * The internal map is a concurrent hash map, so that symbols may be looked
+ * up and added by many threads at once without contending for a single
+ * lock; looking up an existing symbol acquires no lock at all.  A
+ * long-running process whose set of symbols is essentially fixed, such as
+ * a decoder server, may {@linkplain #setPermanentInterning(boolean) intern
+ * symbols permanently}, in which case the map holds its symbols directly,
+ * instead of via weak references, and they are never reclaimed.
  *
  * @see StringSymbol
  * @see IntSymbol
 */
 
 abstract public class Symbol extends Sexp {
+  // the value computed for the original version of this class, so that
+  // symbols serialized by earlier versions remain readable
+  private static final long serialVersionUID = 4503037767587131747L;
+
 
   private final static boolean selfCleaning = true;
 
@@ -67,8 +80,13 @@ abstract public class Symbol extends Sexp {
     private Object getSymKey() { return symKey; }
   }
 
-  private static Map map = new HashMap(200001);
+  // the values of this map are either WeakSymReference objects or, when
+  // symbols are interned permanently, the Symbol objects themselves
+  private static ConcurrentHashMap map =
+    new ConcurrentHashMap(200001, 0.75f,
+			  Runtime.getRuntime().availableProcessors() * 4);
   private static ReferenceQueue queue = new ReferenceQueue();
+  private static volatile boolean permanent = false;
 
   /**
    * Gets the <code>Integer</code> object associated with this Symbol.
@@ -121,19 +139,8 @@ abstract public class Symbol extends Sexp {
    * <code>str</code>.
    */
   public final static Symbol get(String str) {
-    synchronized (map) {
-      if (selfCleaning)
-	processQueue(str);
-      WeakSymReference symRef = (WeakSymReference)map.get(str);
-      if (symRef == null || symRef.get() == null) {
-	Symbol newSym = new StringSymbol(str);
-	symRef = new WeakSymReference(newSym, queue);
-	map.put(str, symRef);
-	return (Symbol)symRef.get();
-      }
-      else
-	return (Symbol)symRef.get();
-    }
+    Symbol sym = lookup(str);
+    return sym != null ? sym : intern(new StringSymbol(str));
   }
 
   /**
@@ -157,21 +164,109 @@ abstract public class Symbol extends Sexp {
    * <code>intKey</code>.
    */
   public final static Symbol get(Integer intKey) {
-    synchronized (map) {
-      if (selfCleaning)
-	processQueue(intKey);
-      WeakSymReference symRef = (WeakSymReference)map.get(intKey);
-      if (symRef == null || symRef.get() == null) {
-	Symbol newSym = new IntSymbol(intKey);
-	symRef = new WeakSymReference(newSym, queue);
-	map.put(intKey, symRef);
-	return (Symbol)symRef.get();
+    Symbol sym = lookup(intKey);
+    return sym != null ? sym : intern(new IntSymbol(intKey));
+  }
+
+  /**
+   * Returns the symbol in the internal symbol map with the specified key,
+   * or <code>null</code> if there is no such symbol (or if it has been
+   * reclaimed).  This method acquires no lock.
+   */
+  private static Symbol lookup(Object symKey) {
+    Object value = map.get(symKey);
+    if (value == null)
+      return null;
+    if (value instanceof Symbol)
+      return (Symbol)value;
+    return (Symbol)((WeakSymReference)value).get();
+  }
+
+  /**
+   * Adds the specified new symbol to the internal symbol map, unless another
+   * thread has added an equal symbol since the symbol was last looked up,
+   * in which case that symbol is returned instead.
+   *
+   * @param newSym a newly-constructed symbol
+   * @return the unique symbol whose key is that of the specified symbol
+   */
+  private static Symbol intern(Symbol newSym) {
+    if (selfCleaning)
+      processQueue(newSym.getSymKey());
+    Object symKey = newSym.getSymKey();
+    Object newValue =
+      permanent ? (Object)newSym : new WeakSymReference(newSym, queue);
+    while (true) {
+      Object value = map.putIfAbsent(symKey, newValue);
+      if (value == null)
+	return settle(symKey, newValue, newSym);
+      Symbol sym = value instanceof Symbol ?
+	(Symbol)value : (Symbol)((WeakSymReference)value).get();
+      if (sym != null)
+	return sym;
+      // the existing symbol has been reclaimed, so replace its reference
+      if (map.replace(symKey, value, newValue))
+	return settle(symKey, newValue, newSym);
+    }
+  }
+
+  /**
+   * Converts the map value just added for the specified symbol if the
+   * interning mode has changed since the value was created.  Since
+   * {@link #setPermanentInterning(boolean)} changes the mode before it
+   * converts the values already in the map, a value added concurrently with
+   * that conversion pass either is seen by the pass or is converted here.
+   *
+   * @param symKey the key of the symbol
+   * @param value the value that was added to the map for the symbol
+   * @param sym the symbol
+   * @return the specified symbol
+   */
+  private static Symbol settle(Object symKey, Object value, Symbol sym) {
+    if (permanent && value instanceof WeakSymReference)
+      map.replace(symKey, value, sym);
+    else if (!permanent && value instanceof Symbol)
+      map.replace(symKey, value, new WeakSymReference(sym, queue));
+    return sym;
+  }
+
+  /**
+   * Sets whether symbols are interned permanently.  When symbols are interned
+   * permanently, the internal symbol map holds strong references to its
+   * symbols, so that they are never reclaimed, and looking up a symbol
+   * involves no weak reference.  This is appropriate for long-running
+   * processes that use an essentially fixed set of symbols.  Setting this
+   * mode converts the references to all symbols currently in the map.
+   *
+   * @param permanent whether symbols should be interned permanently
+   */
+  public final static synchronized void setPermanentInterning(boolean
+							      permanent) {
+    if (Symbol.permanent == permanent)
+      return;
+    Symbol.permanent = permanent;
+    Iterator it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      Object value = entry.getValue();
+      if (permanent && value instanceof WeakSymReference) {
+	Symbol sym = (Symbol)((WeakSymReference)value).get();
+	if (sym != null)
+	  map.replace(entry.getKey(), value, sym);
       }
-      else
-	return (Symbol)symRef.get();
+      else if (!permanent && value instanceof Symbol)
+	map.replace(entry.getKey(), value,
+		    new WeakSymReference((Symbol)value, queue));
     }
   }
 
+  /**
+   * Returns whether symbols are interned permanently.
+   *
+   * @see #setPermanentInterning(boolean)
+   */
+  public final static boolean permanentInterning() { return permanent; }
+
   /**
    * A synonym for {@link #get(Integer)}.
    *
@@ -194,7 +289,7 @@ abstract public class Symbol extends Sexp {
    * <code>intValue</code>.
    */
   public final static Symbol add(int intValue) {
-    return add(new Integer(intValue));
+    return add(Integer.valueOf(intValue));
   }
   /**
    * A convenience method for {@link #add(Integer)}: the specified
@@ -207,7 +302,7 @@ abstract public class Symbol extends Sexp {
    * <code>intValue</code>.
    */
   public final static Symbol get(int intValue) {
-    return get(new Integer(intValue));
+    return get(Integer.valueOf(intValue));
   }
 
   /**
@@ -222,7 +317,9 @@ abstract public class Symbol extends Sexp {
   private static void processQueue(Object symToGet) {
     WeakSymReference weakRef;
     while ((weakRef = (WeakSymReference)queue.poll()) != null) {
-      map.remove(weakRef.getSymKey());
+      // only remove the mapping if it has not already been replaced by a
+      // reference to a new symbol with the same key
+      map.remove(weakRef.getSymKey(), weakRef);
     }
   }
 
@@ -231,9 +328,7 @@ abstract public class Symbol extends Sexp {
    * no hard or soft references.
    */
   public final static void clean() {
-    synchronized (map) {
-      System.gc();
-      processQueue(null);
-    }
+    System.gc();
+    processQueue(null);
   }
 }
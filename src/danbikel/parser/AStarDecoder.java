@@ -0,0 +1,442 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import danbikel.lisp.*;
+import java.util.*;
+import java.rmi.*;
+
+/**
+ * A decoder that fills its chart using agenda-based A* search instead of
+ * exhaustive, span-by-span CKY completion with beam widening.  Chart items
+ * are created by the same operations as in {@link Decoder}&mdash;namely,
+ * {@link #joinItems(CKYItem,CKYItem,boolean)},
+ * {@link #addUnaries(CKYItem,List)} and {@link #addStopProbs(CKYItem,List)}
+ * &mdash;but instead of being added directly to the chart, new items are
+ * placed on a priority agenda.  The highest-priority item is repeatedly
+ * removed from the agenda and added to the chart, and is then combined with
+ * all items already in the chart that are adjacent to it, until an item
+ * covering the entire sentence that has received its <tt>+TOP+</tt>
+ * probability is removed from the agenda, or, when
+ * {@link Settings#kBest} is greater than <tt>1</tt>, until that many
+ * non-equivalent such items have been removed.
+ * <p>
+ * The priority of an item is the log of its inside probability plus an
+ * estimate of the log of its outside probability.  The estimate is the sum
+ * of an upper bound on the log-probability of generating each word outside
+ * the item's span, and of generating the item's own head word (see
+ * {@link DecoderServerRemote#logProbWordUpperBound(int,Word)}), since the
+ * probability of generating an item's head word is not part of its inside
+ * probability, but is only multiplied in when the item is joined to a
+ * modificand or receives its <tt>+TOP+</tt> probability.  Because every
+ * word of a sentence is generated exactly once by a derivation, and every
+ * other factor of a derivation's probability is at most 1, this estimate is
+ * admissible; moreover, it is consistent, since no item has a higher
+ * priority than either of the items from which it was derived.  Therefore,
+ * the first item of each equivalence class to be removed from the agenda is
+ * the most probable item of that class, the first item removed that has
+ * received its <tt>+TOP+</tt> probability is the most probable parse, and
+ * no beam widening is needed: a sentence is reparsed (with relaxed
+ * constraints) only if no parse at all can be found.  Only the per-word
+ * cell limits and beams applied while initializing the chart remain in
+ * effect.
+ * <p>
+ * As with {@link Decoder}, only the most probable item of each equivalence
+ * class is kept in the chart, so that when {@link Settings#kBest} is greater
+ * than <tt>1</tt>, the parses returned are the most probable of those that
+ * survive this dynamic-programming step, which are not necessarily the
+ * <i>k</i> most probable parses of the sentence.
+ * <p>
+ * The amount of work done by this decoder depends on the tightness of the
+ * word bounds, which require the models' precomputed probability tables
+ * (see {@link Settings#precomputeProbs}); when they are not available, the
+ * search degrades to uniform-cost search, which is still exact but can be
+ * considerably slower than beam search.  The value of
+ * {@link Settings#maxParseTime} limits the time spent on any one sentence.
+ * Sentences parsed with constraints are decoded using the inherited
+ * span-by-span method.
+ * <p>
+ * This decoder is selected by setting {@link Settings#decoderClass} to the
+ * name of this class.
+ *
+ * @see Settings#decoderClass
+ */
+public class AStarDecoder extends Decoder {
+  // debugging constants
+  private final static boolean debugAgenda = false;
+
+  private final static String className = AStarDecoder.class.getName();
+
+  /** The chart of this decoder, which also contains the agenda. */
+  protected AgendaChart agendaChart;
+  /**
+   * A cache of the upper bounds on the log-probabilities of generating
+   * words, as returned by
+   * {@link DecoderServerRemote#logProbWordUpperBound(int,Word)}.
+   */
+  protected HashMapDouble wordBoundCache = new HashMapDouble();
+  /** A reusable list for the items produced when expanding an item. */
+  protected List expandedItems = new ArrayList();
+
+  /**
+   * Constructs a new A* decoder that will use the specified
+   * <code>DecoderServer</code> to get all information and probabilities
+   * required for decoding (parsing).
+   *
+   * @param id the id of this parsing client
+   * @param server the server from which to get information and
+   * probabilities
+   */
+  public AStarDecoder(int id, DecoderServerRemote server) {
+    super(id, server);
+    setUpAgendaChart();
+  }
+
+  /**
+   * Replaces the chart created by the superclass with an
+   * {@link AgendaChart}, and disables the decoder features that only apply to
+   * span-by-span completion.
+   */
+  protected void setUpAgendaChart() {
+    agendaChart = new AgendaChart(cellLimit, pruneFact);
+    if (!Settings.getBoolean(Settings.decoderUsePruneFactor))
+      agendaChart.dontDoPruning();
+    chart = agendaChart;
+    // only a failed search with hard constraints is followed by another
+    maxPruneFact = pruneFact;
+    numSpanThreads = 1;
+  }
+
+  public void update(Map<String, String> changedSettings) {
+    super.update(changedSettings);
+    setUpAgendaChart();
+    wordBoundCache.clear();
+  }
+
+  /**
+   * Fills the chart for the current sentence using A* search.  The items of
+   * the single-word spans, created when the chart was initialized, form the
+   * initial agenda.  Sentences with constraints are handled by the
+   * span-by-span method of the superclass.
+   *
+   * @param parallel ignored by this decoder
+   * @throws RemoteException if any calls to the underlying
+   * {@link DecoderServerRemote} object throw a <code>RemoteException</code>
+   * @throws TimeoutException if the value of {@link Settings#maxParseTime}
+   * is greater than zero and has been reached while parsing
+   */
+  protected void completeChart(boolean parallel)
+    throws RemoteException, TimeoutException {
+    if (findAtLeastOneSatisfyingConstraint) {
+      super.completeChart(false);
+      return;
+    }
+
+    agendaChart.setOutsideBounds(getWordBounds());
+    // only the preterminals seed the agenda; every item polled from it is
+    // then either closed or, if an equivalent item has already been closed,
+    // referred to by no other item, and may safely be reclaimed
+    for (int i = 0; i < sentLen; i++)
+      agendaChart.moveToAgenda(i, i);
+
+    int numPopped = 0;
+    Set topItems = new HashSet();
+    agendaChart.setAgendaMode(true);
+    try {
+      while (agendaChart.agendaSize() > 0) {
+	if (maxParseTime > 0 && time.elapsedMillis() > maxParseTime) {
+	  throw new TimeoutException(className + ": ran out of time (>" +
+				     maxParseTime + "ms) on sentence " +
+				     sentenceIdx);
+	}
+	CKYItem item = agendaChart.pollAgenda();
+	if (item.label() == topSym) {
+	  // the next-best parse; its equivalent will be recreated by
+	  // addTopUnaries from the sentence-spanning items in the chart, so
+	  // the search may stop once the k best have been found
+	  if (!topItems.add(item))
+	    chart.reclaimItem(item);
+	  if (topItems.size() >= kBest)
+	    break;
+	  continue;
+	}
+	if (!agendaChart.close(item)) {
+	  chart.reclaimItem(item);
+	  continue;
+	}
+	numPopped++;
+	expand(item);
+	if (batchModProbs)
+	  joinPendingItems();
+      }
+    }
+    finally {
+      agendaChart.setAgendaMode(false);
+      agendaChart.clearAgenda();
+      Iterator it = topItems.iterator();
+      while (it.hasNext())
+	chart.reclaimItem((Item)it.next());
+    }
+    if (debugAgenda)
+      System.err.println(className + ": removed " + numPopped +
+			 " items from agenda for sentence " + sentenceIdx);
+  }
+
+  /**
+   * Returns an array containing, for each word of the current sentence, an
+   * upper bound on the log-probability of generating that word with any of
+   * its possible parts of speech.
+   */
+  protected double[] getWordBounds() throws RemoteException {
+    double[] bounds = new double[sentLen];
+    for (int i = 0; i < sentLen; i++) {
+      double bound = Constants.logOfZero;
+      Iterator it = chart.get(i, i);
+      while (it.hasNext()) {
+	CKYItem item = (CKYItem)it.next();
+	if (item.isPreterminal())
+	  bound = Math.max(bound, getWordBound(item.headWord()));
+      }
+      // joins and top probabilities of logOfZero are replaced by
+      // logProbSmall when constraints are relaxed
+      bounds[i] = Math.min(0.0, Math.max(bound, Constants.logProbSmall));
+    }
+    return bounds;
+  }
+
+  private double getWordBound(Word word) throws RemoteException {
+    MapToPrimitive.Entry entry = wordBoundCache.getEntry(word);
+    if (entry != null)
+      return entry.getDoubleValue();
+    double bound = server.logProbWordUpperBound(id, word);
+    wordBoundCache.put(word, bound);
+    return bound;
+  }
+
+  /**
+   * Creates all items that can be derived from the specified item, which has
+   * just been added to the chart, either on its own or together with an
+   * adjacent item already in the chart, and places them on the agenda.
+   *
+   * @param item the item to be expanded
+   * @throws RemoteException if any calls to the underlying
+   * {@link DecoderServerRemote} object throw a <code>RemoteException</code>
+   */
+  protected void expand(CKYItem item) throws RemoteException {
+    int start = item.start();
+    int end = item.end();
+    if (item.stop()) {
+      addUnaries(item, expandedItems);
+      expandedItems.clear();
+      if (start == 0 && end == sentLen - 1) {
+	CKYItem topItem = getTopUnaryItem(item, end);
+	if (topItem != null && !chart.add(0, end, topItem))
+	  chart.reclaimItem(topItem);
+      }
+      // item as a left modifier of modificands to its right
+      for (int modEnd = end + 1; modEnd < sentLen; modEnd++) {
+	Iterator it = chart.get(end + 1, modEnd);
+	while (it.hasNext()) {
+	  CKYItem modificand = (CKYItem)it.next();
+	  if (!modificand.stop() &&
+	      canModify(modificand, Constants.LEFT, start, end, modEnd))
+	    joinItems(modificand, item, Constants.LEFT);
+	}
+      }
+      // item as a right modifier of modificands to its left
+      for (int modStart = 0; modStart < start; modStart++) {
+	Iterator it = chart.get(modStart, start - 1);
+	while (it.hasNext()) {
+	  CKYItem modificand = (CKYItem)it.next();
+	  if (!modificand.stop() &&
+	      canModify(modificand, Constants.RIGHT, modStart, start - 1, end))
+	    joinItems(modificand, item, Constants.RIGHT);
+	}
+      }
+    }
+    else {
+      addStopProbs(item, expandedItems);
+      expandedItems.clear();
+      // right modifiers of item
+      for (int modEnd = end + 1; modEnd < sentLen; modEnd++) {
+	if (!canModify(item, Constants.RIGHT, start, end, modEnd))
+	  continue;
+	Iterator it = chart.get(end + 1, modEnd);
+	while (it.hasNext()) {
+	  CKYItem modifier = (CKYItem)it.next();
+	  if (modifier.stop())
+	    joinItems(item, modifier, Constants.RIGHT);
+	}
+      }
+      // left modifiers of item
+      for (int modStart = 0; modStart < start; modStart++) {
+	if (!canModify(item, Constants.LEFT, modStart, start - 1, end))
+	  continue;
+	Iterator it = chart.get(modStart, start - 1);
+	while (it.hasNext()) {
+	  CKYItem modifier = (CKYItem)it.next();
+	  if (modifier.stop())
+	    joinItems(item, modifier, Constants.LEFT);
+	}
+      }
+    }
+  }
+
+  /**
+   * Returns whether the specified modificand may be modified on the
+   * specified side, where the left item of the join covers
+   * <tt>[start,split]</tt> and the right item covers <tt>[split+1,end]</tt>,
+   * applying the same tests as {@link #complete(int,int)}.
+   */
+  private boolean canModify(CKYItem modificand, boolean side,
+			    int start, int split, int end) {
+    if (useCommaConstraint && commaConstraintViolation(start, split, end))
+      return (side == Constants.LEFT &&
+	      Language.treebank.isBaseNP((Symbol)modificand.label()));
+    return derivationOrderOK(modificand, side);
+  }
+
+  /**
+   * A chart whose {@link #add(int,int,Item)} method places items on an
+   * agenda ordered by their A* priorities while in agenda mode, and into
+   * which items are explicitly added by {@link #close(CKYItem)}.
+   */
+  protected static class AgendaChart extends CKYChart {
+    private boolean agendaMode;
+    private transient PriorityQueue agenda;
+    private Symbol topSym = Language.training().topSym();
+    // wordBounds[i] is the upper bound on the log-probability of word i
+    private double[] wordBounds = new double[0];
+    // outsidePrefix[i] is the sum of the word bounds of words 0 through i-1
+    private double[] outsidePrefix = new double[1];
+
+    /**
+     * An item on the agenda, together with its priority, which is computed
+     * once, when the item is placed on the agenda.
+     */
+    private static final class AgendaEntry {
+      final CKYItem item;
+      final double priority;
+
+      AgendaEntry(CKYItem item, double priority) {
+	this.item = item;
+	this.priority = priority;
+      }
+    }
+
+    /**
+     * Constructs a new chart with a default initial chart size, and with
+     * the specified cell limit and prune factor.
+     *
+     * @param cellLimit the limit to the number of items per cell
+     * @param pruneFact that log of the prune factor
+     */
+    public AgendaChart(int cellLimit, double pruneFact) {
+      super(cellLimit, pruneFact);
+      agenda = new PriorityQueue(1024, new Comparator() {
+	public int compare(Object o1, Object o2) {
+	  return Double.compare(((AgendaEntry)o2).priority,
+				((AgendaEntry)o1).priority);
+	}
+      });
+    }
+
+    /**
+     * Sets the upper bounds on the log-probabilities of generating each word
+     * of the current sentence, used to compute outside estimates.
+     */
+    void setOutsideBounds(double[] wordBounds) {
+      this.wordBounds = wordBounds;
+      outsidePrefix = new double[wordBounds.length + 1];
+      for (int i = 0; i < wordBounds.length; i++)
+	outsidePrefix[i + 1] = outsidePrefix[i] + wordBounds[i];
+    }
+
+    /**
+     * Returns the A* priority of the specified item, which is its log inside
+     * probability plus the estimate of its log outside probability: the sum
+     * of the word bounds of the words outside its span and of its own head
+     * word, whose generation probability is not yet part of its inside
+     * probability unless the item has received its <tt>+TOP+</tt>
+     * probability.
+     */
+    double priority(CKYItem item) {
+      double outside = outsidePrefix[outsidePrefix.length - 1] -
+		       (outsidePrefix[item.end() + 1] -
+			outsidePrefix[item.start()]);
+      if (item.label() != topSym)
+	outside += wordBounds[item.headWordIdx()];
+      return item.logTreeProb() + outside;
+    }
+
+    private void addToAgenda(CKYItem item) {
+      agenda.add(new AgendaEntry(item, priority(item)));
+    }
+
+    void setAgendaMode(boolean agendaMode) { this.agendaMode = agendaMode; }
+
+    int agendaSize() { return agenda.size(); }
+
+    CKYItem pollAgenda() { return ((AgendaEntry)agenda.poll()).item; }
+
+    /**
+     * Moves the preterminal items of the specified span to the agenda, and
+     * reclaims and removes all other items of the span.  The other items
+     * (such as the stop and unary items built on the preterminals when the
+     * chart was initialized) are derived again when the preterminals are
+     * expanded; were they placed on the agenda as well, an item could be
+     * polled and reclaimed as a duplicate after having become the child of
+     * another item.
+     */
+    void moveToAgenda(int start, int end) {
+      Entry entry = chart[start][end];
+      Iterator it = entry.map.keySet().iterator();
+      while (it.hasNext()) {
+	CKYItem item = (CKYItem)it.next();
+	if (item.isPreterminal())
+	  addToAgenda(item);
+	else
+	  reclaimItem(item);
+      }
+      addToTotalItems(-entry.map.size());
+      entry.clear();
+    }
+
+    /** Reclaims and removes all items remaining on the agenda. */
+    void clearAgenda() {
+      Iterator it = agenda.iterator();
+      while (it.hasNext())
+	reclaimItem(((AgendaEntry)it.next()).item);
+      agenda.clear();
+    }
+
+    /**
+     * Adds the specified item, just removed from the agenda, to its span in
+     * this chart, unless an equivalent item has already been added, in which
+     * case this method returns <code>false</code>.  Since the A* estimate is
+     * consistent, an equivalent item added earlier is at least as probable
+     * as the specified item.  The items of a span are never pruned once
+     * added.
+     */
+    boolean close(CKYItem item) {
+      Entry entry = chart[item.start()][item.end()];
+      if (entry.map.getEntry(item) != null)
+	return false;
+      entry.map.put(item, item.logProb());
+      addToTotalItems(1);
+      if (item.logProb() > entry.topLogProb) {
+	entry.topLogProb = item.logProb();
+	entry.topItem = item;
+      }
+      return true;
+    }
+
+    public boolean add(int start, int end, Item item) {
+      if (!agendaMode)
+	return super.add(start, end, item);
+      if (item.logProb() <= Constants.logOfZero)
+	return false;
+      addToAgenda((CKYItem)item);
+      return true;
+    }
+  }
+}
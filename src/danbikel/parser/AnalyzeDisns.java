@@ -102,14 +102,30 @@ public class AnalyzeDisns {
    */
   public static double klDistFromLogProbs(double[] disnP, double[] disnQ) {
     double klDist = 0.0;
-    for (int i = disnP.length - 1; i >= 0; i--) {
-      if (disnP[i] == Constants.logOfZero)
-	continue;
-      klDist += Math.exp(disnP[i]) * ((disnP[i] - disnQ[i])/Math.log(2));
-    }
+    for (int i = disnP.length - 1; i >= 0; i--)
+      klDist += klTermFromLogProbs(disnP[i], disnQ[i]);
     return klDist;
   }
 
+  /**
+   * Returns the term of <i>D</i>(<i>P</i>&nbsp;||&nbsp;<i>Q</i>) contributed
+   * by a single outcome, whose log-probability is <code>logP</code> under
+   * <i>P</i> and <code>logQ</code> under <i>Q</i>, where <i>D</i> is the
+   * Kullback-Leibler divergence (in bits).  This is the amount by which the
+   * relative entropy grows if the outcome's probability <i>P</i> is replaced
+   * by <i>Q</i>, ignoring the renormalization of the other outcomes.
+   *
+   * @param logP the log-probability of an outcome under <i>P</i>
+   * @param logQ the log-probability of the same outcome under <i>Q</i>
+   * @return the term of <i>D</i>(<i>P</i>&nbsp;||&nbsp;<i>Q</i>) for the
+   * outcome
+   */
+  public static double klTermFromLogProbs(double logP, double logQ) {
+    if (logP == Constants.logOfZero)
+      return 0.0;
+    return Math.exp(logP) * ((logP - logQ)/Math.log(2));
+  }
+
   /**
    * A debugging method for analyzing a particular event in the modifier
    * word model.
@@ -0,0 +1,359 @@
+package danbikel.parser;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A CKY chart whose cells store their items contiguously in arrays, instead
+ * of in maps keyed by the items themselves.  Equivalent items are detected
+ * using an open-addressing index of each cell&rsquo;s items, in which each
+ * item&rsquo;s hash code (its <i>signature</i>) is stored alongside the
+ * item, so that most unsuccessful probes are resolved without invoking
+ * {@link Item#equals(Object)}.  Since the items of a cell are contiguous,
+ * {@link #getItems(int,int,Item[])} returns a cell&rsquo;s own storage,
+ * allowing the decoder to iterate over the items of a cell by index,
+ * without allocating an iterator or copying any items.
+ * <p>
+ * Apart from the order in which the items of a cell are visited, this
+ * chart behaves identically to {@link CKYChart}.
+ *
+ * @see Settings#decoderUseArrayChart
+ */
+public class ArrayCKYChart extends CKYChart {
+  // constants
+  private final static int initialCellCapacity = 16;
+
+  // inner class
+
+  /**
+   * Contains all information and items covering a particular span, with the
+   * items stored contiguously in an array.
+   */
+  protected static class Entry extends Chart.Entry implements Serializable {
+    Item[] items = new Item[initialCellCapacity];
+    int[] signatures = new int[initialCellCapacity];
+    // open-addressing index, twice as long as items: each slot holds either
+    // zero (empty) or one plus the index of an item
+    int[] index = new int[2 * initialCellCapacity];
+    int size;
+
+    Entry() { super(null); }
+
+    private static int slot(int signature, int mask) {
+      signature ^= signature >>> 16;
+      signature *= 0x85ebca6b;
+      signature ^= signature >>> 13;
+      return signature & mask;
+    }
+
+    /**
+     * Returns the index of the item equivalent to the specified item, or
+     * <tt>-1</tt> if there is no such item.
+     */
+    int find(Item item, int signature) {
+      int[] index = this.index;
+      int mask = index.length - 1;
+      for (int slot = slot(signature, mask); ; slot = (slot + 1) & mask) {
+	int itemIdx = index[slot] - 1;
+	if (itemIdx < 0)
+	  return -1;
+	if (signatures[itemIdx] == signature && items[itemIdx].equals(item))
+	  return itemIdx;
+      }
+    }
+
+    void append(Item item, int signature) {
+      if (size == items.length) {
+	int newCapacity = size * 2;
+	Item[] newItems = new Item[newCapacity];
+	System.arraycopy(items, 0, newItems, 0, size);
+	items = newItems;
+	int[] newSignatures = new int[newCapacity];
+	System.arraycopy(signatures, 0, newSignatures, 0, size);
+	signatures = newSignatures;
+	index = new int[2 * newCapacity];
+	reindex();
+      }
+      items[size] = item;
+      signatures[size] = signature;
+      insert(size);
+      size++;
+    }
+
+    private void insert(int itemIdx) {
+      int mask = index.length - 1;
+      int slot = slot(signatures[itemIdx], mask);
+      while (index[slot] != 0)
+	slot = (slot + 1) & mask;
+      index[slot] = itemIdx + 1;
+    }
+
+    private void reindex() {
+      Arrays.fill(index, 0);
+      for (int i = 0; i < size; i++)
+	insert(i);
+    }
+
+    /**
+     * Keeps only the first <code>newSize</code> items of this cell, which
+     * the caller may have rearranged, recomputing their signatures if
+     * requested, and rebuilds the index.
+     */
+    void truncate(int newSize, boolean recomputeSignatures) {
+      Arrays.fill(items, newSize, size, null);
+      size = newSize;
+      if (recomputeSignatures)
+	for (int i = 0; i < size; i++)
+	  signatures[i] = items[i].hashCode();
+      reindex();
+    }
+
+    /** Moves the item at index <code>from</code> to index <code>to</code>. */
+    void move(int from, int to) {
+      items[to] = items[from];
+      signatures[to] = signatures[from];
+    }
+
+    void clear() {
+      if (size > 0) {
+	Arrays.fill(items, 0, size, null);
+	Arrays.fill(index, 0);
+	size = 0;
+      }
+      topItem = null;
+      topLogProb = Constants.logOfZero;
+      clearPrunedAndAdded();
+    }
+
+    void setTopInfo() {
+      topItem = null;
+      topLogProb = Constants.logOfZero;
+      for (int i = 0; i < size; i++) {
+	Item item = items[i];
+	if (item.logProb() > topLogProb) {
+	  topLogProb = item.logProb();
+	  topItem = item;
+	}
+      }
+    }
+  }
+
+  // constructors
+
+  /**
+   * Constructs a new chart with the default chart size.
+   */
+  public ArrayCKYChart() {
+    super();
+  }
+  /**
+   * Constructs a new chart with the specified chart size.
+   *
+   * @param size the initial size of this chart
+   */
+  public ArrayCKYChart(int size) {
+    super(size);
+  }
+
+  /**
+   * Constructs a new chart with a default initial chart size, and with
+   * the specified cell limit and prune factor.
+   *
+   * @param cellLimit the limit to the number of items per cell
+   * @param pruneFact that log of the prune factor
+   *
+   * @see #cellLimit
+   * @see #pruneFact
+   */
+  public ArrayCKYChart(int cellLimit, double pruneFact) {
+    super(cellLimit, pruneFact);
+  }
+
+  /**
+   * Constructs a new chart with the specified initial chart size, cell limit
+   * and prune factor.
+   *
+   * @param size the initial size of this chart
+   * @param cellLimit the limit to the number of items per cell
+   * @param pruneFact that log of the prune factor
+   *
+   * @see #cellLimit
+   * @see #pruneFact
+   */
+  public ArrayCKYChart(int size, int cellLimit, double pruneFact) {
+    super(size, cellLimit, pruneFact);
+  }
+
+  public void setSize(int size) {
+    if (this.size < size) {
+      this.size = size;
+      chart = new Entry[size][size];
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++)
+      for (int j = i; j < size; j++)
+	if (chart[i][j] == null)
+	  chart[i][j] = new Entry();
+    super.clear();
+  }
+
+  public void clearNonPreterminals() {
+    incremental = false;
+    for (int i = 0; i < size; i++) {
+      for (int j = i; j < size; j++) {
+	Entry entry = (Entry)chart[i][j];
+	if (entry == null)
+	  chart[i][j] = new Entry();
+	else if (i == j) {
+	  // remove non preterminal items
+	  int numKept = 0;
+	  for (int k = 0; k < entry.size; k++)
+	    if (((CKYItem)entry.items[k]).isPreterminal())
+	      entry.move(k, numKept++);
+	  entry.truncate(numKept, false);
+	  entry.setTopInfo();
+	  entry.clearPrunedAndAdded();
+	}
+	else
+	  entry.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns whether the specified item should not be added to the specified
+   * span because it is outside the beam.  An item whose log-probability is
+   * within the {@linkplain #narrowestBeam() narrowest beam} of the top
+   * log-probability of its span is accepted without consulting
+   * {@link #outsideBeam(Item,double)}.
+   */
+  protected boolean toPrune(int start, int end, Item item) {
+    if (!pruning)
+      return false;
+    if (item.logProb() >= chart[start][end].topLogProb - narrowestBeam())
+      return false;
+    return super.toPrune(start, end, item);
+  }
+
+  public boolean add(int start, int end, Item item) {
+    if (item.logProb() <= Constants.logOfZero)
+      return false;
+    if (debugNumItemsGenerated) {
+      totalItemsGenerated++;
+    }
+
+    if (toPrune(start, end, item)) {
+      // caller reclaims item, so we can only keep a copy of it
+      if (keepPruned)
+	storePrunedItem(start, end, copyItem(item));
+      return false;
+    }
+
+    Entry entry = (Entry)chart[start][end];
+    int signature = item.hashCode();
+    int itemIdx = entry.find(item, signature);
+    boolean added = false;
+    if (itemIdx < 0) {
+      entry.append(item, signature);
+      addToTotalItems(1);
+      added = true;
+    }
+    else {
+      Item oldItem = entry.items[itemIdx];
+      if (oldItem.logProb() < item.logProb()) {
+	entry.items[itemIdx] = item;
+	// cannot reclaim item, since caller may still have handle to it
+	oldItem.setGarbage(true);
+	item.hasEquivalentItem(oldItem);
+	added = true;
+      }
+      else
+	oldItem.hasEquivalentItem(item);
+    }
+
+    if (added) {
+      if (item.logProb() > entry.topLogProb) {
+	entry.topLogProb = item.logProb();
+	entry.topItem = item;
+      }
+      if (incremental)
+	entry.added.add(item);
+    }
+    return added;
+  }
+
+  public void prune(int start, int end) {
+    if (!pruning)
+      return;
+    Entry entry = (Entry)chart[start][end];
+    if (pruneFact > 0.0) {
+      double topProb = entry.topLogProb;
+      int numKept = 0;
+      for (int i = 0; i < entry.size; i++) {
+	Item item = entry.items[i];
+	if (outsideBeam(item, topProb)) {
+	  if (debugNumPrunedItems) {
+	    numPruned++;
+	  }
+	  addToTotalItems(-1);
+	  discard(start, end, item);
+	}
+	else
+	  entry.move(i, numKept++);
+      }
+      if (numKept < entry.size)
+	entry.truncate(numKept, false);
+    }
+    if (cellLimit > 0 && end > start) { // no cell limiting on spans of length 1
+      int spanCellLimit = Math.max(10, Math.min(90, 350 / (end + 1 - start)));
+      if (entry.size > spanCellLimit) {
+	Arrays.sort(entry.items, 0, entry.size, Collections.reverseOrder());
+	for (int i = spanCellLimit; i < entry.size; i++)
+	  discard(start, end, entry.items[i]);
+	entry.truncate(spanCellLimit, true);
+      }
+    }
+  }
+
+  private void discard(int start, int end, Item item) {
+    if (keepPruned)
+      storePrunedItem(start, end, item);
+    else
+      reclaimItem(item);
+  }
+
+  public int numItems(int start, int end) {
+    return ((Entry)chart[start][end]).size;
+  }
+
+  public Iterator get(int start, int end) {
+    return itemCollection(start, end).iterator();
+  }
+
+  /**
+   * Returns the array in which this chart stores the items covering the
+   * specified span, ignoring the specified array.
+   *
+   * @param start the start index of the span for which to get all items
+   * @param end the end index of the span for which to get all items
+   * @param arr ignored
+   * @return the array in which the items of the specified span are stored
+   */
+  public Item[] getItems(int start, int end, Item[] arr) {
+    return ((Entry)chart[start][end]).items;
+  }
+
+  protected Collection itemCollection(int start, int end) {
+    Entry entry = (Entry)chart[start][end];
+    return Collections.unmodifiableList(Arrays.asList(entry.items).
+				       subList(0, entry.size));
+  }
+
+  protected Item getEquivalentItem(int start, int end, Item item) {
+    Entry entry = (Entry)chart[start][end];
+    int itemIdx = entry.find(item, item.hashCode());
+    return itemIdx < 0 ? null : entry.items[itemIdx];
+  }
+}
@@ -0,0 +1,232 @@
+package danbikel.parser;
+
+import danbikel.lisp.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads observations written in the compact binary format of
+ * {@link BinaryEventWriter}.  Each observation is returned as the
+ * S-expression it would have been in the text format written by
+ * {@link Trainer#writeStats(Writer)}, except that the count of an
+ * observation of the form <tt>(name key count)</tt> is not part of the
+ * returned list but is instead available via {@link #count()}, so that it
+ * need not be converted to and from a symbol.
+ *
+ * @see BinaryEventWriter
+ */
+public class BinaryEventReader {
+  // data members
+  private DataInputStream in;
+  private ArrayList<Symbol> symbols = new ArrayList<Symbol>();
+  private byte[] buf = new byte[64];
+  private boolean hasCount;
+  private double count;
+  private boolean eof;
+
+  /**
+   * Constructs a new reader around the specified input stream, and reads the
+   * header of the first segment.
+   *
+   * @param is the stream from which to read observations
+   * @throws IOException if the stream does not begin with the header of
+   * a binary event file or if the stream throws an <code>IOException</code>
+   */
+  public BinaryEventReader(InputStream is) throws IOException {
+    this(is, Constants.defaultFileBufsize);
+  }
+
+  /**
+   * Constructs a new reader around the specified input stream, using a buffer
+   * of the specified size, and reads the header of the first segment.
+   *
+   * @param is the stream from which to read observations
+   * @param bufSize the size of the buffer to construct around the specified
+   * stream
+   * @throws IOException if the stream does not begin with the header of
+   * a binary event file or if the stream throws an <code>IOException</code>
+   */
+  public BinaryEventReader(InputStream is, int bufSize) throws IOException {
+    in = new DataInputStream(new BufferedInputStream(is, bufSize));
+    if (in.readInt() != BinaryEventWriter.magic)
+      throw new IOException("not a binary event file");
+    readVersion();
+  }
+
+  /**
+   * Constructs a new reader for the specified file, and reads the header of
+   * the first segment.  If the name of the file ends in
+   * <tt>&quot;.gz&quot;</tt>, the file is decompressed as it is read.
+   *
+   * @param file the file from which to read observations
+   * @throws IOException if the file cannot be opened, or if it is not
+   * a binary event file
+   */
+  public BinaryEventReader(File file) throws IOException {
+    this(streamForFile(file));
+  }
+
+  private static InputStream streamForFile(File file) throws IOException {
+    InputStream is = new FileInputStream(file);
+    return file.getName().endsWith(".gz") ? new GZIPInputStream(is) : is;
+  }
+
+  /**
+   * Returns whether the specified file begins with the header of a binary
+   * event file.  If the name of the file ends in <tt>&quot;.gz&quot;</tt>,
+   * the file is decompressed before its header is checked.
+   *
+   * @param file the file to be checked
+   * @return whether the specified file is a binary event file
+   * @throws IOException if the file cannot be opened
+   */
+  public static boolean isBinaryEventFile(File file) throws IOException {
+    DataInputStream is = null;
+    try {
+      is = new DataInputStream(streamForFile(file));
+      return is.readInt() == BinaryEventWriter.magic;
+    }
+    catch (EOFException eofe) {
+      return false;
+    }
+    catch (ZipException ze) {
+      // a file whose name ends in ".gz" but that is not compressed
+      return false;
+    }
+    finally {
+      if (is != null)
+	is.close();
+    }
+  }
+
+  private void readVersion() throws IOException {
+    int version = in.readUnsignedByte();
+    if (version != BinaryEventWriter.version)
+      throw new IOException("unsupported binary event file version: " +
+			    version);
+    symbols.clear();
+  }
+
+  /**
+   * Reads the next observation, returning a list of the form
+   * <tt>(name&nbsp;element)</tt>, <tt>(name&nbsp;key)</tt> or
+   * <tt>(name&nbsp;key&nbsp;value)</tt>.  A list of the form
+   * <tt>(name&nbsp;key)</tt> is returned for an observation of the form
+   * <tt>(name&nbsp;key&nbsp;count)</tt>, in which case {@link #hasCount()}
+   * will return <code>true</code> and the count is available via
+   * {@link #count()}.
+   *
+   * @return the next observation, or <code>null</code> if there are no
+   * more observations
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code> or if it is not in the correct format
+   */
+  public SexpList read() throws IOException {
+    hasCount = false;
+    int recordType;
+    while (true) {
+      recordType = in.read();
+      if (recordType == -1) {
+	eof = true;
+	return null;
+      }
+      if (recordType != (BinaryEventWriter.magic >>> 24))
+	break;
+      // the header of a new segment, as written by an appending writer
+      if ((in.readUnsignedByte() << 16 | in.readUnsignedShort()) !=
+	  (BinaryEventWriter.magic & 0xffffff))
+	throw new IOException("corrupt binary event file segment header");
+      readVersion();
+    }
+    SexpList event = new SexpList(3);
+    event.add(readSexp());
+    event.add(readSexp());
+    switch (recordType) {
+    case BinaryEventWriter.elementRecord:
+      break;
+    case BinaryEventWriter.countRecord:
+      count = in.readDouble();
+      hasCount = true;
+      break;
+    case BinaryEventWriter.mappingRecord:
+      event.add(readSexp());
+      break;
+    default:
+      throw new IOException("unknown binary event record type: " +
+			    recordType);
+    }
+    return event;
+  }
+
+  /**
+   * Returns whether the observation most recently returned by {@link #read()}
+   * had a count.
+   */
+  public boolean hasCount() { return hasCount; }
+
+  /**
+   * Returns the count of the observation most recently returned by
+   * {@link #read()}, if it had one.
+   */
+  public double count() { return count; }
+
+  /**
+   * Returns whether a call to {@link #read()} has returned <code>null</code>
+   * because the end of the underlying stream was reached.
+   */
+  public boolean eof() { return eof; }
+
+  private Sexp readSexp() throws IOException {
+    int token = readVarint();
+    if (token == BinaryEventWriter.openToken)
+      return readListRest();
+    if (token == BinaryEventWriter.closeToken)
+      throw new IOException("unexpected end of list in binary event file");
+    return symbol(token);
+  }
+
+  /** Reads the elements of a list whose opening token has been read. */
+  private SexpList readListRest() throws IOException {
+    SexpList list = new SexpList();
+    int token;
+    while ((token = readVarint()) != BinaryEventWriter.closeToken)
+      list.add(token == BinaryEventWriter.openToken ?
+	       readListRest() : symbol(token));
+    return list;
+  }
+
+  private Symbol symbol(int token) throws IOException {
+    int id = token - BinaryEventWriter.firstSymbolToken;
+    if (id < symbols.size())
+      return symbols.get(id);
+    if (id > symbols.size())
+      throw new IOException("undefined symbol in binary event file: " + id);
+    int length = readVarint();
+    if (buf.length < length)
+      buf = new byte[Math.max(length, buf.length * 2)];
+    in.readFully(buf, 0, length);
+    Symbol sym = Symbol.add(new String(buf, 0, length, "UTF-8"));
+    symbols.add(sym);
+    return sym;
+  }
+
+  private int readVarint() throws IOException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+	return value;
+    }
+  }
+
+  /**
+   * Closes the underlying stream.
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,320 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import danbikel.lisp.*;
+import danbikel.switchboard.*;
+import java.io.*;
+import java.util.*;
+import java.util.HashMap;
+import java.util.zip.*;
+
+/**
+ * Writes observations in the compact binary format read by
+ * {@link BinaryEventReader}, as an alternative to the S-expression text
+ * format written by {@link Trainer#writeStats(Writer)} and
+ * {@link EventCountsWriter}.  Each observation is a record that corresponds
+ * exactly to one top-level S-expression of the text format, with two
+ * differences: every symbol is written as a varint-encoded index into a
+ * symbol table, and every count is written as a raw <code>double</code>.
+ * <p>
+ * <b>File format</b>: A file consists of one or more <i>segments</i>, each of
+ * which begins with the four-byte magic number {@link #magic} and a
+ * one-byte version number, and each of which has its own symbol table.
+ * (A writer appending to an existing file simply begins a new segment.)  The
+ * remainder of a segment is a sequence of records, each of which begins with
+ * a one-byte record type:
+ * <ul>
+ * <li>{@link #elementRecord}: a name followed by a single element, for
+ * observations of the form <tt>(name element)</tt>
+ * <li>{@link #countRecord}: a name and a key followed by a count, for
+ * observations of the form <tt>(name key count)</tt>
+ * <li>{@link #mappingRecord}: a name, a key and a value, for observations
+ * of the form <tt>(name key value)</tt>
+ * </ul>
+ * Names, keys, values and elements are written as sequences of
+ * varint-encoded tokens: <tt>0</tt> opens a list, <tt>1</tt> closes a list
+ * and <i>n</i>&nbsp;&ge;&nbsp;<tt>2</tt> is the symbol at index
+ * <i>n</i>&nbsp;&minus;&nbsp;<tt>2</tt> of the segment&rsquo;s symbol table.
+ * The symbol table is defined as it is used: a symbol&rsquo;s index is
+ * equal to the number of distinct symbols preceding its first occurrence in
+ * the segment, and that first occurrence is immediately followed by the
+ * symbol&rsquo;s print name, as a varint-encoded length and that many bytes
+ * of UTF-8.  Varints are unsigned, seven bits per byte, least-significant
+ * group first.  Counts are written as by
+ * {@link DataOutput#writeDouble(double)}.
+ * <p>
+ * Files whose names end in <tt>&quot;.gz&quot;</tt> are compressed.
+ *
+ * @see BinaryEventReader
+ * @see EventFileConverter
+ */
+public class BinaryEventWriter implements ObjectWriter {
+  // constants
+  /** The magic number that begins every segment of a binary event file. */
+  public final static int magic = 0x44424556; // "DBEV"
+  /** The version of the binary event file format written by this class. */
+  public final static int version = 1;
+  /** The record type of observations of the form <tt>(name element)</tt>. */
+  public final static int elementRecord = 0;
+  /** The record type of observations of the form <tt>(name key count)</tt>. */
+  public final static int countRecord = 1;
+  /** The record type of observations of the form <tt>(name key value)</tt>. */
+  public final static int mappingRecord = 2;
+
+  final static int openToken = 0;
+  final static int closeToken = 1;
+  final static int firstSymbolToken = 2;
+
+  // data members
+  private DataOutputStream out;
+  private Map<String,Integer> symbolIds = new HashMap<String,Integer>();
+
+  /**
+   * Constructs a new writer around the specified output stream, and writes
+   * the header of a new segment.
+   *
+   * @param os the output stream to which to write observations
+   * @throws IOException if the specified stream throws an
+   * <code>IOException</code> while the header is being written
+   */
+  public BinaryEventWriter(OutputStream os) throws IOException {
+    this(os, Constants.defaultFileBufsize);
+  }
+
+  /**
+   * Constructs a new writer around the specified output stream, using a
+   * buffer of the specified size, and writes the header of a new segment.
+   *
+   * @param os the output stream to which to write observations
+   * @param bufSize the size of the buffer to construct around the specified
+   * stream
+   * @throws IOException if the specified stream throws an
+   * <code>IOException</code> while the header is being written
+   */
+  public BinaryEventWriter(OutputStream os, int bufSize) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(os, bufSize));
+    out.writeInt(magic);
+    out.writeByte(version);
+  }
+
+  /**
+   * Constructs a new writer for the specified file, and writes the header of
+   * a new segment.  If the name of the file ends in <tt>&quot;.gz&quot;</tt>,
+   * the file is compressed.
+   *
+   * @param file the file to which to write observations
+   * @param append indicates whether to append to the specified file or to
+   * clobber any existing file and write anew
+   * @throws IOException if the file cannot be opened or written to
+   */
+  public BinaryEventWriter(File file, boolean append) throws IOException {
+    this(streamForFile(file, append));
+  }
+
+  /**
+   * Opens the specified file for writing, compressing its contents if its
+   * name ends in <tt>&quot;.gz&quot;</tt>.
+   */
+  static OutputStream streamForFile(File file, boolean append)
+    throws IOException {
+    OutputStream os = new FileOutputStream(file, append);
+    return file.getName().endsWith(".gz") ? new GZIPOutputStream(os) : os;
+  }
+
+  /**
+   * Writes an observation of the form <tt>(name key count)</tt>.
+   *
+   * @param name the type of the observation
+   * @param key the observed object, whose string representation must be
+   * an S-expression
+   * @param count the count of the observed object
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeCount(Symbol name, Object key, double count)
+    throws IOException {
+    out.writeByte(countRecord);
+    writeSymbol(name.toString());
+    writeSexp(SymbolicCollectionWriter.valueOf(key));
+    out.writeDouble(count);
+  }
+
+  /**
+   * Writes an observation of the form <tt>(name key value)</tt>.  If the
+   * specified value is a {@link Set}, it is written as a list of its
+   * elements, as by {@link SymbolicCollectionWriter#writeMap}.
+   *
+   * @param name the type of the observation
+   * @param key the key of the observed mapping
+   * @param value the value of the observed mapping
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeMapping(Symbol name, Object key, Object value)
+    throws IOException {
+    out.writeByte(mappingRecord);
+    writeSymbol(name.toString());
+    writeSexp(SymbolicCollectionWriter.valueOf(key));
+    if (value instanceof Set)
+      writeElements((Set)value);
+    else
+      writeSexp(SymbolicCollectionWriter.valueOf(value));
+  }
+
+  /**
+   * Writes an observation of the form <tt>(name element)</tt>.
+   *
+   * @param name the type of the observation
+   * @param element the observed object, whose string representation must be
+   * an S-expression
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeElement(Symbol name, Object element) throws IOException {
+    out.writeByte(elementRecord);
+    writeSymbol(name.toString());
+    writeSexp(SymbolicCollectionWriter.valueOf(element));
+  }
+
+  /**
+   * Writes an observation for every entry of the specified counts table,
+   * as by {@link CountsTable#output(String,Writer)}.
+   *
+   * @param name the type of the observations
+   * @param counts the table of objects and their counts to be written
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeCounts(Symbol name, CountsTable counts) throws IOException {
+    Iterator it = counts.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      writeCount(name, entry.getKey(), entry.getDoubleValue());
+    }
+  }
+
+  /**
+   * Writes an observation for every mapping of the specified map, as by
+   * {@link SymbolicCollectionWriter#writeMap(Map,Symbol,Writer)}.
+   *
+   * @param name the type of the observations
+   * @param map the map whose mappings are to be written
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeMap(Symbol name, Map map) throws IOException {
+    Iterator it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      writeMapping(name, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Writes the specified set as a single observation of the form
+   * <tt>(name (element1 element2 ... elementN))</tt>, as by
+   * {@link SymbolicCollectionWriter#writeSet(Set,Symbol,Writer)}.
+   *
+   * @param name the type of the observation
+   * @param set the set to be written
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeSet(Symbol name, Set set) throws IOException {
+    out.writeByte(elementRecord);
+    writeSymbol(name.toString());
+    writeElements(set);
+  }
+
+  private void writeElements(Collection elements) throws IOException {
+    writeVarint(openToken);
+    for (Iterator it = elements.iterator(); it.hasNext(); )
+      writeSexp(SymbolicCollectionWriter.valueOf(it.next()));
+    writeVarint(closeToken);
+  }
+
+  /**
+   * Writes the tokens of the specified string representation of an
+   * S-expression, splitting tokens exactly where a {@link SexpTokenizer}
+   * would.
+   */
+  private void writeSexp(String sexp) throws IOException {
+    int len = sexp.length();
+    for (int i = 0; i < len; ) {
+      char ch = sexp.charAt(i);
+      if (ch == '(') {
+	writeVarint(openToken);
+	i++;
+      }
+      else if (ch == ')') {
+	writeVarint(closeToken);
+	i++;
+      }
+      else if (Character.isWhitespace(ch))
+	i++;
+      else {
+	int tokenStart = i;
+	for (i++; i < len; i++) {
+	  ch = sexp.charAt(i);
+	  if (ch == '(' || ch == ')' || Character.isWhitespace(ch))
+	    break;
+	}
+	writeSymbol(sexp.substring(tokenStart, i));
+      }
+    }
+  }
+
+  private void writeSymbol(String printName) throws IOException {
+    Integer id = symbolIds.get(printName);
+    if (id != null) {
+      writeVarint(id.intValue() + firstSymbolToken);
+      return;
+    }
+    int newId = symbolIds.size();
+    symbolIds.put(printName, Integer.valueOf(newId));
+    writeVarint(newId + firstSymbolToken);
+    byte[] bytes = printName.getBytes("UTF-8");
+    writeVarint(bytes.length);
+    out.write(bytes);
+  }
+
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Writes the head and modifier events of the specified counts table, as
+   * by {@link EventCountsWriter#writeObject(Object)}.
+   *
+   * @param obj a {@link CountsTable} instance whose keys are {@link
+   * TrainerEvent} instances
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void writeObject(Object obj) throws IOException {
+    EventCountsWriter.outputEvents((CountsTable)obj, this);
+    flush();
+  }
+
+  /**
+   * Flushes the underlying stream.
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Closes the underlying stream.
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code>
+   */
+  public void close() throws IOException {
+    out.close();
+  }
+}
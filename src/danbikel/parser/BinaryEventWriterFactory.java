@@ -0,0 +1,40 @@
+package danbikel.parser;
+
+import danbikel.switchboard.*;
+import java.io.*;
+
+/**
+ * A factory for {@link BinaryEventWriter} objects, which the switchboard may
+ * use in place of {@link EventCountsWriterFactory} to write the event counts
+ * produced by its clients in the compact binary format.  Encodings are
+ * ignored, since the binary format always encodes symbols as UTF-8.
+ */
+public class BinaryEventWriterFactory implements ObjectWriterFactory {
+  private final static int minBufSize = 81920;
+
+  /**
+   * Constructs a new <code>BinaryEventWriterFactory</code>.
+   */
+  public BinaryEventWriterFactory() {
+  }
+
+  public ObjectWriter get(OutputStream os,
+			  boolean append, boolean emptyFile)
+    throws IOException {
+    return new BinaryEventWriter(os);
+  }
+
+  public ObjectWriter get(OutputStream os, String encoding, int bufSize,
+			  boolean append, boolean emptyFile)
+    throws IOException {
+    return new BinaryEventWriter(os, Math.max(minBufSize, bufSize));
+  }
+
+  public ObjectWriter get(String filename, String encoding, int bufSize,
+			  boolean append)
+    throws IOException {
+    OutputStream os =
+      BinaryEventWriter.streamForFile(new File(filename), append);
+    return new BinaryEventWriter(os, Math.max(minBufSize, bufSize));
+  }
+}
@@ -102,12 +102,14 @@ public class CKYChart extends Chart {
 
   /**
    * Used by the decoder when it abandons a parse forest for a given sentence
-   * and is about to try again with a larger beam (beam-widening).
+   * and is about to try again with a larger beam (beam-widening).  Any items
+   * kept in the side stores of the spans of this chart are discarded as well.
    *
    * @see Settings#decoderMaxPruneFactor
    * @see Settings#decoderPruneFactorIncrement
    */
   public void clearNonPreterminals() {
+    incremental = false;
     for (int i = 0; i < size; i++) {
       for (int j = i; j < size; j++) {
         if (chart[i][j] == null)
@@ -122,6 +124,7 @@ public class CKYChart extends Chart {
                 it.remove();
             }
             chart[i][j].setTopInfo();
+            chart[i][j].clearPrunedAndAdded();
           }
           else {
             chart[i][j].clear();
@@ -177,6 +180,45 @@ public class CKYChart extends Chart {
       return item.logProb() < topProb - pruneFact;
   }
 
+  /**
+   * Returns the log-probability below which {@link #add(int,int,Item)} would
+   * reject any item in the specified span that is neither a preterminal nor
+   * has received its stop probabilities, given the span's current top-ranked
+   * item.  Since the top log-probability of a span never decreases while the
+   * span is being completed, an item below this threshold cannot be added to
+   * the span at any later time, either.
+   *
+   * @param start the start of the span
+   * @param end the end of the span
+   * @return the log-probability below which unstopped items are pruned from
+   * the specified span, or {@link Double#NEGATIVE_INFINITY} if this chart is
+   * not currently pruning
+   *
+   * @see #outsideBeam(Item,double)
+   */
+  public double unstoppedBeamThreshold(int start, int end) {
+    if (!pruning)
+      return Double.NEGATIVE_INFINITY;
+    double widestBeam = collinsNPPruneHack ? pruneFact + 3 : pruneFact;
+    widestBeam = Math.max(widestBeam, Math.max(smallPruneFact,
+					       smallerPruneFact));
+    return chart[start][end].topLogProb - widestBeam;
+  }
+
+  /**
+   * Returns the narrowest beam applied by {@link #outsideBeam(Item,double)}
+   * to any item, so that an item whose log-probability is no more than this
+   * amount below the top log-probability of its span is never outside the
+   * beam.
+   *
+   * @return the narrowest beam applied to any item
+   *
+   * @see #unstoppedBeamThreshold(int,int)
+   */
+  protected double narrowestBeam() {
+    return Math.min(pruneFact, Math.min(smallPruneFact, smallerPruneFact));
+  }
+
   protected void setUpItemPool() {
     String chartItemClassname = Settings.get(Settings.chartItemClass);
     Class chartItemClass = null;
@@ -189,6 +231,10 @@ public class CKYChart extends Chart {
     itemPool = new ObjectPool(chartItemClass, 50000);
   }
 
+  protected Item copyItem(Item item) {
+    return getNewItem().setDataFrom((CKYItem)item);
+  }
+
   /**
    * Returns a new chart item from the internal pool of reusable items.
    * @return a new chart item from the internal pool of reusable items.
@@ -201,6 +247,11 @@ public class CKYChart extends Chart {
       throw new RuntimeException();
     return newItem;
     */
+    if (concurrent) {
+      synchronized (itemPool) {
+	return (CKYItem)itemPool.get();
+      }
+    }
     return (CKYItem)itemPool.get();
   }
 
@@ -210,7 +261,13 @@ public class CKYChart extends Chart {
 	Item item = (Item)itemObj;
 	item.clear();
       }
-      itemPool.putBackAll(c);
+      if (concurrent) {
+	synchronized (itemPool) {
+	  itemPool.putBackAll(c);
+	}
+      }
+      else
+	itemPool.putBackAll(c);
     }
   }
 
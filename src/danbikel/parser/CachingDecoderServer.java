@@ -313,6 +313,49 @@ public class CachingDecoderServer implements DecoderServerRemote {
     }
   }
 
+  /**
+   * Looks up each of the specified events in this object's cache, and
+   * requests the probabilities of all events not found there from the
+   * underlying stub with a single invocation of its
+   * {@link DecoderServerRemote#logProbMod(int,TrainerEvent[],int)} method.
+   */
+  public double[] logProbMod(int id, TrainerEvent[] events, int numEvents)
+    throws RemoteException {
+    double[] logProbs = new double[numEvents];
+    int[] missIndices = null;
+    TrainerEvent[] misses = null;
+    int numMisses = 0;
+    for (int i = 0; i < numEvents; i++) {
+      numAccesses++;
+      MapToPrimitive.Entry entry = cache.getEntry(events[i]);
+      if (entry == null) {
+	if (misses == null) {
+	  missIndices = new int[numEvents - i];
+	  misses = new TrainerEvent[numEvents - i];
+	}
+	missIndices[numMisses] = i;
+	misses[numMisses++] = events[i];
+      }
+      else {
+	numHits++;
+	logProbs[i] = entry.getDoubleValue();
+      }
+    }
+    if (numMisses > 0) {
+      double[] missLogProbs = stub.logProbMod(id, misses, numMisses);
+      for (int i = 0; i < numMisses; i++) {
+	logProbs[missIndices[i]] = missLogProbs[i];
+	putInCache(misses[i], missLogProbs[i]);
+      }
+    }
+    return logProbs;
+  }
+
+  public double logProbWordUpperBound(int id, Word word)
+    throws RemoteException {
+    return stub.logProbWordUpperBound(id, word);
+  }
+
   public double logProbModNT(int id, TrainerEvent event) throws RemoteException {
     numAccesses++;
     MapToPrimitive.Entry entry = cache.getEntry(event);
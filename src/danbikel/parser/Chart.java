@@ -44,15 +44,30 @@ public abstract class Chart implements Serializable {
     MapToPrimitive map;
     Item topItem;
     double topLogProb;
+    // the items pruned from this span, when the chart is keeping pruned items
+    List pruned;
+    // the (equivalence classes of) items added to this span during the
+    // current incremental pass
+    Set added;
 
     Entry() {
-      map = new HashMapDouble();
+      this(new HashMapDouble());
+    }
+    Entry(MapToPrimitive map) {
+      this.map = map;
       topLogProb = Constants.logOfZero;
     }
     void clear() {
       map.clear();
       topItem = null;
       topLogProb = Constants.logOfZero;
+      clearPrunedAndAdded();
+    }
+    void clearPrunedAndAdded() {
+      if (pruned != null)
+	pruned.clear();
+      if (added != null)
+	added.clear();
     }
     void setTopInfo() {
       // go through all items and set topItem and topLogProb data members
@@ -140,6 +155,18 @@ public abstract class Chart implements Serializable {
   private Item[] sortedArr = new Item[1000];
   private int numSorted = 0;
 
+  /**
+   * Indicates whether different cells of this chart may be filled
+   * concurrently by different threads.  When <code>true</code>, access to
+   * {@link #itemPool} and to the item counts of this chart is synchronized,
+   * and {@link #prune(int,int)} uses no shared temporary storage.  Each cell
+   * must still be filled by at most one thread at a time.
+   *
+   * @see #setConcurrent(boolean)
+   * @see Settings#decoderNumSpanThreads
+   */
+  protected boolean concurrent = false;
+
   /**
    * Indicates whether the chart is currently doing any pruning.
    *
@@ -148,6 +175,22 @@ public abstract class Chart implements Serializable {
    */
   protected boolean pruning = true;
 
+  /**
+   * Indicates whether items pruned from a span are kept in a side store
+   * for that span instead of being reclaimed, so that they may be revived
+   * by {@link #revivePrunedItems(int,int)} when the beam is widened.
+   *
+   * @see #setKeepPruned(boolean)
+   * @see Settings#decoderIncrementalBeamWidening
+   */
+  protected boolean keepPruned = false;
+
+  /**
+   * Indicates whether this chart is keeping track of the items added to each
+   * span since the last invocation of {@link #beginIncrementalPass()}.
+   */
+  protected boolean incremental = false;
+
   /**
    * Constructs a new chart with the default chart size.  This instructor
    * will be called, often implicitly, by the constructor of a subclass.
@@ -234,6 +277,7 @@ public abstract class Chart implements Serializable {
    */
   public void clear() {
     totalItems = 0;
+    incremental = false;
     if (debugNumItemsGenerated) {
       totalItemsGenerated = 0;
     }
@@ -353,9 +397,12 @@ public abstract class Chart implements Serializable {
 	  if (debugNumPrunedItems) {
 	    numPruned++;
 	  }
-	  totalItems--;
+	  addToTotalItems(-1);
 	  it.remove();
-	  reclaimItem(currItem);
+	  if (keepPruned)
+	    storePrunedItem(start, end, currItem);
+	  else
+	    reclaimItem(currItem);
 	}
 	/*
 	else
@@ -364,32 +411,46 @@ public abstract class Chart implements Serializable {
       }
     }
     if (cellLimit > 0) {
-      cellLimit = Math.max(10, Math.min(90, 350 / (end + 1 - start)));
+      int spanCellLimit = Math.max(10, Math.min(90, 350 / (end + 1 - start)));
       if (end > start) { // don't do cell limiting on spans of length 1
 	int numItems = items.size();
-	if (numItems > cellLimit) { // don't create iterator if no need
-	  // reset sortedArr and numSorted
-	  if (numItems > sortedArr.length) {
-	    int newLen = Math.max(sortedArr.length * 2, numItems);
-	    sortedArr = new Item[newLen];
+	if (numItems > spanCellLimit) { // don't create iterator if no need
+	  Item[] sortedArr;
+	  if (concurrent) {
+	    // when cells are filled concurrently, we cannot share sortedArr
+	    sortedArr = new Item[numItems];
 	  }
 	  else {
-	    for (int i = 0; i < numSorted; i++)
-	      sortedArr[i] = null;
+	    // reset sortedArr and numSorted
+	    if (numItems > this.sortedArr.length) {
+	      int newLen = Math.max(this.sortedArr.length * 2, numItems);
+	      this.sortedArr = new Item[newLen];
+	    }
+	    else {
+	      for (int i = 0; i < this.numSorted; i++)
+		this.sortedArr[i] = null;
+	    }
+	    sortedArr = this.sortedArr;
 	  }
-	  numSorted = 0;
+	  int numSorted = 0;
 	  Iterator itemsIt = items.keySet().iterator();
 	  while (itemsIt.hasNext()) {
 	    Item item = (Item)itemsIt.next();
 	    sortedArr[numSorted++] = item;
 	  }
+	  if (!concurrent)
+	    this.numSorted = numSorted;
 	  items.clear();
 	  Arrays.sort(sortedArr, 0, numSorted);
 	  int sortedIdx = numSorted - 1;
-	  for (int counter = 0; counter < cellLimit; counter++, sortedIdx--)
+	  for (int counter = 0; counter < spanCellLimit; counter++, sortedIdx--)
 	    items.put(sortedArr[sortedIdx], sortedArr[sortedIdx].logProb());
-	  for ( ; sortedIdx >= 0; sortedIdx--)
-	    reclaimItem(sortedArr[sortedIdx]);
+	  for ( ; sortedIdx >= 0; sortedIdx--) {
+	    if (keepPruned)
+	      storePrunedItem(start, end, sortedArr[sortedIdx]);
+	    else
+	      reclaimItem(sortedArr[sortedIdx]);
+	  }
 	  /*
 	  // add all items that are eligible for limiting to sortedArr
 	  Iterator itemsIt = items.keySet().iterator();
@@ -509,13 +570,15 @@ public abstract class Chart implements Serializable {
 	}
 	// if we removed an old item, there's no net gain in number of items
 	if (!removedOldItem) {
-	  totalItems++;
+	  addToTotalItems(1);
 	}
 	// update top prob
 	if (item.logProb() > chart[start][end].topLogProb) {
 	  chart[start][end].topLogProb = item.logProb();
 	  chart[start][end].topItem = item;
 	}
+	if (incremental)
+	  chart[start][end].added.add(item);
       }
 
       if (itemExists) {
@@ -569,6 +632,8 @@ public abstract class Chart implements Serializable {
       // item's logProb already below threshold, so *caller* should reclaim the
       // item
       //reclaimItem(item);
+      if (keepPruned)
+	storePrunedItem(start, end, copyItem(item));
     }
     if (debugAddToChart) {
       if (added)
@@ -653,6 +718,244 @@ public abstract class Chart implements Serializable {
     */
   }
 
+  /**
+   * Returns an array whose first
+   * {@link #numItems(int,int) numItems(start,&nbsp;end)} elements are the
+   * chart items covering the specified span, allowing callers to iterate
+   * over a span&rsquo;s items by index.  The returned array is for read-only
+   * access.  This default implementation copies the items into the
+   * specified array if it is large enough, or into a new array otherwise,
+   * as per {@link Collection#toArray(Object[])}.  Subclasses that store the
+   * items of each span contiguously may instead return their own storage, in
+   * which case the returned array is only valid until the items of the
+   * span are next modified.
+   *
+   * @param start the start index of the span for which to get all items
+   * @param end the end index of the span for which to get all items
+   * @param arr the array into which to copy the items, if it is large enough
+   * @return an array containing the chart items covering the specified span
+   *
+   * @see ArrayCKYChart
+   */
+  public Item[] getItems(int start, int end, Item[] arr) {
+    return (Item[])chart[start][end].map.keySet().toArray(arr);
+  }
+
+  /**
+   * Returns a collection view of the chart items covering the specified span.
+   *
+   * @param start the start index of the span
+   * @param end the end index of the span
+   * @return a collection view of the chart items covering the specified span
+   */
+  protected Collection itemCollection(int start, int end) {
+    return chart[start][end].map.keySet();
+  }
+
+  /**
+   * Returns the item covering the specified span that is equivalent to the
+   * specified item, or <code>null</code> if there is no such item.
+   *
+   * @param start the start index of the span
+   * @param end the end index of the span
+   * @param item the item whose equivalent item is to be found
+   * @return the item covering the specified span that is equivalent to the
+   * specified item, or <code>null</code>
+   */
+  protected Item getEquivalentItem(int start, int end, Item item) {
+    MapToPrimitive.Entry entry = chart[start][end].map.getEntry(item);
+    return entry == null ? null : (Item)entry.getKey();
+  }
+
+  /**
+   * Sets whether items pruned from a span, either because they were outside
+   * the beam when they were {@linkplain #add(int,int,Item) added} or because
+   * they were removed by {@link #prune(int,int)}, are kept in a side store
+   * for that span instead of being reclaimed.  Kept items are reclaimed
+   * along with all other items by {@link #reclaimItemsInChart()}.  This
+   * method should be invoked before the first item of a sentence is added.
+   *
+   * @param keepPruned whether to keep the items pruned from each span
+   *
+   * @see #revivePrunedItems(int,int)
+   */
+  public void setKeepPruned(boolean keepPruned) {
+    this.keepPruned = keepPruned;
+  }
+
+  /**
+   * Returns whether this chart keeps the items pruned from each span.
+   *
+   * @return whether this chart keeps the items pruned from each span
+   *
+   * @see #setKeepPruned(boolean)
+   */
+  public boolean keepsPruned() {
+    return keepPruned;
+  }
+
+  /**
+   * Adds the specified pruned item to the side store of the specified span.
+   *
+   * @param start the start of the span from which the item was pruned
+   * @param end the end of the span from which the item was pruned
+   * @param item the pruned item
+   */
+  protected void storePrunedItem(int start, int end, Item item) {
+    Entry entry = chart[start][end];
+    if (entry.pruned == null)
+      entry.pruned = new ArrayList();
+    entry.pruned.add(item);
+  }
+
+  /**
+   * Returns a copy of the specified item, taken from this chart's item pool.
+   * This method is used to keep items that were rejected by
+   * {@link #add(int,int,Item)} for being outside the beam, since by
+   * convention the caller reclaims such items.
+   *
+   * @param item the item to be copied
+   * @return a copy of the specified item
+   *
+   * @see #setKeepPruned(boolean)
+   */
+  abstract protected Item copyItem(Item item);
+
+  /**
+   * Begins a new pass over a chart that has already been filled using a
+   * narrower beam.  From now until this chart is cleared, this chart keeps
+   * track of the items added to each span during the current pass, so that a
+   * decoder need only consider the items returned by
+   * {@link #getAdded(int,int)} when combining them with the items of other
+   * spans.
+   *
+   * @see #revivePrunedItems(int,int)
+   */
+  public void beginIncrementalPass() {
+    incremental = true;
+    for (int i = 0; i < size; i++) {
+      for (int j = i; j < size; j++) {
+	Entry entry = chart[i][j];
+	if (entry.added == null)
+	  entry.added = new HashSet();
+	else
+	  entry.added.clear();
+      }
+    }
+  }
+
+  /**
+   * Adds back to the specified span all the items kept in its side store
+   * that fall within the current beam.  Items that are dominated by an
+   * equivalent item already in the span are discarded but not reclaimed,
+   * since an item pruned after its span was completed may still be the
+   * child of an item in a larger span.  The top-ranked item of the span is
+   * recomputed before any items are revived.
+   *
+   * @param start the start of the span whose pruned items are to be revived
+   * @param end the end of the span whose pruned items are to be revived
+   * @return the number of items revived
+   *
+   * @see #setKeepPruned(boolean)
+   */
+  public int revivePrunedItems(int start, int end) {
+    Entry entry = chart[start][end];
+    entry.setTopInfo();
+    List pruned = entry.pruned;
+    if (pruned == null || pruned.size() == 0)
+      return 0;
+    int numRevived = 0, numKept = 0;
+    int numPruned = pruned.size();
+    for (int i = 0; i < numPruned; i++) {
+      Item item = (Item)pruned.get(i);
+      if (toPrune(start, end, item))
+	pruned.set(numKept++, item);
+      else if (add(start, end, item))
+	numRevived++;
+    }
+    // reviving an item can raise the top log prob of the span, in which case
+    // add may have appended copies of later items to the side store
+    for (int i = numPruned; i < pruned.size(); i++)
+      pruned.set(numKept++, pruned.get(i));
+    pruned.subList(numKept, pruned.size()).clear();
+    return numRevived;
+  }
+
+  /**
+   * Returns the number of equivalence classes of items added to the specified
+   * span during the current incremental pass, which is an upper bound on the
+   * number of items returned by {@link #getAdded(int,int)}.
+   *
+   * @param start the start of the span
+   * @param end the end of the span
+   * @return the number of equivalence classes of items added to the
+   * specified span during the current incremental pass, or <tt>0</tt> if
+   * this chart is not currently performing an incremental pass
+   *
+   * @see #beginIncrementalPass()
+   */
+  public int numAdded(int start, int end) {
+    return incremental ? chart[start][end].added.size() : 0;
+  }
+
+  /**
+   * Returns whether the specified item of the specified span is one that was
+   * added during the current incremental pass.
+   *
+   * @param start the start of the span
+   * @param end the end of the span
+   * @param item an item currently in the specified span
+   * @return whether the specified item was added during the current
+   * incremental pass
+   *
+   * @see #beginIncrementalPass()
+   */
+  public boolean wasAdded(int start, int end, Item item) {
+    return incremental && chart[start][end].added.contains(item);
+  }
+
+  /**
+   * Returns a read-only iterator over the items currently in the specified
+   * span that were added during the current incremental pass.
+   *
+   * @param start the start of the span
+   * @param end the end of the span
+   * @return an iterator over the items added to the specified span during
+   * the current incremental pass
+   *
+   * @see #beginIncrementalPass()
+   */
+  public Iterator getAdded(final int start, final int end) {
+    if (!incremental)
+      return Collections.EMPTY_SET.iterator();
+    final Iterator it = chart[start][end].added.iterator();
+    return new Iterator() {
+      Object next = advance();
+      // the added set holds a representative of each equivalence class, so
+      // we look up the item actually in the span, skipping classes whose
+      // items have since been pruned
+      Object advance() {
+	while (it.hasNext()) {
+	  Item item = getEquivalentItem(start, end, (Item)it.next());
+	  if (item != null)
+	    return item;
+	}
+	return null;
+      }
+      public boolean hasNext() { return next != null; }
+      public Object next() {
+	if (next == null)
+	  throw new NoSuchElementException();
+	Object curr = next;
+	next = advance();
+	return curr;
+      }
+      public void remove() {
+	throw new UnsupportedOperationException();
+      }
+    };
+  }
+
   /**
    * Reclaims this chart item.  This method returns the specified item
    * to the object pool of available items.
@@ -660,7 +963,54 @@ public abstract class Chart implements Serializable {
    * @param item the item to be reclaimed
    */
   protected void reclaimItem(Item item) {
-    itemPool.putBack(item.clear());
+    if (concurrent) {
+      synchronized (itemPool) {
+	itemPool.putBack(item.clear());
+      }
+    }
+    else
+      itemPool.putBack(item.clear());
+  }
+
+  /**
+   * Adds the specified amount to {@link #totalItems}, synchronizing the
+   * update if this chart is {@linkplain #concurrent concurrent}.
+   *
+   * @param delta the amount to add to the total number of items
+   */
+  protected final void addToTotalItems(int delta) {
+    if (concurrent) {
+      synchronized (this) {
+	totalItems += delta;
+      }
+    }
+    else
+      totalItems += delta;
+  }
+
+  /**
+   * Sets whether different cells of this chart may be filled concurrently
+   * by different threads.  This method should not be invoked while
+   * any cells of this chart are being filled.
+   *
+   * @param concurrent whether cells of this chart may be filled concurrently
+   *
+   * @see #concurrent
+   */
+  public void setConcurrent(boolean concurrent) {
+    this.concurrent = concurrent;
+  }
+
+  /**
+   * Returns whether different cells of this chart may be filled concurrently
+   * by different threads.
+   *
+   * @return whether different cells of this chart may be filled concurrently
+   *
+   * @see #concurrent
+   */
+  public boolean isConcurrent() {
+    return concurrent;
   }
 
   /**
@@ -701,13 +1051,13 @@ public abstract class Chart implements Serializable {
       }
       for (int i = 0; i < size; i++) {
 	for (int j = i; j < size; j++) {
-	  Map map = chart[i][j].map;
-	  reclaimItemCollection(map.keySet());
+	  Collection items = itemCollection(i, j);
+	  reclaimItemCollection(items);
 	  if (debugCellSize) {
-	    if (map.size() > 0)
+	    if (items.size() > 0)
 	      numCells++;
-	    if (map.size() > maxCellSize) {
-	      maxCellSize = map.size();
+	    if (items.size() > maxCellSize) {
+	      maxCellSize = items.size();
 	      maxCellStart = i;
 	      maxCellEnd = j;
 	    }
@@ -715,6 +1065,17 @@ public abstract class Chart implements Serializable {
 	}
       }
     }
+    if (keepPruned) {
+      for (int i = 0; i < size; i++) {
+	for (int j = i; j < size; j++) {
+	  List pruned = chart[i][j].pruned;
+	  if (pruned != null) {
+	    reclaimItemCollection(pruned);
+	    pruned.clear();
+	  }
+	}
+      }
+    }
     if (debugPoolUsage) {
       System.err.println(className + ": pool has " + itemPool.size() +
 			 " items; capacity = " + itemPool.capacity());
@@ -0,0 +1,209 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+
+/**
+ * A thread-safe cache for storing arbitrary objects with their
+ * probabilities.  This class partitions its keys among a fixed number of
+ * {@link ProbabilityCache} segments, each guarded by its own lock, so that
+ * threads accessing keys in different segments never contend with one
+ * another.  Each segment employs the same replacement strategy, and has an
+ * equal share of the maximum capacity of this cache.
+ * <p>
+ * Lookups must acquire the lock of a key's segment because the
+ * {@link ProbabilityCache#BUCKET_LRU} replacement strategy reorders a
+ * bucket upon every successful lookup.
+ *
+ * @see ProbabilityCache
+ * @see Settings#modelCacheConcurrencyLevel
+ */
+public class ConcurrentProbabilityCache<K> {
+
+  private ProbabilityCache<K>[] segments;
+  private int segmentShift;
+  private int maxCapacity;
+
+  /**
+   * Constructs a <code>ConcurrentProbabilityCache</code> with the specified
+   * maximum capacity, the specified initial capacity, the specified
+   * concurrency level and the default replacement strategy of
+   * {@link ProbabilityCache}.
+   *
+   * @param maxCapacity the maximum number of elements held by this cache
+   * @param initialCapacity the initial capacity of the underlying
+   * hash maps, taken together
+   * @param concurrencyLevel the minimum number of segments into which to
+   * divide this cache (rounded up to the nearest power of two)
+   * @throws IllegalArgumentException if the specified maximum capacity or
+   * concurrency level is zero or negative
+   *
+   * @see ProbabilityCache#BUCKET_LRU
+   */
+  public ConcurrentProbabilityCache(int maxCapacity, int initialCapacity,
+				    int concurrencyLevel) {
+    if (concurrencyLevel <= 0)
+      throw new IllegalArgumentException();
+    int numSegments = 1;
+    int log2NumSegments = 0;
+    while (numSegments < concurrencyLevel) {
+      numSegments <<= 1;
+      log2NumSegments++;
+    }
+    segmentShift = 32 - log2NumSegments;
+    segments = new ProbabilityCache[numSegments];
+    int segmentInitialCapacity = Math.max(1, initialCapacity / numSegments);
+    for (int i = 0; i < numSegments; i++)
+      segments[i] = new ProbabilityCache<K>(1, segmentInitialCapacity);
+    setMaxCapacity(maxCapacity);
+  }
+
+  /**
+   * Returns the segment in which the specified key is stored.  The segment is
+   * chosen using the high-order bits of the key's scrambled hash code, since
+   * the low-order bits determine the bucket within a segment.
+   */
+  private final ProbabilityCache<K> segmentFor(Object key) {
+    if (segments.length == 1)
+      return segments[0];
+    int h = key.hashCode() * 0x9e3779b9;
+    return segments[h >>> segmentShift];
+  }
+
+  /**
+   * Sets the strategy for replacement when the size limit of a segment of
+   * this cache has been reached.
+   *
+   * @param strategy the integer id for the caching strategy to set for this
+   *                 cache
+   * @return this probability cache object
+   *
+   * @see ProbabilityCache#setStrategy(int)
+   */
+  public ConcurrentProbabilityCache setStrategy(int strategy) {
+    for (int i = 0; i < segments.length; i++) {
+      synchronized (segments[i]) {
+	segments[i].setStrategy(strategy);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Sets the maximum capacity for this cache, dividing it equally among this
+   * cache's segments.
+   *
+   * @param maxCapacity the new maximum capacity of this cache
+   * @throws IllegalArgumentException if the specified maximum capacity
+   * is zero or negative
+   */
+  public void setMaxCapacity(int maxCapacity) {
+    if (maxCapacity <= 0)
+      throw new IllegalArgumentException();
+    this.maxCapacity = maxCapacity;
+    int segmentMaxCapacity = Math.max(1, maxCapacity / segments.length);
+    for (int i = 0; i < segments.length; i++) {
+      synchronized (segments[i]) {
+	segments[i].setMaxCapacity(segmentMaxCapacity);
+      }
+    }
+  }
+
+  /**
+   * Adds the specified key with the specified probability to this cache,
+   * possibly removing other elements from the key's segment according to the
+   * replacement strategy.
+   *
+   * @param key the key to add to this cache
+   * @param probability the probability of the specified key to be cached
+   * @return the old probability of the specified key, or {@link Double#NaN}
+   * if the key did not exist in this cache
+   *
+   * @see ProbabilityCache#put(Object,double)
+   */
+  public double put(K key, double probability) {
+    ProbabilityCache<K> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.put(key, probability);
+    }
+  }
+
+  /**
+   * Returns the entry containing the probability of the specified key, or
+   * <code>null</code> if the specified key is not in this cache.
+   *
+   * @param key the key to look up in this cache
+   * @return the entry containing the probability of the specified key, or
+   * <code>null</code> if it is not in this cache
+   *
+   * @see ProbabilityCache#getProb(Object)
+   */
+  public MapToPrimitive.Entry getProb(K key) {
+    ProbabilityCache<K> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.getProb(key);
+    }
+  }
+
+  /**
+   * Returns whether the specified key is in this cache.
+   *
+   * @param key the key to look up in this cache
+   * @return whether the specified key is in this cache
+   */
+  public boolean containsKey(Object key) {
+    ProbabilityCache<K> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.containsKey(key);
+    }
+  }
+
+  /**
+   * Returns the number of elements in this cache.  The returned value is
+   * exact only if no other thread is concurrently modifying this cache.
+   *
+   * @return the number of elements in this cache
+   */
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < segments.length; i++) {
+      synchronized (segments[i]) {
+	size += segments[i].size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Removes all elements from this cache.
+   */
+  public void clear() {
+    for (int i = 0; i < segments.length; i++) {
+      synchronized (segments[i]) {
+	segments[i].clear();
+      }
+    }
+  }
+
+  /**
+   * Returns a human-readable string of statistics for this cache, consisting
+   * of its number of segments followed by the statistics of its largest
+   * segment.
+   *
+   * @return a human-readable string of statistics for this cache
+   *
+   * @see HashMapPrimitive#getStats()
+   */
+  public String getStats() {
+    ProbabilityCache<K> largest = segments[0];
+    for (int i = 1; i < segments.length; i++)
+      if (segments[i].size() > largest.size())
+	largest = segments[i];
+    String largestStats;
+    synchronized (largest) {
+      largestStats = largest.getStats();
+    }
+    return "size: " + size() + "; max. capacity: " + maxCapacity +
+	   "; No. of segments: " + segments.length +
+	   ";\n\tlargest segment: " + largestStats;
+  }
+}
@@ -8,12 +8,18 @@ import danbikel.parser.util.Util;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.rmi.*;
 
 /**
  * Provides the methods necessary to perform CKY parsing on input sentences.
  */
-public class Decoder implements Serializable, Settings.Change {
+public class Decoder implements Serializable, Settings.Change, Cloneable {
 
   // inner class for decoding timeouts
   /**
@@ -466,6 +472,67 @@ decod   * @see DecoderServerRemote#prunedPreterms()
   // data members used by joinItems
   /** A (currently unused) reusable lookup object. */
   protected Subcat lookupSubcat = Subcats.get();
+  // data members used by joinItems when batching modifier probability lookups
+  /** The boolean value of the {@link Settings#decoderBatchModProbs} setting. */
+  protected boolean batchModProbs =
+    Settings.getBoolean(Settings.decoderBatchModProbs);
+  /** The number of joins deferred by {@link #addPendingJoin}. */
+  protected int numPendingJoins = 0;
+  /** The modificands of the joins deferred by {@link #addPendingJoin}. */
+  protected CKYItem[] pendingModificands = new CKYItem[64];
+  /** The modifiers of the joins deferred by {@link #addPendingJoin}. */
+  protected CKYItem[] pendingModifiers = new CKYItem[64];
+  /** The sides of the joins deferred by {@link #addPendingJoin}. */
+  protected boolean[] pendingSides = new boolean[64];
+  /**
+   * The modifier events of the joins deferred by {@link #addPendingJoin},
+   * whose probabilities are looked up by {@link #joinPendingItems()}.
+   */
+  protected TrainerEvent[] pendingModEvents = new TrainerEvent[64];
+  // data members used by joinLazily
+  /** The boolean value of the {@link Settings#decoderLazyJoin} setting. */
+  protected boolean lazyJoin = Settings.getBoolean(Settings.decoderLazyJoin);
+  /** A reusable array of the modifiers to be joined by {@link #joinLazily}. */
+  protected CKYItem[] lazyModifiers = new CKYItem[64];
+  /** A reusable array of the modificands to be joined by {@link #joinLazily}. */
+  protected CKYItem[] lazyModificands = new CKYItem[64];
+  /** The priority queue of candidate joins used by {@link #joinLazily}. */
+  protected JoinQueue lazyJoinQueue = new JoinQueue();
+  // data members used by joinExhaustively
+  /**
+   * A reusable array into which {@link #joinExhaustively} has the chart copy
+   * the modifiers to be joined, if the chart does not store them
+   * contiguously.
+   */
+  protected Item[] cellModifiers = new Item[64];
+  /**
+   * A reusable array into which {@link #joinExhaustively} has the chart copy
+   * the modificands to be joined, if the chart does not store them
+   * contiguously.
+   */
+  protected Item[] cellModificands = new Item[64];
+  /**
+   * A reusable array of the modificands added during the current
+   * incremental iteration of beam widening, used by
+   * {@link #joinExhaustively}.
+   */
+  protected Item[] addedModificands = new Item[64];
+  // data members used for incremental beam widening
+  /**
+   * The boolean value of the {@link Settings#decoderIncrementalBeamWidening}
+   * setting.
+   */
+  protected boolean incrementalBeamWidening =
+    Settings.getBoolean(Settings.decoderIncrementalBeamWidening);
+  /**
+   * Indicates whether the current iteration of beam widening is reusing the
+   * chart of the previous iteration, in which case {@link #complete(int,int)}
+   * only attempts the joins involving items added during the current
+   * iteration.
+   *
+   * @see Chart#beginIncrementalPass()
+   */
+  protected boolean incrementalPass = false;
   // data members used by futurePossible (when using simpleModNonterminalMap)
   /**
    * A reusable object used for constructing parent-head-side triples when
@@ -554,6 +621,31 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     Settings.getBoolean(Settings.decoderDontPostProcess) ||
     Settings.getBoolean(Settings.decoderOutputInsideProbs);
 
+  // data members used for span-parallel decoding
+  /**
+   * The difference between the client ID of this decoder and that of each of
+   * its successive span workers, so that each worker uses its own
+   * probability structures in the decoder server.
+   *
+   * @see #newSpanWorker(int)
+   */
+  protected final static int spanWorkerIdStride = 1 << 20;
+  /** The integer value of the {@link Settings#decoderNumSpanThreads} setting. */
+  protected int numSpanThreads =
+    Math.max(1, Settings.getInteger(Settings.decoderNumSpanThreads));
+  /**
+   * The thread pool used to complete the cells of a span in parallel, created
+   * lazily by {@link #setUpSpanWorkers()}.
+   */
+  protected transient ForkJoinPool spanPool;
+  /**
+   * The decoders used to complete the cells of a span in parallel, each of
+   * which shares this decoder's chart but has its own lookup objects.
+   *
+   * @see #newSpanWorker(int)
+   */
+  protected transient Decoder[] spanWorkers;
+
   // data members used when debugSentenceSize is true
   private float avgSentLen = 0.0f;
   private int numSents = 0;
@@ -581,9 +673,21 @@ decod   * @see DecoderServerRemote#prunedPreterms()
       wrapCachingServer();
     }
     constructorHelper(server);
+    setUpCanonicalPrevModLists();
     Settings.register(this);
   }
 
+  /**
+   * Replaces {@link #canonicalPrevModLists} with a concurrent map, keeping
+   * its contents, if {@link #numSpanThreads} is greater than <tt>1</tt>, so
+   * that span workers may add to it concurrently.
+   */
+  private void setUpCanonicalPrevModLists() {
+    if (numSpanThreads > 1 &&
+	!(canonicalPrevModLists instanceof ConcurrentHashMap))
+      canonicalPrevModLists = new ConcurrentHashMap(canonicalPrevModLists);
+  }
+
   private void constructorHelper(DecoderServerRemote server) {
     try {
       this.posMap = server.posMap();
@@ -613,13 +717,29 @@ decod   * @see DecoderServerRemote#prunedPreterms()
       if (sampleSubcat instanceof BrokenSubcatBag)
 	BrokenSubcatBag.setUpFastUidMap(nonterminalTable);
       Language.training().setUpFastArgMap(nonterminalTable);
+      // frozen maps are immutable and already converted, so they are shared
+      // instead of copied (see ModelCollection.freezeDecoderMaps)
       if (useHeadToParentMap) {
-	this.headToParentMap = new HashMap(server.headToParentMap());
-	convertHeadToParentMap();
+	Map serverHeadToParentMap = server.headToParentMap();
+	if (serverHeadToParentMap instanceof FrozenMap)
+	  this.headToParentMap = serverHeadToParentMap;
+	else {
+	  this.headToParentMap = new HashMap(serverHeadToParentMap);
+	  convertHeadToParentMap();
+	}
+      }
+      Map serverLeftSubcatMap = server.leftSubcatMap();
+      Map serverRightSubcatMap = server.rightSubcatMap();
+      if (serverLeftSubcatMap instanceof FrozenMap &&
+	  serverRightSubcatMap instanceof FrozenMap) {
+	this.leftSubcatMap = serverLeftSubcatMap;
+	this.rightSubcatMap = serverRightSubcatMap;
+      }
+      else {
+	this.leftSubcatMap = new HashMap(serverLeftSubcatMap);
+	this.rightSubcatMap = new HashMap(serverRightSubcatMap);
+	convertSubcatMaps();
       }
-      this.leftSubcatMap = new HashMap(server.leftSubcatMap());
-      this.rightSubcatMap = new HashMap(server.rightSubcatMap());
-      convertSubcatMaps();
       this.leftSubcatPS = server.leftSubcatProbStructure().copy();
       this.rightSubcatPS = server.rightSubcatProbStructure().copy();
       this.modNonterminalMap = server.modNonterminalMap();
@@ -672,7 +792,9 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     }
     useCommaConstraint =Settings.getBoolean(Settings.decoderUseCommaConstraint);
 
-    chart = new CKYChart(cellLimit, pruneFact);
+    chart = (Settings.getBoolean(Settings.decoderUseArrayChart) ?
+	     new ArrayCKYChart(cellLimit, pruneFact) :
+	     new CKYChart(cellLimit, pruneFact));
 
     if (!usePruneFact)
       chart.dontDoPruning();
@@ -1236,6 +1358,66 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     initialize(sentence, null);
   }
 
+  /**
+   * Returns a new chart item in which the probability of producing the
+   * derivation of the specified item given {@link Training#topSym()} has been
+   * multiplied to the item's score, or <code>null</code> if the derivation
+   * cannot be produced from the hidden root nonterminal.  This method is used
+   * by {@link #addTopUnaries(int)}.
+   *
+   * @param item a chart item that has received its stop probabilities and
+   * that spans the entire sentence
+   * @param end the index of the last word of the sentence being parsed
+   * @return a new chart item whose label is {@link Training#topSym()} and
+   * whose head child is the specified item, or <code>null</code>
+   * @throws RemoteException if the underlying {@link DecoderServerRemote}
+   * object throws a <code>RemoteException</code>
+   */
+  protected CKYItem getTopUnaryItem(CKYItem item, int end)
+    throws RemoteException {
+    HeadEvent headEvent = lookupHeadEvent;
+    headEvent.set(item.headWord(), topSym, (Symbol)item.label(),
+		  emptySubcat, emptySubcat);
+    double topLogProb = server.logProbTop(id, headEvent);
+    if (topLogProb <= logOfZero) {
+      if (hardConstraints)
+	return null;
+      else
+	topLogProb = Constants.logProbSmall;
+    }
+    double logProb = item.logTreeProb() + topLogProb;
+
+    if (debugTop)
+      System.err.println(className +
+			 ": item=" + item + "; topLogProb=" + topLogProb +
+			 "; item.logTreeProb()=" + item.logTreeProb() +
+			 "; logProb=" + logProb);
+
+    if (findAtLeastOneSatisfyingConstraint) {
+      if (debugConstraints)
+	System.err.println(className +
+			   ": sentence-spanning item has constraint " +
+			   item.getConstraint());
+    }
+    if (isomorphicTreeConstraints) {
+      Constraint parent = item.getConstraint().getParent();
+      if (debugConstraints)
+	System.err.println(className + ": parent constraint is " + parent);
+      if (!(parent == null || parent == constraints.root()))
+	return null;
+    }
+
+    CKYItem newItem = chart.getNewItem();
+    newItem.set(topSym, item.headWord(),
+		emptySubcat, emptySubcat, item,
+		null, null, startList, startList, 0, end,
+		false, false, true, logProb, Constants.logProbCertain,
+		logProb);
+
+    newItem.hasAntecedent(item);
+    return newItem;
+  }
+
   /**
    * Initializes the chart for parsing the specified sentence, using the
    * specified coordinated list of part-of-speech tags when assigning parts
@@ -1419,6 +1601,12 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 	System.err.println(className + ": constraints: " + constraints);
     }
 
+    // the chart of one iteration of beam widening can only be reused by the
+    // next when the same joins are possible at every iteration
+    chart.setKeepPruned(incrementalBeamWidening && !lazyJoin &&
+			!findAtLeastOneSatisfyingConstraint &&
+			maxPruneFact > pruneFact);
+    incrementalPass = false;
     chart.setSizeAndClear(sentence.length());
     initialize(sentence, tags);
 
@@ -1453,6 +1641,15 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 
     hardConstraints = true;
     chart.dontRelax();
+    boolean completedPrevIteration = false;
+
+    // constraints are mutated as they are satisfied, so sentences with
+    // constraints are always decoded serially
+    boolean parallel =
+      numSpanThreads > 1 && !findAtLeastOneSatisfyingConstraint;
+    chart.setConcurrent(parallel);
+    if (parallel)
+      setUpSpanWorkers();
 
     // BEGIN BEAM-WIDENING CODE
     for (int iteration = 1;
@@ -1485,24 +1682,28 @@ decod   * @see DecoderServerRemote#prunedPreterms()
                            (currPruneFact / Math.log(10)));
       chart.setPruneFactor(currPruneFact);
       if (iteration > 1) {
-        chart.clearNonPreterminals();
-        for (int i = 0; i < sentLen; i++)
-          addUnariesAndStopProbs(i,i);
+	incrementalPass =
+	  chart.keepsPruned() && hardConstraints && completedPrevIteration;
+	if (incrementalPass) {
+	  chart.beginIncrementalPass();
+	  for (int i = 0; i < sentLen; i++) {
+	    chart.revivePrunedItems(i, i);
+	    addUnariesAndStopProbs(i,i);
+	  }
+	}
+	else {
+	  chart.clearNonPreterminals();
+	  for (int i = 0; i < sentLen; i++)
+	    addUnariesAndStopProbs(i,i);
+	}
       }
     // END BEAM-WIDENING CODE
+    if (parallel)
+      copyStateToSpanWorkers();
+    completedPrevIteration = false;
     try {
-      for (int span = 2; span <= sentLen; span++) {
-        if (debugSpans)
-          System.err.println(className + ": span: " + span);
-        int split = sentLen - span + 1;
-        for (int start = 0; start < split; start++) {
-          int end = start + span - 1;
-          if (debugSpans)
-            System.err.println(className + ": start: " + start +
-                               "; end: " + end);
-          complete(start, end);
-        }
-      }
+      completeChart(parallel);
+      completedPrevIteration = true;
     }
     catch (TimeoutException te) {
       if (debugMaxParseTime) {
@@ -1659,6 +1860,232 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     }
   }
 
+  /**
+   * Fills the chart for the current sentence, whose single-word spans have
+   * already been initialized, by completing the cells of every span in order
+   * of increasing span length.  This method is invoked once per iteration
+   * of beam widening by {@link #parse(SexpList,SexpList,ConstraintSet)},
+   * which subsequently adds the probabilities of generating the items
+   * covering the entire sentence from the hidden root nonterminal.
+   *
+   * @param parallel whether to complete the cells of each span in parallel
+   * @throws RemoteException if any calls to the underlying
+   * {@link DecoderServerRemote} object throw a <code>RemoteException</code>
+   * @throws TimeoutException if the value of {@link Settings#maxParseTime}
+   * is greater than zero and has been reached while parsing
+   *
+   * @see #complete(int,int)
+   * @see #completeInParallel(int,int)
+   */
+  protected void completeChart(boolean parallel)
+    throws RemoteException, TimeoutException {
+    for (int span = 2; span <= sentLen; span++) {
+      if (debugSpans)
+	System.err.println(className + ": span: " + span);
+      int split = sentLen - span + 1;
+      if (parallel && split > 1) {
+	completeInParallel(span, split);
+	continue;
+      }
+      for (int start = 0; start < split; start++) {
+	int end = start + span - 1;
+	if (debugSpans)
+	  System.err.println(className + ": start: " + start +
+			     "; end: " + end);
+	complete(start, end);
+      }
+    }
+  }
+
+  /**
+   * Creates the thread pool and span workers used by
+   * {@link #completeInParallel(int,int)}, if they have not already been
+   * created.
+   *
+   * @see Settings#decoderNumSpanThreads
+   */
+  protected void setUpSpanWorkers() {
+    if (spanWorkers != null)
+      return;
+    spanPool = new ForkJoinPool(numSpanThreads);
+    spanWorkers = new Decoder[numSpanThreads];
+    for (int i = 0; i < numSpanThreads; i++)
+      spanWorkers[i] = newSpanWorker(i);
+  }
+
+  /**
+   * Returns a new span worker, which is a shallow copy of this decoder that
+   * shares its chart, read-only maps and decoder server, but that has its
+   * own reusable lookup objects and its own copies of this decoder&rsquo;s
+   * probability structures.  The worker uses the client ID
+   * <code>id&nbsp;+&nbsp;(workerIdx&nbsp;+&nbsp;1)&nbsp;*&nbsp;{@link
+   * #spanWorkerIdStride}</code>, so that the decoder server does not share
+   * any of its own lookup state between workers.  If this decoder uses a
+   * local probability cache, the worker gets its own cache wrapping the same
+   * underlying server.
+   *
+   * @param workerIdx the index of the worker to be created
+   * @return a new span worker for this decoder
+   *
+   * @see #completeInParallel(int,int)
+   */
+  protected Decoder newSpanWorker(int workerIdx) {
+    Decoder worker;
+    try {
+      worker = (Decoder)super.clone();
+    }
+    catch (CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse.toString());
+    }
+    worker.id = id + (workerIdx + 1) * spanWorkerIdStride;
+    if (server instanceof CachingDecoderServer)
+      worker.server =
+	new CachingDecoderServer(((CachingDecoderServer)server).stub);
+    worker.spanPool = null;
+    worker.spanWorkers = null;
+
+    worker.leftSubcatPS = leftSubcatPS.copy();
+    worker.rightSubcatPS = rightSubcatPS.copy();
+    worker.modNonterminalPS = modNonterminalPS.copy();
+
+    worker.prevItemsAdded = new ArrayList();
+    worker.currItemsAdded = new ArrayList();
+    worker.topProbItemsToAdd = new ArrayList();
+    worker.unaryItemsToAdd = new ArrayList();
+    worker.stopProbItemsToAdd = new ArrayList();
+    worker.lookupPriorEvent = new PriorEvent(null, null);
+    worker.lookupHeadEvent =
+      new HeadEvent(null, null, null, emptySubcat, emptySubcat);
+    worker.lookupModEvent =
+      new ModifierEvent(null, null, null, SexpList.emptyList, null, null, null,
+			emptySubcat, false, false);
+    worker.lookupLeftStopEvent =
+      new ModifierEvent(null, null, null, SexpList.emptyList, null, null, null,
+			emptySubcat, false, false);
+    worker.lookupRightStopEvent =
+      new ModifierEvent(null, null, null, SexpList.emptyList, null, null, null,
+			emptySubcat, false, false);
+    worker.lookupWord = Words.get(null, null, null);
+    worker.tmpChildrenList = new SLNode(null, null);
+    worker.prevModLookupList = new SexpList(numPrevMods);
+    worker.prevModWordLeftLookupList = WordListFactory.newList(numPrevMods);
+    worker.prevModWordRightLookupList = WordListFactory.newList(numPrevMods);
+    worker.lookupSubcat = Subcats.get();
+    worker.numPendingJoins = 0;
+    worker.pendingModificands = new CKYItem[pendingModificands.length];
+    worker.pendingModifiers = new CKYItem[pendingModifiers.length];
+    worker.pendingSides = new boolean[pendingSides.length];
+    worker.pendingModEvents = new TrainerEvent[pendingModEvents.length];
+    worker.lazyModifiers = new CKYItem[lazyModifiers.length];
+    worker.lazyModificands = new CKYItem[lazyModificands.length];
+    worker.lazyJoinQueue = new JoinQueue();
+    worker.cellModifiers = new Item[cellModifiers.length];
+    worker.cellModificands = new Item[cellModificands.length];
+    worker.addedModificands = new Item[addedModificands.length];
+    worker.parentHeadSideLookupList =
+      new SexpList(3).add(null).add(null).add(null);
+    worker.partiallyLexedModLookupList =
+      new SexpList(2).add(null).add(null);
+    return worker;
+  }
+
+  /**
+   * Copies the state pertaining to the current sentence and the current
+   * iteration of beam widening from this decoder to each of its span workers.
+   */
+  protected void copyStateToSpanWorkers() {
+    for (int i = 0; i < spanWorkers.length; i++) {
+      Decoder worker = spanWorkers[i];
+      worker.sentenceIdx = sentenceIdx;
+      worker.sentence = sentence;
+      worker.sentLen = sentLen;
+      worker.constraints = constraints;
+      worker.findAtLeastOneSatisfyingConstraint =
+	findAtLeastOneSatisfyingConstraint;
+      worker.isomorphicTreeConstraints = isomorphicTreeConstraints;
+      worker.hardConstraints = hardConstraints;
+      worker.incrementalPass = incrementalPass;
+      worker.commaForPruning = commaForPruning;
+      worker.conjForPruning = conjForPruning;
+    }
+  }
+
+  /**
+   * Completes all the chart cells for spans of the specified length using
+   * this decoder&rsquo;s span workers.  Each cell of a given span depends
+   * only on cells of shorter spans, and so the cells may be completed in any
+   * order.  Each worker repeatedly claims the next uncompleted cell and
+   * invokes {@link #complete(int,int)} on it.
+   *
+   * @param span  the length of the spans whose cells are to be completed
+   * @param split the number of cells for spans of the specified length
+   * @throws RemoteException if a worker&rsquo;s invocation of a method of the
+   *                         decoder server throws a
+   *                         <code>RemoteException</code>
+   * @throws TimeoutException if the value of {@link Settings#maxParseTime}
+   *                          is greater than zero and has been reached
+   *                          while parsing
+   *
+   * @see Settings#decoderNumSpanThreads
+   */
+  protected void completeInParallel(final int span, final int split)
+    throws RemoteException, TimeoutException {
+    final AtomicInteger nextStart = new AtomicInteger(0);
+    int numTasks = Math.min(spanWorkers.length, split);
+    List tasks = new ArrayList(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      final Decoder worker = spanWorkers[i];
+      tasks.add(new Callable() {
+	public Object call() throws Exception {
+	  for (int start = nextStart.getAndIncrement(); start < split;
+	       start = nextStart.getAndIncrement()) {
+	    int end = start + span - 1;
+	    if (debugSpans)
+	      System.err.println(className + ": start: " + start +
+				 "; end: " + end);
+	    worker.complete(start, end);
+	  }
+	  return null;
+	}
+      });
+    }
+    List futures = spanPool.invokeAll(tasks);
+    for (int i = 0; i < numTasks; i++) {
+      try {
+	((Future)futures.get(i)).get();
+      }
+      catch (InterruptedException ie) {
+	throw new RuntimeException(ie.toString());
+      }
+      catch (ExecutionException ee) {
+	Throwable cause = ee.getCause();
+	if (cause instanceof TimeoutException)
+	  throw (TimeoutException)cause;
+	if (cause instanceof RemoteException)
+	  throw (RemoteException)cause;
+	if (cause instanceof RuntimeException)
+	  throw (RuntimeException)cause;
+	if (cause instanceof Error)
+	  throw (Error)cause;
+	throw new RuntimeException(cause.toString());
+      }
+    }
+  }
+
+  /**
+   * Shuts down the thread pool used for span-parallel decoding and discards
+   * all span workers.  This method must be invoked when a decoder that may
+   * have decoded with more than one span thread is discarded, so that the
+   * threads of its pool do not linger; the pool is created again if this
+   * decoder is used after this method is invoked.
+   */
+  protected void shutDownSpanWorkers() {
+    if (spanPool != null)
+      spanPool.shutdown();
+    spanPool = null;
+    spanWorkers = null;
+  }
+
   /**
    * Adds hiden root nonterminal probabilities.  That is, for each derivation
    * spanning the entire sentence from index 0 to the specified end index, this
@@ -1675,48 +2102,9 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     while (sentSpanItems.hasNext()) {
       CKYItem item = (CKYItem)sentSpanItems.next();
       if (item.stop()) {
-
-	HeadEvent headEvent = lookupHeadEvent;
-	headEvent.set(item.headWord(), topSym, (Symbol)item.label(),
-		      emptySubcat, emptySubcat);
-	double topLogProb = server.logProbTop(id, headEvent);
-	if (topLogProb <= logOfZero) {
-	  if (hardConstraints)
-	    continue;
-	  else
-	    topLogProb = Constants.logProbSmall;
-	}
-	double logProb = item.logTreeProb() + topLogProb;
-
-	if (debugTop)
-	  System.err.println(className +
-			     ": item=" + item + "; topLogProb=" + topLogProb +
-			     "; item.logTreeProb()=" + item.logTreeProb() +
-			     "; logProb=" + logProb);
-
-	if (findAtLeastOneSatisfyingConstraint) {
-	  if (debugConstraints)
-	    System.err.println(className +
-			       ": sentence-spanning item has constraint " +
-			       item.getConstraint());
-	}
-	if (isomorphicTreeConstraints) {
-	  Constraint parent = item.getConstraint().getParent();
-	  if (debugConstraints)
-	    System.err.println(className + ": parent constraint is " + parent);
-	  if (!(parent == null || parent == constraints.root()))
-	    continue;
-	}
-
-	CKYItem newItem = chart.getNewItem();
-	newItem.set(topSym, item.headWord(),
-		    emptySubcat, emptySubcat, item,
-		    null, null, startList, startList, 0, end,
-		    false, false, true, logProb, Constants.logProbCertain,
-		    logProb);
-
-        newItem.hasAntecedent(item);
-	topProbItemsToAdd.add(newItem);
+	CKYItem newItem = getTopUnaryItem(item, end);
+	if (newItem != null)
+	  topProbItemsToAdd.add(newItem);
       }
     }
     Iterator toAdd = topProbItemsToAdd.iterator();
@@ -1750,6 +2138,8 @@ decod   * @see DecoderServerRemote#prunedPreterms()
    */
   protected void complete(int start, int end)
     throws RemoteException, TimeoutException {
+    if (incrementalPass)
+      chart.revivePrunedItems(start, end);
     for (int split = start; split < end; split++) {
 
       if (maxParseTime > 0 && time.elapsedMillis() > maxParseTime) {
@@ -1787,29 +2177,14 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 
 	// for each possible modifier that HAS received its stop probabilities,
 	// try to find a modificand that has NOT received its stop probabilities
-	if (chart.numItems(modifierStartIdx, modifierEndIdx) > 0 &&
-	    chart.numItems(modificandStartIdx, modificandEndIdx) > 0) {
-	  Iterator modifierItems = chart.get(modifierStartIdx, modifierEndIdx);
-	  while (modifierItems.hasNext()) {
-	    CKYItem modifierItem = (CKYItem)modifierItems.next();
-	    if (modifierItem.stop()) {
-	      Iterator modificandItems =
-		chart.get(modificandStartIdx, modificandEndIdx);
-	      while (modificandItems.hasNext()) {
-		CKYItem modificandItem = (CKYItem)modificandItems.next();
-		if (!modificandItem.stop() &&
-		    Language.treebank.isBaseNP((Symbol)modificandItem.label())){
-		  if (debugComplete)
-		    System.err.println(className +
-				       ".complete: trying to modify\n\t" +
-				       modificandItem + "\n\twith\n\t" +
-				       modifierItem);
-		  joinItems(modificandItem, modifierItem, modifierSide);
-		}
-	      }
-	    }
-	  }
-	}
+	if (lazyJoin)
+	  joinLazily(start, end, modificandStartIdx, modificandEndIdx,
+		     modifierStartIdx, modifierEndIdx, modifierSide, true);
+	else
+	  joinExhaustively(modificandStartIdx, modificandEndIdx,
+			   modifierStartIdx, modifierEndIdx, modifierSide, true);
+	if (batchModProbs)
+	  joinPendingItems();
 	continue;
       }
 
@@ -1832,38 +2207,366 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 
 	// for each possible modifier that HAS received its stop probabilities,
 	// try to find a modificand that has NOT received its stop probabilities
-	if (chart.numItems(modifierStartIdx, modifierEndIdx) > 0 &&
-	    chart.numItems(modificandStartIdx, modificandEndIdx) > 0) {
-	  Iterator modifierItems = chart.get(modifierStartIdx, modifierEndIdx);
-	  while (modifierItems.hasNext()) {
-	    CKYItem modifierItem = (CKYItem)modifierItems.next();
-	    if (modifierItem.stop()) {
-	      Iterator modificandItems =
-		chart.get(modificandStartIdx, modificandEndIdx);
-	      while (modificandItems.hasNext()) {
-		CKYItem modificandItem = (CKYItem)modificandItems.next();
-		if (!modificandItem.stop() &&
-		    derivationOrderOK(modificandItem, modifierSide)) {
-		/*
-		if (!modificandItem.stop()) {
-		*/
-		  if (debugComplete)
-		    System.err.println(className +
-				       ".complete: trying to modify\n\t" +
-				       modificandItem + "\n\twith\n\t" +
-				       modifierItem);
-		  joinItems(modificandItem, modifierItem, modifierSide);
-		}
-	      }
-	    }
-	  }
-	}
+	if (lazyJoin)
+	  joinLazily(start, end, modificandStartIdx, modificandEndIdx,
+		     modifierStartIdx, modifierEndIdx, modifierSide, false);
+	else
+	  joinExhaustively(modificandStartIdx, modificandEndIdx,
+			   modifierStartIdx, modifierEndIdx, modifierSide,
+			   false);
       }
+      if (batchModProbs)
+	joinPendingItems();
     }
     addUnariesAndStopProbs(start, end);
     chart.prune(start, end);
   }
 
+  /**
+   * Returns whether any joins between the items of the specified modificand
+   * and modifier spans remain to be attempted.  This is always the case
+   * unless the current iteration of beam widening is
+   * {@linkplain #incrementalPass incremental}, in which case it is only the
+   * case if an item was added to either span during the current iteration.
+   *
+   * @param modificandStartIdx the start of the modificand span
+   * @param modificandEndIdx the end of the modificand span
+   * @param modifierStartIdx the start of the modifier span
+   * @param modifierEndIdx the end of the modifier span
+   * @return whether any joins between the items of the specified spans
+   * remain to be attempted
+   */
+  protected boolean anyAdded(int modificandStartIdx, int modificandEndIdx,
+			     int modifierStartIdx, int modifierEndIdx) {
+    return (!incrementalPass ||
+	    chart.numAdded(modificandStartIdx, modificandEndIdx) > 0 ||
+	    chart.numAdded(modifierStartIdx, modifierEndIdx) > 0);
+  }
+
+  /**
+   * Joins every stopped modifier of one subspan with every eligible unstopped
+   * modificand of another.  The items of both subspans are obtained as arrays
+   * via {@link Chart#getItems(int,int,Item[])} and are iterated over by
+   * index.  If the current iteration of beam widening is
+   * {@linkplain #incrementalPass incremental}, a modifier that was present
+   * during the previous iteration has already been joined with every
+   * modificand that was also present, and so is only joined with the
+   * modificands added during the current iteration.
+   *
+   * @param modificandStartIdx the start of the span of the modificands
+   * @param modificandEndIdx the end of the span of the modificands
+   * @param modifierStartIdx the start of the span of the modifiers
+   * @param modifierEndIdx the end of the span of the modifiers
+   * @param side the side on which the modifiers are to be joined
+   * @param baseNPModificandsOnly whether only base NP modificands are
+   * eligible (when there is a comma constraint violation), instead of those
+   * modificands satisfying {@link #derivationOrderOK(CKYItem,boolean)}
+   *
+   * @see #joinLazily
+   */
+  protected void joinExhaustively(int modificandStartIdx, int modificandEndIdx,
+				  int modifierStartIdx, int modifierEndIdx,
+				  boolean side, boolean baseNPModificandsOnly)
+    throws RemoteException {
+    int numModifiers = chart.numItems(modifierStartIdx, modifierEndIdx);
+    int numModificands = chart.numItems(modificandStartIdx, modificandEndIdx);
+    if (numModifiers == 0 || numModificands == 0 ||
+	!anyAdded(modificandStartIdx, modificandEndIdx,
+		  modifierStartIdx, modifierEndIdx))
+      return;
+
+    if (cellModifiers.length < numModifiers)
+      cellModifiers = new Item[numModifiers * 2];
+    if (cellModificands.length < numModificands)
+      cellModificands = new Item[numModificands * 2];
+    Item[] modifiers =
+      chart.getItems(modifierStartIdx, modifierEndIdx, cellModifiers);
+    Item[] modificands =
+      chart.getItems(modificandStartIdx, modificandEndIdx, cellModificands);
+
+    int numAddedModificands = 0;
+    if (incrementalPass) {
+      Iterator it = chart.getAdded(modificandStartIdx, modificandEndIdx);
+      while (it.hasNext()) {
+	if (numAddedModificands == addedModificands.length) {
+	  Item[] newArr = new Item[numAddedModificands * 2];
+	  System.arraycopy(addedModificands, 0, newArr, 0,
+			   numAddedModificands);
+	  addedModificands = newArr;
+	}
+	addedModificands[numAddedModificands++] = (Item)it.next();
+      }
+    }
+
+    for (int i = 0; i < numModifiers; i++) {
+      CKYItem modifierItem = (CKYItem)modifiers[i];
+      if (!modifierItem.stop())
+	continue;
+      Item[] currModificands = modificands;
+      int numCurrModificands = numModificands;
+      if (incrementalPass &&
+	  !chart.wasAdded(modifierStartIdx, modifierEndIdx, modifierItem)) {
+	currModificands = addedModificands;
+	numCurrModificands = numAddedModificands;
+      }
+      for (int j = 0; j < numCurrModificands; j++) {
+	CKYItem modificandItem = (CKYItem)currModificands[j];
+	if (!modificandItem.stop() &&
+	    (baseNPModificandsOnly ?
+	     Language.treebank.isBaseNP((Symbol)modificandItem.label()) :
+	     derivationOrderOK(modificandItem, side))) {
+	  if (debugComplete)
+	    System.err.println(className +
+			       ".complete: trying to modify\n\t" +
+			       modificandItem + "\n\twith\n\t" +
+			       modifierItem);
+	  joinItems(modificandItem, modifierItem, side);
+	}
+      }
+    }
+    Arrays.fill(addedModificands, 0, numAddedModificands, null);
+  }
+
+  /**
+   * Joins the modifiers of one subspan with the modificands of another in
+   * best-first order, as an alternative to the exhaustive enumeration of
+   * all pairs performed by {@link #joinExhaustively}.  The stopped
+   * modifiers and the eligible unstopped modificands are each sorted by
+   * their log inside probabilities, so that the sum of these two scores is
+   * an upper bound on the log inside probability of the item resulting from
+   * joining a given pair (the log-probability of the modifier event being
+   * at most zero).  Pairs are then explored from a priority queue ordered by
+   * this bound, starting with the pair of top-ranked items, until the best
+   * remaining bound falls below {@link
+   * CKYChart#unstoppedBeamThreshold(int,int)} for the span being completed.
+   * <p>
+   * Each pair <tt>(i,j)</tt> of sorted modifier index <tt>i</tt> and
+   * sorted modificand index <tt>j</tt> is added to the queue when the pair
+   * <tt>(i,j-1)</tt> is explored, or, when <tt>j</tt> is zero, when the pair
+   * <tt>(i-1,0)</tt> is explored, so that every pair is added at most once
+   * and no pair is explored before a pair with a higher bound.
+   * <p>
+   * The bound deliberately omits the log prior of the modificand, which is
+   * part of the score by which the chart prunes the joined item.  Every item
+   * derived from the joined item before the span is pruned, whether by
+   * adding stop probabilities or by adding a unary parent with a different
+   * prior, has a log inside probability no greater than that of the joined
+   * item and a log prior no greater than zero, and so its score is no
+   * greater than the bound.  Since the top log-probability of the span never
+   * decreases, neither a skipped join nor anything derived from it could be
+   * within the beam when {@link Chart#prune(int,int)} is invoked at the end
+   * of {@link #complete(int,int)}.  This argument requires that stopped
+   * items be pruned and that zero probabilities not be replaced by small
+   * ones, and so when constraints are relaxed (which relaxes pruning, as
+   * well), this method simply invokes {@link #joinExhaustively}.
+   * <p>
+   * The items that remain in the chart may nevertheless differ from those
+   * left by {@link #joinExhaustively} in one respect, in which the results
+   * of exhaustive joining depend on the order in which it attempts joins:
+   * an item that is added while the top log-probability of the span is still
+   * low is pruned at the end of {@link #complete(int,int)}, but a unary item
+   * derived from it in the meantime may have a higher prior and so remain.
+   * Lazy joining reaches the top-ranked items of a span sooner, and so
+   * admits fewer such transient items.
+   * <p>
+   * When modifier probabilities are looked up in batches (see {@link
+   * Settings#decoderBatchModProbs}), the joins explored by this method are
+   * not added to the chart until the batch is completed, so that the
+   * cutoff lags behind the joins explored; the pending joins are completed
+   * at once until the span has a top-ranked item, since until then there
+   * would be no cutoff at all.
+   *
+   * @param start the index of the first word of the span being completed
+   * @param end the index of the last word of the span being completed
+   * @param modificandStartIdx the start of the span of the modificands
+   * @param modificandEndIdx the end of the span of the modificands
+   * @param modifierStartIdx the start of the span of the modifiers
+   * @param modifierEndIdx the end of the span of the modifiers
+   * @param side the side on which the modifiers are to be joined
+   * @param baseNPModificandsOnly whether only base NP modificands are
+   * eligible (when there is a comma constraint violation), instead of those
+   * modificands satisfying {@link #derivationOrderOK(CKYItem,boolean)}
+   *
+   * @see Settings#decoderLazyJoin
+   */
+  protected void joinLazily(int start, int end,
+			    int modificandStartIdx, int modificandEndIdx,
+			    int modifierStartIdx, int modifierEndIdx,
+			    boolean side, boolean baseNPModificandsOnly)
+    throws RemoteException {
+    if (!hardConstraints) {
+      joinExhaustively(modificandStartIdx, modificandEndIdx,
+		       modifierStartIdx, modifierEndIdx, side,
+		       baseNPModificandsOnly);
+      return;
+    }
+    int numModifiers = 0;
+    Iterator it = chart.get(modifierStartIdx, modifierEndIdx);
+    while (it.hasNext()) {
+      CKYItem item = (CKYItem)it.next();
+      if (item.stop()) {
+	if (numModifiers == lazyModifiers.length) {
+	  CKYItem[] newArr = new CKYItem[numModifiers * 2];
+	  System.arraycopy(lazyModifiers, 0, newArr, 0, numModifiers);
+	  lazyModifiers = newArr;
+	}
+	lazyModifiers[numModifiers++] = item;
+      }
+    }
+    if (numModifiers == 0)
+      return;
+
+    int numModificands = 0;
+    it = chart.get(modificandStartIdx, modificandEndIdx);
+    while (it.hasNext()) {
+      CKYItem item = (CKYItem)it.next();
+      if (!item.stop() &&
+	  (baseNPModificandsOnly ?
+	   Language.treebank.isBaseNP((Symbol)item.label()) :
+	   derivationOrderOK(item, side))) {
+	if (numModificands == lazyModificands.length) {
+	  CKYItem[] newArr = new CKYItem[numModificands * 2];
+	  System.arraycopy(lazyModificands, 0, newArr, 0, numModificands);
+	  lazyModificands = newArr;
+	}
+	lazyModificands[numModificands++] = item;
+      }
+    }
+
+    if (numModificands > 0) {
+      Arrays.sort(lazyModifiers, 0, numModifiers, logTreeProbComparator);
+      Arrays.sort(lazyModificands, 0, numModificands, logTreeProbComparator);
+
+      JoinQueue queue = lazyJoinQueue;
+      queue.clear();
+      queue.add(0, 0, joinBound(lazyModifiers[0], lazyModificands[0]));
+      while (queue.size() > 0 &&
+	     queue.topBound() >= chart.unstoppedBeamThreshold(start, end)) {
+	int i = queue.topModifierIdx();
+	int j = queue.topModificandIdx();
+	queue.removeTop();
+	if (j + 1 < numModificands)
+	  queue.add(i, j + 1,
+		    joinBound(lazyModifiers[i], lazyModificands[j + 1]));
+	if (j == 0 && i + 1 < numModifiers)
+	  queue.add(i + 1, 0,
+		    joinBound(lazyModifiers[i + 1], lazyModificands[0]));
+
+	CKYItem modifierItem = lazyModifiers[i];
+	CKYItem modificandItem = lazyModificands[j];
+	if (debugComplete)
+	  System.err.println(className +
+			     ".joinLazily: trying to modify\n\t" +
+			     modificandItem + "\n\twith\n\t" +
+			     modifierItem);
+	joinItems(modificandItem, modifierItem, side);
+	// when modifier probabilities are looked up in batches, the span
+	// being completed has no top-ranked item, and so no threshold, until
+	// the first of its joins are completed; complete them at once, so
+	// that the cutoff takes effect
+	if (batchModProbs && chart.numItems(start, end) == 0)
+	  joinPendingItems();
+      }
+      Arrays.fill(lazyModificands, 0, numModificands, null);
+    }
+    Arrays.fill(lazyModifiers, 0, numModifiers, null);
+  }
+
+  /**
+   * Returns an upper bound on the score of the item resulting from joining
+   * the specified modifier and modificand, and of any item derived from it
+   * by adding stop probabilities or unary parents.
+   */
+  private static double joinBound(CKYItem modifier, CKYItem modificand) {
+    return modifier.logTreeProb() + modificand.logTreeProb();
+  }
+
+  /**
+   * Sorts modifiers or modificands in descending order of their log inside
+   * probabilities.
+   */
+  private final static Comparator logTreeProbComparator = new Comparator() {
+    public int compare(Object o1, Object o2) {
+      return Double.compare(((CKYItem)o2).logTreeProb(),
+			    ((CKYItem)o1).logTreeProb());
+    }
+  };
+
+  /**
+   * A reusable binary max-heap of candidate joins for
+   * {@link Decoder#joinLazily}, each consisting of the index of a modifier,
+   * the index of a modificand and the upper bound on the log-probability of
+   * their join.
+   */
+  protected static class JoinQueue implements Serializable {
+    private int[] modifierIdx = new int[64];
+    private int[] modificandIdx = new int[64];
+    private double[] bound = new double[64];
+    private int size;
+
+    void clear() { size = 0; }
+    int size() { return size; }
+    double topBound() { return bound[0]; }
+    int topModifierIdx() { return modifierIdx[0]; }
+    int topModificandIdx() { return modificandIdx[0]; }
+
+    void add(int modifier, int modificand, double itemBound) {
+      if (size == bound.length) {
+	int newLength = size * 2;
+	int[] newModifierIdx = new int[newLength];
+	int[] newModificandIdx = new int[newLength];
+	double[] newBound = new double[newLength];
+	System.arraycopy(modifierIdx, 0, newModifierIdx, 0, size);
+	System.arraycopy(modificandIdx, 0, newModificandIdx, 0, size);
+	System.arraycopy(bound, 0, newBound, 0, size);
+	modifierIdx = newModifierIdx;
+	modificandIdx = newModificandIdx;
+	bound = newBound;
+      }
+      int idx = size++;
+      while (idx > 0) {
+	int parent = (idx - 1) >> 1;
+	if (bound[parent] >= itemBound)
+	  break;
+	set(idx, parent);
+	idx = parent;
+      }
+      modifierIdx[idx] = modifier;
+      modificandIdx[idx] = modificand;
+      bound[idx] = itemBound;
+    }
+
+    void removeTop() {
+      size--;
+      if (size == 0)
+	return;
+      int lastModifier = modifierIdx[size];
+      int lastModificand = modificandIdx[size];
+      double lastBound = bound[size];
+      int idx = 0;
+      while (true) {
+	int child = 2 * idx + 1;
+	if (child >= size)
+	  break;
+	if (child + 1 < size && bound[child + 1] > bound[child])
+	  child++;
+	if (bound[child] <= lastBound)
+	  break;
+	set(idx, child);
+	idx = child;
+      }
+      modifierIdx[idx] = lastModifier;
+      modificandIdx[idx] = lastModificand;
+      bound[idx] = lastBound;
+    }
+
+    private void set(int to, int from) {
+      modifierIdx[to] = modifierIdx[from];
+      modificandIdx[to] = modificandIdx[from];
+      bound[to] = bound[from];
+    }
+  }
+
   /**
    * Enforces that modificand receives all its right modifiers before receiving
    * any left modifiers, by ensuring that right-modification only happens
@@ -1882,7 +2585,10 @@ decod   * @see DecoderServerRemote#prunedPreterms()
   /**
    * Joins two chart items, one representing the modificand that has not
    * yet received its stop probabilities, the other representing the modifier
-   * that has received its stop probabilities.
+   * that has received its stop probabilities.  If {@link #batchModProbs} is
+   * <code>true</code>, the probability of the modifier event is not looked up
+   * immediately; rather, the join is deferred until the next invocation of
+   * {@link #joinPendingItems()}.
    *
    * @param modificand the chart item representing a partially-completed
    * subtree, to be modified on <code>side</code> by <code>modifier</code>
@@ -1891,18 +2597,52 @@ decod   * @see DecoderServerRemote#prunedPreterms()
    * <code>modificand</code>'s subtree
    * @param side the side on which to attempt to add the specified modifier
    * to the specified modificand
+   *
+   * @see Settings#decoderBatchModProbs
    */
   protected void joinItems(CKYItem modificand, CKYItem modifier,
 			   boolean side)
   throws RemoteException {
+    ModifierEvent modEvent = getJoinEvent(modificand, modifier, side);
+    if (modEvent == null)
+      return;
+
+    if (batchModProbs) {
+      addPendingJoin(modificand, modifier, side, modEvent);
+      return;
+    }
+
+    double logModProb = server.logProbMod(id, modEvent);
+    joinItems(modificand, modifier, side, logModProb);
+  }
+
+  /**
+   * Sets up and returns the modifier event whose probability is required to
+   * join the specified modificand and modifier, or returns <code>null</code>
+   * if the join is not possible (because, for example, the modifier is an
+   * argument not required by the modificand's subcat on the specified side).
+   * The returned object is {@link #lookupModEvent}, and will therefore be
+   * modified by the next invocation of this method.
+   *
+   * @param modificand the chart item representing a partially-completed
+   * subtree, to be modified on <code>side</code> by <code>modifier</code>
+   * @param modifier the chart item representing a completed subtree that
+   * will be added as a modifier on <code>side</code> of
+   * <code>modificand</code>'s subtree
+   * @param side the side on which to attempt to add the specified modifier
+   * to the specified modificand
+   * @return the modifier event for the specified join, or <code>null</code>
+   * if the join is not possible
+   */
+  protected ModifierEvent getJoinEvent(CKYItem modificand, CKYItem modifier,
+				       boolean side) {
     Symbol modLabel = (Symbol)modifier.label();
 
     Subcat thisSideSubcat = (Subcat)modificand.subcat(side);
-    Subcat oppositeSideSubcat = modificand.subcat(!side);
     boolean thisSideSubcatContainsMod = thisSideSubcat.contains(modLabel);
     if (!thisSideSubcatContainsMod &&
 	Language.training.isArgumentFast(modLabel))
-      return;
+      return null;
 
     if (isomorphicTreeConstraints) {
       if (modificand.getConstraint().isViolatedByChild(modifier)) {
@@ -1911,7 +2651,7 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 			     " violated by child item(" +
 			    modifier.start() + "," + modifier.end() + "): " +
 			    modifier);
-	return;
+	return null;
       }
     }
 
@@ -1926,17 +2666,9 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     tmpChildrenList.set(modifier, modificand.children(side));
 
     SexpList thisSidePrevMods = getPrevMods(modificand, tmpChildrenList);
-    SexpList oppositeSidePrevMods = modificand.prevMods(!side);
 
     WordList previousWords = getPrevModWords(modificand, tmpChildrenList, side);
 
-    int thisSideEdgeIndex = modifier.edgeIndex(side);
-    int oppositeSideEdgeIndex = modificand.edgeIndex(!side);
-
-    boolean thisSideContainsVerb =
-      modificand.verb(side) || modifier.containsVerb();
-    boolean oppositeSideContainsVerb = modificand.verb(!side);
-
     ModifierEvent modEvent = lookupModEvent;
     modEvent.set(modifier.headWord(),
 		 modificand.headWord(),
@@ -1949,36 +2681,53 @@ decod   * @see DecoderServerRemote#prunedPreterms()
 		 modificand.verb(side),
 		 side);
 
-    boolean debugFlag = false;
-    if (debugJoin) {
-      Symbol modificandLabel = (Symbol)modificand.label();
-      boolean modificandLabelP = modificandLabel == S;
-      boolean modLabelP = modLabel == NPA;
-      debugFlag = ((side == Constants.LEFT &&
-		    modificandLabelP && modLabelP &&
-		    modificand.start() == 1 && modificand.end() == 2)
-		  ||
-		  (side == Constants.RIGHT &&
-		   modificandLabelP &&
-		   modificand.start() == 0 && modificand.end() == 2));
-      /*
-      if (debugFlag)
-	Debug.level = 21;
-      */
-    }
+    boolean debugFlag = debugJoin && debugJoinFlag(modificand, modLabel, side);
 
     if (!futurePossible(modEvent, side, debugFlag))
       if (hardConstraints)
-	return;
+	return null;
 
-    if (debugJoin) {
-    }
+    return modEvent;
+  }
+
+  /**
+   * Joins two chart items using the specified, previously-computed log
+   * probability of the modifier event for the join, as returned by
+   * {@link #getJoinEvent(CKYItem,CKYItem,boolean)}.  If the join produces
+   * a new chart item, it is added to the chart.
+   *
+   * @param modificand the chart item representing a partially-completed
+   * subtree, to be modified on <code>side</code> by <code>modifier</code>
+   * @param modifier the chart item representing a completed subtree that
+   * will be added as a modifier on <code>side</code> of
+   * <code>modificand</code>'s subtree
+   * @param side the side on which to attempt to add the specified modifier
+   * to the specified modificand
+   * @param logModProb the log of the probability of generating the specified
+   * modifier in the context of the specified modificand
+   */
+  protected void joinItems(CKYItem modificand, CKYItem modifier,
+			   boolean side, double logModProb) {
+    Symbol modLabel = (Symbol)modifier.label();
+
+    Subcat thisSideSubcat = (Subcat)modificand.subcat(side);
+    Subcat oppositeSideSubcat = modificand.subcat(!side);
+    boolean thisSideSubcatContainsMod = thisSideSubcat.contains(modLabel);
+
+    SexpList oppositeSidePrevMods = modificand.prevMods(!side);
+
+    int thisSideEdgeIndex = modifier.edgeIndex(side);
+    int oppositeSideEdgeIndex = modificand.edgeIndex(!side);
+
+    boolean thisSideContainsVerb =
+      modificand.verb(side) || modifier.containsVerb();
+    boolean oppositeSideContainsVerb = modificand.verb(!side);
+
+    boolean debugFlag = debugJoin && debugJoinFlag(modificand, modLabel, side);
 
     int lowerIndex = Math.min(thisSideEdgeIndex, oppositeSideEdgeIndex);
     int higherIndex = Math.max(thisSideEdgeIndex, oppositeSideEdgeIndex);
 
-    double logModProb = server.logProbMod(id, modEvent);
-
     if (logModProb <= logOfZero) {
       if (hardConstraints) {
 	if (debugFlag) {
@@ -2055,6 +2804,85 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     }
   }
 
+  private boolean debugJoinFlag(CKYItem modificand, Symbol modLabel,
+				boolean side) {
+    Symbol modificandLabel = (Symbol)modificand.label();
+    boolean modificandLabelP = modificandLabel == S;
+    boolean modLabelP = modLabel == NPA;
+    return ((side == Constants.LEFT &&
+	     modificandLabelP && modLabelP &&
+	     modificand.start() == 1 && modificand.end() == 2)
+	    ||
+	    (side == Constants.RIGHT &&
+	     modificandLabelP &&
+	     modificand.start() == 0 && modificand.end() == 2));
+  }
+
+  /**
+   * Defers the join of the specified modificand and modifier until the
+   * next invocation of {@link #joinPendingItems()}, storing a copy of the
+   * specified modifier event whose probability will be needed for the join.
+   *
+   * @param modificand the modificand of the deferred join
+   * @param modifier the modifier of the deferred join
+   * @param side the side on which the modifier is to be joined
+   * @param modEvent the modifier event for the deferred join, as returned
+   * by {@link #getJoinEvent(CKYItem,CKYItem,boolean)}
+   */
+  protected void addPendingJoin(CKYItem modificand, CKYItem modifier,
+				boolean side, ModifierEvent modEvent) {
+    if (numPendingJoins == pendingModificands.length) {
+      int newLength = pendingModificands.length * 2;
+      CKYItem[] newModificands = new CKYItem[newLength];
+      CKYItem[] newModifiers = new CKYItem[newLength];
+      boolean[] newSides = new boolean[newLength];
+      TrainerEvent[] newModEvents = new TrainerEvent[newLength];
+      System.arraycopy(pendingModificands, 0, newModificands, 0,
+		       numPendingJoins);
+      System.arraycopy(pendingModifiers, 0, newModifiers, 0, numPendingJoins);
+      System.arraycopy(pendingSides, 0, newSides, 0, numPendingJoins);
+      System.arraycopy(pendingModEvents, 0, newModEvents, 0, numPendingJoins);
+      pendingModificands = newModificands;
+      pendingModifiers = newModifiers;
+      pendingSides = newSides;
+      pendingModEvents = newModEvents;
+    }
+    // the previous-words list of the lookup event is a reusable object,
+    // so it must be copied; all other components are canonical or immutable
+    ModifierEvent pendingEvent = (ModifierEvent)modEvent.shallowCopy();
+    pendingEvent.setPreviousWords(modEvent.previousWords().copy());
+    pendingModificands[numPendingJoins] = modificand;
+    pendingModifiers[numPendingJoins] = modifier;
+    pendingSides[numPendingJoins] = side;
+    pendingModEvents[numPendingJoins] = pendingEvent;
+    numPendingJoins++;
+  }
+
+  /**
+   * Obtains the probabilities of all modifier events of joins deferred by
+   * {@link #addPendingJoin} using a single invocation of
+   * {@link DecoderServerRemote#logProbMod(int,TrainerEvent[],int)}, and then
+   * performs those joins in the order in which they were deferred.
+   *
+   * @throws RemoteException if the underlying {@link DecoderServerRemote}
+   * instance throws a <code>RemoteException</code>
+   *
+   * @see Settings#decoderBatchModProbs
+   */
+  protected void joinPendingItems() throws RemoteException {
+    if (numPendingJoins == 0)
+      return;
+    double[] logModProbs =
+      server.logProbMod(id, pendingModEvents, numPendingJoins);
+    for (int i = 0; i < numPendingJoins; i++) {
+      joinItems(pendingModificands[i], pendingModifiers[i], pendingSides[i],
+		logModProbs[i]);
+      pendingModificands[i] = pendingModifiers[i] = null;
+      pendingModEvents[i] = null;
+    }
+    numPendingJoins = 0;
+  }
+
   private boolean futurePossible(ModifierEvent modEvent, boolean side,
                                  boolean debug) {
     if (useSimpleModNonterminalMap)
@@ -2164,12 +2992,16 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     currItemsAdded.clear();
     stopProbItemsToAdd.clear();
 
-    Iterator it = chart.get(start, end);
+    // during an incremental iteration of beam widening, only the items
+    // added during the current iteration need unaries and stop probs, and
+    // these may include stopped items that were revived from the side store
+    Iterator it = incrementalPass ? chart.getAdded(start, end) :
+		  chart.get(start, end);
     while (it.hasNext()) {
       CKYItem item = (CKYItem)it.next();
       if (item.stop() == false)
 	stopProbItemsToAdd.add(item);
-      else if (item.isPreterminal())
+      else if (item.isPreterminal() || incrementalPass)
 	prevItemsAdded.add(item);
     }
 
@@ -2604,7 +3436,10 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     SexpList canonical = (SexpList)canonicalPrevModLists.get(prevMods);
     if (canonical == null) {
       canonical = (SexpList)prevMods.deepCopy();
-      canonicalPrevModLists.put(canonical, canonical);
+      SexpList existing =
+	(SexpList)canonicalPrevModLists.putIfAbsent(canonical, canonical);
+      if (existing != null)
+	canonical = existing;
     }
     return canonical;
   }
@@ -2723,6 +3558,14 @@ decod   * @see DecoderServerRemote#prunedPreterms()
     numPrevMods = Settings.getInteger(Settings.numPrevMods);
     numPrevWords = Settings.getInteger(Settings.numPrevWords);
     keepAllWords = Settings.getBoolean(Settings.keepAllWords);
+    batchModProbs = Settings.getBoolean(Settings.decoderBatchModProbs);
+    lazyJoin = Settings.getBoolean(Settings.decoderLazyJoin);
+    incrementalBeamWidening =
+      Settings.getBoolean(Settings.decoderIncrementalBeamWidening);
+    numSpanThreads =
+      Math.max(1, Settings.getInteger(Settings.decoderNumSpanThreads));
+    shutDownSpanWorkers();
+    setUpCanonicalPrevModLists();
     dontPostProcess =
       Settings.getBoolean(Settings.decoderDontPostProcess) ||
       Settings.getBoolean(Settings.decoderOutputInsideProbs);
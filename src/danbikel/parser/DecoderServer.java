@@ -25,6 +25,11 @@ public class DecoderServer
   /** The boolean value of {@link Settings#downcaseWords}. */
   protected boolean downcaseWords = Settings.getBoolean(Settings.downcaseWords);
 
+  static {
+    boolean permanent = Settings.getBoolean(Settings.permanentSymbols);
+    Symbol.setPermanentInterning(permanent);
+  }
+
 
   /**
    * Constructs a non-exported <code>DecoderServer</code> object.
@@ -127,6 +132,14 @@ public class DecoderServer
     modelCollection = Trainer.loadModelCollection(mcFilename);
   }
 
+  /**
+   * Returns a new {@link EventFrameCodec}, so that this server can receive
+   * the events sent by its clients over frame connections.
+   */
+  protected FrameCodec frameCodec() {
+    return new EventFrameCodec();
+  }
+
   /**
    * A flow-through method for {@link ModelCollection#getModelCacheStats()}.
    * @return the value of {@link ModelCollection#getModelCacheStats()}
@@ -359,6 +372,26 @@ public class DecoderServer
     return modNTProb + modWordProb;
   }
 
+  public double[] logProbMod(int id, TrainerEvent[] events, int numEvents) {
+    double[] logProbs = new double[numEvents];
+    for (int i = 0; i < numEvents; i++)
+      logProbs[i] = logProbMod(id, events[i]);
+    return logProbs;
+  }
+
+  public double logProbWordUpperBound(int id, Word word) {
+    Subcat emptySubcat = Subcats.get();
+    TrainerEvent modEvent =
+      new ModifierEvent(word, null, null, SexpList.emptyList, null, null, null,
+			emptySubcat, false, false);
+    TrainerEvent headEvent =
+      new HeadEvent(word, null, null, emptySubcat, emptySubcat);
+    Model modWordModel = modelCollection.modWordModel();
+    Model topLexModel = modelCollection.topLexModel();
+    return Math.max(modWordModel.logProbFutureUpperBound(id, modEvent),
+		    topLexModel.logProbFutureUpperBound(id, headEvent));
+  }
+
   public double logProbModNT(int id, TrainerEvent event) {
     Model modNTModel = modelCollection.modNonterminalModel();
     return modNTModel.estimateLogProb(id, event);
@@ -475,5 +508,7 @@ public class DecoderServer
     unknownWordThreshold =
       Settings.getInteger(Settings.unknownWordThreshold);
     downcaseWords = Settings.getBoolean(Settings.downcaseWords);
+    boolean permanent = Settings.getBoolean(Settings.permanentSymbols);
+    Symbol.setPermanentInterning(permanent);
   }
 }
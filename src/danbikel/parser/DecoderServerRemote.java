@@ -279,6 +279,55 @@ public interface DecoderServerRemote extends Server {
    */
   public double logProbMod(int id, TrainerEvent event) throws RemoteException;
 
+  /**
+   * Returns the log of the probability of generating each of the first
+   * <code>numEvents</code> fully-lexicalized modifying nonterminals contained
+   * in the specified array of events, as would be computed by invoking {@link
+   * #logProbMod(int,TrainerEvent)} on each event in turn.  This method allows
+   * a decoder to collect all the modifier events needed for a particular
+   * span and split point of the chart and look up their probabilities with a
+   * single (potentially remote) method invocation.
+   * <p/>
+   * <b>Implementation note</b>: The results are returned in a new array rather
+   * than written into a caller-supplied array, because arguments to remote
+   * methods are passed by value.
+   *
+   * @param id the unique id of the client invoking the method
+   * @param events an array of top-level <code>TrainerEvent</code> objects,
+   * each containing the complete context needed to compute the requested
+   * probability
+   * @param numEvents the number of events at the beginning of the specified
+   * array whose probabilities are to be computed
+   * @return an array of length <code>numEvents</code> whose
+   * <i>i</i><sup>th</sup> element is the log of the probability of generating
+   * the lexicalized modifying nonterminal of <code>events[i]</code>
+   *
+   * @see Settings#decoderBatchModProbs
+   */
+  public double[] logProbMod(int id, TrainerEvent[] events, int numEvents)
+    throws RemoteException;
+
+  /**
+   * Returns an upper bound on the log of the probability of generating the
+   * specified word, either as the head word of a modifier or as the head word
+   * of an entire sentence, in any context.  Every fully-lexicalized modifier
+   * or top-level probability of a derivation that generates the specified
+   * word is at most the returned value, which makes it suitable for building
+   * admissible estimates of the outside probabilities of chart items.  The
+   * trivial bound <tt>0.0</tt> is returned if no tighter bound can be
+   * computed.
+   *
+   * @param id the unique id of the client invoking the method
+   * @param word the word whose generation probability is to be bounded
+   * @return an upper bound on the log of the probability of generating the
+   * specified word
+   *
+   * @see Model#logProbFutureUpperBound(int,TrainerEvent)
+   * @see AStarDecoder
+   */
+  public double logProbWordUpperBound(int id, Word word)
+    throws RemoteException;
+
   /**
    * Returns the log of the probability of generating a partially-lexicalized
    * modifying nonterminal given a particular parent, head and other
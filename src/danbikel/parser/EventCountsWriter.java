@@ -1,6 +1,7 @@
 package danbikel.parser;
 
 import danbikel.util.*;
+import danbikel.lisp.*;
 import danbikel.switchboard.*;
 import java.io.*;
 import java.util.*;
@@ -156,4 +157,35 @@ public class EventCountsWriter extends PrintWriter implements ObjectWriter {
       }
     }
   }
+
+  /**
+   * Writes a {@link CountsTable} with {@link TrainerEvent} keys to the
+   * specified binary event writer, exactly as by {@link
+   * #outputEvents(CountsTable,Writer)}.
+   *
+   * @param events the {@link TrainerEvent} counts to be written to the
+   *               specified writer
+   * @param out    the binary event writer to which to write the specified
+   *               {@link TrainerEvent} counts table
+   * @throws IOException if the specified writer throws an {@link
+   *                     IOException} while writing out the specified {@link
+   *                     CountsTable}
+   *
+   * @see BinaryEventWriter
+   */
+  public static void outputEvents(CountsTable events, BinaryEventWriter out)
+    throws IOException {
+    Iterator it = events.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      TrainerEvent event = (TrainerEvent)entry.getKey();
+      Symbol name = null;
+      if (event instanceof HeadEvent)
+        name = Trainer.headEventSym;
+      else if (event instanceof ModifierEvent)
+        name = Trainer.modEventSym;
+      if (name != null)
+        out.writeCount(name, event, entry.getDoubleValue());
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package danbikel.parser;
+
+import danbikel.lisp.*;
+import java.io.*;
+
+/**
+ * Provides static methods, as well as a {@link #main(String[])} method, to
+ * convert observation files between the S-expression text format written by
+ * {@link Trainer#writeStats(Writer)} and the compact binary format written by
+ * {@link Trainer#writeStats(BinaryEventWriter)}.  Observations of types not
+ * known to {@link Trainer} are preserved, but those of the form
+ * <tt>(name&nbsp;key&nbsp;value)</tt> are always treated as mappings rather
+ * than as counts.
+ *
+ * @see BinaryEventWriter
+ * @see BinaryEventReader
+ */
+public class EventFileConverter {
+  private EventFileConverter() {}
+
+  /**
+   * Writes every observation read from the specified S-expression stream to
+   * the specified binary event writer.
+   *
+   * @param tok the S-expression stream of observations
+   * @param writer the binary event writer to which to write observations
+   * @return the number of observations converted
+   * @throws IOException if the stream or the writer throws an
+   * <code>IOException</code>
+   */
+  public static int toBinary(SexpTokenizer tok, BinaryEventWriter writer)
+    throws IOException {
+    Sexp curr = null;
+    int i = 1;
+    for ( ; (curr = Sexp.read(tok)) != null; i++) {
+      if (curr.isSymbol() ||
+	  (curr.list().length() != 2 && curr.list().length() != 3) ||
+	  !curr.list().get(0).isSymbol()) {
+	System.err.println(EventFileConverter.class.getName() +
+			   ": error: S-expression No. " + i +
+			   " is not in the correct format:\n\t" + curr);
+	continue;
+      }
+      SexpList event = curr.list();
+      Symbol name = event.symbolAt(0);
+      if (event.length() == 2)
+	writer.writeElement(name, event.get(1));
+      else if (Trainer.isCountEventType(name))
+	writer.writeCount(name, event.get(1),
+			  Double.parseDouble(event.symbolAt(2).toString()));
+      else
+	writer.writeMapping(name, event.get(1), event.get(2));
+    }
+    return i - 1;
+  }
+
+  /**
+   * Writes every observation read from the specified binary event reader as
+   * an S-expression to the specified writer, one per line, exactly as by
+   * {@link Trainer#writeStats(Writer)}.
+   *
+   * @param reader the binary event reader of observations
+   * @param writer the writer to which to write observations
+   * @return the number of observations converted
+   * @throws IOException if the reader or the writer throws an
+   * <code>IOException</code>
+   */
+  public static int toText(BinaryEventReader reader, Writer writer)
+    throws IOException {
+    int numEvents = 0;
+    SexpList event = null;
+    while ((event = reader.read()) != null) {
+      if (reader.hasCount()) {
+	writer.write("(");
+	writer.write(event.get(0).toString());
+	writer.write(" ");
+	writer.write(event.get(1).toString());
+	writer.write(" ");
+	writer.write(String.valueOf(reader.count()));
+	writer.write(")\n");
+      }
+      else {
+	writer.write(event.toString());
+	writer.write("\n");
+      }
+      numEvents++;
+    }
+    return numEvents;
+  }
+
+  private static void usage() {
+    System.err.println("usage: [-tobinary | -totext] <input file> " +
+		       "<output file>");
+    System.exit(1);
+  }
+
+  /**
+   * Converts an observation file between its text and binary formats.
+   * @param args a list of three arguments:
+   * <pre>
+   * usage: [-tobinary | -totext] &lt;input file&gt; &lt;output file&gt;
+   * </pre>
+   * Output files whose names end in <tt>&quot;.gz&quot;</tt> are compressed
+   * when converting to the binary format.
+   */
+  public static void main(String[] args) {
+    if (args.length != 3)
+      usage();
+    boolean toBinary = false;
+    if (args[0].equals("-tobinary"))
+      toBinary = true;
+    else if (!args[0].equals("-totext"))
+      usage();
+    File inputFile = new File(args[1]);
+    File outputFile = new File(args[2]);
+    try {
+      int numEvents = 0;
+      if (toBinary) {
+	SexpTokenizer tok = Trainer.getStandardSexpStream(inputFile);
+	BinaryEventWriter writer = new BinaryEventWriter(outputFile, false);
+	numEvents = toBinary(tok, writer);
+	writer.close();
+      }
+      else {
+	BinaryEventReader reader = new BinaryEventReader(inputFile);
+	OutputStream os = new FileOutputStream(outputFile);
+	Writer writer =
+	  new BufferedWriter(new OutputStreamWriter(os, Language.encoding()),
+			     Constants.defaultFileBufsize);
+	numEvents = toText(reader, writer);
+	writer.close();
+	reader.close();
+      }
+      System.err.println("Converted " + numEvents + " events.");
+    }
+    catch (IOException ioe) {
+      System.err.println(ioe);
+      System.exit(1);
+    }
+  }
+}
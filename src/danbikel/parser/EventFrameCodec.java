@@ -0,0 +1,44 @@
+package danbikel.parser;
+
+import danbikel.switchboard.*;
+
+/**
+ * A codec for frame connections that also sends head, modifier and gap
+ * events as their S-expressions, so that their symbols are written as
+ * indices into the connection's symbol table, exactly as they are in a
+ * binary event file.  Since the receiving end reconstructs these events
+ * only if their classes are registered with its codec, both ends of a
+ * connection over which events are sent must use this codec.
+ *
+ * @see FrameCodec#registerSexpClass(Class)
+ * @see BinaryEventWriter
+ */
+public class EventFrameCodec extends FrameCodec {
+  /**
+   * Constructs a new codec with empty symbol tables, with which the
+   * {@link HeadEvent}, {@link ModifierEvent} and {@link GapEvent} classes
+   * are registered.
+   */
+  public EventFrameCodec() {
+    registerSexpClass(HeadEvent.class);
+    registerSexpClass(ModifierEvent.class);
+    registerSexpClass(GapEvent.class);
+  }
+
+  public FrameCodec newCodec() {
+    return new EventFrameCodec();
+  }
+
+  /**
+   * Returns the string form of the specified object if it is an instance
+   * of {@link HeadEvent}, {@link ModifierEvent} or {@link GapEvent}, and
+   * otherwise returns the value of the superclass' implementation.
+   */
+  protected String sexpString(Object obj) {
+    Class cl = obj.getClass();
+    if (cl == HeadEvent.class || cl == ModifierEvent.class ||
+	cl == GapEvent.class)
+      return obj.toString();
+    return super.sexpString(obj);
+  }
+}
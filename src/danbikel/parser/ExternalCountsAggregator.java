@@ -0,0 +1,336 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import danbikel.lisp.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Aggregates the counts of a type of {@link TrainerEvent} on disk, for use
+ * when the counts of all observed events would not fit in memory.  Counts
+ * tables are {@linkplain #spill(CountsTable) spilled} as sorted <i>runs</i>
+ * to temporary files, and all runs are eventually {@linkplain
+ * #merge(File,double) merged} into a single observation file in which every
+ * event appears exactly once, with the sum of its counts from all runs.
+ * Since events are sorted and merged by their string representations, a
+ * merge reads each run sequentially and holds only one event per run in
+ * memory.  No more than a fixed number of runs are merged at once (see
+ * {@link Settings#trainerMaxMergeFanIn}); when there are more runs than
+ * that, they are merged in successive passes into intermediate runs.  Each
+ * run is deleted as soon as it has been merged.
+ * <p>
+ * Runs and merged output are written in the format written by
+ * {@link Trainer#writeStats(Writer)}, one observation per line, so that the
+ * merged output may be read back using a {@link FileBackedTrainerEventMap}.
+ *
+ * @see Settings#trainerMaxEventsInMemory
+ * @see Model#deriveCountsExternally(CountsTable,Filter,FlexibleMap)
+ */
+public class ExternalCountsAggregator {
+  // inner class
+
+  /**
+   * Reads the observations of a sorted run, one line at a time.
+   */
+  private static class RunReader implements Comparable<RunReader> {
+    File run;
+    BufferedReader reader;
+    String key;
+    double count;
+
+    RunReader(File run) throws IOException {
+      this.run = run;
+      reader =
+	new BufferedReader(new InputStreamReader(new FileInputStream(run),
+						 Language.encoding()),
+			   Constants.defaultFileBufsize);
+      try {
+	advance();
+      }
+      catch (IOException ioe) {
+	close();
+	throw ioe;
+      }
+    }
+
+    /**
+     * Reads the next observation of this run, of the form
+     * <tt>(name&nbsp;key&nbsp;count)</tt>, returning <code>false</code>
+     * and deleting the run if there are no more observations.
+     */
+    boolean advance() throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+	key = null;
+	close();
+	return false;
+      }
+      int keyStart = line.indexOf(' ') + 1;
+      int countStart = line.lastIndexOf(' ') + 1;
+      key = line.substring(keyStart, countStart - 1);
+      count = Double.parseDouble(line.substring(countStart,
+						line.length() - 1));
+      return true;
+    }
+
+    /** Closes this reader and deletes its run. */
+    void close() {
+      try {
+	reader.close();
+      }
+      catch (IOException ioe) {}
+      run.delete();
+    }
+
+    public int compareTo(RunReader other) {
+      return key.compareTo(other.key);
+    }
+  }
+
+  // data members
+  private Symbol type;
+  private File tmpDir;
+  private int maxFanIn;
+  private List<File> runs = new ArrayList<File>();
+
+  /**
+   * Constructs a new aggregator for events of the specified type, whose runs
+   * will be written to the default temporary-file directory (as given by
+   * the <tt>java.io.tmpdir</tt> system property).
+   *
+   * @param type the type of the events to be aggregated, such as
+   * {@link Trainer#headEventSym}
+   */
+  public ExternalCountsAggregator(Symbol type) {
+    this(type, null);
+  }
+
+  /**
+   * Constructs a new aggregator for events of the specified type, whose runs
+   * will be written to the specified directory.
+   *
+   * @param type the type of the events to be aggregated, such as
+   * {@link Trainer#headEventSym}
+   * @param tmpDir the directory in which to create temporary files, or
+   * <code>null</code> to use the default temporary-file directory
+   */
+  public ExternalCountsAggregator(Symbol type, File tmpDir) {
+    this(type, tmpDir, Settings.getInteger(Settings.trainerMaxMergeFanIn));
+  }
+
+  /**
+   * Constructs a new aggregator for events of the specified type, whose runs
+   * will be written to the specified directory and merged no more than the
+   * specified number at a time.
+   *
+   * @param type the type of the events to be aggregated, such as
+   * {@link Trainer#headEventSym}
+   * @param tmpDir the directory in which to create temporary files, or
+   * <code>null</code> to use the default temporary-file directory
+   * @param maxFanIn the maximum number of runs to merge at once, which must
+   * be greater than <tt>1</tt>
+   *
+   * @see Settings#trainerMaxMergeFanIn
+   */
+  public ExternalCountsAggregator(Symbol type, File tmpDir, int maxFanIn) {
+    if (maxFanIn < 2)
+      throw new IllegalArgumentException("maximum fan-in must be at least " +
+					 "2: " + maxFanIn);
+    this.type = type;
+    this.tmpDir = tmpDir;
+    this.maxFanIn = maxFanIn;
+  }
+
+  /**
+   * Returns the number of runs spilled by this aggregator that have not yet
+   * been merged.
+   */
+  public int numRuns() { return runs.size(); }
+
+  private File newTempFile() throws IOException {
+    return File.createTempFile("dbparser-" + type + "-", ".txt", tmpDir);
+  }
+
+  private Writer newWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+						     Language.encoding()),
+			      Constants.defaultFileBufsize);
+  }
+
+  /**
+   * Writes the specified counts table as a new sorted run.  The caller
+   * typically clears the table afterwards, to reclaim its memory.
+   *
+   * @param counts the counts table to spill
+   * @throws IOException if the run cannot be written
+   */
+  public void spill(CountsTable counts) throws IOException {
+    int size = counts.size();
+    if (size == 0)
+      return;
+    final String[] keys = new String[size];
+    double[] countArr = new double[size];
+    Integer[] order = new Integer[size];
+    int i = 0;
+    Iterator it = counts.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      keys[i] = String.valueOf(entry.getKey());
+      countArr[i] = entry.getDoubleValue();
+      order[i] = Integer.valueOf(i);
+      i++;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer i1, Integer i2) {
+	return keys[i1.intValue()].compareTo(keys[i2.intValue()]);
+      }
+    });
+
+    File run = newTempFile();
+    Writer writer = null;
+    try {
+      writer = newWriter(run);
+      for (i = 0; i < size; i++) {
+	int idx = order[i].intValue();
+	writeObservation(writer, keys[idx], countArr[idx]);
+      }
+      writer.close();
+      writer = null;
+    }
+    finally {
+      if (writer != null) {
+	try { writer.close(); } catch (IOException ioe) {}
+	run.delete();
+      }
+    }
+    runs.add(run);
+  }
+
+  private void writeObservation(Writer writer, String key, double count)
+    throws IOException {
+    writer.write("(");
+    writer.write(type.toString());
+    writer.write(" ");
+    writer.write(key);
+    writer.write(" ");
+    writer.write(String.valueOf(count));
+    writer.write(")\n");
+  }
+
+  /**
+   * Merges all runs spilled by this aggregator into the specified file,
+   * summing the counts of equal events, and deletes the runs.  Events whose
+   * total counts are less than the specified threshold are not written.  If
+   * there are more runs than the maximum fan-in of this aggregator, runs
+   * are first merged that many at a time into intermediate runs, until no
+   * more than that many remain.
+   *
+   * @param output the file to which to write the merged observations, which
+   * are sorted by the string representations of their events
+   * @param threshold the count below which to discard events
+   * @return the number of distinct events written to the specified file
+   * @throws IOException if a run cannot be read or the output cannot be
+   * written
+   */
+  public int merge(File output, double threshold) throws IOException {
+    try {
+      while (runs.size() > maxFanIn) {
+	List<File> pass = runs.subList(0, maxFanIn);
+	List<File> toMerge = new ArrayList<File>(pass);
+	pass.clear();
+	File intermediate = newTempFile();
+	try {
+	  mergeRuns(toMerge, intermediate, Double.NEGATIVE_INFINITY);
+	}
+	catch (IOException ioe) {
+	  intermediate.delete();
+	  throw ioe;
+	}
+	runs.add(intermediate);
+      }
+      List<File> toMerge = new ArrayList<File>(runs);
+      runs.clear();
+      return mergeRuns(toMerge, output, threshold);
+    }
+    finally {
+      // if a pass failed, the runs not yet merged are of no further use
+      for (int i = 0; i < runs.size(); i++)
+	((File)runs.get(i)).delete();
+      runs.clear();
+    }
+  }
+
+  /**
+   * Merges the specified runs into the specified file, deleting each run as
+   * soon as it has been read (or, if an error occurs, when the merge is
+   * abandoned).
+   *
+   * @return the number of distinct events written to the specified file
+   */
+  private int mergeRuns(List<File> toMerge, File output, double threshold)
+    throws IOException {
+    List<RunReader> readers = new ArrayList<RunReader>(toMerge.size());
+    Writer writer = null;
+    try {
+      PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+      for (int i = 0; i < toMerge.size(); i++) {
+	RunReader run = new RunReader((File)toMerge.get(i));
+	readers.add(run);
+	if (run.key != null)
+	  queue.add(run);
+      }
+      writer = newWriter(output);
+      int numEvents = 0;
+      while (!queue.isEmpty()) {
+	RunReader run = queue.poll();
+	String key = run.key;
+	double count = run.count;
+	if (run.advance())
+	  queue.add(run);
+	while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+	  run = queue.poll();
+	  count += run.count;
+	  if (run.advance())
+	    queue.add(run);
+	}
+	if (count >= threshold) {
+	  writeObservation(writer, key, count);
+	  numEvents++;
+	}
+      }
+      writer.close();
+      writer = null;
+      return numEvents;
+    }
+    finally {
+      if (writer != null) {
+	try { writer.close(); } catch (IOException ioe) {}
+      }
+      for (int i = 0; i < readers.size(); i++)
+	((RunReader)readers.get(i)).close();
+      for (int i = 0; i < toMerge.size(); i++)
+	((File)toMerge.get(i)).delete();
+    }
+  }
+
+  /**
+   * Merges all runs spilled by this aggregator into a new temporary file,
+   * as by {@link #merge(File,double)}, and returns a map backed by that file.
+   *
+   * @param threshold the count below which to discard events
+   * @return a map of the aggregated events to their counts, backed by a
+   * temporary file that is deleted when the virtual machine exits
+   * @throws IOException if a run cannot be read or the output cannot be
+   * written
+   */
+  public FileBackedTrainerEventMap mergeToMap(double threshold)
+    throws IOException {
+    File output = newTempFile();
+    output.deleteOnExit();
+    int numEvents = merge(output, threshold);
+    System.err.println(getClass().getName() + ": merged " + numEvents +
+		       " distinct " + type + " events into \"" + output +
+		       "\"");
+    return new FileBackedTrainerEventMap(type, output);
+  }
+}
@@ -0,0 +1,315 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sorts records too numerous to hold in memory by one of their fields, for
+ * use when deriving the counts of a {@link Model} on disk (see
+ * {@link Model#deriveCountsExternally(CountsTable,Filter,FlexibleMap)}).  A
+ * record is an array of strings, none of which may contain a tab or a
+ * newline character.  Records are {@linkplain #add(String[]) added} to an
+ * in-memory buffer, which is written as a sorted <i>run</i> to a temporary
+ * file whenever it is full; when all records have been added, the runs are
+ * {@linkplain #sort() merged} into a single sorted file, no more than a fixed
+ * number of runs at a time (see {@link Settings#trainerMaxMergeFanIn}).
+ * Records are compared by the string value of their key field, so that
+ * records whose key fields are equal are adjacent in the sorted file.  Each
+ * run is deleted as soon as it has been merged.
+ * <p>
+ * Records are stored one per line, with their fields separated by tabs, and
+ * may be read back using a {@link RecordReader}.
+ *
+ * @see ExternalCountsAggregator
+ */
+public class ExternalSorter {
+  // inner classes
+
+  /**
+   * Reads the records of a file written by an {@link ExternalSorter}, one
+   * record at a time.
+   */
+  public static class RecordReader implements Comparable<RecordReader> {
+    private File file;
+    private BufferedReader reader;
+    private int keyField;
+    private String[] record;
+
+    /**
+     * Opens the specified file of records and reads its first record.
+     *
+     * @param file a file of records written by an <code>ExternalSorter</code>
+     * @param keyField the index of the field by which this reader is to be
+     * compared to other readers when merging
+     * @throws IOException if the file cannot be opened or read
+     */
+    public RecordReader(File file, int keyField) throws IOException {
+      this.file = file;
+      this.keyField = keyField;
+      reader =
+	new BufferedReader(new InputStreamReader(new FileInputStream(file),
+						 Language.encoding()),
+			   Constants.defaultFileBufsize);
+      try {
+	advance();
+      }
+      catch (IOException ioe) {
+	close();
+	throw ioe;
+      }
+    }
+
+    /**
+     * Returns the current record of this reader, or <code>null</code> if
+     * all records have been read.
+     */
+    public String[] record() { return record; }
+
+    /** Returns the key field of the current record of this reader. */
+    String key() { return record[keyField]; }
+
+    /**
+     * Reads the next record, returning <code>false</code> and closing this
+     * reader if there are no more records.
+     */
+    public boolean advance() throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+	record = null;
+	close();
+	return false;
+      }
+      record = split(line);
+      return true;
+    }
+
+    /** Closes this reader. */
+    public void close() {
+      try {
+	reader.close();
+      }
+      catch (IOException ioe) {}
+    }
+
+    /** Closes this reader and deletes its file. */
+    public void delete() {
+      close();
+      file.delete();
+    }
+
+    public int compareTo(RecordReader other) {
+      return key().compareTo(other.key());
+    }
+  }
+
+  // data members
+  private String name;
+  private File tmpDir;
+  private int keyField;
+  private int capacity;
+  private int maxFanIn;
+  private List<String[]> buffer = new ArrayList<String[]>();
+  private List<File> runs = new ArrayList<File>();
+  private Comparator<String[]> comparator;
+
+  /**
+   * Constructs a new sorter whose runs are written to the default
+   * temporary-file directory and merged no more than the number of runs
+   * given by {@link Settings#trainerMaxMergeFanIn} at a time.
+   *
+   * @param name a name used in the names of the temporary files created by
+   * this sorter
+   * @param keyField the index of the field by which to sort records
+   * @param capacity the maximum number of records to hold in memory
+   */
+  public ExternalSorter(String name, int keyField, int capacity) {
+    this(name, null, keyField, capacity,
+	 Settings.getInteger(Settings.trainerMaxMergeFanIn));
+  }
+
+  /**
+   * Constructs a new sorter.
+   *
+   * @param name a name used in the names of the temporary files created by
+   * this sorter
+   * @param tmpDir the directory in which to create temporary files, or
+   * <code>null</code> to use the default temporary-file directory
+   * @param keyField the index of the field by which to sort records
+   * @param capacity the maximum number of records to hold in memory, which
+   * must be at least <tt>1</tt>
+   * @param maxFanIn the maximum number of runs to merge at once, which must
+   * be greater than <tt>1</tt>
+   */
+  public ExternalSorter(String name, File tmpDir, int keyField, int capacity,
+			int maxFanIn) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be at least 1: " +
+					 capacity);
+    if (maxFanIn < 2)
+      throw new IllegalArgumentException("maximum fan-in must be at least " +
+					 "2: " + maxFanIn);
+    this.name = name;
+    this.tmpDir = tmpDir;
+    this.keyField = keyField;
+    this.capacity = capacity;
+    this.maxFanIn = maxFanIn;
+    final int field = keyField;
+    comparator = new Comparator<String[]>() {
+      public int compare(String[] r1, String[] r2) {
+	return r1[field].compareTo(r2[field]);
+      }
+    };
+  }
+
+  /**
+   * Returns a new temporary file, whose name includes the name of this
+   * sorter, in the temporary-file directory of this sorter.
+   */
+  public File newTempFile() throws IOException {
+    return File.createTempFile("dbparser-" + name + "-", ".txt", tmpDir);
+  }
+
+  /** Returns a new writer for the specified file of records. */
+  public static Writer newWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+						     Language.encoding()),
+			      Constants.defaultFileBufsize);
+  }
+
+  /** Writes the specified record as a single line. */
+  public static void write(Writer writer, String[] record)
+    throws IOException {
+    for (int i = 0; i < record.length; i++) {
+      if (i > 0)
+	writer.write('\t');
+      writer.write(record[i]);
+    }
+    writer.write('\n');
+  }
+
+  private static String[] split(String line) {
+    int numFields = 1;
+    for (int i = line.indexOf('\t'); i != -1; i = line.indexOf('\t', i + 1))
+      numFields++;
+    String[] record = new String[numFields];
+    int start = 0;
+    for (int i = 0; i < numFields - 1; i++) {
+      int end = line.indexOf('\t', start);
+      record[i] = line.substring(start, end);
+      start = end + 1;
+    }
+    record[numFields - 1] = line.substring(start);
+    return record;
+  }
+
+  /**
+   * Adds the specified record to this sorter, writing the records in memory
+   * as a new run if the capacity of this sorter has been reached.
+   *
+   * @param record the record to add
+   * @throws IOException if a run cannot be written
+   */
+  public void add(String[] record) throws IOException {
+    buffer.add(record);
+    if (buffer.size() >= capacity)
+      spill();
+  }
+
+  private void spill() throws IOException {
+    if (buffer.isEmpty())
+      return;
+    Collections.sort(buffer, comparator);
+    File run = newTempFile();
+    Writer writer = null;
+    try {
+      writer = newWriter(run);
+      for (int i = 0; i < buffer.size(); i++)
+	write(writer, (String[])buffer.get(i));
+      writer.close();
+      writer = null;
+    }
+    finally {
+      if (writer != null) {
+	try { writer.close(); } catch (IOException ioe) {}
+	run.delete();
+      }
+    }
+    buffer.clear();
+    runs.add(run);
+  }
+
+  /**
+   * Merges all records added to this sorter into a single temporary file,
+   * sorted by their key fields, and deletes all runs.  The caller is
+   * responsible for deleting the returned file.
+   *
+   * @return a temporary file containing all records added to this sorter
+   * @throws IOException if a run cannot be read or written
+   */
+  public File sort() throws IOException {
+    spill();
+    try {
+      while (runs.size() > maxFanIn) {
+	List<File> pass = runs.subList(0, maxFanIn);
+	List<File> toMerge = new ArrayList<File>(pass);
+	pass.clear();
+	runs.add(merge(toMerge));
+      }
+      if (runs.size() == 1)
+	return (File)runs.remove(0);
+      List<File> toMerge = new ArrayList<File>(runs);
+      runs.clear();
+      return merge(toMerge);
+    }
+    finally {
+      // if a pass failed, the runs not yet merged are of no further use
+      for (int i = 0; i < runs.size(); i++)
+	((File)runs.get(i)).delete();
+      runs.clear();
+    }
+  }
+
+  /**
+   * Merges the specified runs into a new temporary file, deleting each run
+   * once it has been read, or when the merge is abandoned.
+   */
+  private File merge(List<File> toMerge) throws IOException {
+    File output = newTempFile();
+    List<RecordReader> readers = new ArrayList<RecordReader>(toMerge.size());
+    Writer writer = null;
+    try {
+      PriorityQueue<RecordReader> queue = new PriorityQueue<RecordReader>();
+      for (int i = 0; i < toMerge.size(); i++) {
+	RecordReader run = new RecordReader((File)toMerge.get(i), keyField);
+	readers.add(run);
+	if (run.record() != null)
+	  queue.add(run);
+      }
+      writer = newWriter(output);
+      while (!queue.isEmpty()) {
+	RecordReader run = queue.poll();
+	write(writer, run.record());
+	if (run.advance())
+	  queue.add(run);
+      }
+      writer.close();
+      writer = null;
+      return output;
+    }
+    catch (IOException ioe) {
+      output.delete();
+      throw ioe;
+    }
+    finally {
+      if (writer != null) {
+	try { writer.close(); } catch (IOException ioe) {}
+	output.delete();
+      }
+      for (int i = 0; i < readers.size(); i++)
+	((RecordReader)readers.get(i)).close();
+      for (int i = 0; i < toMerge.size(); i++)
+	((File)toMerge.get(i)).delete();
+    }
+  }
+}
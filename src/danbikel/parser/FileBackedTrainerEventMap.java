@@ -9,10 +9,11 @@ import java.io.*;
 /**
  * Presents an immutable map of a type of {@link TrainerEvent} objects to
  * observed counts, backed by a file of the form output by
- * {@link Trainer#writeStats}.  The contract of the {@link java.util.Map}
- * interface may be violated if the underlying file does not contain
- * a collection of unique <code>TrainerEvent</code> objects; however, this
- * contract violation may not be a problem for many kinds of operations,
+ * {@link Trainer#writeStats}, in either its text or its binary form.  The
+ * contract of the {@link java.util.Map} interface may be violated if the
+ * underlying file does not contain a collection of unique
+ * <code>TrainerEvent</code> objects; however, this contract violation may
+ * not be a problem for many kinds of operations,
  * such as those that rely simply on the ability to iterate over all
  * observed events.  One such operation is the additive derivation of
  * counts as implemented by the method
@@ -226,13 +227,29 @@ public class FileBackedTrainerEventMap
   }
 
   /**
-   * Throws an {@link UnsupportedOperationException}, because isn't it silly
-   * to try to copy an already file-backed map to a file?
+   * Copies the events of this map and their counts to the specified writer,
+   * in the format of {@link CountsTable#output(String,Writer)}.  While it is
+   * somewhat silly to copy an already file-backed map to a file, this
+   * allows {@link Trainer#writeStats(Writer)} to write event counts that
+   * were {@linkplain ExternalCountsAggregator aggregated on disk}.
+   *
+   * @param eventName the name of the events to write
+   * @param writer the writer to which to write this map&rsquo;s events
+   * @throws IOException if the writer throws an <code>IOException</code>
    */
-  public void output(String filename, java.io.Writer writer) {
-    throw new UnsupportedOperationException(getClass().getName() +
-                                            "silly to copy a map that is " +
-                                            "already file-backed");
+  public void output(String eventName, java.io.Writer writer)
+    throws IOException {
+    Iterator it = entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      writer.write("(");
+      writer.write(eventName);
+      writer.write(" ");
+      writer.write(String.valueOf(entry.getKey()));
+      writer.write(" ");
+      writer.write(String.valueOf(entry.getDoubleValue()));
+      writer.write(")\n");
+    }
   }
 
   /**
@@ -252,15 +269,18 @@ public class FileBackedTrainerEventMap
         return size;
       }
       public Iterator iterator() {
-        SexpTokenizer tok = null;
         try {
-          tok = new SexpTokenizer(file, Language.encoding(),
-                                  Constants.defaultFileBufsize);
+          if (BinaryEventReader.isBinaryEventFile(file)) {
+            BinaryEventReader reader = new BinaryEventReader(file);
+            return new CachingIterator(Trainer.getEventIterator(reader, type));
+          }
+          SexpTokenizer tok = new SexpTokenizer(file, Language.encoding(),
+                                                Constants.defaultFileBufsize);
+          return new CachingIterator(Trainer.getEventIterator(tok, type));
         }
         catch (IOException ioe) {
           throw new RuntimeException(ioe.toString());
         }
-        return new CachingIterator(Trainer.getEventIterator(tok, type));
       }
     };
   }
@@ -11,6 +11,9 @@ import java.util.*;
 
 public class InterpolatedKnesserNeyModel extends Model {
   // constants
+  // the value computed for the original version of this class, so that
+  // existing model files remain readable
+  private static final long serialVersionUID = -6448483755848877666L;
   private final static boolean verboseDebug = false;
 
   // data members
@@ -27,6 +30,16 @@ public class InterpolatedKnesserNeyModel extends Model {
     super(structure);
   }
 
+  /**
+   * Returns <code>false</code>, since whether an event contributes to the
+   * counts of a back-off level of this model depends on whether its
+   * transition at the previous level had already been seen, and so depends
+   * on all previously-derived events.
+   */
+  public boolean countsAreAdditive() {
+    return false;
+  }
+
   public void deriveCounts(CountsTable trainerCounts, Filter filter,
                            double threshold, FlexibleMap canonical,
                            boolean deriveOtherModelCounts) {
@@ -163,7 +176,7 @@ public class InterpolatedKnesserNeyModel extends Model {
         if (Debug.level >= 21) {
           System.err.print("level " + level + ": getting cached  P");
         }
-        MapToPrimitive.Entry cacheProbEntry = cache[level].getProb(transition);
+        MapToPrimitive.Entry cacheProbEntry = getCachedProb(level, transition);
         if (cacheProbEntry != null) {
           if (Debug.level >= 21) {
             System.err.println(cacheProbEntry);
@@ -238,11 +251,11 @@ public class InterpolatedKnesserNeyModel extends Model {
         }
 
         putInCache:
-        if (!cache[level].containsKey(transition)) {
+        if (!cacheContains(level, transition)) {
           numCacheAdds++;
           Transition canonTrans = (Transition)canonicalEvents.get(transition);
           if (canonTrans != null) {
-            cache[level].put(canonTrans, prob);
+            addToCache(level, canonTrans, prob);
             numCanonicalHits++;
           }
           else {
@@ -269,7 +282,7 @@ public class InterpolatedKnesserNeyModel extends Model {
               numCanonicalHits++;
               //System.err.println("hit: " + future);
             }
-            cache[level].put(new Transition(future, hist), prob);
+            addToCache(level, new Transition(future, hist), prob);
             //cache[level].put(transition.copy(), prob);
           }
         }
@@ -35,6 +35,10 @@ import danbikel.util.*;
  * @see ProbabilityStructure#jointModel()
  */
 public class JointModel extends Model {
+  // the value computed for the original version of this class, so that
+  // existing model files remain readable
+  private static final long serialVersionUID = -3585479971605890846L;
+
   private final static String className = Model.class.getName();
 
   protected int numOtherModels;
@@ -123,6 +127,34 @@ public class JointModel extends Model {
     }
   }
 
+  /**
+   * Returns whether the counts of this <code>Model</code> and of all
+   * internal <code>Model</code> instances are additive.
+   */
+  public boolean countsAreAdditive() {
+    if (!super.countsAreAdditive())
+      return false;
+    for (int i = 0; i < numOtherModels; i++)
+      if (!otherModels[i].countsAreAdditive())
+	return false;
+    return true;
+  }
+
+  /**
+   * Adds the counts of the specified joint model to those of this
+   * <code>Model</code>, and the counts of each of its internal
+   * <code>Model</code> instances to those of the corresponding internal
+   * <code>Model</code> of this object.
+   *
+   * @param other a joint model with the same structure as this model
+   */
+  public void addCounts(Model other) {
+    super.addCounts(other);
+    JointModel otherJoint = (JointModel)other;
+    for (int i = 0; i < numOtherModels; i++)
+      otherModels[i].addCounts(otherJoint.otherModels[i]);
+  }
+
   /**
    * Precomputes probabilities and smoothing values for this <code>Model</code>
    * and for all internal <code>Model</code> instances.
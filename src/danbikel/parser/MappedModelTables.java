@@ -0,0 +1,635 @@
+package danbikel.parser;
+
+import danbikel.lisp.*;
+import danbikel.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Writes and maps a file containing the precomputed probability and lambda
+ * tables of all the models of a {@link ModelCollection}, so that a decoder
+ * can use them without deserializing them.  The tables are by far the
+ * largest part of a model file whose models precompute their probabilities
+ * (see {@link Settings#precomputeProbs}); once they have been moved into a
+ * mapped file, the remaining, serialized part of the model file (containing
+ * the various small maps a decoder needs) is loaded in a small fraction of
+ * the time, and the pages of the tables are loaded by the operating system
+ * on demand and shared among all processes mapping the same file.
+ * <p>
+ * Since {@link Symbol} objects do not have hash codes that are stable across
+ * virtual machines, each history and transition is identified in a mapped
+ * file by a 64-bit fingerprint of its contents (see
+ * {@link #fingerprint(Event)}).
+ * <p>
+ * The format of a mapped table file is as follows (all values are
+ * big-endian):
+ * <ul>
+ * <li>the magic number {@link #magic} and the format version number
+ * {@link #version}, as <code>int</code> values
+ * <li>the number of distinct tables, followed by a directory entry for each
+ * table: the number of transitions, the number of transition slots and the
+ * offset of the transition region, followed by the number of lambda slots
+ * and the offset of the lambda region (zero if the table has no lambdas)
+ * <li>the number of models, and for each model (in the order of
+ * {@link ModelCollection#modelList()}, with the sub-models of a
+ * {@link JointModel} in place of the joint model itself) its number of
+ * back-off levels followed by the index of the table of each level
+ * <li>the regions, each of which consists of an open-addressed table of
+ * <code>long</code> fingerprints followed by a parallel array of
+ * <code>double</code> values
+ * </ul>
+ * The {@link #main(String[])} method of this class converts an ordinary
+ * model file to a mapped table file and a reduced model file that refers to
+ * it, which may then be used anywhere an ordinary model file is used.
+ *
+ * @see MappedProbTable
+ * @see ModelCollection#getMappedTablesFilename()
+ * @see Trainer#loadModelCollection(String)
+ */
+public class MappedModelTables {
+  /** The magic number at the beginning of every mapped table file. */
+  public final static int magic = 0x44425054;
+  /**
+   * The version of the mapped table file format written by this class.
+   * Version 1 fingerprinted subcats by their printed representations, which
+   * are not the same in every virtual machine.
+   */
+  public final static int version = 2;
+  /** The suffix of the filename of a mapped table file. */
+  public final static String filenameSuffix = ".tables";
+
+  // the fingerprint used to mark empty slots; no event or transition is
+  // ever given this fingerprint
+  final static long emptyKey = 0L;
+  private final static double loadFactor = 0.6;
+  // the maximum number of slots of a region, so that each of its two parts
+  // (of eight bytes per slot) may be mapped by a single buffer, whose size
+  // may be at most Integer.MAX_VALUE bytes
+  private final static int maxSlots = 1 << 27;
+
+  private final static long fnvOffsetBasis = 0xcbf29ce484222325L;
+  private final static long fnvPrime = 0x100000001b3L;
+  private final static long combineMultiplier = 0x9e3779b97f4a7c15L;
+
+  private MappedModelTables() {}
+
+  /** The finalization step of MurmurHash3. */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static long nonEmpty(long key) {
+    return key == emptyKey ? 1L : key;
+  }
+
+  /** Returns the slot at which probing for the specified key begins. */
+  static int slot(long key, int mask) {
+    return (int)(key ^ (key >>> 32)) & mask;
+  }
+
+  private static long combine(long h, long value) {
+    return (h + value) * combineMultiplier;
+  }
+
+  private static long fingerprint(String str) {
+    long h = fnvOffsetBasis;
+    int len = str.length();
+    for (int i = 0; i < len; i++) {
+      h ^= str.charAt(i);
+      h *= fnvPrime;
+    }
+    return h;
+  }
+
+  /**
+   * Returns a fingerprint of the specified event component, computed from
+   * its structure rather than from its printed representation, which for
+   * some components (such as a {@link SubcatBag}) depends on the order in
+   * which symbols were first seen by a particular virtual machine.  Symbols
+   * are fingerprinted by name and lists element by element; a subcat that is
+   * not a list is fingerprinted as the unordered multiset of its
+   * requirements.
+   *
+   * @throws IllegalArgumentException if the specified object is not a
+   * symbol, list, subcat or word
+   */
+  private static long fingerprint(Object obj) {
+    if (obj instanceof Symbol)
+      return fingerprint(obj.toString());
+    else if (obj instanceof SexpList) {
+      SexpList list = (SexpList)obj;
+      int len = list.length();
+      long h = combine(1L, len);
+      for (int i = 0; i < len; i++)
+	h = combine(h, mix(fingerprint(list.get(i))));
+      return h;
+    }
+    else if (obj instanceof Subcat) {
+      Subcat subcat = (Subcat)obj;
+      long[] requirements = new long[subcat.size()];
+      int len = 0;
+      Iterator it = subcat.iterator();
+      while (it.hasNext())
+	requirements[len++] = mix(fingerprint(it.next()));
+      Arrays.sort(requirements, 0, len);
+      long h = combine(2L, len);
+      for (int i = 0; i < len; i++)
+	h = combine(h, requirements[i]);
+      return h;
+    }
+    else if (obj instanceof Word) {
+      Word word = (Word)obj;
+      long h = combine(3L, mix(fingerprint(word.word())));
+      h = combine(h, mix(fingerprint(word.tag())));
+      if (word.features() != null)
+	h = combine(h, mix(fingerprint(word.features())));
+      return h;
+    }
+    else
+      throw new IllegalArgumentException("cannot fingerprint event " +
+					 "component of type " +
+					 (obj == null ? null :
+					  obj.getClass().getName()));
+  }
+
+  /**
+   * Returns a 64-bit fingerprint of the specified event, computed from the
+   * structure of its components.  Unlike the hash codes of
+   * events, fingerprints are the same in every virtual machine.  The
+   * fingerprint returned is never equal to {@link #emptyKey}.
+   *
+   * @param event the event whose fingerprint is to be computed
+   * @return a 64-bit fingerprint of the specified event
+   */
+  public static long fingerprint(Event event) {
+    long h = 0L;
+    int numTypes = event.numTypes();
+    for (int type = 0; type < numTypes; type++) {
+      int numComponents = event.numComponents(type);
+      h = combine(h, (((long)type) << 32) | numComponents);
+      for (int i = 0; i < numComponents; i++)
+	h = combine(h, mix(fingerprint(event.get(type, i))));
+    }
+    return nonEmpty(mix(h));
+  }
+
+  /**
+   * Returns the key of the transition with the specified history and future
+   * fingerprints.
+   */
+  static long transitionKey(long historyFingerprint, long futureFingerprint) {
+    return nonEmpty(mix(combine(historyFingerprint, futureFingerprint)));
+  }
+
+  /**
+   * Returns a list of all the models of the specified model collection
+   * whose tables are stored in a mapped table file, in the order in which
+   * they are stored.
+   */
+  private static List models(ModelCollection mc) {
+    List models = new ArrayList();
+    Iterator it = mc.modelIterator();
+    while (it.hasNext()) {
+      Model model = (Model)it.next();
+      for (int j = 0; j < model.numModels(); j++)
+	models.add(model.getModel(j));
+    }
+    return models;
+  }
+
+  private static int numSlots(int size) throws IOException {
+    long needed = (long)Math.ceil(size / loadFactor) + 1;
+    int slots = 2;
+    while (slots < needed) {
+      if (slots >= maxSlots)
+	throw new IOException("table with " + size + " entries is too large " +
+			      "to be mapped");
+      slots <<= 1;
+    }
+    return slots;
+  }
+
+  /**
+   * Writes the precomputed probability and lambda tables of all the models
+   * of the specified model collection to a mapped table file.
+   *
+   * @param mc the model collection whose tables are to be written; its models
+   * must have precomputed probabilities
+   * @param filename the name of the mapped table file to be written
+   * @throws IOException if there is a problem writing to the specified file,
+   * or if two different transitions or histories of a table have the same
+   * fingerprint, in which case the partially written file is deleted
+   * @throws IllegalArgumentException if a model of the specified collection
+   * does not have precomputed probabilities
+   */
+  public static void write(ModelCollection mc, String filename)
+    throws IOException {
+    // assign an index to every distinct table, as models may share levels
+    List models = models(mc);
+    Map tableIndices = new IdentityHashMap();
+    List probTables = new ArrayList();
+    List lambdaTables = new ArrayList();
+    int[][] modelTables = new int[models.size()][];
+    for (int i = 0; i < models.size(); i++) {
+      Model model = (Model)models.get(i);
+      if (model.precomputedProbs == null)
+	throw new IllegalArgumentException(model.getProbStructure().getClass().
+					   getName() + " does not have " +
+					   "precomputed probabilities");
+      modelTables[i] = new int[model.numLevels];
+      for (int level = 0; level < model.numLevels; level++) {
+	HashMapDouble probs = model.precomputedProbs[level];
+	HashMapDouble lambdas =
+	  level < model.precomputedLambdas.length ?
+	  model.precomputedLambdas[level] : null;
+	Integer index = (Integer)tableIndices.get(probs);
+	if (index == null ||
+	    (lambdas != null && !index.equals(tableIndices.get(lambdas)))) {
+	  index = Integer.valueOf(probTables.size());
+	  probTables.add(probs);
+	  lambdaTables.add(lambdas);
+	  tableIndices.put(probs, index);
+	  if (lambdas != null)
+	    tableIndices.put(lambdas, index);
+	}
+	modelTables[i][level] = index.intValue();
+      }
+    }
+
+    int numTables = probTables.size();
+    long headerSize = 12 + numTables * 28 + 4;
+    for (int i = 0; i < modelTables.length; i++)
+      headerSize += 4 + 4 * modelTables[i].length;
+    headerSize = (headerSize + 7) & ~7L;
+
+    int[] probSlots = new int[numTables];
+    int[] lambdaSlots = new int[numTables];
+    long[] probOffsets = new long[numTables];
+    long[] lambdaOffsets = new long[numTables];
+    long offset = headerSize;
+    for (int i = 0; i < numTables; i++) {
+      probSlots[i] = numSlots(((HashMapDouble)probTables.get(i)).size());
+      probOffsets[i] = offset;
+      offset += 16L * probSlots[i];
+      HashMapDouble lambdas = (HashMapDouble)lambdaTables.get(i);
+      if (lambdas != null) {
+	lambdaSlots[i] = numSlots(lambdas.size());
+	lambdaOffsets[i] = offset;
+	offset += 16L * lambdaSlots[i];
+      }
+    }
+
+    int bufSize = Constants.defaultFileBufsize;
+    OutputStream os = new FileOutputStream(filename);
+    DataOutputStream dos =
+      new DataOutputStream(new BufferedOutputStream(os, bufSize));
+    boolean success = false;
+    try {
+      writeTables(dos, headerSize, modelTables, probTables, lambdaTables,
+		  probSlots, lambdaSlots, probOffsets, lambdaOffsets);
+      success = true;
+    }
+    finally {
+      dos.close();
+      if (!success)
+	new File(filename).delete();
+    }
+  }
+
+  private static void writeTables(DataOutputStream dos, long headerSize,
+				  int[][] modelTables,
+				  List probTables, List lambdaTables,
+				  int[] probSlots, int[] lambdaSlots,
+				  long[] probOffsets, long[] lambdaOffsets)
+    throws IOException {
+    int numTables = probTables.size();
+    dos.writeInt(magic);
+    dos.writeInt(version);
+    dos.writeInt(numTables);
+    for (int i = 0; i < numTables; i++) {
+      dos.writeInt(((HashMapDouble)probTables.get(i)).size());
+      dos.writeInt(probSlots[i]);
+      dos.writeLong(probOffsets[i]);
+      dos.writeInt(lambdaSlots[i]);
+      dos.writeLong(lambdaOffsets[i]);
+    }
+    dos.writeInt(modelTables.length);
+    for (int i = 0; i < modelTables.length; i++) {
+      dos.writeInt(modelTables[i].length);
+      for (int level = 0; level < modelTables[i].length; level++)
+	dos.writeInt(modelTables[i][level]);
+    }
+    while (dos.size() < headerSize)
+      dos.writeByte(0);
+
+    for (int i = 0; i < numTables; i++) {
+      long[] keys = new long[probSlots[i]];
+      double[] values = new double[probSlots[i]];
+      Iterator it = ((HashMapDouble)probTables.get(i)).entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	Transition trans = (Transition)entry.getKey();
+	long key = transitionKey(fingerprint(trans.history()),
+				 fingerprint(trans.future()));
+	if (!put(keys, values, key, entry.getDoubleValue()))
+	  throw collision(trans);
+      }
+      writeRegion(dos, keys, values);
+
+      HashMapDouble lambdas = (HashMapDouble)lambdaTables.get(i);
+      if (lambdas != null) {
+	keys = new long[lambdaSlots[i]];
+	values = new double[lambdaSlots[i]];
+	it = lambdas.entrySet().iterator();
+	while (it.hasNext()) {
+	  MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	  long key = fingerprint((Event)entry.getKey());
+	  if (!put(keys, values, key, entry.getDoubleValue()))
+	    throw collision(entry.getKey());
+	}
+	writeRegion(dos, keys, values);
+      }
+    }
+  }
+
+  /**
+   * Returns the exception thrown when the fingerprint of the specified key
+   * is the same as that of another key of the same table, which would
+   * otherwise cause the two to share a single value.
+   */
+  private static IOException collision(Object key) {
+    return new IOException("fingerprint collision for " + key + "; " +
+			   "cannot write mapped tables for this model");
+  }
+
+  /**
+   * Adds the specified mapping to the specified open-addressed table,
+   * returning <code>false</code> if the key was already present.
+   */
+  private static boolean put(long[] keys, double[] values,
+			     long key, double value) {
+    int mask = keys.length - 1;
+    for (int idx = slot(key, mask); ; idx = (idx + 1) & mask) {
+      if (keys[idx] == key)
+	return false;
+      if (keys[idx] == emptyKey) {
+	keys[idx] = key;
+	values[idx] = value;
+	return true;
+      }
+    }
+  }
+
+  private static void writeRegion(DataOutputStream dos,
+				  long[] keys, double[] values)
+    throws IOException {
+    for (int i = 0; i < keys.length; i++)
+      dos.writeLong(keys[i]);
+    for (int i = 0; i < values.length; i++)
+      dos.writeDouble(values[i]);
+  }
+
+  /**
+   * Maps the specified mapped table file and sets the precomputed tables of
+   * all the models of the specified model collection to the tables it
+   * contains.
+   *
+   * @param mc the model collection whose models are to use the tables of the
+   * specified file
+   * @param filename the name of a mapped table file written by
+   * {@link #write(ModelCollection,String)} for a model collection identical
+   * to the specified one
+   * @throws IOException if there is a problem reading or mapping the
+   * specified file, or if its contents do not match the specified model
+   * collection
+   *
+   * @see Model#setPrecomputedTables(PrecomputedProbTable[])
+   */
+  public static void attach(ModelCollection mc, String filename)
+    throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(filename, "r");
+    try {
+      if (raf.readInt() != magic)
+	throw new IOException(filename + ": not a mapped table file");
+      int fileVersion = raf.readInt();
+      if (fileVersion != version)
+	throw new IOException(filename + ": unsupported version " +
+			      fileVersion);
+      FileChannel channel = raf.getChannel();
+      int numTables = raf.readInt();
+      MappedProbTable[] tables = new MappedProbTable[numTables];
+      for (int i = 0; i < numTables; i++) {
+	int size = raf.readInt();
+	int probSlots = raf.readInt();
+	long probOffset = raf.readLong();
+	int lambdaSlots = raf.readInt();
+	long lambdaOffset = raf.readLong();
+	LongBuffer probKeys =
+	  map(channel, probOffset, probSlots).asLongBuffer();
+	DoubleBuffer probValues =
+	  map(channel, probOffset + 8L * probSlots, probSlots).asDoubleBuffer();
+	LongBuffer lambdaKeys = null;
+	DoubleBuffer lambdaValues = null;
+	if (lambdaSlots > 0) {
+	  lambdaKeys = map(channel, lambdaOffset, lambdaSlots).asLongBuffer();
+	  lambdaValues = map(channel, lambdaOffset + 8L * lambdaSlots,
+			     lambdaSlots).asDoubleBuffer();
+	}
+	tables[i] = new MappedProbTable(probKeys, probValues,
+					lambdaKeys, lambdaValues, size);
+      }
+
+      List models = models(mc);
+      int numModels = raf.readInt();
+      if (numModels != models.size())
+	throw new IOException(filename + ": contains tables for " + numModels +
+			      " models, but model collection has " +
+			      models.size());
+      for (int i = 0; i < numModels; i++) {
+	Model model = (Model)models.get(i);
+	int numLevels = raf.readInt();
+	if (numLevels != model.numLevels)
+	  throw new IOException(filename + ": model " + i + " has " +
+				numLevels + " levels, but " +
+				model.getProbStructure().getClass().getName() +
+				" has " + model.numLevels);
+	PrecomputedProbTable[] modelTables =
+	  new PrecomputedProbTable[numLevels];
+	for (int level = 0; level < numLevels; level++)
+	  modelTables[level] = tables[raf.readInt()];
+	model.setPrecomputedTables(modelTables);
+      }
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  private static ByteBuffer map(FileChannel channel, long offset, int slots)
+    throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * slots);
+  }
+
+  /**
+   * Looks up every transition and history of the precomputed tables of the
+   * models of the first specified model collection in the tables of the
+   * corresponding models of the second, printing a message to
+   * <code>System.err</code> for each lookup whose value differs.
+   *
+   * @param mc a model collection whose models have precomputed tables that
+   * have not been packed
+   * @param mapped a model collection whose mapped tables were written for a
+   * collection identical to <code>mc</code>
+   * @return the number of lookups whose values differ
+   * @throws IllegalArgumentException if the two collections do not have the
+   * same numbers of models and back-off levels
+   */
+  public static int check(ModelCollection mc, ModelCollection mapped) {
+    List models = models(mc);
+    List mappedModels = models(mapped);
+    if (models.size() != mappedModels.size())
+      throw new IllegalArgumentException("model collections have different " +
+					 "numbers of models");
+    int numLookups = 0, numMismatches = 0;
+    for (int i = 0; i < models.size(); i++) {
+      Model model = (Model)models.get(i);
+      Model mappedModel = (Model)mappedModels.get(i);
+      if (model.precomputedProbs == null || mappedModel.packedTables == null ||
+	  mappedModel.packedTables.length != model.numLevels)
+	throw new IllegalArgumentException("model " + i + " does not have " +
+					   "comparable precomputed tables");
+      for (int level = 0; level < model.numLevels; level++) {
+	PrecomputedProbTable table = mappedModel.packedTables[level];
+	Iterator it = model.precomputedProbs[level].entrySet().iterator();
+	while (it.hasNext()) {
+	  MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	  Transition trans = (Transition)entry.getKey();
+	  double value = table.logProb(table.historyKey(trans.history()),
+				       trans.future());
+	  numLookups++;
+	  if (Double.compare(value, entry.getDoubleValue()) != 0) {
+	    numMismatches++;
+	    System.err.println("model " + i + ", level " + level + ": " +
+			       trans + " has log prob " + value +
+			       " instead of " + entry.getDoubleValue());
+	  }
+	}
+	if (level >= model.precomputedLambdas.length)
+	  continue;
+	it = model.precomputedLambdas[level].entrySet().iterator();
+	while (it.hasNext()) {
+	  MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	  Event history = (Event)entry.getKey();
+	  double value =
+	    table.logOneMinusLambda(table.historyKey(history), Double.NaN);
+	  numLookups++;
+	  if (Double.compare(value, entry.getDoubleValue()) != 0) {
+	    numMismatches++;
+	    System.err.println("model " + i + ", level " + level + ": " +
+			       history + " has log(1 - lambda) " + value +
+			       " instead of " + entry.getDoubleValue());
+	  }
+	}
+      }
+    }
+    System.err.println("Checked " + numLookups + " lookups: " +
+		       numMismatches + " mismatches.");
+    return numMismatches;
+  }
+
+  /**
+   * Converts a model file to a mapped table file and a reduced model file.
+   * <pre>
+   * usage: [-check] &lt;model file&gt; &lt;output model file&gt;
+   * </pre>
+   * The mapped table file is written alongside the output model file, with
+   * the name of the output model file (minus any <tt>.gz</tt> suffix) plus
+   * {@link #filenameSuffix}.  The models of the input model file must have
+   * precomputed probabilities.
+   * <p>
+   * With the <tt>-check</tt> option, nothing is written; instead, the output
+   * model file of a previous conversion is loaded along with its mapped
+   * table file, and every lookup of the tables of the input model file is
+   * compared against it (see {@link #check(ModelCollection,ModelCollection)}).
+   * Since fingerprints must be the same in every virtual machine, this check
+   * should be run in a different virtual machine from the conversion.  The
+   * exit status is nonzero if any lookup differs.
+   */
+  public static void main(String[] args) {
+    boolean check = args.length == 3 && args[0].equals("-check");
+    if (args.length != 2 && !check) {
+      System.err.println("error: need two arguments");
+      System.err.println("usage: [-check] <model file> <output model file>");
+      System.exit(1);
+    }
+    String inputFilename = args[args.length - 2];
+    String outputFilename = args[args.length - 1];
+    String tablesFilename =
+      (outputFilename.endsWith(".gz") ?
+       outputFilename.substring(0, outputFilename.length() - 3) :
+       outputFilename) + filenameSuffix;
+
+    // the tables must be read in their original form in order to be written
+    Settings.set(Settings.modelPackPrecomputedProbs, "false");
+
+    try {
+      int bufSize = Constants.defaultFileBufsize;
+      InputStream is = new FileInputStream(inputFilename);
+      if (inputFilename.endsWith(".gz"))
+	is = new GZIPInputStream(is);
+      ObjectInputStream ois =
+	new ObjectInputStream(new BufferedInputStream(is, bufSize));
+      System.err.println("Reading model file \"" + inputFilename + "\".");
+      Properties props = (Properties)ois.readObject();
+      String trainingInputFilename = (String)ois.readObject();
+      String trainingOutputFilename = (String)ois.readObject();
+      ModelCollection mc = (ModelCollection)ois.readObject();
+      ois.close();
+
+      if (check) {
+	ModelCollection mapped = Trainer.loadModelCollection(outputFilename);
+	System.exit(check(mc, mapped) == 0 ? 0 : 1);
+      }
+
+      System.err.println("Writing mapped table file \"" + tablesFilename +
+			 "\".");
+      write(mc, tablesFilename);
+
+      Iterator it = models(mc).iterator();
+      while (it.hasNext()) {
+	Model model = (Model)it.next();
+	model.precomputedProbs = null;
+	model.precomputedLambdas = null;
+      }
+      mc.setMappedTablesFilename(new File(tablesFilename).getName());
+
+      System.err.println("Writing model file \"" + outputFilename + "\".");
+      OutputStream os = new FileOutputStream(outputFilename);
+      if (outputFilename.endsWith(".gz"))
+	os = new GZIPOutputStream(os);
+      ObjectOutputStream oos =
+	new ObjectOutputStream(new BufferedOutputStream(os, bufSize));
+      oos.writeObject(props);
+      oos.writeObject(trainingInputFilename);
+      oos.writeObject(trainingOutputFilename);
+      oos.writeObject(mc);
+      oos.close();
+    }
+    catch (ClassNotFoundException cnfe) {
+      System.err.println(cnfe);
+      System.exit(1);
+    }
+    catch (IOException ioe) {
+      System.err.println(ioe);
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package danbikel.parser;
+
+import java.nio.*;
+
+/**
+ * A read-only table of the precomputed log-probabilities and lambdas of a
+ * single back-off level of a {@link Model}, whose data reside in a
+ * memory-mapped region of a file written by {@link MappedModelTables}.
+ * Transitions and histories are identified by 64-bit content fingerprints
+ * (see {@link MappedModelTables#fingerprint(Event)}), stored in
+ * open-addressed tables of <code>long</code> keys with parallel arrays of
+ * <code>double</code> values.  Since no Java objects are created for the
+ * entries of this table, loading it requires no deserialization, and its
+ * pages are shared among all processes that map the same file.
+ * <p>
+ * Lookups use only absolute buffer operations, so instances of this class
+ * may be used concurrently by multiple threads.
+ *
+ * @see MappedModelTables
+ */
+public class MappedProbTable implements PrecomputedProbTable {
+  private LongBuffer probKeys;
+  private DoubleBuffer probValues;
+  private int probMask;
+  private LongBuffer lambdaKeys;
+  private DoubleBuffer lambdaValues;
+  private int lambdaMask;
+  private int size;
+
+  /**
+   * Constructs a new table from the specified mapped regions.
+   *
+   * @param probKeys the transition fingerprint slots
+   * @param probValues the log-probabilities, parallel to
+   * <code>probKeys</code>
+   * @param lambdaKeys the history fingerprint slots, or <code>null</code> if
+   * this back-off level has no lambdas
+   * @param lambdaValues the logs of one minus the lambdas, parallel to
+   * <code>lambdaKeys</code>, or <code>null</code>
+   * @param size the number of transitions in this table
+   */
+  MappedProbTable(LongBuffer probKeys, DoubleBuffer probValues,
+		  LongBuffer lambdaKeys, DoubleBuffer lambdaValues, int size) {
+    this.probKeys = probKeys;
+    this.probValues = probValues;
+    this.probMask = probKeys.capacity() - 1;
+    this.lambdaKeys = lambdaKeys;
+    this.lambdaValues = lambdaValues;
+    this.lambdaMask = lambdaKeys == null ? 0 : lambdaKeys.capacity() - 1;
+    this.size = size;
+  }
+
+  /**
+   * Returns the slot of the specified key in the specified table, or
+   * <tt>-1</tt> if the key is not in the table.
+   */
+  static int find(LongBuffer keys, int mask, long key) {
+    for (int idx = MappedModelTables.slot(key, mask); ;
+	 idx = (idx + 1) & mask) {
+      long curr = keys.get(idx);
+      if (curr == key)
+	return idx;
+      if (curr == MappedModelTables.emptyKey)
+	return -1;
+    }
+  }
+
+  /**
+   * Returns the fingerprint of the specified history.
+   *
+   * @param history the history to look up
+   * @return the fingerprint of the specified history
+   */
+  public long historyKey(Event history) {
+    return MappedModelTables.fingerprint(history);
+  }
+
+  public double logProb(long historyKey, Event future) {
+    long key = MappedModelTables.transitionKey(historyKey,
+					       MappedModelTables.
+					       fingerprint(future));
+    int idx = find(probKeys, probMask, key);
+    return idx == -1 ? Double.NaN : probValues.get(idx);
+  }
+
+  public double logOneMinusLambda(long historyKey, double defaultValue) {
+    if (lambdaKeys == null)
+      return defaultValue;
+    int idx = find(lambdaKeys, lambdaMask, historyKey);
+    return idx == -1 ? defaultValue : lambdaValues.get(idx);
+  }
+
+  public int size() { return size; }
+}
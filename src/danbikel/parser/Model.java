@@ -5,6 +5,12 @@ import danbikel.lisp.*;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class computes the probability of generating an output element of this
@@ -27,8 +33,11 @@ import java.text.*;
  *
  * @see ProbabilityStructure
  */
-public class Model implements Serializable {
+public class Model implements Serializable, Cloneable {
   // constants
+  // the value computed for the original version of this class, so that
+  // existing model files remain readable
+  private static final long serialVersionUID = -2801237659768555720L;
   private final static boolean verboseDebug = false;
   /**
    * The value of this constant determines whether {@link
@@ -109,6 +118,42 @@ public class Model implements Serializable {
   protected static double pruningThreshold =
     Settings.getDouble(Settings.modelPruningThreshold);
 
+  /**
+   * Caches the integer value of {@link Settings#modelPrecomputeNumThreads}.
+   */
+  private static int precomputeNumThreads =
+    Settings.getInteger(Settings.modelPrecomputeNumThreads);
+  /**
+   * The minimum number of top-level transitions a model must have for
+   * {@link #precomputeProbs()} to divide its work among several threads.
+   */
+  private final static int minParallelPrecomputeSize = 10000;
+
+  /**
+   * Caches the <tt>double</tt> value of {@link Settings#modelCompressMinCount}.
+   */
+  private static double compressMinCount =
+    Settings.getDouble(Settings.modelCompressMinCount);
+  /**
+   * Caches the <tt>double</tt> value of
+   * {@link Settings#modelCompressEntropyThreshold}.
+   */
+  private static double compressEntropyThreshold =
+    Settings.getDouble(Settings.modelCompressEntropyThreshold);
+  /**
+   * Caches the integer value of {@link Settings#modelQuantizationBits}.
+   */
+  private static int quantizationBits =
+    Settings.getInteger(Settings.modelQuantizationBits);
+  /**
+   * Caches the integer value of {@link Settings#trainerMaxEventsInMemory},
+   * which also bounds the number of records held in memory when counts are
+   * {@linkplain #deriveCountsExternally(CountsTable,Filter,FlexibleMap)
+   * derived on disk}.
+   */
+  private static int maxRecordsInMemory =
+    Settings.getInteger(Settings.trainerMaxEventsInMemory);
+
   /**
    * Indicates whether the method {@link #pruneHistoriesAndTransitions()} will
    * output pruned events to a special pruned event log file.
@@ -136,6 +181,16 @@ public class Model implements Serializable {
 	  Settings.getBoolean(Settings.modelDoPruning);
 	pruningThreshold =
 	  Settings.getDouble(Settings.modelPruningThreshold);
+	precomputeNumThreads =
+	  Settings.getInteger(Settings.modelPrecomputeNumThreads);
+	compressMinCount =
+	  Settings.getDouble(Settings.modelCompressMinCount);
+	compressEntropyThreshold =
+	  Settings.getDouble(Settings.modelCompressEntropyThreshold);
+	quantizationBits =
+	  Settings.getInteger(Settings.modelQuantizationBits);
+	maxRecordsInMemory =
+	  Settings.getInteger(Settings.trainerMaxEventsInMemory);
       }
     };
     Settings.register(Model.class, change, null);
@@ -227,6 +282,24 @@ public class Model implements Serializable {
    * natural log function that is implemented by <code>Math.log</code>.
    */
   protected HashMapDouble[] precomputedLambdas;
+  /**
+   * Compact versions of the precomputed probabilities and lambdas for each
+   * back-off level of this model, or <code>null</code> if neither
+   * {@link #packPrecomputedProbs(Map)} nor
+   * {@link #setPrecomputedTables(PrecomputedProbTable[])} has been invoked.
+   * Once these tables have been created, {@link #precomputedProbs} and
+   * {@link #precomputedLambdas} are set to <code>null</code>.
+   *
+   * @see Settings#modelPackPrecomputedProbs
+   * @see MappedModelTables
+   */
+  protected transient PrecomputedProbTable[] packedTables;
+  /**
+   * For each back-off level, a map of each future to the highest precomputed
+   * log-probability of any transition to that future, created on demand by
+   * {@link #logProbFutureUpperBound(int,TrainerEvent)}.
+   */
+  protected transient HashMapDouble[] maxLogProbsByFuture;
   /**
    * Records the number of &ldquo;hits&rdquo; to the caches of precomputed
    * probability estimates at the various back-off levels, to determine the
@@ -287,6 +360,13 @@ public class Model implements Serializable {
    * model, used when {@link #precomputeProbs} is <code>false</code>.
    */
   protected transient ProbabilityCache[] cache;
+  /**
+   * A thread-safe cache of probability estimates at the various back-off
+   * levels of this model, used instead of {@link #cache} when
+   * {@link #precomputeProbs} is <code>false</code> and the value of
+   * {@link Settings#modelCacheConcurrencyLevel} is greater than zero.
+   */
+  protected transient ConcurrentProbabilityCache[] concurrentCache;
   /**
    * Records the number of cache hits for each back-off level of this mdoel.
    */
@@ -476,6 +556,21 @@ public class Model implements Serializable {
     cacheHits = new int[numLevels];
     cacheAccesses = new int[numLevels];
 
+    int concurrencyLevel =
+      Settings.getInteger(Settings.modelCacheConcurrencyLevel);
+    if (concurrencyLevel > 0) {
+      cache = null;
+      concurrentCache = new ConcurrentProbabilityCache[numLevels];
+      for (int i = 0; i < concurrentCache.length; i++) {
+	cacheSize = Math.max(structure.cacheSize(i), minCacheSize);
+	concurrentCache[i] =
+	  new ConcurrentProbabilityCache(cacheSize, cacheSize / 4 + 1,
+					 concurrencyLevel);
+      }
+      return;
+    }
+
+    concurrentCache = null;
     cache = new ProbabilityCache[numLevels];
     for (int i = 0; i < cache.length; i++) {
       cacheSize = Math.max(structure.cacheSize(i), minCacheSize);
@@ -489,6 +584,61 @@ public class Model implements Serializable {
     }
   }
 
+  /**
+   * Returns the cache entry for the specified transition at the specified
+   * back-off level, using whichever of {@link #cache} or {@link
+   * #concurrentCache} was created for this model.
+   *
+   * @param level the back-off level of the specified transition
+   * @param transition the transition to look up
+   * @return the cache entry for the specified transition, or
+   * <code>null</code> if it is not cached
+   */
+  protected final MapToPrimitive.Entry getCachedProb(int level,
+						     Transition transition) {
+    return (concurrentCache != null ?
+	    concurrentCache[level].getProb(transition) :
+	    cache[level].getProb(transition));
+  }
+
+  /**
+   * Returns whether the specified transition is cached at the specified
+   * back-off level.
+   *
+   * @param level the back-off level of the specified transition
+   * @param transition the transition to look up
+   * @return whether the specified transition is cached
+   * @see #getCachedProb(int,Transition)
+   */
+  protected final boolean cacheContains(int level, Transition transition) {
+    return (concurrentCache != null ?
+	    concurrentCache[level].containsKey(transition) :
+	    cache[level].containsKey(transition));
+  }
+
+  /**
+   * Caches the specified probability for the specified transition at the
+   * specified back-off level.
+   *
+   * @param level the back-off level of the specified transition
+   * @param transition the transition to cache
+   * @param prob the probability of the specified transition
+   * @see #getCachedProb(int,Transition)
+   */
+  protected final void addToCache(int level, Transition transition,
+				  double prob) {
+    if (concurrentCache != null)
+      concurrentCache[level].put(transition, prob);
+    else
+      cache[level].put(transition, prob);
+  }
+
+  private final String getCacheStats(int level) {
+    return (concurrentCache != null ?
+	    concurrentCache[level].getStats() :
+	    cache[level].getStats());
+  }
+
   /**
    * Sets the {@link #canonicalEvents} member of this object.
    *
@@ -535,6 +685,16 @@ public class Model implements Serializable {
   public void deriveCounts(CountsTable trainerCounts, Filter filter,
 			   double threshold, FlexibleMap canonical,
 			   boolean deriveOtherModelCounts) {
+    if (useExternalCounts(trainerCounts)) {
+      setCanonicalEvents(canonical);
+      try {
+	deriveCountsExternally(trainerCounts, filter, canonical);
+      }
+      catch (IOException ioe) {
+	throw new RuntimeException(ioe.toString());
+      }
+      return;
+    }
     if (useSmoothingParams || dontAddNewParams)
       readSmoothingParams();
     setCanonicalEvents(canonical);
@@ -603,6 +763,405 @@ public class Model implements Serializable {
    */
   }
 
+  /**
+   * Returns whether
+   * {@link #deriveCounts(CountsTable,Filter,double,FlexibleMap,boolean)}
+   * should derive counts from the specified table on disk, using
+   * {@link #deriveCountsExternally(CountsTable,Filter,FlexibleMap)}.  This
+   * is the case when the value of {@link Settings#trainerMaxEventsInMemory}
+   * is greater than zero, the specified table is a
+   * {@link FileBackedTrainerEventMap} (as it is when the trainer has
+   * spilled its events to disk), probabilities are being
+   * {@linkplain #precomputeProbs precomputed} and none of the features that
+   * require random access to all derived counts is in use: pruning,
+   * smoothing parameters read from a file, or compression of the
+   * precomputed tables.
+   *
+   * @param trainerCounts the table of trainer events from which counts are
+   * to be derived
+   * @return whether to derive counts from the specified table on disk
+   */
+  protected boolean useExternalCounts(CountsTable trainerCounts) {
+    return (maxRecordsInMemory > 0 &&
+	    trainerCounts instanceof FileBackedTrainerEventMap &&
+	    precomputeProbs && !doPruning &&
+	    !useSmoothingParams && !dontAddNewParams &&
+	    compressMinCount <= 0 && compressEntropyThreshold <= 0);
+  }
+
+  /**
+   * Derives the counts of all back-off levels from the specified table and
+   * precomputes probabilities and smoothing values from them, exactly as
+   * {@link #deriveCounts(CountsTable,Filter,double,FlexibleMap,boolean)}
+   * followed by {@link #precomputeProbs()} would, but without ever holding
+   * the history, diversity or transition counts of this model in memory.
+   * Instead, all counts are aggregated on disk by external sorts (see
+   * {@link ExternalSorter}), none of which holds more than
+   * {@link Settings#trainerMaxEventsInMemory} records in memory, divided
+   * among the back-off levels:
+   * <ol>
+   * <li>While streaming over the trainer events, a record of the transition
+   * of each event at each back-off level is written, together with its
+   * history, its back-off transition at the next level, the event&rsquo;s
+   * count and the event itself.
+   * <li>The records of each level are sorted by transition, and the counts of
+   * equal transitions are summed, yielding the transition counts.
+   * <li>The distinct transitions are sorted by history, yielding the history
+   * count and diversity of each history, and thus the smoothing value and
+   * maximum-likelihood estimate of each transition.
+   * <li>Proceeding from the last back-off level to the first, the
+   * transitions of each level are sorted by their back-off transitions and
+   * merge-joined with the (sorted) smoothed estimates of the next level,
+   * yielding the smoothed estimates of the current level.
+   * </ol>
+   * The smoothed estimates and smoothing values are then streamed into the
+   * tables of precomputed probabilities and lambdas of this model, whose
+   * keys are recreated from the events and canonicalized using the specified
+   * map.  When {@link #precomputeProbs()} is subsequently invoked, the
+   * counts of this model are empty, so that it merely cleans up and saves
+   * smoothing parameters, if required.
+   * <p>
+   * Transitions and histories are compared by their string representations,
+   * and the back-off transition of a transition is taken from the first
+   * event from which it is derived.
+   *
+   * @param trainerCounts a map from {@link TrainerEvent} objects to
+   * their counts (as <code>double</code>s) from which to derive counts,
+   * whose events must have constructors taking a single {@link Sexp}
+   * argument
+   * @param filter used to filter out <code>TrainerEvent</code> objects
+   * whose derived counts should not be derived for this model
+   * @param canonical a reflexive map used to canonicalize objects
+   * created when deriving counts
+   * @throws IOException if there is a problem writing or reading the
+   * temporary files of the external sorts
+   *
+   * @see #useExternalCounts(CountsTable)
+   */
+  protected void deriveCountsExternally(CountsTable trainerCounts,
+					Filter filter, FlexibleMap canonical)
+    throws IOException {
+    Time time = null;
+    if (verbose)
+      time = new Time();
+
+    int lastLevel = numLevels - 1;
+    int capacity = Math.max(1, maxRecordsInMemory / numLevels);
+    String name = shortStructureClassName;
+
+    // step 1: a record of each event's transition at each level, of the
+    // form (transition, history, back-off transition, count, event)
+    ExternalSorter[] byTrans = new ExternalSorter[numLevels];
+    for (int level = 0; level < numLevels; level++)
+      byTrans[level] = new ExternalSorter(name, 0, capacity);
+    String[] transKeys = new String[numLevels];
+    String[] histKeys = new String[numLevels];
+    Constructor eventConstructor = null;
+    Iterator entries = trainerCounts.entrySet().iterator();
+    while (entries.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)entries.next();
+      TrainerEvent event = (TrainerEvent)entry.getKey();
+      if (!filter.pass(event))
+	continue;
+      if (eventConstructor == null)
+	eventConstructor = getSexpConstructor(event.getClass());
+      for (int level = 0; level < numLevels; level++) {
+	Transition trans = structure.getTransition(event, level);
+	transKeys[level] = trans.toString();
+	histKeys[level] =
+	  String.valueOf(SymbolicCollectionWriter.valueOf(trans.history()));
+      }
+      String count = String.valueOf(entry.getDoubleValue());
+      String eventStr = event.toString();
+      for (int level = 0; level < numLevels; level++) {
+	String backOffKey = level < lastLevel ? transKeys[level + 1] : "";
+	byTrans[level].add(new String[] {transKeys[level], histKeys[level],
+					 backOffKey, count, eventStr});
+      }
+    }
+
+    int numTransitions = 0;
+    File nextLevelProbs = null;
+    try {
+      for (int level = lastLevel; level >= 0; level--) {
+	// step 2: transition counts, re-sorted by history
+	ExternalSorter byHist = new ExternalSorter(name, 0, capacity);
+	numTransitions += sumTransitionCounts(byTrans[level].sort(), byHist);
+	byTrans[level] = null;
+	File transByHist = byHist.sort();
+
+	// step 3: history counts and diversities, and from them the smoothing
+	// value and estimate of each transition, sorted by back-off transition
+	ExternalSorter byBackOff = new ExternalSorter(name, 0, capacity);
+	File histCounts = byHist.newTempFile();
+	try {
+	  writeHistoryCounts(transByHist, histCounts);
+	  addSmoothingValues(transByHist, histCounts, level, byBackOff);
+	}
+	finally {
+	  transByHist.delete();
+	  histCounts.delete();
+	}
+
+	// step 4: smoothed estimates, by joining with those of the next level
+	ExternalSorter probs =
+	  level > 0 ? new ExternalSorter(name, 0, capacity) : null;
+	File precomputed = byBackOff.newTempFile();
+	try {
+	  joinBackOffProbs(byBackOff.sort(), nextLevelProbs, probs,
+			   precomputed);
+	  if (nextLevelProbs != null)
+	    nextLevelProbs.delete();
+	  nextLevelProbs = probs != null ? probs.sort() : null;
+	  storePrecomputedProbs(precomputed, level, eventConstructor,
+				canonical);
+	}
+	finally {
+	  precomputed.delete();
+	}
+      }
+    }
+    finally {
+      if (nextLevelProbs != null)
+	nextLevelProbs.delete();
+    }
+
+    if (verbose)
+      System.err.println("Derived " + numTransitions + " transitions on " +
+			 "disk and precomputed probabilities for " +
+			 structureClassName + " in " + time + ".");
+  }
+
+  private static Constructor getSexpConstructor(Class eventClass) {
+    try {
+      return eventClass.getConstructor(new Class[] {Sexp.class});
+    }
+    catch (NoSuchMethodException nsme) {
+      throw new UnsupportedOperationException(eventClass.getName() +
+					      " cannot be created from a " +
+					      "Sexp");
+    }
+  }
+
+  /**
+   * Reads the specified file of transition records sorted by transition,
+   * and adds a record of each distinct transition, with the sum of its
+   * counts, to the specified sorter, in the form (history, transition,
+   * back-off transition, count, event).  The file is deleted once read.
+   *
+   * @return the number of distinct transitions
+   */
+  private static int sumTransitionCounts(File transitions,
+					 ExternalSorter byHist)
+    throws IOException {
+    int numTransitions = 0;
+    ExternalSorter.RecordReader reader =
+      new ExternalSorter.RecordReader(transitions, 0);
+    try {
+      while (reader.record() != null) {
+	String[] first = reader.record();
+	double count = Double.parseDouble(first[3]);
+	while (reader.advance() && reader.record()[0].equals(first[0]))
+	  count += Double.parseDouble(reader.record()[3]);
+	byHist.add(new String[] {first[1], first[0], first[2],
+				 String.valueOf(count), first[4]});
+	numTransitions++;
+      }
+    }
+    finally {
+      reader.delete();
+    }
+    return numTransitions;
+  }
+
+  /**
+   * Reads the specified file of distinct transitions sorted by history, and
+   * writes the count and diversity of each history to the specified file,
+   * in the form (history, count, diversity).
+   */
+  private static void writeHistoryCounts(File transByHist, File histCounts)
+    throws IOException {
+    ExternalSorter.RecordReader reader =
+      new ExternalSorter.RecordReader(transByHist, 0);
+    Writer writer = ExternalSorter.newWriter(histCounts);
+    try {
+      while (reader.record() != null) {
+	String hist = reader.record()[0];
+	double count = Double.parseDouble(reader.record()[3]);
+	int diversity = 1;
+	while (reader.advance() && reader.record()[0].equals(hist)) {
+	  count += Double.parseDouble(reader.record()[3]);
+	  diversity++;
+	}
+	ExternalSorter.write(writer, new String[] {hist, String.valueOf(count),
+						   String.valueOf(diversity)});
+      }
+    }
+    finally {
+      reader.close();
+      writer.close();
+    }
+  }
+
+  /**
+   * Merge-joins the specified files of distinct transitions and of history
+   * counts, both sorted by history, and adds a record of each transition to
+   * the specified sorter, in the form (back-off transition, transition,
+   * lambda, estimate, event), computing the smoothing value and
+   * maximum-likelihood estimate exactly as
+   * {@link #precomputeProbs(MapToPrimitive.Entry,double[],double[],
+   * Transition[],Event[],int)} does.
+   */
+  private void addSmoothingValues(File transByHist, File histCounts,
+				  int level, ExternalSorter byBackOff)
+    throws IOException {
+    int lastLevel = numLevels - 1;
+    double fudge = lambdaFudge[level];
+    double fudgeTerm = lambdaFudgeTerm[level];
+    ExternalSorter.RecordReader transReader =
+      new ExternalSorter.RecordReader(transByHist, 0);
+    ExternalSorter.RecordReader histReader =
+      new ExternalSorter.RecordReader(histCounts, 0);
+    try {
+      while (transReader.record() != null) {
+	String[] trans = transReader.record();
+	// every history of the first file appears, in order, in the second
+	while (!histReader.record()[0].equals(trans[0]))
+	  histReader.advance();
+	double historyCount = Double.parseDouble(histReader.record()[1]);
+	double diversityCount = Double.parseDouble(histReader.record()[2]);
+	double transitionCount = Double.parseDouble(trans[3]);
+	double lambda = ((!deficientEstimation && level == lastLevel) ? 1.0 :
+			 historyCount /
+			 (historyCount + fudgeTerm + fudge * diversityCount));
+	double estimate = transitionCount / historyCount;
+	byBackOff.add(new String[] {trans[2], trans[1], String.valueOf(lambda),
+				    String.valueOf(estimate), trans[4]});
+	transReader.advance();
+      }
+    }
+    finally {
+      transReader.close();
+      histReader.close();
+    }
+  }
+
+  /**
+   * Merge-joins the specified file of transitions sorted by back-off
+   * transition with the specified file of smoothed estimates of the next
+   * back-off level, sorted by transition, to compute the smoothed estimate of
+   * each transition.  Each estimate is added to the specified sorter, if it
+   * is not <code>null</code>, in the form (transition, estimate), and each
+   * event is written to the specified file along with the estimate and
+   * smoothing value of its transition, as the S-expression
+   * <tt>(event&nbsp;estimate&nbsp;lambda)</tt>.  The file of transitions
+   * is deleted once read.
+   *
+   * @param byBackOff the transitions of the current level
+   * @param nextLevelProbs the smoothed estimates of the next level, or
+   * <code>null</code> if the current level is the last level
+   * @param probs the sorter to which to add the smoothed estimates of the
+   * current level, or <code>null</code> if the current level is the first
+   * level
+   * @param precomputed the file to which to write events, estimates and
+   * smoothing values
+   */
+  private static void joinBackOffProbs(File byBackOff, File nextLevelProbs,
+				       ExternalSorter probs, File precomputed)
+    throws IOException {
+    ExternalSorter.RecordReader transReader =
+      new ExternalSorter.RecordReader(byBackOff, 0);
+    ExternalSorter.RecordReader probReader =
+      (nextLevelProbs == null ? null :
+       new ExternalSorter.RecordReader(nextLevelProbs, 0));
+    Writer writer = ExternalSorter.newWriter(precomputed);
+    try {
+      while (transReader.record() != null) {
+	String[] trans = transReader.record();
+	double nextLevelProb = 0.0;
+	if (probReader != null) {
+	  while (probReader.record() != null &&
+		 probReader.record()[0].compareTo(trans[0]) < 0)
+	    probReader.advance();
+	  if (probReader.record() != null &&
+	      probReader.record()[0].equals(trans[0]))
+	    nextLevelProb = Double.parseDouble(probReader.record()[1]);
+	}
+	double lambda = Double.parseDouble(trans[2]);
+	double estimate = Double.parseDouble(trans[3]);
+	double prob = lambda * estimate + ((1 - lambda) * nextLevelProb);
+	if (probs != null)
+	  probs.add(new String[] {trans[1], String.valueOf(prob)});
+	writer.write("(");
+	writer.write(trans[4]);
+	writer.write(" ");
+	writer.write(String.valueOf(prob));
+	writer.write(" ");
+	writer.write(trans[2]);
+	writer.write(")\n");
+	transReader.advance();
+      }
+    }
+    finally {
+      transReader.delete();
+      if (probReader != null)
+	probReader.close();
+      writer.close();
+    }
+  }
+
+  /**
+   * Streams the events, smoothed estimates and smoothing values in the
+   * specified file into the tables of precomputed probabilities and lambdas
+   * (and, if they are being saved, smoothing parameters) of the specified
+   * back-off level, recreating each transition and history from its event.
+   */
+  private void storePrecomputedProbs(File precomputed, int level,
+				     Constructor eventConstructor,
+				     FlexibleMap canonical)
+    throws IOException {
+    if (eventConstructor == null)
+      return;
+    if (saveSmoothingParams && smoothingParams == null)
+      initializeSmoothingParams();
+    int lastLevel = numLevels - 1;
+    Transition trans = new Transition(null, null);
+    SexpTokenizer tok =
+      new SexpTokenizer(precomputed, Language.encoding(),
+			Constants.defaultFileBufsize);
+    try {
+      Sexp curr;
+      while ((curr = Sexp.read(tok)) != null) {
+	SexpList record = curr.list();
+	TrainerEvent event;
+	try {
+	  event = (TrainerEvent)eventConstructor.newInstance(new Object[] {
+	    record.get(0)
+	  });
+	}
+	catch (Exception e) {
+	  throw new RuntimeException(e.toString());
+	}
+	double prob = Double.parseDouble(record.get(1).toString());
+	double lambda = Double.parseDouble(record.get(2).toString());
+	Event history =
+	  canonicalizeEvent(structure.getHistory(event, level), canonical);
+	trans.setFuture(canonicalizeEvent(structure.getFuture(event, level),
+					  canonical));
+	trans.setHistory(history);
+	precomputedProbs[level].put(getCanonical(trans, canonical),
+				    Math.log(prob));
+	if (level < lastLevel)
+	  precomputedLambdas[level].put(history, Math.log(1 - lambda));
+	if (saveSmoothingParams)
+	  smoothingParams[level].put(history, lambda);
+      }
+    }
+    finally {
+      tok.close();
+    }
+  }
+
   /**
    * A method invoked after probabilities have been precomputed by {@link
    * #precomputeProbs()} to clean up (that is, remove) objects from the various
@@ -674,7 +1233,10 @@ public class Model implements Serializable {
   /**
    * This method first canonicalizes the information in the specified event
    * (a Sexp or a Subcat and a Sexp), then it returns a canonical version
-   * of the event itself, copying it into the map if necessary.
+   * of the event itself, copying it into the map if necessary.  The copy is
+   * added using {@link Map#putIfAbsent(Object,Object)}, so that if the map is
+   * a {@link ConcurrentFlexibleMap} shared by models deriving their counts
+   * concurrently, all models get the same canonical event.
    */
   protected final static Event canonicalizeEvent(Event event,
 						 FlexibleMap canonical) {
@@ -682,7 +1244,10 @@ public class Model implements Serializable {
     if (canonicalEvent == null) {
       canonicalEvent = event.copy();
       canonicalEvent.canonicalize(canonical);
-      canonical.put(canonicalEvent, canonicalEvent);
+      Event existing =
+	(Event)canonical.putIfAbsent(canonicalEvent, canonicalEvent);
+      if (existing != null)
+	canonicalEvent = existing;
     }
     return canonicalEvent;
   }
@@ -700,7 +1265,10 @@ public class Model implements Serializable {
     Transition canonicalTrans = (Transition)canonical.get(trans);
     if (canonicalTrans == null) {
       canonicalTrans = new Transition(trans.future(), trans.history());
-      canonical.put(canonicalTrans, canonicalTrans);
+      Transition existing =
+	(Transition)canonical.putIfAbsent(canonicalTrans, canonicalTrans);
+      if (existing != null)
+	canonicalTrans = existing;
     }
     return canonicalTrans;
   }
@@ -755,13 +1323,11 @@ public class Model implements Serializable {
     else {
       IntCounter localIdInt = idInt;
       synchronized (structureMap) {
-	if (structureMap.size() > 1) {
-	  localIdInt.set(id);
-	  clientStructure = (ProbabilityStructure)structureMap.get(localIdInt);
-	  if (clientStructure == null) {
-	    clientStructure = structure.copy();
-	    structureMap.put(new IntCounter(id), clientStructure);
-	  }
+	localIdInt.set(id);
+	clientStructure = (ProbabilityStructure)structureMap.get(localIdInt);
+	if (clientStructure == null) {
+	  clientStructure = structure.copy();
+	  structureMap.put(new IntCounter(id), clientStructure);
 	}
       }
     }
@@ -791,6 +1357,25 @@ public class Model implements Serializable {
     if (precomputedProbs[lastLevel].getEntry(lastLevelTrans) == null)
       return Constants.logOfZero;
     */
+    if (packedTables != null) {
+      for (int level = 0; level < numLevels; level++) {
+	Transition transition = structure.getTransition(event, level);
+	PrecomputedProbTable table = packedTables[level];
+	long histKey = table.historyKey(transition.history());
+	double logProb = table.logProb(histKey, transition.future());
+	if (!Double.isNaN(logProb)) {
+	  precomputedProbHits[level]++;
+	  if (npbParent)
+	    precomputedNPBProbHits[level]++;
+	  return logLambda + logProb;
+	}
+	else if (level < lastLevel) {
+	  logLambda +=
+	    table.logOneMinusLambda(histKey, logOneMinusLambdaPenalty[level]);
+	}
+      }
+      return Constants.logOfZero;
+    }
     for (int level = 0; level < numLevels; level++) {
       Transition transition = structure.getTransition(event, level);
       transEntry = precomputedProbs[level].getEntry(transition);
@@ -830,14 +1415,28 @@ public class Model implements Serializable {
     double logLambda = 0.0;
     int lastLevel = numLevels - 1;
     for (int level = atLevel; level < numLevels; level++) {
-      transEntry = precomputedProbs[level].getEntry(transition);
-      if (transEntry != null)
-	return logLambda + transEntry.getDoubleValue();
-      else if (level < lastLevel) {
+      if (packedTables != null) {
+	PrecomputedProbTable table = packedTables[level];
+	long histKey = table.historyKey(transition.history());
+	double logProb = table.logProb(histKey, transition.future());
+	if (!Double.isNaN(logProb))
+	  return logLambda + logProb;
+	else if (level < lastLevel)
+	  logLambda +=
+	    table.logOneMinusLambda(histKey, logOneMinusLambdaPenalty[level]);
+      }
+      else {
+	transEntry = precomputedProbs[level].getEntry(transition);
+	if (transEntry != null)
+	  return logLambda + transEntry.getDoubleValue();
+	else if (level < lastLevel) {
+	  lambdaEntry = precomputedLambdas[level].getEntry(transition.history());
+	  logLambda += (lambdaEntry == null ? logOneMinusLambdaPenalty[level] :
+			lambdaEntry.getDoubleValue());
+	}
+      }
+      if (level < lastLevel) {
 	Event history = transition.history();
-	lambdaEntry = precomputedLambdas[level].getEntry(history);
-	logLambda += (lambdaEntry == null ? logOneMinusLambdaPenalty[level] :
-		      lambdaEntry.getDoubleValue());
 	Event backOffHist = (Event)histBackOffMap[level].get(history);
 	if (backOffHist == null)
 	  System.err.println(shortStructureClassName +
@@ -892,7 +1491,7 @@ public class Model implements Serializable {
 	if (Debug.level >= 21) {
 	  System.err.print("level " + level + ": getting cached  P");
 	}
-	MapToPrimitive.Entry cacheProbEntry = cache[level].getProb(transition);
+	MapToPrimitive.Entry cacheProbEntry = getCachedProb(level, transition);
 	if (cacheProbEntry != null) {
 	  if (Debug.level >= 21) {
 	    System.err.println(cacheProbEntry);
@@ -987,11 +1586,11 @@ public class Model implements Serializable {
 	}
 
 	putInCache:
-	if (!cache[level].containsKey(transition)) {
+	if (!cacheContains(level, transition)) {
 	  numCacheAdds++;
 	  Transition canonTrans = (Transition)canonicalEvents.get(transition);
 	  if (canonTrans != null) {
-	    cache[level].put(canonTrans, prob);
+	    addToCache(level, canonTrans, prob);
 	    numCanonicalHits++;
 	  }
 	  else {
@@ -1018,7 +1617,7 @@ public class Model implements Serializable {
 	      numCanonicalHits++;
 	      //System.err.println("hit: " + future);
 	    }
-	    cache[level].put(new Transition(future, hist), prob);
+	    addToCache(level, new Transition(future, hist), prob);
 	    //cache[level].put(transition.copy(), prob);
 	  }
 	}
@@ -1075,6 +1674,64 @@ public class Model implements Serializable {
     return probVal;
   }
 
+  /**
+   * Returns whether the counts derived by this model are additive, that is,
+   * whether deriving counts from two disjoint sets of trainer events into
+   * two separate models and then {@linkplain #addCounts(Model) adding} the
+   * counts of one model to the other yields exactly the counts that would
+   * have been derived from both sets of events by a single model.  This
+   * default implementation returns <code>true</code>.
+   *
+   * @return whether the counts derived by this model are additive
+   */
+  public boolean countsAreAdditive() {
+    return true;
+  }
+
+  /**
+   * Adds all counts derived by the specified model, which must have the same
+   * probability structure class as this model, to the counts of this model.
+   * The history and transition counts of each back-off level are summed, and
+   * the diversity count of a history is incremented once for every
+   * transition of the specified model not already seen by this model.  The
+   * specified model should share this model&rsquo;s reflexive map of
+   * canonical events, so that the merged tables share their keys.
+   *
+   * @param other a model whose counts were derived from trainer events
+   * disjoint from those of this model
+   *
+   * @see #countsAreAdditive()
+   * @see #deriveCounts(CountsTable,Filter,double,FlexibleMap,boolean)
+   */
+  public void addCounts(Model other) {
+    for (int level = 0; level < numLevels; level++) {
+      BiCountsTable histories = counts[level].history();
+      CountsTable transitions = counts[level].transition();
+
+      Iterator it = other.counts[level].history().entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry histEntry = (MapToPrimitive.Entry)it.next();
+	histories.add(histEntry.getKey(), CountsTrio.hist,
+		      histEntry.getDoubleValue(CountsTrio.hist));
+      }
+
+      it = other.counts[level].transition().entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry transEntry = (MapToPrimitive.Entry)it.next();
+	Transition trans = (Transition)transEntry.getKey();
+	if (transitions.count(trans) == 0)
+	  histories.add(trans.history(), CountsTrio.diversity);
+	transitions.add(trans, transEntry.getDoubleValue());
+      }
+    }
+    if (backOffMap != null && other.backOffMap != null)
+      for (int i = 0; i < backOffMap.length; i++)
+	backOffMap[i].putAll(other.backOffMap[i]);
+    if (histBackOffMap != null && other.histBackOffMap != null)
+      for (int i = 0; i < histBackOffMap.length; i++)
+	histBackOffMap[i].putAll(other.histBackOffMap[i]);
+  }
+
   /**
    * Called by
    * {@link #deriveCounts(CountsTable,Filter,double,FlexibleMap)}, for each
@@ -1489,14 +2146,17 @@ public class Model implements Serializable {
       double histPercent = 100 * (totalHistPruned / (double)totalHist);
       double possibleHistPercent = 100 * (totalHistPruned / totalHistExamined);
       double transPercent = 100 * (totalTransPruned / (double)totalTrans);
-      System.err.println(structureClassName + ": pruned " + totalHistPruned +
-			 " of " + totalHist + " histories (" +
-			 doubleNF.format(histPercent) + "%) and of " +
-			 (int)totalHistExamined + " pruneable histories (" +
-			 doubleNF.format(possibleHistPercent) + "%) and " +
-			 totalTransPruned + " of " + totalTrans +
-			 " transitions (" + doubleNF.format(transPercent) +
-			 "%) in " + time + ".");
+      // doubleNF is shared by all models, which may be pruned concurrently
+      synchronized (doubleNF) {
+	System.err.println(structureClassName + ": pruned " + totalHistPruned +
+			   " of " + totalHist + " histories (" +
+			   doubleNF.format(histPercent) + "%) and of " +
+			   (int)totalHistExamined + " pruneable histories (" +
+			   doubleNF.format(possibleHistPercent) + "%) and " +
+			   totalTransPruned + " of " + totalTrans +
+			   " transitions (" + doubleNF.format(transPercent) +
+			   "%) in " + time + ".");
+      }
     }
 
   }
@@ -1602,19 +2262,28 @@ public class Model implements Serializable {
 
     int lastLevel = numLevels - 1;
 
-    Iterator topLevelTrans = counts[0].transition().entrySet().iterator();
-    while (topLevelTrans.hasNext()) {
-      MapToPrimitive.Entry transEntry =
-	(MapToPrimitive.Entry)topLevelTrans.next();
-      double[] lambdas = structure.lambdas;
-      double[] estimates = structure.estimates;
-      precomputeProbs(transEntry, lambdas, estimates, transitions, histories,
-		      lastLevel);
-      storePrecomputedProbs(lambdas, estimates, transitions, histories,
-			    lastLevel);
+    int numTopLevelTrans = counts[0].transition().size();
+    if (precomputeNumThreads > 1 &&
+	numTopLevelTrans >= minParallelPrecomputeSize &&
+	!(saveSmoothingParams && useSmoothingParams)) {
+      precomputeProbsInParallel(lastLevel);
+    }
+    else {
+      Iterator topLevelTrans = counts[0].transition().entrySet().iterator();
+      while (topLevelTrans.hasNext()) {
+	MapToPrimitive.Entry transEntry =
+	  (MapToPrimitive.Entry)topLevelTrans.next();
+	double[] lambdas = structure.lambdas;
+	double[] estimates = structure.estimates;
+	precomputeProbs(transEntry, lambdas, estimates, transitions, histories,
+			lastLevel);
+	storePrecomputedProbs(lambdas, estimates, transitions, histories,
+			      lastLevel);
+      }
     }
     
     pruneHistoriesAndTransitions();
+    compressPrecomputedProbs();
 
     if (!saveBackOffMap)
       backOffMap = null; // no longer needed!
@@ -1631,6 +2300,265 @@ public class Model implements Serializable {
 			 structureClassName + " in " + time + ".");
   }
 
+  /**
+   * Removes from the precomputed probability tables of all but the last
+   * back-off level every transition whose count is less than the value of
+   * {@link Settings#modelCompressMinCount} or whose contribution to the
+   * relative entropy of this model is less than the value of
+   * {@link Settings#modelCompressEntropyThreshold}.  This method has no
+   * effect if both values are zero.  It must be invoked after probabilities
+   * have been precomputed but before the counts and {@link #backOffMap} of
+   * this model have been discarded.
+   * <p>
+   * When a transition is removed, its probability is estimated when
+   * decoding by backing off to the next level, exactly as for a transition
+   * that was never observed, so that its log-probability becomes the log of
+   * its history&rsquo;s lambda plus the estimate at the next level.  The
+   * contribution of a transition <i>h</i>&nbsp;&rarr;&nbsp;<i>f</i> to the
+   * relative entropy is the term of
+   * <i>D</i>(<i>P</i>&nbsp;||&nbsp;<i>P</i>&prime;) for that transition,
+   * as computed by {@link AnalyzeDisns#klTermFromLogProbs(double,double)},
+   * weighted by the relative frequency of <i>h</i>, where <i>P</i> is the
+   * precomputed distribution and <i>P</i>&prime; is the backed-off
+   * distribution.  Levels are processed from the last to the first, so that
+   * each backed-off estimate reflects the removals already made at coarser
+   * levels.  The sum of the contributions of all removed transitions, which
+   * estimates the increase in the cross-entropy of this model per event, is
+   * reported along with the number of transitions removed, as an indication
+   * of the accuracy given up by this compression.
+   *
+   * @see Settings#modelCompressMinCount
+   * @see Settings#modelCompressEntropyThreshold
+   */
+  protected void compressPrecomputedProbs() {
+    if ((compressMinCount <= 0 && compressEntropyThreshold <= 0) ||
+	numLevels < 2 || counts == null || backOffMap == null)
+      return;
+    int lastLevel = numLevels - 1;
+    int totalTrans = 0;
+    int totalTransPruned = 0;
+    double totalContribution = 0.0;
+    for (int level = lastLevel - 1; level >= 0; level--) {
+      double totalHistCount = 0.0;
+      Iterator it = counts[level].history().entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry histEntry = (MapToPrimitive.Entry)it.next();
+	totalHistCount += histEntry.getDoubleValue(CountsTrio.hist);
+      }
+      totalTrans += precomputedProbs[level].size();
+      it = counts[level].transition().entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry transEntry = (MapToPrimitive.Entry)it.next();
+	Transition trans = (Transition)transEntry.getKey();
+	MapToPrimitive.Entry probEntry = precomputedProbs[level].getEntry(trans);
+	MapToPrimitive.Entry histEntry =
+	  counts[level].history().getEntry(trans.history());
+	if (probEntry == null || histEntry == null)
+	  continue;
+	double logProb = probEntry.getDoubleValue();
+	double histProb =
+	  histEntry.getDoubleValue(CountsTrio.hist) / totalHistCount;
+	double contribution =
+	  histProb * AnalyzeDisns.klTermFromLogProbs(logProb,
+						     backedOffLogProb(trans,
+								      level));
+	// each test applies only when its threshold is positive
+	if ((compressMinCount > 0 &&
+	     transEntry.getDoubleValue() < compressMinCount) ||
+	    (compressEntropyThreshold > 0 &&
+	     contribution < compressEntropyThreshold)) {
+	  precomputedProbs[level].remove(trans);
+	  totalTransPruned++;
+	  totalContribution += contribution;
+	}
+      }
+    }
+    if (verbose)
+      System.err.println("Compressed " + structureClassName + ": removed " +
+			 totalTransPruned + " of " + totalTrans +
+			 " transitions above the last back-off level; " +
+			 "estimated cross-entropy increase: " +
+			 totalContribution + " bits per event.");
+  }
+
+  /**
+   * Returns the log-probability that would be estimated for the specified
+   * transition if it were removed from the precomputed probability table of
+   * the specified back-off level, by backing off to the next level using the
+   * precomputed probabilities and lambdas, as is done when decoding.
+   *
+   * @param trans a transition at the specified back-off level
+   * @param level the back-off level of the specified transition, which must
+   * be less than the last level
+   * @return the backed-off log-probability of the specified transition
+   */
+  private double backedOffLogProb(Transition trans, int level) {
+    int lastLevel = numLevels - 1;
+    MapToPrimitive.Entry lambdaEntry =
+      precomputedLambdas[level].getEntry(trans.history());
+    double logLambda = (lambdaEntry == null ? logOneMinusLambdaPenalty[level] :
+			lambdaEntry.getDoubleValue());
+    for (level++; level < numLevels; level++) {
+      trans = (Transition)backOffMap[level - 1].get(trans);
+      if (trans == null)
+	return Constants.logOfZero;
+      MapToPrimitive.Entry transEntry = precomputedProbs[level].getEntry(trans);
+      if (transEntry != null)
+	return logLambda + transEntry.getDoubleValue();
+      else if (level < lastLevel) {
+	lambdaEntry = precomputedLambdas[level].getEntry(trans.history());
+	logLambda += (lambdaEntry == null ? logOneMinusLambdaPenalty[level] :
+		      lambdaEntry.getDoubleValue());
+      }
+    }
+    return Constants.logOfZero;
+  }
+
+  /**
+   * Precomputes probabilities exactly as {@link #precomputeProbs()} does, but
+   * divides the top-level transitions of this model into contiguous ranges
+   * that are processed concurrently, one range per thread, with the number of
+   * threads given by {@link Settings#modelPrecomputeNumThreads}.  Each range
+   * is processed by a {@linkplain #newPrecomputeWorker() worker} that has
+   * its own copy of this model&rsquo;s probability structure for scratch
+   * space and its own tables of precomputed values, which are merged into
+   * the tables of this model, one back-off level per thread, once all ranges
+   * have been processed.  The keys stored by different workers may
+   * overlap, since many top-level transitions share their back-off
+   * transitions and histories, but a given key is always mapped to the same
+   * value, so the order in which the workers&rsquo; tables are merged is
+   * immaterial.
+   *
+   * @param lastLevel the last back-off level (the value equal to
+   * {@link #numLevels}<code>&nbsp;-&nbsp;1</code>)
+   */
+  private void precomputeProbsInParallel(final int lastLevel) {
+    final Object[] topLevelTrans = counts[0].transition().entrySet().toArray();
+    int numWorkers = precomputeNumThreads;
+    final Model[] workers = new Model[numWorkers];
+    List tasks = new ArrayList(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      final Model worker = newPrecomputeWorker();
+      final int start = (int)((long)topLevelTrans.length * i / numWorkers);
+      final int end = (int)((long)topLevelTrans.length * (i + 1) / numWorkers);
+      workers[i] = worker;
+      tasks.add(new Callable() {
+	public Object call() {
+	  Transition[] transitions = new Transition[numLevels];
+	  Event[] histories = new Event[numLevels];
+	  double[] lambdas = worker.structure.lambdas;
+	  double[] estimates = worker.structure.estimates;
+	  for (int j = start; j < end; j++) {
+	    MapToPrimitive.Entry transEntry =
+	      (MapToPrimitive.Entry)topLevelTrans[j];
+	    worker.precomputeProbs(transEntry, lambdas, estimates,
+				   transitions, histories, lastLevel);
+	    worker.storePrecomputedProbs(lambdas, estimates,
+					 transitions, histories, lastLevel);
+	  }
+	  return null;
+	}
+      });
+    }
+    runPrecomputeTasks(tasks);
+
+    tasks.clear();
+    for (int level = 0; level < numLevels; level++) {
+      final int lev = level;
+      tasks.add(new Callable() {
+	public Object call() {
+	  for (int i = 0; i < workers.length; i++) {
+	    putAll(precomputedProbs[lev], workers[i].precomputedProbs[lev]);
+	    if (lev < lastLevel)
+	      putAll(precomputedLambdas[lev],
+		     workers[i].precomputedLambdas[lev]);
+	    if (saveSmoothingParams)
+	      smoothingParams[lev].putAll(workers[i].smoothingParams[lev]);
+	  }
+	  return null;
+	}
+      });
+    }
+    runPrecomputeTasks(tasks);
+  }
+
+  /**
+   * Returns a new precomputation worker, which is a shallow copy of this
+   * model that shares its counts and back-off maps, but that has its own copy
+   * of this model&rsquo;s probability structure and its own, empty tables
+   * of precomputed probabilities, lambdas and, if they are being saved,
+   * smoothing parameters.
+   *
+   * @return a new precomputation worker for this model
+   *
+   * @see #precomputeProbsInParallel(int)
+   */
+  private Model newPrecomputeWorker() {
+    Model worker;
+    try {
+      worker = (Model)super.clone();
+    }
+    catch (CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse.toString());
+    }
+    worker.structure = structure.copy();
+    worker.precomputedProbs = new HashMapDouble[numLevels];
+    for (int i = 0; i < numLevels; i++)
+      worker.precomputedProbs[i] = new HashMapDouble();
+    worker.precomputedLambdas = new HashMapDouble[numLevels - 1];
+    for (int i = 0; i < numLevels - 1; i++)
+      worker.precomputedLambdas[i] = new HashMapDouble();
+    if (saveSmoothingParams) {
+      worker.smoothingParams = new CountsTableImpl[numLevels];
+      for (int i = 0; i < numLevels; i++)
+	worker.smoothingParams[i] = new CountsTableImpl();
+    }
+    return worker;
+  }
+
+  private static void putAll(HashMapDouble to, HashMapDouble from) {
+    Iterator it = from.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      to.put(entry.getKey(), entry.getDoubleValue());
+    }
+  }
+
+  /**
+   * Runs the specified independent tasks concurrently, on a pool of at most
+   * {@link Settings#modelPrecomputeNumThreads} threads, returning once all
+   * of them have completed.
+   *
+   * @param tasks a list of {@link Callable} objects
+   */
+  private static void runPrecomputeTasks(List tasks) {
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(precomputeNumThreads,
+					    tasks.size()));
+    try {
+      List futures = pool.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++) {
+	try {
+	  ((Future)futures.get(i)).get();
+	}
+	catch (ExecutionException ee) {
+	  Throwable cause = ee.getCause();
+	  if (cause instanceof RuntimeException)
+	    throw (RuntimeException)cause;
+	  if (cause instanceof Error)
+	    throw (Error)cause;
+	  throw new RuntimeException(cause.toString());
+	}
+      }
+    }
+    catch (InterruptedException ie) {
+      throw new RuntimeException(ie.toString());
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
   /**
    * Precomputes the probabilities and smoothing values for the
    * {@link Transition} object contained as a key within the specified
@@ -1941,6 +2869,146 @@ public class Model implements Serializable {
     }
   }
 
+  /**
+   * Replaces the precomputed probability and lambda tables of this model
+   * with compact {@link PackedProbTable} objects, one per back-off level,
+   * for use when decoding.  After this method has been invoked, this model
+   * can no longer be trained or serialized.  This method has no effect if
+   * {@link #precomputeProbs} is <code>false</code> or if the tables have
+   * already been packed.
+   * <p>
+   * Back-off levels may be shared among models (see
+   * {@link #share(int,Model,int)}), so the specified map is used to look up
+   * and record the packed version of each precomputed probability table by
+   * identity, ensuring that a shared level is packed only once.
+   *
+   * <p>
+   * If the value of {@link Settings#modelQuantizationBits} is <tt>8</tt> or
+   * <tt>16</tt>, the tables are instead replaced with
+   * {@link QuantizedProbTable} objects, in which every log-probability and
+   * lambda is quantized to a code of that many bits, and the error
+   * introduced by quantization at each back-off level is reported.
+   *
+   * @param packed an identity map from {@link HashMapDouble} precomputed
+   * probability tables to their {@link PackedProbTable} or
+   * {@link QuantizedProbTable} versions, shared among all models being packed
+   *
+   * @see Settings#modelPackPrecomputedProbs
+   * @see Settings#modelQuantizationBits
+   */
+  public void packPrecomputedProbs(Map packed) {
+    if (!precomputeProbs || packedTables != null || precomputedProbs == null)
+      return;
+    packedTables = new PrecomputedProbTable[numLevels];
+    for (int level = 0; level < numLevels; level++) {
+      HashMapDouble probs = precomputedProbs[level];
+      HashMapDouble lambdas =
+	level < precomputedLambdas.length ? precomputedLambdas[level] : null;
+      PrecomputedProbTable table = (PrecomputedProbTable)packed.get(probs);
+      if (table == null || (lambdas != null && packed.get(lambdas) != table)) {
+	if (quantizationBits > 0) {
+	  QuantizedProbTable quantized =
+	    new QuantizedProbTable(probs, lambdas, quantizationBits);
+	  if (verbose)
+	    System.err.println("Quantized level " + level + " of " +
+			       structureClassName + ": " +
+			       quantized.getStats());
+	  table = quantized;
+	}
+	else
+	  table = new PackedProbTable(probs, lambdas);
+	packed.put(probs, table);
+	if (lambdas != null)
+	  packed.put(lambdas, table);
+      }
+      packedTables[level] = table;
+    }
+    precomputedProbs = null;
+    precomputedLambdas = null;
+  }
+
+  /**
+   * Sets the tables of precomputed probabilities and lambdas for the
+   * back-off levels of this model, replacing {@link #precomputedProbs} and
+   * {@link #precomputedLambdas}.  After this method has been invoked, this
+   * model can no longer be trained or serialized.
+   *
+   * @param tables an array of tables, one for each back-off level of this
+   * model
+   * @throws IllegalArgumentException if the length of the specified array
+   * is not equal to the number of back-off levels of this model
+   *
+   * @see MappedModelTables
+   */
+  public void setPrecomputedTables(PrecomputedProbTable[] tables) {
+    if (tables.length != numLevels)
+      throw new IllegalArgumentException();
+    packedTables = tables;
+    precomputedProbs = null;
+    precomputedLambdas = null;
+  }
+  /**
+   * Returns an upper bound on the log-probability this model can assign to
+   * any conditional event whose future is that of the specified event,
+   * regardless of its history.  The bound is the highest precomputed
+   * log-probability of any transition to that future at any back-off level,
+   * since a smoothed estimate is the product of the precomputed value of the
+   * first back-off level at which its transition was seen and the lambda
+   * values of the levels before it, none of which can exceed 1.  If this
+   * model does not have precomputed probability tables that can be
+   * enumerated (because {@link #precomputeProbs} is <code>false</code>, or
+   * because the tables have been packed or mapped), the trivial bound of
+   * <tt>0.0</tt> is returned.
+   *
+   * @param id the id of the client invoking this method
+   * @param event an event containing (at least) the information needed by
+   * this model's probability structure to construct the future of a
+   * conditional event
+   * @return an upper bound on the log-probability of any conditional event
+   * with the future of the specified event, or {@link Constants#logOfZero}
+   * if no transition to that future was observed
+   *
+   * @see ProbabilityStructure#getFuture(TrainerEvent,int)
+   */
+  public double logProbFutureUpperBound(int id, TrainerEvent event) {
+    HashMapDouble[] maxLogProbs = getMaxLogProbsByFuture();
+    if (maxLogProbs == null)
+      return 0.0;
+    ProbabilityStructure clientStructure = getClientProbStructure(id);
+    double bound = Constants.logOfZero;
+    for (int level = 0; level < numLevels; level++) {
+      Event future = clientStructure.getFuture(event, level);
+      MapToPrimitive.Entry entry = maxLogProbs[level].getEntry(future);
+      if (entry != null && entry.getDoubleValue() > bound)
+	bound = entry.getDoubleValue();
+    }
+    return bound;
+  }
+
+  private synchronized HashMapDouble[] getMaxLogProbsByFuture() {
+    if (maxLogProbsByFuture == null && precomputeProbs &&
+	precomputedProbs != null) {
+      HashMapDouble[] maxLogProbs = new HashMapDouble[numLevels];
+      for (int level = 0; level < numLevels; level++) {
+	maxLogProbs[level] = new HashMapDouble();
+	Iterator it = precomputedProbs[level].entrySet().iterator();
+	while (it.hasNext()) {
+	  MapToPrimitive.Entry transEntry = (MapToPrimitive.Entry)it.next();
+	  Event future = ((Transition)transEntry.getKey()).future();
+	  double logProb = transEntry.getDoubleValue();
+	  MapToPrimitive.Entry maxEntry = maxLogProbs[level].getEntry(future);
+	  if (maxEntry == null)
+	    maxLogProbs[level].put(future, logProb);
+	  else if (logProb > maxEntry.getDoubleValue())
+	    maxEntry.set(0, logProb);
+	}
+      }
+      maxLogProbsByFuture = maxLogProbs;
+    }
+    return maxLogProbsByFuture;
+  }
+
+
   /**
    * Indicates to use counts or precomputed probabilities from the specified
    * back-off level of this model when estimating probabilities for the
@@ -2146,6 +3214,10 @@ public class Model implements Serializable {
 
   private void writeObject(java.io.ObjectOutputStream s)
     throws IOException {
+    if (packedTables != null)
+      throw new NotSerializableException(structureClassName +
+					 ": precomputed probabilities have " +
+					 "been packed");
     if (precomputeProbs && deleteCountsWhenPrecomputingProbs)
       counts = null;
     s.defaultWriteObject();
@@ -2203,7 +3275,7 @@ public class Model implements Serializable {
 	   append((float)cacheHits[level]/cacheAccesses[level]).
 	   append(" (hits/accesses/hit rate)\n");
 	sb.append("\t\t").
-	   append(cache[level].getStats().
+	   append(getCacheStats(level).
 		  replace('\n', ' ').replace('\t', ' ')).
 	   append("\n");
       }
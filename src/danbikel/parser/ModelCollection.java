@@ -2,6 +2,8 @@ package danbikel.parser;
 
 import danbikel.util.Filter;
 import danbikel.util.FlexibleMap;
+import danbikel.util.FrozenMap;
+import danbikel.util.FrozenSet;
 import danbikel.util.Time;
 import danbikel.lisp.*;
 import java.io.*;
@@ -31,6 +33,9 @@ import java.util.*;
 public class ModelCollection implements Serializable {
 
   // constants
+  // the value computed for the original version of this class, so that
+  // existing model files remain readable
+  private static final long serialVersionUID = 3739436193779905106L;
   /**
    * Indicates whether to output verbose messages to <code>System.err</code>.
    * The value of this constant is normally <code>true</code> (this <i>is</i>
@@ -142,6 +147,16 @@ public class ModelCollection implements Serializable {
    */
   protected transient FlexibleMap canonicalEvents;
 
+  /**
+   * The name of the mapped table file containing the precomputed
+   * probability and lambda tables of the models of this collection, relative
+   * to the directory of the model file, or <code>null</code> if the tables
+   * are serialized along with the models.
+   *
+   * @see MappedModelTables
+   */
+  protected String mappedTablesFilename;
+
   // derived transient data
   // maps from integers to nonterminals and nonterminals to integers
   /**
@@ -288,6 +303,103 @@ public class ModelCollection implements Serializable {
     return Collections.unmodifiableList(Arrays.asList(modelArr));
   }
 
+  /**
+   * Replaces the precomputed probability tables of every model in this
+   * collection with compact, integer-encoded versions, taking care that
+   * back-off levels shared among models remain shared.  This method is
+   * invoked automatically after deserialization if the value of
+   * {@link Settings#modelPackPrecomputedProbs} is <code>true</code> or if
+   * the value of {@link Settings#modelQuantizationBits} is greater than
+   * zero.
+   * After this method has been invoked, this collection can no longer be
+   * serialized.
+   *
+   * @see Model#packPrecomputedProbs(Map)
+   */
+  public void packPrecomputedProbs() {
+    Time time = null;
+    if (verbose) {
+      System.err.print("Packing precomputed probabilities...");
+      time = new Time();
+    }
+    Map packed = new IdentityHashMap();
+    for (int i = 0; i < modelArr.length; i++) {
+      Model model = modelArr[i];
+      for (int j = 0; j < model.numModels(); j++)
+	model.getModel(j).packPrecomputedProbs(packed);
+    }
+    if (verbose)
+      System.err.println("done (" + time + ").");
+  }
+
+  /**
+   * Replaces the read-only maps used by decoders to constrain their search
+   * with immutable {@link FrozenMap} instances, whose values are converted to
+   * the forms used during decoding:
+   * <ul>
+   * <li>the values of {@link #headToParentMap()} are converted from sets to
+   * arrays of {@link Symbol} objects,
+   * <li>the values of {@link #leftSubcatMap()} and {@link #rightSubcatMap()}
+   * are converted from sets to arrays of {@link Subcat} objects and
+   * <li>the values of {@link #modNonterminalMap()} and
+   * {@link #simpleModNonterminalMap()} are converted to {@link FrozenSet}
+   * objects.
+   * </ul>
+   * The {@link #posMap()} is frozen as well, with its values unchanged.
+   * Since frozen maps cannot be modified, they are shared by every
+   * {@link Decoder} that gets them from a {@link DecoderServer} in the same
+   * virtual machine, and such decoders do not make their own converted
+   * copies.  This method is invoked automatically after deserialization if
+   * the value of {@link Settings#freezeDecoderMaps} is <code>true</code>,
+   * and has no effect if the maps have already been frozen.
+   *
+   * @see Decoder#convertSubcatMaps()
+   * @see Decoder#convertHeadToParentMap()
+   */
+  public void freezeDecoderMaps() {
+    if (leftSubcatMap instanceof FrozenMap)
+      return;
+    Time time = null;
+    if (verbose) {
+      System.err.print("Freezing decoder maps...");
+      time = new Time();
+    }
+    if (posMap != null)
+      posMap = new FrozenMap(posMap);
+    if (headToParentMap != null)
+      headToParentMap = freeze(headToParentMap, Symbol.class);
+    leftSubcatMap = freeze(leftSubcatMap, Subcat.class);
+    rightSubcatMap = freeze(rightSubcatMap, Subcat.class);
+    if (modNonterminalMap != null)
+      modNonterminalMap = freeze(modNonterminalMap, null);
+    if (simpleModNonterminalMap != null)
+      simpleModNonterminalMap = freeze(simpleModNonterminalMap, null);
+    if (verbose)
+      System.err.println("done (" + time + ").");
+  }
+
+  /**
+   * Returns a frozen copy of the specified map of keys to sets, converting
+   * each set to an array with the specified component type or, if the type
+   * is <code>null</code>, to a {@link FrozenSet}.
+   */
+  private static Map freeze(Map map, Class componentType) {
+    Map converted = new HashMap(map.size());
+    Iterator it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      Set set = (Set)entry.getValue();
+      Object value;
+      if (componentType == null)
+	value = new FrozenSet(set);
+      else
+	value = set.toArray((Object[])java.lang.reflect.Array.
+			    newInstance(componentType, set.size()));
+      converted.put(entry.getKey(), value);
+    }
+    return new FrozenMap(converted);
+  }
+
   /**
    * Syntactic sugar for <code>modelList().iterator()</code>.
    * @return the iterator of the list returned by {@link #modelList()}
@@ -296,6 +408,31 @@ public class ModelCollection implements Serializable {
     return modelList().iterator();
   }
 
+  /**
+   * Returns the name of the mapped table file containing the precomputed
+   * probability and lambda tables of the models of this collection, or
+   * <code>null</code> if the tables are serialized along with the models.
+   * A relative filename is relative to the directory of the model file.
+   *
+   * @return the name of the mapped table file of this collection, or
+   * <code>null</code>
+   *
+   * @see MappedModelTables
+   */
+  public String getMappedTablesFilename() { return mappedTablesFilename; }
+
+  /**
+   * Sets the name of the mapped table file containing the precomputed
+   * probability and lambda tables of the models of this collection.
+   *
+   * @param filename the name of the mapped table file of this collection
+   *
+   * @see MappedModelTables
+   */
+  public void setMappedTablesFilename(String filename) {
+    mappedTablesFilename = filename;
+  }
+
   private void createNonterminalMap() {
     nonterminalMap = new HashMap(nonterminals.size());
     nonterminalArr = new Symbol[nonterminals.size()];
@@ -846,6 +983,13 @@ public class ModelCollection implements Serializable {
 
     createModelArray();
 
+    if (Settings.getBoolean(Settings.modelPackPrecomputedProbs) ||
+	Settings.getInteger(Settings.modelQuantizationBits) > 0)
+      packPrecomputedProbs();
+
+    if (Settings.getBoolean(Settings.freezeDecoderMaps))
+      freezeDecoderMaps();
+
     if (verbose)
       System.err.println("Total time reading ModelCollection object: " +
 			 totalTime + ".");
@@ -0,0 +1,151 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import java.util.*;
+
+/**
+ * A compact, read-only representation of the precomputed probabilities and
+ * lambdas of a single back-off level of a {@link Model}.  Every distinct
+ * history and every distinct future at the back-off level is assigned an
+ * integer id, and each transition is stored as a <code>long</code> key
+ * composed of its history id (in the high-order 32 bits) and its future id
+ * (in the low-order 32 bits), mapped to its log-probability in a
+ * {@link LongHashMapDouble}.  The lambda-related values for histories are
+ * stored in an array indexed by history id.
+ * <p>
+ * Since the number of distinct histories and futures is much smaller than
+ * the number of transitions, this representation avoids storing a
+ * {@link Transition} object and a map entry object for every transition,
+ * which is where most of the memory of a model with precomputed
+ * probabilities goes.
+ *
+ * @see Model#packPrecomputedProbs(Map)
+ * @see Settings#modelPackPrecomputedProbs
+ */
+public class PackedProbTable
+  implements PrecomputedProbTable, java.io.Serializable {
+  private HashMapInt histIds;
+  private HashMapInt futureIds;
+  private LongHashMapDouble logProbs;
+  private double[] logOneMinusLambdas;
+
+  /**
+   * Constructs a new packed table from the specified precomputed tables of a
+   * single back-off level.
+   *
+   * @param precomputedProbs a map of {@link Transition} objects to their
+   * log-probabilities
+   * @param precomputedLambdas a map of history {@link Event} objects to the
+   * logs of one minus their lambdas, or <code>null</code> if the back-off
+   * level has no lambdas (because it is the last level)
+   */
+  public PackedProbTable(HashMapDouble precomputedProbs,
+			 HashMapDouble precomputedLambdas) {
+    histIds = new HashMapInt();
+    futureIds = new HashMapInt();
+    logProbs = new LongHashMapDouble(precomputedProbs.size());
+
+    Iterator it = precomputedProbs.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      Transition transition = (Transition)entry.getKey();
+      int histId = getId(histIds, transition.history());
+      int futureId = getId(futureIds, transition.future());
+      logProbs.put(key(histId, futureId), entry.getDoubleValue());
+    }
+
+    if (precomputedLambdas != null) {
+      it = precomputedLambdas.keySet().iterator();
+      while (it.hasNext())
+	getId(histIds, it.next());
+      logOneMinusLambdas = new double[histIds.size()];
+      Arrays.fill(logOneMinusLambdas, Double.NaN);
+      it = precomputedLambdas.entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	int histId = histIds.getEntry(entry.getKey()).getIntValue();
+	logOneMinusLambdas[histId] = entry.getDoubleValue();
+      }
+    }
+    logProbs.trimToSize();
+  }
+
+  private static int getId(HashMapInt ids, Object event) {
+    MapToPrimitive.Entry entry = ids.getEntry(event);
+    if (entry != null)
+      return entry.getIntValue();
+    int id = ids.size();
+    ids.put(event, id);
+    return id;
+  }
+
+  private static long key(int histId, int futureId) {
+    return ((long)histId << 32) | (futureId & 0xffffffffL);
+  }
+
+  /**
+   * Returns the id of the specified history, or <tt>-1</tt> if the history
+   * does not occur at this back-off level.
+   *
+   * @param history the history to look up
+   * @return the id of the specified history, or <tt>-1</tt>
+   */
+  public long historyKey(Event history) {
+    MapToPrimitive.Entry entry = histIds.getEntry(history);
+    return entry == null ? -1 : entry.getIntValue();
+  }
+
+  /**
+   * Returns the log-probability of the specified future given the history
+   * with the specified id, or {@link Double#NaN} if there is no such
+   * transition at this back-off level.
+   *
+   * @param histId the id of a history, as returned by
+   * {@link #historyKey(Event)}
+   * @param future the future to look up
+   * @return the log-probability of the transition, or {@link Double#NaN}
+   */
+  public double logProb(long histId, Event future) {
+    if (histId < 0)
+      return Double.NaN;
+    MapToPrimitive.Entry entry = futureIds.getEntry(future);
+    if (entry == null)
+      return Double.NaN;
+    return logProbs.get(key((int)histId, entry.getIntValue()), Double.NaN);
+  }
+
+  /**
+   * Returns the log of one minus the lambda of the history with the specified
+   * id, or the specified default value if there is no lambda for the history.
+   *
+   * @param histId the id of a history, as returned by
+   * {@link #historyKey(Event)}
+   * @param defaultValue the value to return if there is no lambda for the
+   * specified history
+   * @return the log of one minus the lambda of the specified history, or
+   * <code>defaultValue</code>
+   */
+  public double logOneMinusLambda(long histId, double defaultValue) {
+    if (histId < 0 || logOneMinusLambdas == null)
+      return defaultValue;
+    double value = logOneMinusLambdas[(int)histId];
+    return Double.isNaN(value) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the number of transitions in this table.
+   * @return the number of transitions in this table
+   */
+  public int size() {
+    return logProbs.size();
+  }
+
+  /**
+   * Returns a human-readable string of statistics for this table.
+   * @return a human-readable string of statistics for this table
+   */
+  public String getStats() {
+    return "histories: " + histIds.size() + "; futures: " + futureIds.size() +
+	   "; transitions: " + logProbs.getStats();
+  }
+}
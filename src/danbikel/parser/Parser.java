@@ -6,6 +6,8 @@ import danbikel.switchboard.*;
 import danbikel.parser.constraints.*;
 import danbikel.parser.util.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.net.*;
 import java.rmi.*;
 import java.rmi.server.*;
@@ -79,6 +81,15 @@ public class Parser
    */
   protected final static Class[] newDecoderTypeArr =
     {Integer.TYPE,DecoderServerRemote.class};
+  /**
+   * An array of types used for fetching the constructor of this class
+   * that takes two arguments of type <code>DecoderServerRemote</code> and of
+   * type <code>int</code>.
+   *
+   * @see #getNewParser(DecoderServerRemote,int)
+   */
+  protected final static Class[] newParserTypeArr =
+    {DecoderServerRemote.class,Integer.TYPE};
 
   // protected constants
   /** Cached value of {@link Settings#keepAllWords}, for efficiency and
@@ -135,6 +146,8 @@ public class Parser
 
   public void update(Map<String, String> changedSettings) {
     if (changedSettings.containsKey(Settings.decoderClass)) {
+      if (decoder != null)
+	decoder.shutDownSpanWorkers();
       decoder = getNewDecoder(id, server);
     }
   }
@@ -339,6 +352,15 @@ public class Parser
     server = (DecoderServerRemote)super.server;
   }
 
+  /**
+   * Returns a new {@link EventFrameCodec}, so that events are sent
+   * compactly when this client reaches the switchboard over a frame
+   * connection.
+   */
+  protected FrameCodec frameCodec() {
+    return new EventFrameCodec();
+  }
+
   protected void tolerateFaults(int retries,
 				int sleepTime,
 				boolean failover) {
@@ -795,24 +817,12 @@ public class Parser
       decoder = getNewDecoder(id, server);
     }
 
-    InputStream in = null;
-    if (inputFilename.equals("-")) {
-      in = System.in;
-    }
-    else {
-      File inFile = getFile(inputFilename);
-      if (inFile == null)
-	return;
-      in = new FileInputStream(inFile);
-    }
+    InputStream in = getInputStream(inputFilename);
+    if (in == null)
+      return;
 
     int bufSize = Constants.defaultFileBufsize;
-    OutputStream outputStream = (outputFilename.equals("-") ?
-				 (OutputStream)System.out :
-				 new FileOutputStream(outputFilename));
-    OutputStreamWriter osw =
-      new OutputStreamWriter(outputStream, Language.encoding());
-    BufferedWriter out = new BufferedWriter(osw, bufSize);
+    BufferedWriter out = getOutputWriter(outputFilename);
     Sexp sent = null;
     SexpTokenizer tok = new SexpTokenizer(in, Language.encoding(), bufSize);
     Time totalTime = new Time();
@@ -834,6 +844,232 @@ public class Parser
     out.flush();
   }
 
+  /**
+   * Parses the sentences contained in the specified input file using the
+   * specified number of threads, outputting the results to the specified
+   * output file in the same order as their sentences appear in the input
+   * file.  This parsing client and <code>numThreads&nbsp;-&nbsp;1</code> new
+   * parsing clients, all sharing this client&rsquo;s {@link #server}, take
+   * sentences from a bounded queue that is filled by the calling thread.
+   * Parses that are completed out of order are buffered until all the parses
+   * of the sentences preceding them have been output.  If the specified
+   * number of threads is less than two, this method simply invokes
+   * {@link #processInputFile(String,String)}.
+   *
+   * @param inputFilename  the input file to process
+   * @param outputFilename the output file to create
+   * @param numThreads     the number of parsing threads to use
+   * @throws IOException if there is a problem creating the input file stream or
+   *                     writing to the created output file stream
+   *
+   * @see #getNewParser(DecoderServerRemote,int)
+   */
+  protected void processInputFile(String inputFilename, String outputFilename,
+				  int numThreads)
+    throws IOException {
+
+    if (numThreads < 2) {
+      processInputFile(inputFilename, outputFilename);
+      return;
+    }
+
+    if (decoder == null) {
+      decoder = getNewDecoder(id, server);
+    }
+
+    InputStream in = getInputStream(inputFilename);
+    if (in == null)
+      return;
+
+    int bufSize = Constants.defaultFileBufsize;
+    final OrderedOutput out =
+      new OrderedOutput(getOutputWriter(outputFilename));
+    final BlockingQueue queue = new ArrayBlockingQueue(2 * numThreads);
+    final Time totalTime = new Time();
+
+    Thread[] threads = new Thread[numThreads];
+    Parser[] parsers = new Parser[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      final Parser parser;
+      try {
+	parser = i == 0 ? this : getNewParser(server, id + i);
+      }
+      catch (Exception e) {
+	throw new RuntimeException(e);
+      }
+      parsers[i] = parser;
+      Runnable worker = new Runnable() {
+	public void run() {
+	  Time time = new Time();
+	  try {
+	    while (true) {
+	      NumberedSentence numbered = (NumberedSentence)queue.take();
+	      if (numbered == NumberedSentence.end)
+		break;
+	      err.println("client " + parser.id + " processing sentence No. " +
+			  numbered.num + ": " + numbered.sent);
+	      time.reset();
+	      Sexp parsedSent = null;
+	      try {
+		parsedSent = parser.parse(numbered.sent.list());
+	      }
+	      catch (RemoteException re) {
+		err.println(className + ": error: couldn't parse sentence No. " +
+			    numbered.num + " (" + re + ")");
+	      }
+	      catch (RuntimeException re) {
+		// the output of later sentences waits on this one, so this
+		// worker must go on, writing null for this sentence
+		err.println(className + ": error: couldn't parse sentence No. " +
+			    numbered.num + " (" + re + ")");
+		re.printStackTrace(err);
+	      }
+	      err.println("sentence No. " + numbered.num + " elapsed time: " +
+			  time);
+	      out.write(numbered.num, parsedSent);
+	    }
+	  }
+	  catch (InterruptedException ie) {
+	    err.println(ie);
+	  }
+	}
+      };
+      threads[i] = new Thread(worker, "Parse Client " + parser.id);
+      threads[i].start();
+    }
+
+    Sexp sent = null;
+    SexpTokenizer tok = new SexpTokenizer(in, Language.encoding(), bufSize);
+    int numSents = 0;
+    try {
+      try {
+	while ((sent = Sexp.read(tok)) != null)
+	  queue.put(new NumberedSentence(++numSents, sent));
+      }
+      finally {
+	for (int i = 0; i < numThreads; i++)
+	  queue.put(NumberedSentence.end);
+      }
+      for (int i = 0; i < numThreads; i++)
+	threads[i].join();
+    }
+    catch (InterruptedException ie) {
+      throw new InterruptedIOException(ie.toString());
+    }
+    // the other parsers are discarded, and with them their decoders
+    for (int i = 1; i < numThreads; i++)
+      if (parsers[i].decoder != null)
+	parsers[i].decoder.shutDownSpanWorkers();
+    out.flush();
+    if (numSents > 0)
+      err.println("\naverage elapsed time per sentence: " +
+		  Time.elapsedTime(totalTime.elapsedMillis() / numSents));
+    err.println("\ntotal elapsed time: " + totalTime);
+    err.println("\nHave a nice day!");
+  }
+
+  /**
+   * Returns an input stream for the specified input file, or
+   * <code>System.in</code> if the specified filename is <tt>"-"</tt>.
+   *
+   * @param inputFilename the input file to open, or <tt>"-"</tt>
+   * @return an input stream for the specified input file, or
+   *         <code>null</code> if the file does not exist
+   * @throws IOException if there is a problem opening the specified file
+   */
+  private static InputStream getInputStream(String inputFilename)
+    throws IOException {
+    if (inputFilename.equals("-")) {
+      return System.in;
+    }
+    else {
+      File inFile = getFile(inputFilename);
+      return inFile == null ? null : new FileInputStream(inFile);
+    }
+  }
+
+  /**
+   * Returns a buffered writer for the specified output file, or for
+   * <code>System.out</code> if the specified filename is <tt>"-"</tt>.
+   *
+   * @param outputFilename the output file to create, or <tt>"-"</tt>
+   * @return a buffered writer for the specified output file
+   * @throws IOException if there is a problem creating the specified file
+   */
+  private static BufferedWriter getOutputWriter(String outputFilename)
+    throws IOException {
+    OutputStream outputStream = (outputFilename.equals("-") ?
+				 (OutputStream)System.out :
+				 new FileOutputStream(outputFilename));
+    OutputStreamWriter osw =
+      new OutputStreamWriter(outputStream, Language.encoding());
+    return new BufferedWriter(osw, Constants.defaultFileBufsize);
+  }
+
+  /**
+   * A sentence read from an input file along with its one-based index,
+   * used by {@link Parser#processInputFile(String,String,int)}.
+   */
+  private static final class NumberedSentence {
+    /** The sentinel that indicates there are no more sentences. */
+    static final NumberedSentence end = new NumberedSentence(-1, null);
+    final int num;
+    final Sexp sent;
+    NumberedSentence(int num, Sexp sent) {
+      this.num = num;
+      this.sent = sent;
+    }
+  }
+
+  /**
+   * A reorder buffer that writes parses to an output file in the order of
+   * their sentences in the input file, regardless of the order in which they
+   * are completed, used by {@link Parser#processInputFile(String,String,int)}.
+   */
+  private static final class OrderedOutput {
+    private BufferedWriter out;
+    private Map pending = new danbikel.util.HashMap();
+    private int nextNum = 1;
+    private IOException exception;
+
+    OrderedOutput(BufferedWriter out) {
+      this.out = out;
+    }
+
+    /**
+     * Buffers the specified parse and writes all buffered parses whose
+     * sentences immediately follow those already written.
+     */
+    synchronized void write(int num, Sexp parsedSent) {
+      pending.put(Integer.valueOf(num), parsedSent);
+      Integer key = Integer.valueOf(nextNum);
+      while (pending.containsKey(key)) {
+	Sexp next = (Sexp)pending.remove(key);
+	try {
+	  out.write(String.valueOf(next));
+	  out.write("\n");
+	  if (flushAfterEverySentence)
+	    out.flush();
+	}
+	catch (IOException ioe) {
+	  if (exception == null)
+	    exception = ioe;
+	}
+	key = Integer.valueOf(++nextNum);
+      }
+    }
+
+    /**
+     * Flushes the underlying writer, throwing the first exception, if any,
+     * that occurred while writing.
+     */
+    synchronized void flush() throws IOException {
+      if (exception != null)
+	throw exception;
+      out.flush();
+    }
+  }
+
   // main stuff
   /**
    * The bound RMI name of the {@link Switchboard} specified on the command line
@@ -872,7 +1108,8 @@ public class Parser
     "\t       [-in <sentence input file>] [-out <parse output file>] ]",
     "where",
     "\t<numClients> is the number of parser clients to start when using",
-    "\t\tthe switchboard (ignored when in stand-alone mode)",
+    "\t\tthe switchboard, or the number of parsing threads to use when",
+    "\t\tin stand-alone mode (all sharing the internal decoder server)",
     "\t<settings file> is the name of a settings file to load locally",
     "\t--no-sb-settings indicates not to grab settings from the switchboard",
     "\t--internal-server|-is specifies to create an internal decoder server",
@@ -970,7 +1207,7 @@ public class Parser
       }
     }
 
-    if (!standAlone && numClients < 1) {
+    if (numClients < 1) {
       System.err.println("error: number of clients must be greater than zero");
       usage();
       return false;
@@ -982,10 +1219,11 @@ public class Parser
       return false;
     }
 
-    if (standAlone && inputFilename != null && numClients > 1) {
+    if (!standAlone && inputFilename != null && numClients > 1) {
       System.err.println(
       "error: can't start more than one parsing client thread when internally"+
-      "\n\tprocessing an input file; use switchboard's object server facility");
+      "\n\tprocessing an input file; use switchboard's object server facility"+
+      "\n\tor stand-alone mode");
       usage();
       return false;
     }
@@ -1107,6 +1345,43 @@ public class Parser
     return parser;
   }
 
+  /**
+   * Returns a new parsing client constructed via its two-argument constructor
+   * taking a {@link DecoderServerRemote} and an <code>int</code>, using the
+   * specified server and id as the arguments.  The run-time type of the
+   * returned parsing client will be equal to the value of {@link #parserClass}
+   * member.
+   *
+   * @param server the server for the new client&rsquo;s decoder to use
+   * @param id     the unique id of the new client
+   * @return a new parsing client using the specified server
+   *
+   * @throws NoSuchMethodException     if the class specified by {@link
+   *                                   #parserClass} does not have a constructor
+   *                                   that accepts a {@link
+   *                                   DecoderServerRemote} and an
+   *                                   <code>int</code> as its arguments
+   * @throws InvocationTargetException if the constructor of the class specified
+   *                                   by {@link #parserClass} throws an
+   *                                   exception
+   * @throws IllegalAccessException    if the constructor of the class specified
+   *                                   by {@link #parserClass} cannot be
+   *                                   accessed
+   * @throws InstantiationException    if there is a problem instantiating a new
+   *                                   instance of the class specified by {@link
+   *                                   #parserClass}
+   *
+   * @see #processInputFile(String,String,int)
+   */
+  protected static Parser getNewParser(DecoderServerRemote server, int id)
+    throws NoSuchMethodException, InvocationTargetException,
+	   IllegalAccessException, InstantiationException {
+    Parser parser = null;
+    Constructor cons = parserClass.getConstructor(newParserTypeArr);
+    parser = (Parser)cons.newInstance(new Object[]{server, Integer.valueOf(id)});
+    return parser;
+  }
+
   /**
    * Returns a new {@link File} object for the specified filename, or
    * <code>null</code> if the specified file does not exist. An error
@@ -1178,7 +1453,7 @@ public class Parser
 	  return;
 	//parser = new Parser(derivedDataFilename);
 	parser = getNewParser(derivedDataFilename);
-	parser.processInputFile(inputFilename, outputFilename);
+	parser.processInputFile(inputFilename, outputFilename, numClients);
       }
       catch (InstantiationException ie) {
 	System.err.println(ie);
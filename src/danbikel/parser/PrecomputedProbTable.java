@@ -0,0 +1,56 @@
+package danbikel.parser;
+
+/**
+ * Specifies the methods of a read-only table of the precomputed
+ * log-probabilities and lambdas of a single back-off level of a
+ * {@link Model}, used in place of the {@link Model#precomputedProbs} and
+ * {@link Model#precomputedLambdas} maps when decoding.  A history is looked
+ * up once, yielding a <code>long</code> key that is then used to look up
+ * both transitions from that history and the history's lambda.
+ *
+ * @see PackedProbTable
+ * @see MappedProbTable
+ */
+public interface PrecomputedProbTable {
+  /**
+   * Returns the key with which to look up transitions from the specified
+   * history and the specified history's lambda.
+   *
+   * @param history the history to look up
+   * @return the key of the specified history, to be passed to
+   * {@link #logProb(long,Event)} and {@link #logOneMinusLambda(long,double)}
+   */
+  public long historyKey(Event history);
+
+  /**
+   * Returns the log-probability of the specified future given the history
+   * with the specified key, or {@link Double#NaN} if there is no such
+   * transition in this table.
+   *
+   * @param historyKey the key of a history, as returned by
+   * {@link #historyKey(Event)}
+   * @param future the future to look up
+   * @return the log-probability of the transition, or {@link Double#NaN}
+   */
+  public double logProb(long historyKey, Event future);
+
+  /**
+   * Returns the log of one minus the lambda of the history with the specified
+   * key, or the specified default value if there is no lambda for the
+   * history in this table.
+   *
+   * @param historyKey the key of a history, as returned by
+   * {@link #historyKey(Event)}
+   * @param defaultValue the value to return if there is no lambda for the
+   * specified history
+   * @return the log of one minus the lambda of the specified history, or
+   * <code>defaultValue</code>
+   */
+  public double logOneMinusLambda(long historyKey, double defaultValue);
+
+  /**
+   * Returns the number of transitions in this table.
+   * @return the number of transitions in this table
+   */
+  public int size();
+}
@@ -0,0 +1,356 @@
+package danbikel.parser;
+
+import danbikel.util.*;
+import java.util.*;
+
+/**
+ * A compact, read-only representation of the precomputed probabilities and
+ * lambdas of a single back-off level of a {@link Model}, in which every
+ * log-probability and every lambda-related value is quantized to an 8- or
+ * 16-bit code.  As with {@link PackedProbTable}, every distinct history and
+ * future at the back-off level is assigned an integer id, and each
+ * transition is identified by a <code>long</code> key composed of its
+ * history id and its future id.  Keys are stored in an open-addressed array
+ * with a parallel array of codes, and each code is an index into a
+ * <i>codebook</i> of values for this back-off level.
+ * <p>
+ * A codebook is constructed by dividing the sorted values it is to
+ * represent into as many bins of equal population as there are codes, and
+ * using the mean of each bin as its representative value; each value is then
+ * encoded as the code of the representative value nearest to it.  Since the
+ * distribution of log-probabilities is far from uniform, this places more
+ * representative values where more values lie than would a uniform
+ * quantizer.  The representative values are then refined by a few
+ * iterations of Lloyd&rsquo;s algorithm, which reduces the error for values
+ * in the sparse tails of the distribution.  When there are no more distinct
+ * values than codes, every value is represented exactly.
+ *
+ * @see Model#packPrecomputedProbs(Map)
+ * @see Settings#modelQuantizationBits
+ */
+public class QuantizedProbTable
+  implements PrecomputedProbTable, java.io.Serializable {
+  // the key used to mark free slots, which is never a valid key, since
+  // history ids are non-negative
+  private final static long freeKey = -1L;
+  private final static float loadFactor = 0.5f;
+  private final static int lloydIterations = 10;
+
+  private int bits;
+  private HashMapInt histIds;
+  private HashMapInt futureIds;
+  private long[] keys;
+  private int mask;
+  private int size;
+  private byte[] probCodes8;
+  private short[] probCodes16;
+  private double[] probCodebook;
+  // lambda codes are indexed by history id; the largest code indicates that
+  // a history has no lambda
+  private byte[] lambdaCodes8;
+  private short[] lambdaCodes16;
+  private double[] lambdaCodebook;
+  private int noLambdaCode;
+  private double meanProbError;
+  private double maxProbError;
+
+  /**
+   * Constructs a new quantized table from the specified precomputed tables
+   * of a single back-off level.
+   *
+   * @param precomputedProbs a map of {@link Transition} objects to their
+   * log-probabilities
+   * @param precomputedLambdas a map of history {@link Event} objects to the
+   * logs of one minus their lambdas, or <code>null</code> if the back-off
+   * level has no lambdas (because it is the last level)
+   * @param bits the number of bits of each code, which must be either
+   * <tt>8</tt> or <tt>16</tt>
+   * @throws IllegalArgumentException if <code>bits</code> is neither
+   * <tt>8</tt> nor <tt>16</tt>
+   */
+  public QuantizedProbTable(HashMapDouble precomputedProbs,
+			    HashMapDouble precomputedLambdas, int bits) {
+    if (bits != 8 && bits != 16)
+      throw new IllegalArgumentException("illegal number of bits: " + bits);
+    this.bits = bits;
+    int numCodes = 1 << bits;
+    histIds = new HashMapInt();
+    futureIds = new HashMapInt();
+
+    size = precomputedProbs.size();
+    int tableSize = 2;
+    while (tableSize < size / loadFactor + 1)
+      tableSize <<= 1;
+    keys = new long[tableSize];
+    Arrays.fill(keys, freeKey);
+    mask = tableSize - 1;
+    if (bits == 8)
+      probCodes8 = new byte[tableSize];
+    else
+      probCodes16 = new short[tableSize];
+
+    double[] values = new double[size];
+    int i = 0;
+    Iterator it = precomputedProbs.entrySet().iterator();
+    while (it.hasNext())
+      values[i++] = ((MapToPrimitive.Entry)it.next()).getDoubleValue();
+    probCodebook = codebook(values, numCodes);
+
+    double totalError = 0.0;
+    it = precomputedProbs.entrySet().iterator();
+    while (it.hasNext()) {
+      MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+      Transition transition = (Transition)entry.getKey();
+      int histId = getId(histIds, transition.history());
+      int futureId = getId(futureIds, transition.future());
+      double value = entry.getDoubleValue();
+      int code = encode(probCodebook, value);
+      int idx = slot(key(histId, futureId));
+      keys[idx] = key(histId, futureId);
+      setCode(probCodes8, probCodes16, idx, code);
+      if (value != probCodebook[code]) {
+	double error = Math.abs(value - probCodebook[code]);
+	totalError += error;
+	if (error > maxProbError)
+	  maxProbError = error;
+      }
+    }
+    meanProbError = size == 0 ? 0.0 : totalError / size;
+
+    if (precomputedLambdas != null) {
+      it = precomputedLambdas.keySet().iterator();
+      while (it.hasNext())
+	getId(histIds, it.next());
+      values = new double[precomputedLambdas.size()];
+      i = 0;
+      it = precomputedLambdas.entrySet().iterator();
+      while (it.hasNext())
+	values[i++] = ((MapToPrimitive.Entry)it.next()).getDoubleValue();
+      noLambdaCode = numCodes - 1;
+      lambdaCodebook = codebook(values, numCodes - 1);
+      int numHists = histIds.size();
+      if (bits == 8) {
+	lambdaCodes8 = new byte[numHists];
+	Arrays.fill(lambdaCodes8, (byte)noLambdaCode);
+      }
+      else {
+	lambdaCodes16 = new short[numHists];
+	Arrays.fill(lambdaCodes16, (short)noLambdaCode);
+      }
+      it = precomputedLambdas.entrySet().iterator();
+      while (it.hasNext()) {
+	MapToPrimitive.Entry entry = (MapToPrimitive.Entry)it.next();
+	int histId = histIds.getEntry(entry.getKey()).getIntValue();
+	setCode(lambdaCodes8, lambdaCodes16, histId,
+		encode(lambdaCodebook, entry.getDoubleValue()));
+      }
+    }
+  }
+
+  private static int getId(HashMapInt ids, Object event) {
+    MapToPrimitive.Entry entry = ids.getEntry(event);
+    if (entry != null)
+      return entry.getIntValue();
+    int id = ids.size();
+    ids.put(event, id);
+    return id;
+  }
+
+  private static long key(int histId, int futureId) {
+    return ((long)histId << 32) | (futureId & 0xffffffffL);
+  }
+
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int)key;
+  }
+
+  /**
+   * Returns the slot of the specified key, or the free slot at which it
+   * should be inserted if it is not in this table.
+   */
+  private int slot(long key) {
+    int idx = hash(key) & mask;
+    while (keys[idx] != key && keys[idx] != freeKey)
+      idx = (idx + 1) & mask;
+    return idx;
+  }
+
+  private static void setCode(byte[] codes8, short[] codes16, int idx,
+			      int code) {
+    if (codes8 != null)
+      codes8[idx] = (byte)code;
+    else
+      codes16[idx] = (short)code;
+  }
+
+  private static int getCode(byte[] codes8, short[] codes16, int idx) {
+    return codes8 != null ? codes8[idx] & 0xff : codes16[idx] & 0xffff;
+  }
+
+  /**
+   * Returns a sorted codebook of at most the specified number of
+   * representative values for the specified values, initially the means of
+   * bins of equal population of the sorted values, refined by Lloyd&rsquo;s
+   * algorithm.  Infinite values, such as the log of a zero probability, are
+   * represented exactly, by a codebook entry of their own.
+   *
+   * @param values the values to be represented, which are sorted by this
+   * method
+   * @param numCodes the maximum number of entries of the codebook
+   * @return a sorted codebook for the specified values
+   */
+  static double[] codebook(double[] values, int numCodes) {
+    Arrays.sort(values);
+    int start = 0;
+    while (start < values.length && Double.isInfinite(values[start]))
+      start++;
+    int numInfinite = start > 0 ? 1 : 0;
+    int numDistinct = 0;
+    for (int i = start; i < values.length; i++)
+      if (i == start || values[i] != values[i - 1])
+	numDistinct++;
+
+    double[] codebook;
+    if (numDistinct + numInfinite <= numCodes) {
+      codebook = new double[numDistinct + numInfinite];
+      int code = 0;
+      if (numInfinite > 0)
+	codebook[code++] = values[0];
+      for (int i = start; i < values.length; i++)
+	if (i == start || values[i] != values[i - 1])
+	  codebook[code++] = values[i];
+      return codebook;
+    }
+
+    int numBins = numCodes - numInfinite;
+    int numFinite = values.length - start;
+    codebook = new double[numCodes];
+    if (numInfinite > 0)
+      codebook[0] = values[0];
+    for (int bin = 0; bin < numBins; bin++) {
+      int binStart = start + (int)((long)numFinite * bin / numBins);
+      int binEnd = start + (int)((long)numFinite * (bin + 1) / numBins);
+      double sum = 0.0;
+      for (int i = binStart; i < binEnd; i++)
+	sum += values[i];
+      codebook[numInfinite + bin] = sum / (binEnd - binStart);
+    }
+
+    // refine the codebook by Lloyd's algorithm, which, since the values are
+    // sorted, requires only a single sweep per iteration
+    double[] sums = new double[numBins];
+    int[] binCounts = new int[numBins];
+    for (int iter = 0; iter < lloydIterations; iter++) {
+      Arrays.fill(sums, 0.0);
+      Arrays.fill(binCounts, 0);
+      int bin = 0;
+      for (int i = start; i < values.length; i++) {
+	while (bin < numBins - 1 &&
+	       values[i] > (codebook[numInfinite + bin] +
+			    codebook[numInfinite + bin + 1]) / 2)
+	  bin++;
+	sums[bin] += values[i];
+	binCounts[bin]++;
+      }
+      for (bin = 0; bin < numBins; bin++)
+	if (binCounts[bin] > 0)
+	  codebook[numInfinite + bin] = sums[bin] / binCounts[bin];
+      Arrays.sort(codebook, numInfinite, codebook.length);
+    }
+    return codebook;
+  }
+
+  /**
+   * Returns the index of the entry of the specified sorted codebook nearest
+   * to the specified value.
+   */
+  static int encode(double[] codebook, double value) {
+    int idx = Arrays.binarySearch(codebook, value);
+    if (idx >= 0)
+      return idx;
+    int insertionPoint = -idx - 1;
+    if (insertionPoint == 0)
+      return 0;
+    if (insertionPoint == codebook.length)
+      return codebook.length - 1;
+    return (value - codebook[insertionPoint - 1] <=
+	    codebook[insertionPoint] - value ?
+	    insertionPoint - 1 : insertionPoint);
+  }
+
+  /**
+   * Returns the id of the specified history, or <tt>-1</tt> if the history
+   * does not occur at this back-off level.
+   *
+   * @param history the history to look up
+   * @return the id of the specified history, or <tt>-1</tt>
+   */
+  public long historyKey(Event history) {
+    MapToPrimitive.Entry entry = histIds.getEntry(history);
+    return entry == null ? -1 : entry.getIntValue();
+  }
+
+  public double logProb(long histId, Event future) {
+    if (histId < 0)
+      return Double.NaN;
+    MapToPrimitive.Entry entry = futureIds.getEntry(future);
+    if (entry == null)
+      return Double.NaN;
+    int idx = slot(key((int)histId, entry.getIntValue()));
+    if (keys[idx] == freeKey)
+      return Double.NaN;
+    return probCodebook[getCode(probCodes8, probCodes16, idx)];
+  }
+
+  public double logOneMinusLambda(long histId, double defaultValue) {
+    if (histId < 0 || lambdaCodebook == null)
+      return defaultValue;
+    int code = getCode(lambdaCodes8, lambdaCodes16, (int)histId);
+    return code == noLambdaCode ? defaultValue : lambdaCodebook[code];
+  }
+
+  public int size() { return size; }
+
+  /**
+   * Returns the mean absolute difference between the log-probabilities of
+   * the transitions of this table and their quantized values.
+   */
+  public double meanProbError() { return meanProbError; }
+
+  /**
+   * Returns the maximum absolute difference between the log-probability of
+   * any transition of this table and its quantized value.
+   */
+  public double maxProbError() { return maxProbError; }
+
+  /**
+   * Returns the approximate number of bytes occupied by the keys, codes and
+   * codebooks of this table, not including its maps of history and future
+   * ids.
+   */
+  public long approximateBytes() {
+    long bytes = (long)keys.length * (8 + bits / 8);
+    bytes += (long)probCodebook.length * 8;
+    if (lambdaCodebook != null)
+      bytes += (long)histIds.size() * (bits / 8) + lambdaCodebook.length * 8;
+    return bytes;
+  }
+
+  /**
+   * Returns a human-readable string of statistics for this table.
+   * @return a human-readable string of statistics for this table
+   */
+  public String getStats() {
+    return "histories: " + histIds.size() + "; futures: " + futureIds.size() +
+	   "; transitions: " + size + "; bits: " + bits +
+	   "; codebook size: " + probCodebook.length +
+	   "; mean log-prob error: " + meanProbError +
+	   "; max log-prob error: " + maxProbError +
+	   "; approx. bytes: " + approximateBytes();
+  }
+}
@@ -277,6 +277,7 @@ public class Settings implements Serializable {
    * <code>"parser.parser.decoderClass"</code>.
    *
    * @see Parser#getNewDecoder(int,DecoderServerRemote)
+   * @see AStarDecoder
    */
   public final static String decoderClass = "parser.parser.decoderClass";
 
@@ -319,6 +320,47 @@ public class Settings implements Serializable {
   public final static String precomputeProbs =
     "parser.model.precomputeProbabilities";
 
+  /**
+   * The property to specify whether the precomputed probabilities of every
+   * {@link Model} should be converted to a compact, integer-encoded form after
+   * a {@link ModelCollection} has been read from a derived data file.  In
+   * this form, every history and future at each back-off level is assigned an
+   * integer, and each transition's log-probability is stored in an
+   * open-addressing map keyed by a <code>long</code> formed from the two
+   * integers, greatly reducing the memory required for decoding.  This
+   * property has no effect when {@link #precomputeProbs} is
+   * <tt>false</tt>.  A model collection whose probabilities have been packed
+   * cannot be saved again.
+   * <p>
+   * The value of this constant is
+   * <code>"parser.model.packPrecomputedProbabilities"</code>.
+   *
+   * @see PackedProbTable
+   * @see ModelCollection#packPrecomputedProbs()
+   */
+  public final static String modelPackPrecomputedProbs =
+    "parser.model.packPrecomputedProbabilities";
+
+  /**
+   * The property to specify the number of bits to which the precomputed
+   * log-probabilities and lambdas of every {@link Model} should be quantized
+   * when they are packed after a {@link ModelCollection} has been read from a
+   * derived data file (see {@link #modelPackPrecomputedProbs}).  The value
+   * must be <tt>0</tt>, indicating that values are not quantized, or
+   * <tt>8</tt> or <tt>16</tt>, in which case each back-off level of each
+   * model has its own codebook of at most 2<sup>8</sup> or 2<sup>16</sup>
+   * values, and precomputed probabilities are packed even if the value of
+   * {@link #modelPackPrecomputedProbs} is <tt>false</tt>.  The quantization
+   * error of every back-off level is reported as it is packed.
+   * <p>
+   * The value of this constant is
+   * <code>"parser.model.quantizationBits"</code>.
+   *
+   * @see QuantizedProbTable
+   */
+  public final static String modelQuantizationBits =
+    "parser.model.quantizationBits";
+
   /**
    * The property to specify whether to perform deficient estimation of
    * probabilities (as per Mike Collins' bug in his thesis parser).
@@ -395,6 +437,73 @@ public class Settings implements Serializable {
   public final static String modelPruningThreshold =
     "parser.model.pruningThreshold";
 
+  /**
+   * The property to specify the minimum count of a transition at any but the
+   * last back-off level of a {@link Model} for its precomputed probability to
+   * be kept.  Transitions with lower counts are removed after probabilities
+   * have been precomputed, so that their probabilities are estimated by
+   * backing off when decoding.  A value of <tt>0</tt> indicates that no
+   * transitions are removed because of their counts.  The value of this
+   * property should be (the string representation of) a <tt>double</tt>.
+   *
+   * @see Model#compressPrecomputedProbs()
+   */
+  public final static String modelCompressMinCount =
+    "parser.model.compressMinCount";
+
+  /**
+   * The property to specify the minimum contribution to the relative entropy
+   * of a {@link Model} of a transition at any but the last back-off level for
+   * its precomputed probability to be kept.  The contribution of a
+   * transition is the relative frequency of its history times the amount by
+   * which the relative entropy of the model would grow (in bits) if the
+   * transition&rsquo;s probability were estimated by backing off.  A value of
+   * <tt>0</tt> indicates that no transitions are removed because of their
+   * contributions.  The value of this property should be (the string
+   * representation of) a <tt>double</tt>.
+   *
+   * @see Model#compressPrecomputedProbs()
+   */
+  public final static String modelCompressEntropyThreshold =
+    "parser.model.compressEntropyThreshold";
+
+  /**
+   * The property to specify the number of independently-locked segments into
+   * which each of the probability caches of a {@link Model} should be divided.
+   * These caches are only used when {@link #precomputeProbs} is
+   * <tt>false</tt>, and are shared by all the clients of a
+   * {@link DecoderServer}.  If the value of this property is greater than
+   * zero, every {@link Model} uses {@link ConcurrentProbabilityCache}
+   * objects divided into at least this many segments, so that concurrent
+   * decoding threads rarely contend for the same lock; otherwise, every
+   * {@link Model} uses unsynchronized {@link ProbabilityCache} objects,
+   * which is appropriate only when a model is used by a single thread.
+   * The value of this property should be (the string representation of) an
+   * integer.
+   *
+   * @see ConcurrentProbabilityCache
+   */
+  public final static String modelCacheConcurrencyLevel =
+    "parser.model.cacheConcurrencyLevel";
+
+  /**
+   * The property to specify the number of threads each {@link Model} uses
+   * when {@linkplain Model#precomputeProbs() precomputing probabilities}.
+   * If the value of this property is greater than <tt>1</tt>, the top-level
+   * transitions of each sufficiently large model are divided into that many
+   * ranges, which are processed concurrently, and the resulting tables are
+   * merged; otherwise, probabilities are precomputed serially.  Since the
+   * trainer may precompute the probabilities of several models at once
+   * (see {@link #trainerNumThreads}), the total number of threads may be as
+   * large as the product of the values of these two properties.  The value
+   * of this property should be (the string representation of) an integer.
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.model.precomputeNumThreads&quot;</code>.
+   */
+  public final static String modelPrecomputeNumThreads =
+    "parser.model.precomputeNumThreads";
+
   /**
    * The property to specify the concrete type of the {@link NonterminalMapper}
    * instance used by {@link NTMapper} to map nonterminals that are
@@ -436,6 +545,48 @@ public class Settings implements Serializable {
   public final static String writeCanonicalEvents =
     "parser.modelCollection.writeCanonicalEvents";
 
+  /**
+   * The property to specify whether the maps used by decoders to constrain
+   * their search, such as the head-to-parent, subcat and modifying
+   * nonterminal maps, should be frozen after a {@link ModelCollection} has
+   * been read from a derived data file.  Frozen maps are immutable,
+   * open-addressed tables whose values are already in the forms the decoder
+   * uses, so that they may be shared by all the {@link Decoder} instances in
+   * a virtual machine instead of being copied and converted by each one.
+   * <p>
+   * The value of this property should be (the string representation of) a
+   * boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.modelCollection.freezeDecoderMaps&quot;</code>.
+   *
+   * @see ModelCollection#freezeDecoderMaps()
+   * @see danbikel.util.FrozenMap
+   */
+  public final static String freezeDecoderMaps =
+    "parser.modelCollection.freezeDecoderMaps";
+
+  /**
+   * The property to specify whether a {@link DecoderServer} should intern
+   * {@link danbikel.lisp.Symbol} objects permanently, so that the symbol map
+   * holds its symbols directly rather than via weak references.  This
+   * avoids the cost of weak references for a long-running server whose set
+   * of symbols is essentially fixed once its model has been loaded, at the
+   * cost of never reclaiming symbols that are no longer used.
+   * <p>
+   * The value of this property should be (the string representation of) a
+   * boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.decoderServer.permanentSymbols&quot;</code>.
+   *
+   * @see danbikel.lisp.Symbol#setPermanentInterning(boolean)
+   */
+  public final static String permanentSymbols =
+    "parser.decoderServer.permanentSymbols";
+
   /**
    * The property to specify whether the method
    * {@link
@@ -581,6 +732,75 @@ public class Settings implements Serializable {
   public final static String trainerReportingInterval =
     "parser.trainer.reportingInterval";
 
+  /**
+   * The property to specify the number of threads the trainer uses when
+   * deriving counts for, and precomputing the probabilities of, the
+   * {@link Model} instances of its {@link ModelCollection}.  When the value
+   * of this property is greater than <tt>1</tt>, the models are processed
+   * concurrently, and share a thread-safe reflexive map of canonical events.
+   * Also, the vocabulary counting and event collection phases of
+   * {@link Trainer#train(danbikel.lisp.SexpTokenizer,boolean,boolean)} are then run over
+   * that many shards of the training trees, whose counts are merged once all
+   * shards have been processed.  Likewise, incremental training from an
+   * uncompressed observation file is run over that many ranges of the file,
+   * whose derived counts are merged once all ranges have been read
+   * (see {@link Trainer#incrementallyTrainInParallel}).
+   * The value of this property must be (the string representation of)
+   * an integer.
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.trainer.numThreads&quot;</code>.
+   *
+   * @see Trainer
+   * @see danbikel.util.ConcurrentFlexibleMap
+   */
+  public final static String trainerNumThreads =
+    "parser.trainer.numThreads";
+
+  /**
+   * The property to specify the maximum number of head, modifier and gap
+   * events the trainer holds in memory while collecting statistics from
+   * training trees.  When the total size of the trainer&rsquo;s tables of
+   * these events exceeds this value, the tables are spilled to disk as
+   * sorted runs and cleared; when collection is complete, the runs are
+   * merged, and the trainer&rsquo;s tables are replaced by
+   * {@link FileBackedTrainerEventMap} instances backed by the merged runs
+   * (see {@link ExternalCountsAggregator}).  When probabilities are
+   * precomputed, each model then derives its history, diversity and
+   * transition counts from those maps on disk, holding no more than this
+   * many records in memory at once (see
+   * {@link Model#deriveCountsExternally}).  Runs are written to the
+   * directory given by the <tt>java.io.tmpdir</tt> system property.  A value
+   * of <tt>0</tt> indicates that events are never spilled.
+   * The value of this property must be (the string representation of)
+   * an integer.
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.trainer.maxEventsInMemory&quot;</code>.
+   *
+   * @see Trainer#trainStreaming(java.io.File,boolean,boolean)
+   */
+  public final static String trainerMaxEventsInMemory =
+    "parser.trainer.maxEventsInMemory";
+
+  /**
+   * The property to specify the maximum number of sorted runs of spilled
+   * events that the trainer merges at once.  When more runs than this have
+   * been spilled for a type of event, they are merged in successive passes,
+   * each of which merges this many runs into a single intermediate run, so
+   * that no more than this many run files are ever open at once.  The value
+   * of this property must be (the string representation of) an integer
+   * greater than <tt>1</tt>.
+   * <p>
+   * The value of this constant is
+   * <code>&quot;parser.trainer.maxMergeFanIn&quot;</code>.
+   *
+   * @see #trainerMaxEventsInMemory
+   * @see ExternalCountsAggregator#merge(java.io.File,double)
+   */
+  public final static String trainerMaxMergeFanIn =
+    "parser.trainer.maxMergeFanIn";
+
   /**
    * The property to specify whether or not the trainer keeps all words.
    * Normally, words falling below a threshold are mapped to the unknown word.
@@ -1459,6 +1679,106 @@ public class Settings implements Serializable {
   public final static String decoderLocalCacheSize =
     "parser.decoder.localProbabilityCacheSize";
 
+  /**
+   * The property to specify whether the decoder should collect all the
+   * modifier events for a given span and split point of the chart and obtain
+   * their probabilities with a single invocation of
+   * {@link DecoderServerRemote#logProbMod(int,TrainerEvent[],int)}, instead
+   * of invoking {@link DecoderServerRemote#logProbMod(int,TrainerEvent)} once
+   * per modificand-modifier pair.  Batching dramatically reduces the number
+   * of RMI calls when the decoder server is remote, and has no effect on the
+   * parses produced.  The value of this property should be (the string
+   * representation of) a boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   *
+   * @see Decoder#complete(int,int)
+   */
+  public final static String decoderBatchModProbs =
+    "parser.decoder.batchModProbs";
+
+  /**
+   * The property to specify the number of threads the decoder should use to
+   * complete the chart cells of a single span in parallel.  Since all
+   * chart cells of a given span depend only on cells of shorter spans, they
+   * may be completed independently of one another.  A value of <tt>1</tt>
+   * (the default) causes the decoder to complete all cells serially.
+   * The value of this property should be an integer greater than zero.
+   * <p>
+   * When this property's value is greater than <tt>1</tt>, each worker
+   * thread uses its own copy of the decoder's lookup state and requests
+   * probabilities from the decoder server under its own client ID.
+   * Sentences that are parsed with constraints are always decoded serially.
+   *
+   * @see Decoder#parse(SexpList)
+   */
+  public final static String decoderNumSpanThreads =
+    "parser.decoder.numSpanThreads";
+
+  /**
+   * The property to specify whether the decoder should join the modifiers and
+   * modificands of each split point of a span lazily, in best-first order.
+   * When this property is <code>true</code>, the decoder sorts the stopped
+   * modifiers and the unstopped modificands by their inside probabilities,
+   * and explores pairs from a priority queue ordered by an upper bound on
+   * the score of their join and of any stopped or unary item derived from it
+   * (the product of those two quantities, since the modifier probability and
+   * any prior can be at most 1).  Exploration stops as soon as the best
+   * remaining bound falls outside the current beam of the span being
+   * completed, since nothing derived from the remaining joins could then
+   * survive pruning.  This reduces the number of joins attempted and
+   * modifier probabilities looked up.  The parses produced may still differ
+   * from those of exhaustive joining in rare cases, since exhaustive joining
+   * itself admits transient items, and unary items derived from them, that
+   * depend on the order in which it attempts joins (see {@link
+   * Decoder#joinLazily}).  The value of this property should be (the string
+   * representation of) a boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   *
+   * @see Decoder#complete(int,int)
+   * @see CKYChart#unstoppedBeamThreshold(int,int)
+   */
+  public final static String decoderLazyJoin =
+    "parser.decoder.lazyJoin";
+
+  /**
+   * The property to specify whether the decoder should reuse the chart of the
+   * previous iteration of beam widening instead of rebuilding it from
+   * scratch.  When this property is <code>true</code>, items pruned from a
+   * span are kept in a side store for that span rather than being reclaimed.
+   * On the next, wider-beam iteration, only the kept items that fall within
+   * the wider beam are added back to their spans, and only the joins
+   * involving items added during that iteration are attempted, since all
+   * other joins were attempted during a previous iteration.  This greatly
+   * reduces the cost of sentences that require several iterations.  The
+   * chart is rebuilt as usual for the final iteration with relaxed
+   * constraints (see {@link #decoderRelaxConstraintsAfterBeamWidening}),
+   * after an iteration that timed out, for sentences parsed with
+   * constraints and when {@link #decoderLazyJoin} is <code>true</code>.
+   * The value of this property should be (the string representation of) a
+   * boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   *
+   * @see Decoder#parse(SexpList)
+   * @see Chart#revivePrunedItems(int,int)
+   */
+  public final static String decoderIncrementalBeamWidening =
+    "parser.decoder.incrementalBeamWidening";
+
+  /**
+   * The property to specify whether the decoder should use an
+   * {@link ArrayCKYChart}, whose cells store their items contiguously in
+   * arrays, instead of a {@link CKYChart}, whose cells store their items in
+   * hash maps.  Using an array-based chart allows the decoder to iterate
+   * over the items of the chart cells it joins by index, without allocating
+   * iterators.  The value of this property should be (the string
+   * representation of) a boolean (conversion is performed by the method
+   * <code>Boolean.valueOf</code>).
+   *
+   * @see Decoder#complete(int,int)
+   */
+  public final static String decoderUseArrayChart =
+    "parser.decoder.useArrayChart";
+
   /**
    * The property to specify whether the decoder should use the
    * head-to-parent map derived during training.  Use of this map
@@ -394,6 +394,7 @@ public class StartSwitchboard {
 						owf, owf,
 						bindingName);
 
+      switchboard.setFrameCodec(new EventFrameCodec());
       switchboard.bind(Settings.getSettings(), Language.encoding());
       if (inFilenameMain != null) {
 	for (int i = 0; i < numFiles; i++) {
@@ -79,8 +79,9 @@ public class SubcatBag implements Subcat, Externalizable {
   private static Symbol stopSym = Language.training.stopSym();
   private static Symbol[] symbols;
   private static Nonterminal[] nonterminals;
+  // concurrent, since subcats may be built by several threads at once
   private static Map<Symbol, Nonterminal> symToNt =
-    new HashMap<Symbol, Nonterminal>();
+    new java.util.concurrent.ConcurrentHashMap<Symbol, Nonterminal>();
 
   private static void setUpStaticData() {
     Symbol gapAugmentation = Language.training().gapAugmentation();
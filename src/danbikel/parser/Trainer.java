@@ -9,6 +9,11 @@ import java.io.*;
 import java.util.*;
 import java.util.zip.*;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -46,7 +51,7 @@ import java.util.HashMap;
  * @see ModelCollection
  * @see ProbabilityStructure
  */
-public class Trainer implements Serializable {
+public class Trainer implements Serializable, Cloneable {
   // constants
   //static boolean secretFlag;
 
@@ -69,6 +74,12 @@ public class Trainer implements Serializable {
   private static boolean addGapInfo =
     Settings.getBoolean(Settings.addGapInfo);
 
+  private static int numThreads =
+    Settings.getInteger(Settings.trainerNumThreads);
+
+  private static int maxEventsInMemory =
+    Settings.getInteger(Settings.trainerMaxEventsInMemory);
+
   /** The sentence numbers of sentences that Mike Collins' trainer skips,
       due to a strange historical reason of a pre-processing Perl script
       of his. */
@@ -88,6 +99,13 @@ public class Trainer implements Serializable {
 
   private final static String className = Trainer.class.getName();
 
+  /**
+   * The number of trees of the second pass of
+   * {@link #trainStreaming(File,boolean,boolean)} from which statistics are
+   * collected at a time when collecting in shards.
+   */
+  private final static int streamingBatchSize = 10000;
+
   /**
    * The class from which an instance will be constructed in
    * {@link #main(String[])}.  This data member may be re-assigned in
@@ -134,6 +152,10 @@ public class Trainer implements Serializable {
 	  Settings.getBoolean(Settings.trainerShareCounts);
 	addGapInfo =
 	  Settings.getBoolean(Settings.addGapInfo);
+	numThreads =
+	  Settings.getInteger(Settings.trainerNumThreads);
+	maxEventsInMemory =
+	  Settings.getInteger(Settings.trainerMaxEventsInMemory);
 	if (changedSettings.containsKey(Settings.modelStructurePackage)) {
 	  packagePrefix =
 	    Settings.get(Settings.modelStructurePackage) + ".";
@@ -429,6 +451,21 @@ public class Trainer implements Serializable {
   /** The model that generates head words of modifying nonterminals. */
   protected Model modWordModel;
 
+  /**
+   * Indicates whether this trainer is a {@linkplain #newChunkWorker() chunk
+   * worker}, which runs its tasks serially.
+   */
+  transient private boolean isChunkWorker;
+
+  /**
+   * Aggregators of head, modifier and gap events spilled to disk during
+   * statistics collection, or <code>null</code> if no events have been
+   * spilled.
+   *
+   * @see Settings#trainerMaxEventsInMemory
+   */
+  transient private ExternalCountsAggregator[] eventSpills;
+
   /**
    * A handle onto static {@link WordFeatures} object contained static inside
    * {@link Language}.
@@ -662,7 +699,6 @@ public class Trainer implements Serializable {
     Sexp tree = null;
     int sentNum = 0, intervalCounter = 0;
     ArrayList headTrees = new ArrayList();
-    int collinsSkipIdx = 0;
     int numSents = 0;
     System.err.println("Phase 0: reading trees and finding heads");
     for ( ; (tree = Sexp.read(tok)) != null; sentNum++, intervalCounter++) {
@@ -674,53 +710,12 @@ public class Trainer implements Serializable {
 	intervalCounter = 0;
       }
 
-      if (useCollinsSkipArr) {
-	if (collinsSkipIdx < collinsSkipArr.length &&
-	    sentNum + 1 == collinsSkipArr[collinsSkipIdx]) {
-	  System.err.println("Skipping sentence " + (sentNum + 1) +
-			     " (to emulate Collins' trainer)");
-	  collinsSkipIdx++;
-	  continue;
-	}
-      }
-
-      /*
-      if (!tree.isList()) {
-	System.err.println(className + ": error: invalid format for training " +
-			   "parse tree: " + tree + " ...skipping");
+      HeadTreeNode headTree =
+	readTrainingTree(tree, sentNum, auto, stripOuterParens);
+      if (headTree == null)
 	continue;
-      }
-      */
-
-      // parenthesis-stripping is indicated if the training tree is a list
-      // containing one element that is also a list
-      if (auto)
-	stripOuterParens = (tree.list().length() == 1 &&
-			    tree.list().get(0).isList());
-      if (stripOuterParens)
-	tree = tree.list().get(0);
-
-      String skipStr = Language.training.skip(tree);
-      if (skipStr != null) {
-	System.err.println(className + ": skipping tree No. " +
-			   (sentNum + 1) + ": " + skipStr);
-	continue;
-      }
-
-      if (outputCollins)
-	tree = new SexpList(2).add(collinsTop).add(tree);
-
-      //System.err.println(tree);
 
       numSents++;
-
-      Language.training.preProcess(tree);
-
-      //System.err.println(Util.prettyPrint(tree));
-
-      HeadTreeNode headTree = new HeadTreeNode(tree);
-      if (downcaseWords)
-	downcaseWords(headTree);
       headTrees.add(headTree);
     }
 
@@ -729,9 +724,13 @@ public class Trainer implements Serializable {
 
     // phase 1: go through all sentences and set up vocabulary counts
     System.err.println("Phase 1: vocabulary counts");
-    for (sentNum = 0; sentNum < numSents; sentNum++) {
-      HeadTreeNode headTree = (HeadTreeNode)headTrees.get(sentNum);
-      countVocab(headTree);
+    if (numThreads > 1)
+      collectInShards(headTrees, false);
+    else {
+      for (sentNum = 0; sentNum < numSents; sentNum++) {
+	HeadTreeNode headTree = (HeadTreeNode)headTrees.get(sentNum);
+	countVocab(headTree);
+      }
     }
     int origVocabSize = vocabCounter.size();
     System.err.println("Original vocab size is " + origVocabSize + ".");
@@ -744,19 +743,7 @@ public class Trainer implements Serializable {
 	alterLowFrequencyWords(headTree);
       }
     }
-    if (!keepAllWords)
-      vocabCounter.removeItemsBelow(unknownWordThreshold);
-
-    int numTransformed = origVocabSize - vocabCounter.size();
-    int numWFVectors = wordFeatureCounter.size();
-    String verbToBe = (numWFVectors > 1 ? "are" : "is");
-    String plural = (numWFVectors > 1 ? "s" : "");
-    System.err.println("Transformed " + numTransformed + " original vocab " +
-		       "items into word feature vectors.\nThere " + verbToBe +
-		       " " + numWFVectors + " distinct word feature " +
-		       "vector" + plural + ".\nOriginal vocab size was " +
-		       origVocabSize + "; new vocab size is " +
-		       vocabCounter.size() + ".");
+    removeLowFrequencyVocab(origVocabSize);
 
     /*
     Iterator vocabItems = vocabCounter.keySet().iterator();
@@ -768,28 +755,246 @@ public class Trainer implements Serializable {
 
     // phase 3: finally go through all sentences and collect stats
     System.err.println("Phase 3: collect stats");
-    intervalCounter = 0;
+    if (numThreads > 1 && !outputCollins) {
+      // when events may be spilled, collect them in batches, so that the
+      // shard workers never hold the events of the entire corpus
+      int batchSize = maxEventsInMemory > 0 ? streamingBatchSize : numSents;
+      for (int batchStart = 0; batchStart < numSents;
+	   batchStart += batchSize) {
+	int batchEnd = Math.min(numSents, batchStart + batchSize);
+	collectInShards(headTrees.subList(batchStart, batchEnd), true);
+      }
+      sentNum = numSents;
+    }
+    else {
+      intervalCounter = 0;
+      canonicalSubcatMap = new HashMap();
+      for (sentNum = 0; sentNum < numSents; sentNum++, intervalCounter++) {
+	HeadTreeNode headTree = (HeadTreeNode)headTrees.get(sentNum);
+	if (intervalCounter == reportingInterval) {
+	  System.err.println(className + ": processed " + sentNum +
+			     " sentence" + (sentNum > 1 ? "s" : ""));
+	  intervalCounter = 0;
+	}
+	collectStats(tree, headTree, true);
+	spillEventsIfNecessary();
+      }
+      canonicalSubcatMap = null; // it has served its purpose
+    }
+
+    System.err.println(className + ": processed " + sentNum + " sentence" +
+		       (sentNum > 1 ? "s " : " ") + "in total");
+
+    finishCollectingStats();
+  }
+
+  /**
+   * Records observations from the training trees contained in the specified
+   * file, without ever holding all of those trees in memory.  The file is
+   * read twice: the first pass preprocesses each tree only to count its
+   * vocabulary, and the second pass preprocesses each tree again, alters its
+   * low-frequency words and collects its statistics.  Consequently, peak
+   * memory usage is bounded by the size of the tables of collected
+   * observations, rather than by the size of the training corpus.  Apart
+   * from the order in which observations are added to their tables, the
+   * result is identical to that of
+   * {@link #train(SexpTokenizer,boolean,boolean)}.
+   * <p>
+   * If the value of {@link Settings#trainerNumThreads} is greater than
+   * <tt>1</tt>, statistics are collected in shards from batches of trees of
+   * the second pass.  If the value of
+   * {@link Settings#trainerMaxEventsInMemory} is greater than <tt>0</tt>,
+   * the tables of head, modifier and gap events are also bounded, by
+   * spilling them to disk whenever they grow beyond that size.
+   *
+   * @param trainingFile the file of training parse trees, which must be
+   * readable twice
+   * @param auto indicates whether to automatically determine whether to
+   * strip off outer parens of training parse trees before preprocessing;
+   * if the value of this argument is <code>false</code>, then the value
+   * of <code>stripOuterParens</code> is used
+   * @param stripOuterParens indicates whether an outer layer of parentheses
+   * should be stripped off of trees before preprocessing and training (only
+   * used if the <code>auto</code> argument is <code>false</code>)
+   * @throws IOException if there is a problem reading the specified file
+   *
+   * @see #train(SexpTokenizer,boolean,boolean)
+   */
+  public void trainStreaming(File trainingFile, boolean auto,
+			     boolean stripOuterParens)
+    throws IOException {
+    Sexp tree = null;
+    int sentNum = 0, intervalCounter = 0;
+    System.err.println("Pass 1: reading trees and counting vocabulary");
+    SexpTokenizer tok = getStandardSexpStream(trainingFile);
+    for ( ; (tree = Sexp.read(tok)) != null; sentNum++, intervalCounter++) {
+      if (intervalCounter == reportingInterval) {
+	System.err.println(className + ": processed " + sentNum + " sentence" +
+			   (sentNum > 1 ? "s" : ""));
+	intervalCounter = 0;
+      }
+      HeadTreeNode headTree =
+	readTrainingTree(tree, sentNum, auto, stripOuterParens);
+      if (headTree != null)
+	countVocab(headTree);
+    }
+    int origVocabSize = vocabCounter.size();
+    System.err.println("Original vocab size is " + origVocabSize + ".");
+
+    System.err.println("Pass 2: re-reading trees and collecting stats");
+    boolean inShards = numThreads > 1 && !outputCollins;
+    ArrayList batch = new ArrayList();
     canonicalSubcatMap = new HashMap();
-    for (sentNum = 0; sentNum < numSents; sentNum++, intervalCounter++) {
-      HeadTreeNode headTree = (HeadTreeNode)headTrees.get(sentNum);
+    int numSents = 0;
+    tok = getStandardSexpStream(trainingFile);
+    intervalCounter = 0;
+    for (sentNum = 0; (tree = Sexp.read(tok)) != null;
+	 sentNum++, intervalCounter++) {
       if (intervalCounter == reportingInterval) {
 	System.err.println(className + ": processed " + sentNum + " sentence" +
 			   (sentNum > 1 ? "s" : ""));
 	intervalCounter = 0;
       }
-      collectStats(tree, headTree, true);
+      HeadTreeNode headTree =
+	readTrainingTree(tree, sentNum, auto, stripOuterParens);
+      if (headTree == null)
+	continue;
+      numSents++;
+      if (unknownWordThreshold > 1)
+	alterLowFrequencyWords(headTree);
+      if (inShards) {
+	batch.add(headTree);
+	if (batch.size() == streamingBatchSize) {
+	  collectInShards(batch, true);
+	  batch.clear();
+	  spillEventsIfNecessary();
+	}
+      }
+      else {
+	collectStats(tree, headTree, true);
+	spillEventsIfNecessary();
+      }
     }
+    if (batch.size() > 0)
+      collectInShards(batch, true);
     canonicalSubcatMap = null; // it has served its purpose
 
-    System.err.println(className + ": processed " + sentNum + " sentence" +
-		       (sentNum > 1 ? "s " : " ") + "in total");
+    prunedPreterms = Language.training.getPrunedPreterms();
+    prunedPunctuation = Language.training.getPrunedPunctuation();
+
+    removeLowFrequencyVocab(origVocabSize);
+
+    System.err.println(className + ": processed " + numSents + " sentence" +
+		       (numSents > 1 ? "s " : " ") + "in total");
+
+    finishCollectingStats();
+  }
+
+  /**
+   * Prepares the specified training tree, read as the specified sentence of
+   * a training corpus, for the counting of its vocabulary and the collection
+   * of its statistics.  Unless the tree is to be skipped, it is stripped of
+   * its outer parentheses if appropriate, preprocessed using
+   * {@link Training#preProcess(Sexp)} and converted to a
+   * {@link HeadTreeNode}.
+   *
+   * @param tree the training tree to prepare
+   * @param sentNum the zero-based index of the tree in its corpus
+   * @param auto indicates whether to automatically determine whether to
+   * strip off outer parens of the tree
+   * @param stripOuterParens indicates whether to strip off the outer parens
+   * of the tree (only used if <code>auto</code> is <code>false</code>)
+   * @return the head tree of the preprocessed tree, or <code>null</code> if
+   * the tree is to be skipped
+   */
+  protected HeadTreeNode readTrainingTree(Sexp tree, int sentNum,
+					  boolean auto,
+					  boolean stripOuterParens) {
+    if (useCollinsSkipArr) {
+      if (Arrays.binarySearch(collinsSkipArr, sentNum + 1) >= 0) {
+	System.err.println("Skipping sentence " + (sentNum + 1) +
+			   " (to emulate Collins' trainer)");
+	return null;
+      }
+    }
+
+    /*
+    if (!tree.isList()) {
+      System.err.println(className + ": error: invalid format for training " +
+			 "parse tree: " + tree + " ...skipping");
+      return null;
+    }
+    */
+
+    // parenthesis-stripping is indicated if the training tree is a list
+    // containing one element that is also a list
+    if (auto)
+      stripOuterParens = (tree.list().length() == 1 &&
+			  tree.list().get(0).isList());
+    if (stripOuterParens)
+      tree = tree.list().get(0);
+
+    String skipStr = Language.training.skip(tree);
+    if (skipStr != null) {
+      System.err.println(className + ": skipping tree No. " +
+			 (sentNum + 1) + ": " + skipStr);
+      return null;
+    }
+
+    if (outputCollins)
+      tree = new SexpList(2).add(collinsTop).add(tree);
+
+    //System.err.println(tree);
+
+    Language.training.preProcess(tree);
 
+    //System.err.println(Util.prettyPrint(tree));
+
+    HeadTreeNode headTree = new HeadTreeNode(tree);
+    if (downcaseWords)
+      downcaseWords(headTree);
+    return headTree;
+  }
+
+  /**
+   * Removes low-frequency words from {@link #vocabCounter} (unless
+   * {@link #keepAllWords} is <code>true</code>), once all low-frequency words
+   * have been altered, and reports the resulting vocabulary statistics.
+   *
+   * @param origVocabSize the size of the vocabulary before low-frequency
+   * words were altered
+   */
+  private void removeLowFrequencyVocab(int origVocabSize) {
+    if (!keepAllWords)
+      vocabCounter.removeItemsBelow(unknownWordThreshold);
+
+    int numTransformed = origVocabSize - vocabCounter.size();
+    int numWFVectors = wordFeatureCounter.size();
+    String verbToBe = (numWFVectors > 1 ? "are" : "is");
+    String plural = (numWFVectors > 1 ? "s" : "");
+    System.err.println("Transformed " + numTransformed + " original vocab " +
+		       "items into word feature vectors.\nThere " + verbToBe +
+		       " " + numWFVectors + " distinct word feature " +
+		       "vector" + plural + ".\nOriginal vocab size was " +
+		       origVocabSize + "; new vocab size is " +
+		       vocabCounter.size() + ".");
+  }
+
+  /**
+   * Creates the part-of-speech map and applies the count threshold, once
+   * statistics have been collected from all training trees.  The map is
+   * created from the events still in memory, the words and parts of speech
+   * of any spilled events having been added to it when they were spilled.
+   */
+  private void finishCollectingStats() throws IOException {
     System.err.print("Creating part-of-speech map...");
     System.err.flush();
     createPosMap();
     System.err.println("done (map has " + posMap.size() + " entries).");
 
-    if (countThreshold > 0.0) {
+    if (eventSpills != null)
+      mergeSpilledEvents();
+    else if (countThreshold > 0.0) {
       System.err.println(className + ": removing all TrainerEvent objects " +
 			 "with counts less than " + countThreshold);
       headEvents.removeItemsBelow(countThreshold);
@@ -802,6 +1007,281 @@ public class Trainer implements Serializable {
     //outputCollins();
   }
 
+  /**
+   * Spills the head, modifier and gap event tables of this trainer to disk
+   * and clears them, if their total size exceeds the value of
+   * {@link Settings#trainerMaxEventsInMemory}, first adding the words and
+   * parts of speech of their events to {@link #posMap}.
+   *
+   * @throws IOException if there is a problem writing the spilled events
+   *
+   * @see ExternalCountsAggregator#spill(CountsTable)
+   */
+  protected void spillEventsIfNecessary() throws IOException {
+    if (maxEventsInMemory <= 0 ||
+	headEvents.size() + modifierEvents.size() + gapEvents.size() <=
+	maxEventsInMemory)
+      return;
+    if (eventSpills == null)
+      eventSpills = new ExternalCountsAggregator[] {
+	new ExternalCountsAggregator(headEventSym),
+	new ExternalCountsAggregator(modEventSym),
+	new ExternalCountsAggregator(gapEventSym)
+      };
+    CountsTable[] tables = {headEvents, modifierEvents, gapEvents};
+    for (int i = 0; i < tables.length; i++) {
+      // the part-of-speech map is created from the events in memory, so
+      // the word/tag pairs of the events being spilled are added now
+      createPosMap(tables[i]);
+      eventSpills[i].spill(tables[i]);
+      tables[i].clear();
+    }
+    System.err.println(className + ": spilled events to disk (run " +
+		       eventSpills[0].numRuns() + ")");
+  }
+
+  /**
+   * Spills the remaining events in memory, merges all spilled runs,
+   * discarding events whose counts are below {@link #countThreshold}, and
+   * replaces the head, modifier and gap event tables of this trainer with
+   * maps backed by the merged runs.  Models that derive their counts from
+   * these maps do so on disk as well (see
+   * {@link Model#useExternalCounts(CountsTable)}).
+   */
+  private void mergeSpilledEvents() throws IOException {
+    CountsTable[] tables = {headEvents, modifierEvents, gapEvents};
+    for (int i = 0; i < tables.length; i++) {
+      eventSpills[i].spill(tables[i]);
+      tables[i].clear();
+    }
+    headEvents = eventSpills[0].mergeToMap(countThreshold);
+    modifierEvents = eventSpills[1].mergeToMap(countThreshold);
+    gapEvents = eventSpills[2].mergeToMap(countThreshold);
+    eventSpills = null;
+  }
+
+  /**
+   * Splits the specified list of trees into contiguous shards, one per
+   * thread, and either counts the vocabulary of or collects statistics from
+   * each shard concurrently, using a {@linkplain #newShardWorker() shard
+   * worker} per shard.  When all shards have been processed, the tables of
+   * the shard workers are {@linkplain #mergeShardWorker(Trainer,boolean)
+   * merged} into those of this trainer, in shard order.  When statistics
+   * are collected, events are {@linkplain #spillEventsIfNecessary() spilled}
+   * as necessary after each shard is merged.
+   *
+   * @param headTrees the list of {@link HeadTreeNode} trees to process
+   * @param collectStats if <code>true</code>, invoke
+   * {@link #collectStats(Sexp,HeadTreeNode,boolean)} on each tree; otherwise,
+   * invoke {@link #countVocab(HeadTreeNode)} on each tree
+   *
+   * @throws IOException if there is a problem spilling events to disk
+   *
+   * @see Settings#trainerNumThreads
+   */
+  protected void collectInShards(final List headTrees,
+				 final boolean collectStats)
+    throws IOException {
+    int numTrees = headTrees.size();
+    int numShards = Math.max(1, Math.min(numThreads, numTrees));
+    Trainer[] workers = new Trainer[numShards];
+    List tasks = new ArrayList(numShards);
+    for (int i = 0; i < numShards; i++) {
+      final Trainer worker = newShardWorker();
+      final int shardStart = (int)((long)numTrees * i / numShards);
+      final int shardEnd = (int)((long)numTrees * (i + 1) / numShards);
+      workers[i] = worker;
+      tasks.add(new Callable() {
+	public Object call() {
+	  for (int sentNum = shardStart; sentNum < shardEnd; sentNum++) {
+	    HeadTreeNode headTree = (HeadTreeNode)headTrees.get(sentNum);
+	    if (collectStats)
+	      worker.collectStats(null, headTree, true);
+	    else
+	      worker.countVocab(headTree);
+	  }
+	  return null;
+	}
+      });
+    }
+    runTasks(tasks);
+    for (int i = 0; i < numShards; i++) {
+      mergeShardWorker(workers[i], collectStats);
+      workers[i] = null;
+      if (collectStats)
+	spillEventsIfNecessary();
+    }
+  }
+
+  /**
+   * Returns a new shard worker, which is a shallow copy of this trainer that
+   * shares its settings and read-only tables, but that has its own, empty
+   * tables for all the counts gathered by {@link #countVocab(HeadTreeNode)}
+   * and {@link #collectStats(Sexp,HeadTreeNode,boolean)}, as well as its own
+   * map for canonicalizing subcats.  Subclasses that gather counts or mappings
+   * into additional tables should override this method to give each worker
+   * its own copies of those tables, and should override
+   * {@link #mergeShardWorker(Trainer,boolean)} to merge them.
+   *
+   * @return a new shard worker for this trainer
+   *
+   * @see #collectInShards(List,boolean)
+   */
+  protected Trainer newShardWorker() {
+    Trainer worker;
+    try {
+      worker = (Trainer)super.clone();
+    }
+    catch (CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse.toString());
+    }
+    worker.nonterminals = new CountsTableImpl();
+    worker.headEvents = new CountsTableImpl();
+    worker.modifierEvents = new CountsTableImpl();
+    worker.gapEvents = new CountsTableImpl();
+    worker.vocabCounter = new CountsTableImpl();
+    worker.canonicalSubcatMap = new HashMap();
+    return worker;
+  }
+
+  /**
+   * Adds the counts gathered by the specified shard worker to the tables of
+   * this trainer.
+   *
+   * @param worker a shard worker that has finished processing its shard
+   * @param collectStats whether the worker collected statistics (as opposed
+   * to counting vocabulary)
+   *
+   * @see #collectInShards(List,boolean)
+   */
+  protected void mergeShardWorker(Trainer worker, boolean collectStats) {
+    if (collectStats) {
+      nonterminals.addAll(worker.nonterminals);
+      headEvents.addAll(worker.headEvents);
+      modifierEvents.addAll(worker.modifierEvents);
+      gapEvents.addAll(worker.gapEvents);
+    }
+    else
+      vocabCounter.addAll(worker.vocabCounter);
+  }
+
+  /**
+   * Returns a new chunk worker for parallel incremental training, which is a
+   * {@linkplain #newShardWorker() shard worker} that additionally has its own,
+   * empty tables for all observations that may be read by
+   * {@link #readStats(SexpTokenizer,int)}, its own, empty maps derived by
+   * {@link #deriveCounts(double,FlexibleMap)} and its own {@link Model}
+   * instances, each constructed from a {@linkplain ProbabilityStructure#copy()
+   * copy} of the probability structure of the corresponding model of this
+   * trainer.  Subclasses that derive counts into additional tables or models
+   * should override this method to give each worker its own copies of those
+   * tables or models, and should override
+   * {@link #mergeChunkWorker(Trainer)} to merge them.
+   *
+   * @return a new chunk worker for this trainer
+   *
+   * @see #incrementallyTrainInParallel(Trainer,File)
+   */
+  protected Trainer newChunkWorker() {
+    Trainer worker = newShardWorker();
+    worker.isChunkWorker = true;
+    worker.priorEvents = new CountsTableImpl();
+    worker.wordFeatureCounter = new CountsTableImpl();
+    worker.posMap = new HashMap();
+    worker.headToParentMap = new HashMap();
+    worker.leftSubcatMap = new HashMap();
+    worker.rightSubcatMap = new HashMap();
+    worker.modNonterminalMap = new HashMap();
+    worker.simpleModNonterminalMap = new HashMap();
+    worker.lexPriorModel = newModelLike(lexPriorModel);
+    worker.nonterminalPriorModel = newModelLike(nonterminalPriorModel);
+    worker.topNonterminalModel = newModelLike(topNonterminalModel);
+    worker.topLexModel = newModelLike(topLexModel);
+    worker.headModel = newModelLike(headModel);
+    worker.gapModel = newModelLike(gapModel);
+    worker.leftSubcatModel = newModelLike(leftSubcatModel);
+    worker.rightSubcatModel = newModelLike(rightSubcatModel);
+    worker.modNonterminalModel = newModelLike(modNonterminalModel);
+    worker.modWordModel = newModelLike(modWordModel);
+    return worker;
+  }
+
+  private static Model newModelLike(Model model) {
+    return model.getProbStructure().copy().newModel();
+  }
+
+  /**
+   * Adds all observations read and all counts derived by the specified chunk
+   * worker to the tables, maps and models of this trainer.
+   *
+   * @param worker a chunk worker that has finished reading and deriving
+   * counts from its chunk of observations
+   *
+   * @see #newChunkWorker()
+   * @see Model#addCounts(Model)
+   */
+  protected void mergeChunkWorker(Trainer worker) {
+    mergeShardWorker(worker, true);
+    vocabCounter.addAll(worker.vocabCounter);
+    wordFeatureCounter.addAll(worker.wordFeatureCounter);
+    Iterator it = worker.posMap.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      Symbol word = (Symbol)entry.getKey();
+      SexpList tags = (SexpList)entry.getValue();
+      for (int i = 0; i < tags.length(); i++)
+	addToPosMap(word, tags.symbolAt(i));
+    }
+    if (worker.prunedPreterms != prunedPreterms)
+      prunedPreterms = worker.prunedPreterms;
+    if (worker.prunedPunctuation != prunedPunctuation)
+      prunedPunctuation = worker.prunedPunctuation;
+    mergeValueSets(headToParentMap, worker.headToParentMap);
+    mergeValueSets(leftSubcatMap, worker.leftSubcatMap);
+    mergeValueSets(rightSubcatMap, worker.rightSubcatMap);
+    mergeValueSets(modNonterminalMap, worker.modNonterminalMap);
+    mergeValueSets(simpleModNonterminalMap, worker.simpleModNonterminalMap);
+    lexPriorModel.addCounts(worker.lexPriorModel);
+    nonterminalPriorModel.addCounts(worker.nonterminalPriorModel);
+    topNonterminalModel.addCounts(worker.topNonterminalModel);
+    topLexModel.addCounts(worker.topLexModel);
+    headModel.addCounts(worker.headModel);
+    gapModel.addCounts(worker.gapModel);
+    leftSubcatModel.addCounts(worker.leftSubcatModel);
+    rightSubcatModel.addCounts(worker.rightSubcatModel);
+    modNonterminalModel.addCounts(worker.modNonterminalModel);
+    modWordModel.addCounts(worker.modWordModel);
+  }
+
+  private static void mergeValueSets(Map map, Map other) {
+    Iterator it = other.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      Iterator values = ((Set)entry.getValue()).iterator();
+      while (values.hasNext())
+	Util.addToValueSet(map, entry.getKey(), values.next());
+    }
+  }
+
+  /**
+   * Returns whether the counts derived by all the {@link Model} instances of
+   * this trainer are {@linkplain Model#countsAreAdditive() additive}, and
+   * thus may be derived from separate chunks of observations and merged.
+   *
+   * @return whether the counts of all models of this trainer are additive
+   */
+  protected boolean modelsAreAdditive() {
+    Model[] models = {
+      lexPriorModel, nonterminalPriorModel, topNonterminalModel, topLexModel,
+      headModel, gapModel, leftSubcatModel, rightSubcatModel,
+      modNonterminalModel, modWordModel
+    };
+    for (int i = 0; i < models.length; i++)
+      if (!models[i].countsAreAdditive())
+	return false;
+    return true;
+  }
+
   private void downcaseWords(HeadTreeNode tree) {
     if (tree.isPreterminal()) {
       if (tree.headWord().tag() != traceTag) {
@@ -1514,7 +1994,23 @@ public class Trainer implements Serializable {
    * @see Model#deriveCounts(CountsTable,Filter, double,FlexibleMap)
    */
   public void deriveCounts(boolean setModelCollection) {
-    deriveCounts(setModelCollection, new danbikel.util.HashMap(100003, 1.5f));
+    deriveCounts(setModelCollection, newCanonicalMap());
+  }
+
+  /**
+   * Returns a new, empty reflexive map for canonical versions of derived
+   * {@link Event} and {@link Transition} objects.  If the value of
+   * {@link Settings#trainerNumThreads} is greater than <tt>1</tt>, the
+   * returned map is a {@link ConcurrentFlexibleMap}, so that it may be
+   * shared by all {@link Model} instances while they derive their counts
+   * concurrently.
+   *
+   * @return a new, empty reflexive map for canonical event objects
+   */
+  protected static FlexibleMap newCanonicalMap() {
+    if (numThreads > 1)
+      return new ConcurrentFlexibleMap(100003, 1.5f, 4 * numThreads);
+    return new danbikel.util.HashMap(100003, 1.5f);
   }
 
   /**
@@ -1595,18 +2091,36 @@ public class Trainer implements Serializable {
    *                              instances
    */
   protected void deriveModelCounts(double derivedCountThreshold,
-                                   FlexibleMap canonical) {
-    double th = derivedCountThreshold;
-    lexPriorModel.deriveCounts(priorEvents, allPass, th, canonical);
-    nonterminalPriorModel.deriveCounts(priorEvents, allPass, th, canonical);
-    topNonterminalModel.deriveCounts(headEvents, topOnly, th, canonical);
-    topLexModel.deriveCounts(headEvents, allPass, th, canonical);
-    headModel.deriveCounts(headEvents, nonTopNonPreterm, th, canonical);
-    gapModel.deriveCounts(gapEvents, allPass, th, canonical);
-    leftSubcatModel.deriveCounts(headEvents, nonTopNonPreterm, th, canonical);
-    rightSubcatModel.deriveCounts(headEvents, nonTopNonPreterm, th, canonical);
-    modNonterminalModel.deriveCounts(modifierEvents, allPass, th, canonical);
-    modWordModel.deriveCounts(modifierEvents, nonStop, th, canonical);
+                                   final FlexibleMap canonical) {
+    final double th = derivedCountThreshold;
+    Model[] models = {
+      lexPriorModel, nonterminalPriorModel, topNonterminalModel, topLexModel,
+      headModel, gapModel, leftSubcatModel, rightSubcatModel,
+      modNonterminalModel, modWordModel
+    };
+    CountsTable[] tables = {
+      priorEvents, priorEvents, headEvents, headEvents,
+      headEvents, gapEvents, headEvents, headEvents,
+      modifierEvents, modifierEvents
+    };
+    Filter[] filters = {
+      allPass, allPass, topOnly, allPass,
+      nonTopNonPreterm, allPass, nonTopNonPreterm, nonTopNonPreterm,
+      allPass, nonStop
+    };
+    List tasks = new ArrayList(models.length);
+    for (int i = 0; i < models.length; i++) {
+      final Model model = models[i];
+      final CountsTable table = tables[i];
+      final Filter filter = filters[i];
+      tasks.add(new Callable() {
+	public Object call() {
+	  model.deriveCounts(table, filter, th, canonical);
+	  return null;
+	}
+      });
+    }
+    runTasks(tasks);
   }
 
   /**
@@ -1617,16 +2131,78 @@ public class Trainer implements Serializable {
    * @see Model#precomputeProbs()
    */
   protected void precomputeProbs() {
-    lexPriorModel.precomputeProbs();
-    nonterminalPriorModel.precomputeProbs();
-    topNonterminalModel.precomputeProbs();
-    topLexModel.precomputeProbs();
-    headModel.precomputeProbs();
-    gapModel.precomputeProbs();
-    leftSubcatModel.precomputeProbs();
-    rightSubcatModel.precomputeProbs();
-    modNonterminalModel.precomputeProbs();
-    modWordModel.precomputeProbs();
+    Model[] models = {
+      lexPriorModel, nonterminalPriorModel, topNonterminalModel, topLexModel,
+      headModel, gapModel, leftSubcatModel, rightSubcatModel,
+      modNonterminalModel, modWordModel
+    };
+    List tasks = new ArrayList(models.length);
+    for (int i = 0; i < models.length; i++) {
+      final Model model = models[i];
+      tasks.add(new Callable() {
+	public Object call() {
+	  model.precomputeProbs();
+	  return null;
+	}
+      });
+    }
+    runTasks(tasks);
+  }
+
+  /**
+   * Runs the specified independent tasks, such as deriving counts for a
+   * single {@link Model} instance or collecting events from a single shard of
+   * training trees.  If the value of {@link Settings#trainerNumThreads} is
+   * greater than <tt>1</tt>, the tasks are run concurrently on a pool of at
+   * most that many threads; otherwise, they are run serially, in order, by
+   * the current thread.  Tasks may share any tables of this trainer that are
+   * not modified while the tasks run.  A {@linkplain #newChunkWorker() chunk
+   * worker} always runs its tasks serially, since it is itself run
+   * concurrently with other chunk workers.
+   *
+   * @param tasks a list of {@link Callable} objects
+   *
+   * @see Settings#trainerNumThreads
+   */
+  protected void runTasks(List tasks) {
+    if (numThreads <= 1 || isChunkWorker) {
+      for (int i = 0; i < tasks.size(); i++) {
+	try {
+	  ((Callable)tasks.get(i)).call();
+	}
+	catch (RuntimeException re) {
+	  throw re;
+	}
+	catch (Exception e) {
+	  throw new RuntimeException(e.toString());
+	}
+      }
+      return;
+    }
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()));
+    try {
+      List futures = pool.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++) {
+	try {
+	  ((Future)futures.get(i)).get();
+	}
+	catch (ExecutionException ee) {
+	  Throwable cause = ee.getCause();
+	  if (cause instanceof RuntimeException)
+	    throw (RuntimeException)cause;
+	  if (cause instanceof Error)
+	    throw (Error)cause;
+	  throw new RuntimeException(cause.toString());
+	}
+      }
+    }
+    catch (InterruptedException ie) {
+      throw new RuntimeException(ie.toString());
+    }
+    finally {
+      pool.shutdown();
+    }
   }
 
   /**
@@ -2052,6 +2628,41 @@ public class Trainer implements Serializable {
     writeStatsHook(writer);
   }
 
+  /**
+   * A hook for subclasses to write out any additional top-level events,
+   * or top-level events of a different, newly-defined type, to a binary
+   * event file.  This default implementation does nothing.
+   *
+   * @param writer the binary event writer
+   * @throws IOException if the writer throws an <tt>IOException</tt>
+   */
+  public void writeStatsHook(BinaryEventWriter writer) throws IOException {
+  }
+
+  /**
+   * Writes the statistics and mappings collected by
+   * {@link #train(SexpTokenizer,boolean,boolean)} in the compact binary format
+   * of {@link BinaryEventWriter}.  The observations written are exactly
+   * those written by {@link #writeStats(Writer)}, and can be read by
+   * {@link #readStats(File)} or {@link #readStats(BinaryEventReader)}.<br>
+   * This method calls {@link #writeStatsHook(BinaryEventWriter)} just before
+   * terminating.
+   *
+   * @see #writeStats(Writer)
+   */
+  public void writeStats(BinaryEventWriter writer) throws IOException {
+    writer.writeCounts(nonterminalEventSym, nonterminals);
+    writer.writeCounts(headEventSym, headEvents);
+    writer.writeCounts(modEventSym, modifierEvents);
+    writer.writeCounts(gapEventSym, gapEvents);
+    writer.writeCounts(vocabSym, vocabCounter);
+    writer.writeCounts(wordFeatureSym, wordFeatureCounter);
+    writer.writeMap(posMapSym, posMap);
+    writer.writeSet(prunedPretermSym, prunedPreterms);
+    writer.writeSet(prunedPuncSym, prunedPunctuation);
+    writeStatsHook(writer);
+  }
+
   /**
    * Reads the statistics and observations from an output file in the format
    * created by {@link #writeStats(Writer)}.  Observations are one of several
@@ -2067,12 +2678,22 @@ public class Trainer implements Serializable {
    * <li>{@link #wordFeatureSym}
    * </ul>
    *
+   * If the specified file is a binary event file written by a
+   * {@link BinaryEventWriter}, it is read via
+   * {@link #readStats(BinaryEventReader)}.
+   *
    * @param file the file containing the S-expressions representing
    * top-level observations and their counts
    */
   public void readStats(File file)
     throws FileNotFoundException, UnsupportedEncodingException, IOException {
-    readStats(getStandardSexpStream(file));
+    if (BinaryEventReader.isBinaryEventFile(file)) {
+      BinaryEventReader reader = new BinaryEventReader(file);
+      readStats(reader);
+      reader.close();
+    }
+    else
+      readStats(getStandardSexpStream(file));
   }
 
   /**
@@ -2210,6 +2831,75 @@ public class Trainer implements Serializable {
     };
   }
 
+  /**
+   * Returns an iterator over {@link TrainerEvent} objects that were written
+   * out in the binary format of {@link BinaryEventWriter}.
+   * @param reader the reader from which to read {@link TrainerEvent} objects
+   * @param type the type of {@link TrainerEvent} objects to retrieve, as for
+   * {@link #getEventIterator(SexpTokenizer,Symbol)}
+   * @return an iterator over {@link TrainerEvent} objects that were written
+   * out in binary form
+   */
+  public static Iterator getEventIterator(final BinaryEventReader reader,
+                                          final Symbol type) {
+    return new Iterator() {
+      int intType = eventsToTypes.getEntry(type).getIntValue();
+      SexpList next = getNext();
+      double nextCount;
+
+      /**
+       * Gets the next event that is of the correct type.
+       * @return the next event that is of the correct type.
+       */
+      SexpList getNext() {
+        if (!addGapInfo && type == gapEventSym)
+          return null;
+        SexpList event;
+        try {
+          while ((event = reader.read()) != null) {
+            MapToPrimitive.Entry entry =
+              eventsToTypes.getEntry(event.symbolAt(0));
+            if (entry != null && entry.getIntValue() == intType) {
+              nextCount = reader.count();
+              return event;
+            }
+          }
+          reader.close();
+        }
+        catch (IOException ioe) {
+          System.err.println("TrainerEvent iterator: " + ioe);
+        }
+        return null;
+      }
+
+      public boolean hasNext() {
+        return next != null;
+      }
+      public Object next() {
+        if (next == null)
+          throw new NoSuchElementException();
+        TrainerEvent event = null;
+        switch (intType) {
+          case headEventType:
+            event = new HeadEvent(next.get(1));
+            break;
+          case modEventType:
+            event = new ModifierEvent(next.get(1));
+            break;
+          case gapEventType:
+            event = new GapEvent(next.get(1));
+            break;
+        }
+        double count = nextCount;
+        next = getNext();
+        return new EventEntry(event, count);
+      }
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
   /**
    * Reads the observations and their counts contained in the specified
    * S-expression tokenization stream.  The S-expressions contained in the
@@ -2276,76 +2966,167 @@ public class Trainer implements Serializable {
       }
       SexpList event = curr.list();
       Symbol name = event.symbolAt(0);
-      double count = -1.0;
       MapToPrimitive.Entry entry = eventsToTypes.getEntry(name);
       if (entry == null) {
 	readStatsHook(event);
 	continue;
       }
-      switch (entry.getIntValue()) {
-      case nonterminalEventType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	nonterminals.add(event.get(1), count);
-	break;
-      case headEventType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	if (count >= countThreshold) {
-	  HeadEvent headEvent = new HeadEvent(event.get(1));
-	  headEvent.canonicalize(canonicalMap);
-	  addHeadEvent(headEvent, count);
-	}
-	break;
-      case modEventType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	if (count >= countThreshold) {
-	  ModifierEvent modEvent = new ModifierEvent(event.get(1));
-	  modEvent.canonicalize(canonicalMap);
-	  addModifierEvent(modEvent, count);
-	}
-	break;
-      case gapEventType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	if (count >= countThreshold) {
-	  GapEvent gapEvent = new GapEvent(event.get(1));
-	  gapEvent.canonicalize(canonicalMap);
-	  addGapEvent(gapEvent, count);
-	}
-	break;
-      case posMapType:
-	//posMap.put(event.get(1), event.get(2));
-	Symbol word = event.symbolAt(1);
-	SexpList posList = event.listAt(2);
-	int numPos = posList.length();
-	for (int posIdx = 0; posIdx < numPos; posIdx++)
-	  addToPosMap(word, posList.symbolAt(posIdx));
-	break;
-      case vocabType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	vocabCounter.add(event.get(1), count);
-	break;
-      case wordFeatureType:
-	count = Double.parseDouble(event.symbolAt(2).toString());
-	wordFeatureCounter.add(event.get(1), count);
-	break;
-      case prunedPretermType:
-	prunedPreterms = new HashSet();
-	SexpList pretermList = event.listAt(1);
-	int pretermListLen = pretermList.length();
-	for (int j = 0; j < pretermListLen; j++)
-	  prunedPreterms.add(pretermList.get(j));
-	break;
-      case prunedPuncType:
-	prunedPunctuation = new HashSet();
-	SexpList puncList = event.listAt(1);
-	int puncListLen = puncList.length();
-	for (int j = 0; j < puncListLen; j++)
-	  prunedPunctuation.add(puncList.get(j));
-	break;
+      int type = entry.getIntValue();
+      double count = isCountEventType(type) ?
+	Double.parseDouble(event.symbolAt(2).toString()) : -1.0;
+      addObservation(type, event, count, canonicalMap);
+    }
+    System.err.println("Read " + (i - 1) + " events.");
+  }
+
+  /**
+   * Reads the observations and their counts contained in the specified
+   * binary event file reader.  The observations are expected to be in the
+   * format output by {@link #writeStats(BinaryEventWriter)}.
+   *
+   * @param reader the reader from which to read top-level counts
+   * @throws IOException if the underlying stream throws an <tt>IOException</tt>
+   *
+   * @see #readStats(SexpTokenizer)
+   */
+  public void readStats(BinaryEventReader reader) throws IOException {
+    readStats(reader, 0);
+  }
+
+  /**
+   * Reads at most the specified number of observations and their counts
+   * contained in the specified binary event file reader.  The observations
+   * are expected to be in the format output by
+   * {@link #writeStats(BinaryEventWriter)}.  Observations of a type not known
+   * to this class are passed to {@link #readStatsHook(SexpList)} in their
+   * S-expression form, including their counts.
+   *
+   * @param reader the reader from which to read top-level counts
+   * @param maxEventsToRead the maximum number of events to read from the
+   * specified reader; if the value of this parameter is less than <tt>1</tt>,
+   * then all observations are read
+   * @throws IOException if the underlying stream throws an <tt>IOException</tt>
+   *
+   * @see #readStats(SexpTokenizer,int)
+   */
+  public void readStats(BinaryEventReader reader, int maxEventsToRead)
+    throws IOException {
+    Map canonicalMap = new danbikel.util.HashMap(100003, 1.5f);
+    SexpList event = null;
+    int i = 1;
+    for ( ; (maxEventsToRead < 1 || i <= maxEventsToRead) &&
+            (event = reader.read()) != null; i++) {
+      Symbol name = event.symbolAt(0);
+      MapToPrimitive.Entry entry = eventsToTypes.getEntry(name);
+      if (entry == null) {
+	if (reader.hasCount())
+	  event.add(Symbol.add(String.valueOf(reader.count())));
+	readStatsHook(event);
+	continue;
       }
+      addObservation(entry.getIntValue(), event, reader.count(), canonicalMap);
     }
     System.err.println("Read " + (i - 1) + " events.");
   }
 
+  /**
+   * Returns whether observations with the specified name are known to this
+   * class and have counts, that is, whether they are of the form
+   * <tt>(name key count)</tt>.
+   */
+  static boolean isCountEventType(Symbol name) {
+    MapToPrimitive.Entry entry = eventsToTypes.getEntry(name);
+    return entry != null && isCountEventType(entry.getIntValue());
+  }
+
+  /**
+   * Returns whether observations of the specified type have counts, that is,
+   * whether they are of the form <tt>(name key count)</tt>.
+   */
+  static boolean isCountEventType(int type) {
+    switch (type) {
+    case nonterminalEventType:
+    case headEventType:
+    case modEventType:
+    case gapEventType:
+    case vocabType:
+    case wordFeatureType:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Adds the specified observation, read either from an S-expression stream
+   * or from a binary event file, to the appropriate counts table or
+   * collection of this trainer.
+   *
+   * @param type the type of the observation, as found in
+   * {@link #eventsToTypes}
+   * @param event the observation
+   * @param count the count of the observation, if observations of its type
+   * have counts
+   * @param canonicalMap the map used to canonicalize events
+   */
+  private void addObservation(int type, SexpList event, double count,
+			      Map canonicalMap) {
+    switch (type) {
+    case nonterminalEventType:
+      nonterminals.add(event.get(1), count);
+      break;
+    case headEventType:
+      if (count >= countThreshold) {
+	HeadEvent headEvent = new HeadEvent(event.get(1));
+	headEvent.canonicalize(canonicalMap);
+	addHeadEvent(headEvent, count);
+      }
+      break;
+    case modEventType:
+      if (count >= countThreshold) {
+	ModifierEvent modEvent = new ModifierEvent(event.get(1));
+	modEvent.canonicalize(canonicalMap);
+	addModifierEvent(modEvent, count);
+      }
+      break;
+    case gapEventType:
+      if (count >= countThreshold) {
+	GapEvent gapEvent = new GapEvent(event.get(1));
+	gapEvent.canonicalize(canonicalMap);
+	addGapEvent(gapEvent, count);
+      }
+      break;
+    case posMapType:
+      //posMap.put(event.get(1), event.get(2));
+      Symbol word = event.symbolAt(1);
+      SexpList posList = event.listAt(2);
+      int numPos = posList.length();
+      for (int posIdx = 0; posIdx < numPos; posIdx++)
+	addToPosMap(word, posList.symbolAt(posIdx));
+      break;
+    case vocabType:
+      vocabCounter.add(event.get(1), count);
+      break;
+    case wordFeatureType:
+      wordFeatureCounter.add(event.get(1), count);
+      break;
+    case prunedPretermType:
+      prunedPreterms = new HashSet();
+      SexpList pretermList = event.listAt(1);
+      int pretermListLen = pretermList.length();
+      for (int j = 0; j < pretermListLen; j++)
+	prunedPreterms.add(pretermList.get(j));
+      break;
+    case prunedPuncType:
+      prunedPunctuation = new HashSet();
+      SexpList puncList = event.listAt(1);
+      int puncListLen = puncList.length();
+      for (int j = 0; j < puncListLen; j++)
+	prunedPunctuation.add(puncList.get(j));
+      break;
+    }
+  }
+
   /**
    * A hook that gets called by {@link #main} after all observations are
    * collected via any calls to {@link #readStats(File)},
@@ -2466,7 +3247,36 @@ public class Trainer implements Serializable {
     ObjectInputStream ois = new ObjectInputStream(bfi);
     System.err.println("\nLoading derived counts from object file \"" +
 		       objectInputFilename + "\":");
-    return loadModelCollection(ois);
+    scanModelCollectionObjectFile(ois, System.err);
+    ModelCollection mc = (ModelCollection)ois.readObject();
+    File dir = new File(objectInputFilename).getAbsoluteFile().getParentFile();
+    attachMappedTables(mc, dir);
+    return mc;
+  }
+
+  /**
+   * If the specified model collection was written by
+   * {@link MappedModelTables#main(String[])}, maps its mapped table file and
+   * attaches the tables to its models.
+   *
+   * @param mc the model collection whose mapped tables are to be attached
+   * @param dir the directory against which to resolve a relative mapped table
+   * filename
+   * @throws IOException if there is a problem mapping the mapped table file
+   *
+   * @see ModelCollection#getMappedTablesFilename()
+   */
+  protected static void attachMappedTables(ModelCollection mc, File dir)
+    throws IOException {
+    String tablesFilename = mc.getMappedTablesFilename();
+    if (tablesFilename == null)
+      return;
+    File tablesFile = new File(tablesFilename);
+    if (!tablesFile.isAbsolute())
+      tablesFile = new File(dir, tablesFilename);
+    System.err.println("Mapping precomputed tables from \"" + tablesFile +
+		       "\".");
+    MappedModelTables.attach(mc, tablesFile.getPath());
   }
 
   /**
@@ -2513,7 +3323,9 @@ public class Trainer implements Serializable {
   public static ModelCollection loadModelCollection(ObjectInputStream ois)
     throws ClassNotFoundException, IOException, OptionalDataException {
     scanModelCollectionObjectFile(ois, System.err);
-    return (ModelCollection)ois.readObject();
+    ModelCollection mc = (ModelCollection)ois.readObject();
+    attachMappedTables(mc, new File(System.getProperty("user.dir")));
+    return mc;
   }
 
   /**
@@ -2603,7 +3415,8 @@ public class Trainer implements Serializable {
    */
   protected final static String[] usageMsg = {
     "usage: [-help] [-sf <settings file> | --settings <settings file>]",
-    "\t[-it | --incremental-training]",
+    "\t[-it | --incremental-training] [-st | --streaming-training]",
+    "\t[-bo | --binary-output]",
     "\t[-l <input file> [-l <trainer event input file>] ]",
     "\t[-scan <derived data scan file>]",
     "\t[-i <training file>] [-o <output file>]",
@@ -2615,6 +3428,11 @@ public class Trainer implements Serializable {
     "\t-it|--incremental-training indicates to read and derive counts",
     "\t\tincrementally when both an <input file> and a",
     "\t\t<derived data output file> are specified",
+    "\t-st|--streaming-training indicates to read the <training file>",
+    "\t\ttwice instead of holding all of its trees in memory",
+    "\t-bo|--binary-output indicates to write the <output file> in the",
+    "\t\tcompact binary format of BinaryEventWriter instead of as",
+    "\t\tS-expressions (<input file>s in either format are read)",
     "\t<training file> is a Treebank file containing training parse trees",
     "\t<output file> is the events output file (use \"-\" for stdout)",
     "\t<input file> is an <output file> from a previous run to load",
@@ -2648,12 +3466,17 @@ public class Trainer implements Serializable {
    * Incrementally updates derived model counts by reading chunks of {@link
    * TrainerEvent} objects from the specified input file.  The number of {@link
    * TrainerEvent} objects read at a time (the chunk size) is determined by the
-   * value of the {@link Settings#maxEventChunkSize}.
+   * value of the {@link Settings#maxEventChunkSize}.  If the value of {@link
+   * Settings#trainerNumThreads} is greater than <tt>1</tt>, the specified file
+   * is neither compressed nor binary and all models have additive counts,
+   * this method delegates to {@link #incrementallyTrainInParallel(Trainer,File)}.
    *
    * @param trainer       the {@link Trainer} instance for which incremental
    *                      training is to be performed
    * @param inputFilename the file containing observations to be read by the
-   *                      {@link #readStats(SexpTokenizer,int)} method
+   *                      {@link #readStats(SexpTokenizer,int)} method, or
+   *                      by the {@link #readStats(BinaryEventReader,int)}
+   *                      method if it is a binary event file
    * @throws FileNotFoundException        if the specified file cannot be found
    * @throws UnsupportedEncodingException if the encoding used to read
    *                                      characters from the specified file is
@@ -2665,9 +3488,29 @@ public class Trainer implements Serializable {
                                            String inputFilename)
     throws FileNotFoundException, UnsupportedEncodingException, IOException {
     int eventChunkSize = Settings.getInteger(Settings.maxEventChunkSize);
-    SexpTokenizer inputFileTok =
-      getStandardSexpStream(new File(inputFilename));
-    FlexibleMap canonical = new danbikel.util.HashMap(100003, 1.5f);
+    File inputFile = new File(inputFilename);
+    boolean binary = BinaryEventReader.isBinaryEventFile(inputFile);
+    if (numThreads > 1 && !binary && !inputFilename.endsWith(".gz")) {
+      if (trainer.modelsAreAdditive()) {
+	incrementallyTrainInParallel(trainer, inputFile);
+	return;
+      }
+      System.err.println(className + ": warning: not all models have " +
+			 "additive counts; training incrementally on one " +
+			 "thread");
+    }
+    FlexibleMap canonical = newCanonicalMap();
+    if (binary) {
+      BinaryEventReader reader = new BinaryEventReader(inputFile);
+      while (!reader.eof()) {
+	trainer.readStats(reader, eventChunkSize);
+	trainer.deriveCounts(false, canonical);
+	trainer.clearEventCounters();
+      }
+      reader.close();
+      return;
+    }
+    SexpTokenizer inputFileTok = getStandardSexpStream(inputFile);
     while (inputFileTok.ttype != StreamTokenizer.TT_EOF) {
       trainer.readStats(inputFileTok, eventChunkSize);
       trainer.deriveCounts(false, canonical);
@@ -2676,6 +3519,74 @@ public class Trainer implements Serializable {
   }
 
 
+  /**
+   * Incrementally derives model counts from the specified observation file
+   * using several threads.  The file is split into one contiguous range of
+   * lines per thread, as determined by {@link Settings#trainerNumThreads}.
+   * Each range is read by a {@linkplain #newChunkWorker() chunk worker},
+   * which reads at most {@link Settings#maxEventChunkSize} observations at
+   * a time and derives counts from them into its own tables and models,
+   * exactly as {@link #incrementallyTrain(Trainer,String)} does on one
+   * thread.  The chunk workers share a single reflexive map of canonical
+   * events.  When all ranges have been read, the chunk workers are
+   * {@linkplain #mergeChunkWorker(Trainer) merged} into the specified
+   * trainer, in file order.  Since derived counts are
+   * {@linkplain Model#countsAreAdditive() additive}, the merged counts are
+   * identical to those that would have been derived on one thread.
+   * <p>
+   * The specified file must be an uncompressed text file with one observation
+   * per line, as written by {@link #writeStats(Writer)}.  Since each chunk
+   * worker holds its own derived counts until the merge, this method requires
+   * up to one additional set of derived counts per thread.
+   *
+   * @param trainer   the {@link Trainer} instance for which incremental
+   *                  training is to be performed
+   * @param inputFile the file containing observations
+   * @throws IOException if there is a problem reading from the specified file
+   *
+   * @see #incrementallyTrain(Trainer,String)
+   */
+  protected static void incrementallyTrainInParallel(Trainer trainer,
+						     File inputFile)
+    throws IOException {
+    final int eventChunkSize = Settings.getInteger(Settings.maxEventChunkSize);
+    final String encoding = Language.encoding();
+    final FlexibleMap canonical = newCanonicalMap();
+    int numChunks = numThreads;
+    long[] offsets = LineRangeInputStream.split(inputFile, numChunks);
+    Trainer[] workers = new Trainer[numChunks];
+    List tasks = new ArrayList(numChunks);
+    for (int i = 0; i < numChunks; i++) {
+      final Trainer worker = trainer.newChunkWorker();
+      final InputStream chunk =
+	new LineRangeInputStream(inputFile, offsets[i], offsets[i + 1],
+				 Constants.defaultFileBufsize);
+      workers[i] = worker;
+      tasks.add(new Callable() {
+	public Object call() throws IOException {
+	  SexpTokenizer tok =
+	    new SexpTokenizer(chunk, encoding, Constants.defaultFileBufsize);
+	  while (tok.ttype != StreamTokenizer.TT_EOF) {
+	    worker.readStats(tok, eventChunkSize);
+	    worker.deriveCounts(worker.derivedCountThreshold, canonical);
+	    worker.clearEventCounters();
+	  }
+	  chunk.close();
+	  return null;
+	}
+      });
+    }
+    trainer.runTasks(tasks);
+    System.err.println("Merging counts derived from " + numChunks +
+		       " chunks of \"" + inputFile + "\".");
+    for (int i = 0; i < numChunks; i++) {
+      trainer.mergeChunkWorker(workers[i]);
+      workers[i] = null;
+    }
+    System.err.println("Canonical events HashMap stats: " +
+                       canonical.getStats());
+  }
+
   /**
    * Takes arguments according to the usage as specified in {@link #usageMsg}.
    * Please run <code>java danbikel.parser.Trainer -help</code> to display the
@@ -2683,7 +3594,8 @@ public class Trainer implements Serializable {
    */
   public static void main(String[] args) {
     boolean stripOuterParens = false, auto = true;
-    boolean incrementalTraining = false;
+    boolean incrementalTraining = false, streamingTraining = false;
+    boolean binaryOutput = false;
     String trainingFilename = null, outputFilename = null, inputFilename = null;
     String trainerEventInputFilename = null;
     String settingsFilename = null, objectOutputFilename = null;
@@ -2742,6 +3654,12 @@ public class Trainer implements Serializable {
         else if (args[i].equals("-it") ||
                  args[i].equals("--incremental-training"))
           incrementalTraining = true;
+        else if (args[i].equals("-st") ||
+                 args[i].equals("--streaming-training"))
+          streamingTraining = true;
+        else if (args[i].equals("-bo") ||
+                 args[i].equals("--binary-output"))
+          binaryOutput = true;
 	else if (args[i].equals("-help"))
 	  usage();
 	else {
@@ -2840,9 +3758,13 @@ public class Trainer implements Serializable {
 	System.err.println("Training from trees in \"" +
 			   trainingFilename + "\".");
 	Time time = new Time();
-	trainer.train(new SexpTokenizer(trainingFilename, encoding,
-					Constants.defaultFileBufsize),
-		      auto, stripOuterParens);
+	if (streamingTraining)
+	  trainer.trainStreaming(new File(trainingFilename),
+				 auto, stripOuterParens);
+	else
+	  trainer.train(new SexpTokenizer(trainingFilename, encoding,
+					  Constants.defaultFileBufsize),
+			auto, stripOuterParens);
 	System.err.println("Observation collection completed in " + time + ".");
       }
 
@@ -2857,13 +3779,21 @@ public class Trainer implements Serializable {
 	   (OutputStream)System.out : new FileOutputStream(outputFilename));
 	if (outputFilename.endsWith(".gz"))
 	  os = new GZIPOutputStream(os);
-	Writer writer = new BufferedWriter(new OutputStreamWriter(os, encoding),
-					   Constants.defaultFileBufsize);
 	System.err.println("Writing observations to output file \"" +
 			   outputFilename + "\".");
 	Time time = new Time();
-	trainer.writeStats(writer);
-	writer.close();
+	if (binaryOutput) {
+	  BinaryEventWriter writer = new BinaryEventWriter(os);
+	  trainer.writeStats(writer);
+	  writer.close();
+	}
+	else {
+	  Writer writer =
+	    new BufferedWriter(new OutputStreamWriter(os, encoding),
+			       Constants.defaultFileBufsize);
+	  trainer.writeStats(writer);
+	  writer.close();
+	}
 	System.err.println("Finished writing observations in " + time + ".");
       }
 
@@ -134,6 +134,8 @@ public abstract class AbstractTraining implements Training, Serializable {
 
   private Nonterminal nonterminal = new Nonterminal();
   private Nonterminal nonterminal2 = new Nonterminal();
+  // used only by hasGap, which is invoked concurrently by sharded trainers
+  private Nonterminal hasGapNonterminal = new Nonterminal();
   @SuppressWarnings({"UnusedDeclaration"})
   private Nonterminal addGapData = new Nonterminal();
 
@@ -1308,10 +1310,14 @@ public abstract class AbstractTraining implements Training, Serializable {
   /**
    * Returns <code>true</code> if and only if <code>label</code> has a
    * gap augmentation as added by {@link #addGapInformation(Sexp)}.
+   * This method is thread-safe.
    */
   public boolean hasGap(Symbol label) {
-    Nonterminal parsedLabel = treebank.parseNonterminal(label, nonterminal);
-    return parsedLabel.augmentations.contains(gapAugmentation);
+    synchronized (hasGapNonterminal) {
+      Nonterminal parsedLabel =
+	treebank.parseNonterminal(label, hasGapNonterminal);
+      return parsedLabel.augmentations.contains(gapAugmentation);
+    }
   }
 
   /**
@@ -34,9 +34,13 @@ public abstract class AbstractClient
 
   // public constants
   public static final int defaultNextObjectInterval = 10000;
+  public static final int defaultMaxPrefetch = 1;
+  public static final int defaultPrefetchMillis = 2000;
 
   // private constants
   private static final boolean debug = false;
+  // the weight of the most recent processing time in the moving average
+  private static final double processingTimeDecay = 0.2;
 
   // inner class
 
@@ -46,11 +50,26 @@ public abstract class AbstractClient
       {@link SwitchboardRemote#nextObject(int)} method. */
   protected int nextObjectInterval = defaultNextObjectInterval;
 
+  /** The maximum number of objects this client obtains from the switchboard
+      at a time.
+      @see SwitchboardRemote#clientMaxPrefetch */
+  protected int maxPrefetch = defaultMaxPrefetch;
+  /** The approximate number of milliseconds of work this client obtains
+      from the switchboard at a time.
+      @see SwitchboardRemote#clientPrefetchMillis */
+  protected int prefetchMillis = defaultPrefetchMillis;
+  /** A moving average of the number of milliseconds this client has taken
+      to process an object, or <tt>-1</tt> if it has not yet processed any
+      objects. */
+  protected double avgProcessingTime = -1;
+
   /** The server assigned to this client. */
   protected volatile Server server = null;
   /** The ID number of the server assigned to this client, cached here
       for convenience. */
   protected volatile int serverId = -1;
+  // the direct frame connection to the server, if any
+  private FrameConnection serverConnection;
 
   // fault-tolerant settings
   /** Indicates whether the server has been wrapped in proxies for fault
@@ -337,6 +356,7 @@ public abstract class AbstractClient
 	getSwitchboard(switchboardName);
 	id = switchboard.register((Client)this);
 	setNextObjectInterval();
+	setPrefetch();
 	registered = true;
       }
       catch (RemoteException re) {
@@ -364,6 +384,42 @@ public abstract class AbstractClient
       nextObjectInterval = Integer.parseInt(nextObjectIntervalStr);
   }
 
+  /**
+   * Attempts to get the {@link SwitchboardRemote#clientMaxPrefetch} and
+   * {@link SwitchboardRemote#clientPrefetchMillis} settings from the
+   * switchboard and set the {@link #maxPrefetch} and {@link #prefetchMillis}
+   * data members to them.  As with {@link #setNextObjectInterval}, a
+   * setting that cannot be obtained leaves its data member unchanged.
+   */
+  protected void setPrefetch() {
+    String maxPrefetchStr = null, prefetchMillisStr = null;
+    try {
+      maxPrefetchStr =
+	switchboard.getSetting(SwitchboardRemote.clientMaxPrefetch);
+      prefetchMillisStr =
+	switchboard.getSetting(SwitchboardRemote.clientPrefetchMillis);
+    }
+    catch (RemoteException re) {}
+    if (maxPrefetchStr != null)
+      maxPrefetch = Math.max(1, Integer.parseInt(maxPrefetchStr));
+    if (prefetchMillisStr != null)
+      prefetchMillis = Integer.parseInt(prefetchMillisStr);
+  }
+
+  /**
+   * Returns the number of objects this client should request in its next
+   * batch, which is the number it can be expected to process in about
+   * {@link #prefetchMillis} milliseconds, given its average processing time,
+   * but no more than {@link #maxPrefetch}.  Until this client has processed
+   * an object, this method returns <tt>1</tt>.
+   */
+  protected int prefetchSize() {
+    if (maxPrefetch <= 1 || avgProcessingTime < 0)
+      return 1;
+    double size = prefetchMillis / Math.max(avgProcessingTime, 1.0);
+    return (int)Math.max(1, Math.min(maxPrefetch, size));
+  }
+
   /**
    * Currently, this method does nothing, as all server failures can be
    * handled by making the server fault-tolerant.
@@ -400,6 +456,9 @@ public abstract class AbstractClient
    * }
    * </pre>
    * <p>
+   * If this client obtained the switchboard over a frame connection, the
+   * server is obtained over a direct frame connection when possible (see
+   * {@link FrameEndpoint}).
    *
    * @see #server
    */
@@ -407,7 +466,7 @@ public abstract class AbstractClient
     while (!timeToDie && server == null) {
       if (debug)
 	System.err.println(className + ": waiting for new server...");
-      server = switchboard.getServer(id);
+      server = connectDirectly(switchboard.getServer(id));
       //sleepRandom(5000);
     }
     if (debug)
@@ -434,7 +493,56 @@ public abstract class AbstractClient
     return randMillis;
   }
 
+  /**
+   * If the specified server was obtained from the switchboard over a frame
+   * connection and accepts frame connections of its own, returns a proxy
+   * for it obtained over a new, direct frame connection, so that calls to
+   * it are not relayed by the switchboard; otherwise, or if the direct
+   * connection cannot be made, returns the specified server.  Any direct
+   * connection to a previously assigned server is closed.
+   *
+   * @param server a server obtained from the switchboard, or
+   * <code>null</code>
+   * @return the server to use in place of the specified server
+   *
+   * @see FrameEndpoint#frameName()
+   */
+  synchronized Server connectDirectly(Server server) {
+    if (serverConnection != null) {
+      serverConnection.close();
+      serverConnection = null;
+    }
+    if (!(server instanceof FrameEndpoint) ||
+	FrameConnection.connectionOf(server) == null)
+      return server;
+    String name = null;
+    try {
+      name = ((FrameEndpoint)server).frameName();
+      if (name == null)
+	return server;
+      Server direct =
+	(Server)lookupFrameName(name, AbstractServer.frameBindingName,
+				frameCodec(), timeout);
+      serverConnection = FrameConnection.connectionOf(direct);
+      return direct;
+    }
+    catch (RemoteException re) {
+      System.err.println(className + ": couldn't connect directly to " +
+			 "server " + name + " (" + re + ")");
+    }
+    catch (NotBoundException nbe) {
+      System.err.println(className + ": couldn't connect directly to " +
+			 "server " + name + " (" + nbe + ")");
+    }
+    catch (MalformedURLException mue) {
+      System.err.println(className + ": couldn't connect directly to " +
+			 "server " + name + " (" + mue + ")");
+    }
+    return server;
+  }
+
   protected void cleanup() {
+    connectDirectly(null);
     server = null;
   }
 
@@ -462,6 +570,17 @@ public abstract class AbstractClient
    * processes them by invoking the {@link #process(Object)} method
    * and puts the processed objects back to the switchboard, handling
    * any RMI-related errors along the way.
+   * <p>
+   * If the {@link SwitchboardRemote#clientMaxPrefetch} setting is greater
+   * than <tt>1</tt>, objects are obtained in batches, via
+   * {@link SwitchboardRemote#nextObjects(int,int)}, and kept in a local
+   * queue, so that the remainder of a batch is already in hand while each
+   * object is processed; the size of each batch adapts to the average
+   * processing time of this client, as described for {@link #prefetchSize}.
+   * The processed objects of a batch are put back together, via
+   * {@link SwitchboardRemote#putObjects(int,List,long[])}, just before the
+   * next batch is requested.  If the switchboard fails, any objects in hand
+   * are discarded, since the switchboard will hand them out again.
    *
    * @see SwitchboardRemote#clientNextObjectInterval
    * @see SwitchboardRemote#nextObject(int)
@@ -469,11 +588,16 @@ public abstract class AbstractClient
   protected void processObjects() throws RemoteException {
     int numProcessed = 0;
 
-    NumberedObject obj = null;
+    LinkedList<NumberedObject> inHand = new LinkedList<NumberedObject>();
+    List<NumberedObject> done = new ArrayList<NumberedObject>();
+    long[] doneMillis = new long[maxPrefetch];
     while (!timeToDie) {
       try {
-	obj = switchboard.nextObject(id);
-	if (obj == null) {
+	if (inHand.isEmpty()) {
+	  putObjects(done, doneMillis);
+	  nextObjects(inHand, prefetchSize());
+	}
+	if (inHand.isEmpty()) {
 	  if (!timeToDie) {
 	    synchronized (dieSynch) {
 	      try { dieSynch.wait(nextObjectInterval); }
@@ -483,26 +607,21 @@ public abstract class AbstractClient
 	  continue;
 	}
 
-	Object processed = null;
-	long processingTime = System.currentTimeMillis();
-	try { processed = process(obj.get()); }
-	catch (RemoteException re) {
-	  System.err.println(className +
-			     ": warning: error processing object No. " +
-			     obj.number() + " (" + re + ")");
-	  processed = null;
-	}
-	processingTime = System.currentTimeMillis() - processingTime;
+	NumberedObject obj = inHand.removeFirst();
+	long processingTime = processObject(obj);
 
-	if (processed != null) {
-	  obj.setProcessed(true);
-	  obj.set(processed);
+	if (done.size() == doneMillis.length) {
+	  long[] oldDoneMillis = doneMillis;
+	  doneMillis = new long[done.size() * 2];
+	  System.arraycopy(oldDoneMillis, 0, doneMillis, 0, done.size());
 	}
-
-	switchboard.putObject(id, obj, processingTime);
+	doneMillis[done.size()] = processingTime;
+	done.add(obj);
 	numProcessed++;
       }
       catch (RemoteException re) {
+	inHand.clear();
+	done.clear();
 	registered = false;
 	System.err.println(className + ": switchboard must have gone down (" +
 			   re + "); " + "\n\twill attempt to re-register");
@@ -512,5 +631,79 @@ public abstract class AbstractClient
 	}
       }
     }
+    try {
+      putObjects(done, doneMillis);
+    }
+    catch (RemoteException re) {
+      if (debug)
+	System.err.println(className + ": couldn't put last objects (" +
+			   re + ")");
+    }
+  }
+
+  /**
+   * Processes the specified object by invoking {@link #process(Object)},
+   * replacing its contents with the processed object, and updates
+   * {@link #avgProcessingTime}.
+   *
+   * @return the number of milliseconds taken to process the object
+   */
+  private long processObject(NumberedObject obj) {
+    Object processed = null;
+    long processingTime = System.currentTimeMillis();
+    try { processed = process(obj.get()); }
+    catch (RemoteException re) {
+      System.err.println(className +
+			 ": warning: error processing object No. " +
+			 obj.number() + " (" + re + ")");
+      processed = null;
+    }
+    processingTime = System.currentTimeMillis() - processingTime;
+
+    if (processed != null) {
+      obj.setProcessed(true);
+      obj.set(processed);
+    }
+
+    if (avgProcessingTime < 0)
+      avgProcessingTime = processingTime;
+    else
+      avgProcessingTime += processingTimeDecay *
+			   (processingTime - avgProcessingTime);
+    return processingTime;
+  }
+
+  /**
+   * Gets up to the specified number of objects from the switchboard and
+   * appends them to the specified queue, using
+   * {@link SwitchboardRemote#nextObject(int)} when only one object is
+   * requested.
+   */
+  private void nextObjects(List<NumberedObject> queue, int maxObjects)
+    throws RemoteException {
+    if (maxObjects == 1) {
+      NumberedObject obj = switchboard.nextObject(id);
+      if (obj != null)
+	queue.add(obj);
+    }
+    else
+      queue.addAll(switchboard.nextObjects(id, maxObjects));
+  }
+
+  /**
+   * Puts the specified processed objects back to the switchboard and
+   * clears the list, using
+   * {@link SwitchboardRemote#putObject(int,NumberedObject,long)} when there
+   * is only one object.
+   */
+  private void putObjects(List<NumberedObject> done, long[] millis)
+    throws RemoteException {
+    if (done.isEmpty())
+      return;
+    if (done.size() == 1)
+      switchboard.putObject(id, done.get(0), millis[0]);
+    else
+      switchboard.putObjects(id, done, millis);
+    done.clear();
   }
 }
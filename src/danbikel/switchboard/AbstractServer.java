@@ -1,5 +1,6 @@
 package danbikel.switchboard;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.rmi.*;
 import java.rmi.server.*;
@@ -22,11 +23,23 @@ import java.rmi.server.*;
  * TimeoutSocketFactory}.
  * Subclasses that use sockets other than TCP/IP sockets should have
  * similar non-infinite timeouts.
+ * <p>
+ * A server that registers with the switchboard over a frame connection
+ * also accepts frame connections of its own, on the port specified by the
+ * {@link SwitchboardRemote#serverFramePort} setting, so that its clients
+ * may call it directly instead of through the switchboard.
  *
  * @see AbstractSwitchboardUser#unexportWhenDead
  */
 public abstract class AbstractServer
-  extends AbstractSwitchboardUser implements Server {
+  extends AbstractSwitchboardUser implements Server, FrameEndpoint {
+
+  // constants
+  /**
+   * The name to which a server binds itself in the registry of the frame
+   * connections it accepts.
+   */
+  public static final String frameBindingName = "server";
 
   // data members
   /** The maximum number of clients this server is willing to accept. */
@@ -34,6 +47,9 @@ public abstract class AbstractServer
   /** Indicates whether this server will only accept clients that specifically
       request it. */
   protected boolean acceptClientsOnlyByRequest;
+  // the server accepting frame connections directly from clients, if any
+  private FrameServer frameServer;
+  private String frameName;
 
   /**
    * Constructs a non-exported <code>AbstractServer</code> object.
@@ -206,6 +222,7 @@ public abstract class AbstractServer
     while (!registered) {
       try {
 	getSwitchboard(switchboardName);
+	exportFrames();
 	id = switchboard.register((Server)this);
 	registered = true;
       }
@@ -215,6 +232,65 @@ public abstract class AbstractServer
     }
   }
 
+  /**
+   * If the switchboard was obtained over a frame connection, starts
+   * accepting frame connections from clients on the port specified by the
+   * {@link SwitchboardRemote#serverFramePort} setting, unless that setting
+   * is negative or this server is already accepting frame connections.  If
+   * the port cannot be bound, this server remains available to its clients
+   * only through the switchboard.
+   */
+  private synchronized void exportFrames() throws RemoteException {
+    FrameConnection conn = FrameConnection.connectionOf(switchboard);
+    if (conn == null || frameServer != null)
+      return;
+    int port = 0;
+    String portStr = switchboard.getSetting(SwitchboardRemote.serverFramePort);
+    if (portStr != null)
+      port = Integer.parseInt(portStr);
+    if (port < 0)
+      return;
+    try {
+      frameServer = new FrameServer(port, frameCodec(), timeout);
+    }
+    catch (IOException ioe) {
+      System.err.println(className + ": couldn't accept frame connections " +
+			 "on port " + port + " (" + ioe + ")");
+      return;
+    }
+    frameServer.bind(frameBindingName, this);
+    // the address by which the switchboard reaches this server should also
+    // be reachable by clients
+    frameName = frameNamePrefix +
+      conn.getLocalAddress().getHostAddress() + ":" + frameServer.getPort() +
+      "/" + frameBindingName;
+  }
+
+  /**
+   * Returns the name by which clients may obtain this server over a direct
+   * frame connection, or <code>null</code> if this server does not accept
+   * frame connections.
+   *
+   * @see SwitchboardRemote#serverFramePort
+   */
+  public synchronized String frameName() throws RemoteException {
+    return frameName;
+  }
+
+  /**
+   * Calls the superclass' implementation and then stops accepting frame
+   * connections from clients, closing those already accepted.
+   */
+  public void unexportWhenDead() throws RemoteException {
+    super.unexportWhenDead();
+    synchronized (this) {
+      if (frameServer != null)
+	frameServer.close();
+      frameServer = null;
+      frameName = null;
+    }
+  }
+
   /** Returns the maximum number of clients this server is willing to accept. */
   public int maxClients() throws RemoteException {
     return maxClients;
@@ -2,6 +2,7 @@ package danbikel.switchboard;
 
 import danbikel.util.TimeoutSocketFactory;
 import danbikel.util.proxy.Retry;
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.PrintWriter;
 import java.util.Properties;
@@ -59,6 +60,20 @@ public abstract class AbstractSwitchboardUser
    */
   protected static final int defaultMaxSwitchboardTries = infiniteTries;
 
+  /**
+   * The prefix of switchboard names that specify a frame connection to the
+   * switchboard instead of an RMI registry lookup.  The value of this
+   * constant is <tt>"frame://"</tt>.  A name of the form
+   * <tt>frame://</tt><i>host</i><tt>:</tt><i>port</i>[<tt>/</tt><i>name</i>]
+   * specifies the object bound to <i>name</i> (by default,
+   * {@link Switchboard#frameBindingName}) by the frame server on the
+   * specified host and port.
+   *
+   * @see Switchboard#exportFrames(int)
+   * @see SwitchboardRemote#framePort
+   */
+  public static final String frameNamePrefix = "frame://";
+
   // inner classes
 
   /**
@@ -294,7 +309,9 @@ public abstract class AbstractSwitchboardUser
    * <code>true</code>, each attempt that results in an
    * error will be printed out to the specified <code>PrintWriter</code>.
    *
-   * @param name the name of the switchboard in the bootstrap registry
+   * @param name the name of the switchboard in the bootstrap registry, or a
+   * name beginning with {@link #frameNamePrefix} to get the switchboard over
+   * a frame connection, with the codec returned by {@link #frameCodec()}
    * @param verbose if <code>true</code>, indicates to print out
    * each failed attempt to get the switchboard to the specified error
    * writer
@@ -304,6 +321,10 @@ public abstract class AbstractSwitchboardUser
 				PrintWriter err)
     throws MalformedURLException {
     switchboardName = name;
+    // any connection to a previous switchboard is no longer of use
+    FrameConnection oldConnection = FrameConnection.connectionOf(switchboard);
+    if (oldConnection != null)
+      oldConnection.close();
     int tries = maxSwitchboardTries;
     boolean tryInfinitely = tries == infiniteTries;
     boolean success = false;
@@ -311,9 +332,7 @@ public abstract class AbstractSwitchboardUser
       if (timeToDie)
 	break;
       try {
-	switchboard = (SwitchboardRemote)Naming.lookup(name);
-	// actually try the switchboard, to make sure its not an old stub
-	switchboard.getKeepAliveMaxRetries();
+	switchboard = lookupSwitchboard(name, frameCodec(), timeout);
 	success = true;
       }
       catch (RemoteException re) {
@@ -327,6 +346,114 @@ public abstract class AbstractSwitchboardUser
     }
   }
 
+  /**
+   * Returns the codec with which to encode the values sent over a frame
+   * connection to the switchboard, used when the switchboard name begins
+   * with {@link #frameNamePrefix}.  This default implementation returns a
+   * new {@link FrameCodec}; subclasses may override this method to encode
+   * the objects they process more compactly.
+   */
+  protected FrameCodec frameCodec() {
+    return new FrameCodec();
+  }
+
+  /**
+   * Gets the switchboard with the specified name, either from the bootstrap
+   * registry or, if the name begins with {@link #frameNamePrefix}, over a
+   * new frame connection, and tries it to make sure it is not an old stub.
+   */
+  private static SwitchboardRemote lookupSwitchboard(String name,
+						     FrameCodec codec,
+						     int timeout)
+    throws MalformedURLException, RemoteException, NotBoundException {
+    if (!name.startsWith(frameNamePrefix)) {
+      SwitchboardRemote switchboard = (SwitchboardRemote)Naming.lookup(name);
+      switchboard.getKeepAliveMaxRetries();
+      return switchboard;
+    }
+
+    SwitchboardRemote switchboard =
+      (SwitchboardRemote)lookupFrameName(name, Switchboard.frameBindingName,
+					 codec, timeout);
+    try {
+      switchboard.getKeepAliveMaxRetries();
+      return switchboard;
+    }
+    catch (RemoteException re) {
+      FrameConnection.connectionOf(switchboard).close();
+      throw re;
+    }
+    catch (RuntimeException re) {
+      FrameConnection.connectionOf(switchboard).close();
+      throw re;
+    }
+  }
+
+  /**
+   * Opens a new frame connection to the host and port of the specified
+   * name, of the form
+   * <tt>frame://</tt><i>host</i><tt>:</tt><i>port</i>[<tt>/</tt><i>name</i>],
+   * and gets the object bound to the name's binding name in the registry at
+   * the other end.  If the lookup fails, the new connection is closed.
+   *
+   * @param name the name of the object
+   * @param defaultBindingName the binding name to use if the specified name
+   * has none
+   * @param codec a codec of the type to be used by the new connection
+   * @param timeout the number of milliseconds to wait for the response to
+   * a call over the new connection before it fails, or <tt>0</tt> to wait
+   * indefinitely
+   * @return a proxy for the object with the specified name
+   */
+  static Remote lookupFrameName(String name, String defaultBindingName,
+				FrameCodec codec, int timeout)
+    throws MalformedURLException, RemoteException, NotBoundException {
+    if (!name.startsWith(frameNamePrefix))
+      throw new MalformedURLException("not a frame name: " + name);
+    String address = name.substring(frameNamePrefix.length());
+    String bindingName = defaultBindingName;
+    int slashIdx = address.indexOf('/');
+    if (slashIdx != -1) {
+      bindingName = address.substring(slashIdx + 1);
+      address = address.substring(0, slashIdx);
+    }
+    int colonIdx = address.lastIndexOf(':');
+    if (colonIdx == -1)
+      throw new MalformedURLException("no port in frame name: " + name);
+    String host = address.substring(0, colonIdx);
+    int port;
+    try {
+      port = Integer.parseInt(address.substring(colonIdx + 1));
+    }
+    catch (NumberFormatException nfe) {
+      throw new MalformedURLException("bad port in frame name: " + name);
+    }
+
+    FrameConnection conn;
+    try {
+      conn = FrameConnection.connect(host, port, codec, timeout);
+    }
+    catch (IOException ioe) {
+      throw new java.rmi.ConnectException("couldn't connect to " + address,
+					  ioe);
+    }
+    try {
+      return conn.lookup(bindingName);
+    }
+    catch (RemoteException re) {
+      conn.close();
+      throw re;
+    }
+    catch (NotBoundException nbe) {
+      conn.close();
+      throw nbe;
+    }
+    catch (RuntimeException re) {
+      conn.close();
+      throw re;
+    }
+  }
+
   /**
    * Repeatedly tries the specified number of times to get the switchboard
    * stub from the bootstrap registry.
@@ -369,7 +496,9 @@ public abstract class AbstractSwitchboardUser
    * Repeatedly tries the specified number of times to get the switchboard
    * stub from the bootstrap registry.
    *
-   * @param name the name of the switchboard in the bootstrap registry
+   * @param name the name of the switchboard in the bootstrap registry, or a
+   * name beginning with {@link #frameNamePrefix} to get the switchboard over
+   * a frame connection
    * @param tries the number of times to try to get the switchboard from
    * the bootstrap registry
    * @param verbose if <code>true</code>, indicates to print error messages
@@ -395,9 +524,7 @@ public abstract class AbstractSwitchboardUser
     boolean success = false;
     for (int i = 0; !success && i < tries; i++) {
       try {
-	switchboard = (SwitchboardRemote)Naming.lookup(name);
-	// actually try the switchboard, to make sure its not an old stub
-	switchboard.getKeepAliveMaxRetries();
+	switchboard = lookupSwitchboard(name, new FrameCodec(), defaultTimeout);
 	success = true;
       }
       catch (RemoteException re) {
@@ -42,6 +42,8 @@ public class Failover extends Reconnect {
 			   clientId);
 
       stub = switchboard.getServer(clientId);
+      if (client instanceof AbstractClient)
+	stub = ((AbstractClient)client).connectDirectly((Server)stub);
 
       if (stub != null)
 	if (debug)
@@ -0,0 +1,658 @@
+package danbikel.switchboard;
+
+import danbikel.lisp.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.rmi.Remote;
+import java.util.*;
+
+/**
+ * Encodes and decodes the arguments, return values and exceptions of the
+ * remote method invocations sent over a {@link FrameConnection}.  Values of
+ * the types most often passed among switchboard users are written in a
+ * compact binary form: primitive wrappers, strings, arrays of primitives,
+ * lists, {@link NumberedObject} instances and S-expressions, whose symbols
+ * are written as varint-encoded indices into a symbol table that grows as
+ * symbols are first sent, exactly as in a binary event file.  Instances of
+ * {@link java.rmi.Remote} are sent by reference, so that the receiver
+ * invokes methods on them over the same connection.  All other values are
+ * sent using Java serialization.
+ * <p>
+ * An object for which {@link #sexpString(Object)} returns a string is sent
+ * as the name of its class and the S-expression of that string, and is
+ * reconstructed by the receiver with the class's constructor that takes a
+ * single <code>Sexp</code> argument.  Only the classes {@linkplain
+ * #registerSexpClass(Class) registered} with a codec are sent and received
+ * this way, and so subclasses that register more classes to send them
+ * compactly must be used at both ends of a connection.
+ * <p>
+ * Since a frame connection may be opened by any peer, a value received is
+ * never allowed to run code of a class the receiver did not choose: classes
+ * named by the sender are loaded without being initialized, remote
+ * references are accepted only for remote interfaces, and serialized
+ * values are deserialized only if every class they contain is in a
+ * <code>danbikel</code> package, is in <code>java.lang</code> or
+ * <code>java.util</code> or is a <code>Throwable</code> of the Java
+ * platform.  Every length read is checked against the number of bytes left
+ * in the frame, so that a corrupt or hostile frame cannot cause an
+ * allocation larger than itself.
+ * <p>
+ * A codec has state for one connection, and so instances are obtained for
+ * each new connection via {@link #newCodec()}.  The encoding state is
+ * used only by the thread writing a frame, and the decoding state only by
+ * the thread reading frames, so that neither requires synchronization.
+ *
+ * @see FrameConnection
+ */
+public class FrameCodec {
+  // constants
+  private final static int nullTag = 0;
+  private final static int falseTag = 1;
+  private final static int trueTag = 2;
+  private final static int intTag = 3;
+  private final static int longTag = 4;
+  private final static int doubleTag = 5;
+  private final static int floatTag = 6;
+  private final static int stringTag = 7;
+  private final static int symbolTag = 8;
+  private final static int intSymbolTag = 9;
+  private final static int sexpListTag = 10;
+  private final static int sexpObjectTag = 11;
+  private final static int numberedObjectTag = 12;
+  private final static int intArrayTag = 13;
+  private final static int longArrayTag = 14;
+  private final static int doubleArrayTag = 15;
+  private final static int byteArrayTag = 16;
+  private final static int objectArrayTag = 17;
+  private final static int listTag = 18;
+  private final static int remoteTag = 19;
+  private final static int remoteBackTag = 20;
+  private final static int serializedTag = 21;
+
+  // tokens of S-expressions sent as strings, as in a binary event file
+  private final static int openToken = 0;
+  private final static int closeToken = 1;
+  private final static int firstSymbolToken = 2;
+
+  private final static Class[] sexpParameterTypes = {Sexp.class};
+
+  // the maximum depth of the object graph of a serialized value
+  private final static int maxSerialDepth = 100;
+
+  // data members
+  // encoding state
+  private Map<String, Integer> sentSymbols =
+    new HashMap<String, Integer>();
+  private Map<String, Integer> sentNames =
+    new HashMap<String, Integer>();
+  // decoding state
+  private List<Symbol> receivedSymbols = new ArrayList<Symbol>();
+  private List<String> receivedNames = new ArrayList<String>();
+  // the Sexp constructors of the registered classes, by class name
+  private Map<String, Constructor> sexpConstructors =
+    new HashMap<String, Constructor>();
+
+  /** Constructs a new codec with empty symbol tables. */
+  public FrameCodec() {}
+
+  /**
+   * Returns a new codec of the same type as this codec, for use with a new
+   * connection.  Subclasses must override this method.
+   */
+  public FrameCodec newCodec() {
+    return new FrameCodec();
+  }
+
+  /**
+   * Registers the specified class with this codec, so that its instances
+   * are sent as S-expressions and reconstructed by the receiver using the
+   * class's public constructor that takes a single <code>Sexp</code>
+   * argument.  The receiver accepts an object sent this way only if its
+   * class is registered with the receiver's codec, and so subclasses
+   * typically register classes in their constructors.
+   *
+   * @param cl the class to register
+   * @throws IllegalArgumentException if the specified class has no public
+   * constructor that takes a single <code>Sexp</code> argument
+   */
+  protected void registerSexpClass(Class cl) {
+    try {
+      sexpConstructors.put(cl.getName(), cl.getConstructor(sexpParameterTypes));
+    }
+    catch (NoSuchMethodException nsme) {
+      throw new IllegalArgumentException(cl.getName() +
+					 " has no public Sexp constructor");
+    }
+  }
+
+  /**
+   * Returns whether the specified class is registered with this codec.
+   *
+   * @see #registerSexpClass(Class)
+   */
+  protected boolean isSexpClass(Class cl) {
+    Constructor constructor = sexpConstructors.get(cl.getName());
+    return constructor != null && constructor.getDeclaringClass() == cl;
+  }
+
+  /**
+   * Returns the S-expression string form of the specified object, if it is
+   * to be sent as that S-expression and reconstructed by the receiver using
+   * its class's constructor that takes a single <code>Sexp</code>
+   * argument, or <code>null</code> otherwise.  This default implementation
+   * returns the string form of the S-expression of any {@link
+   * SexpConvertible} object whose class is {@linkplain
+   * #registerSexpClass(Class) registered} with this codec.  Overriding
+   * implementations must return <code>null</code> for objects whose classes
+   * are not registered.
+   *
+   * @param obj the object to be sent
+   * @return the S-expression string form of the specified object, or
+   * <code>null</code> if it should be sent some other way
+   */
+  protected String sexpString(Object obj) {
+    if (obj instanceof SexpConvertible && isSexpClass(obj.getClass()))
+      return ((SexpConvertible)obj).toSexp().toString();
+    return null;
+  }
+
+  // encoding
+
+  /**
+   * Writes the specified value.
+   *
+   * @param out the stream to which to write
+   * @param value the value to write
+   * @param conn the connection over which the value is being sent, with
+   * which any remote objects are exported
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code> or the value cannot be serialized
+   */
+  public void writeValue(DataOutputStream out, Object value,
+			 FrameConnection conn) throws IOException {
+    if (value == null)
+      out.writeByte(nullTag);
+    else if (value instanceof Boolean)
+      out.writeByte(((Boolean)value).booleanValue() ? trueTag : falseTag);
+    else if (value instanceof Integer) {
+      out.writeByte(intTag);
+      out.writeInt(((Integer)value).intValue());
+    }
+    else if (value instanceof Long) {
+      out.writeByte(longTag);
+      out.writeLong(((Long)value).longValue());
+    }
+    else if (value instanceof Double) {
+      out.writeByte(doubleTag);
+      out.writeDouble(((Double)value).doubleValue());
+    }
+    else if (value instanceof Float) {
+      out.writeByte(floatTag);
+      out.writeFloat(((Float)value).floatValue());
+    }
+    else if (value instanceof String) {
+      out.writeByte(stringTag);
+      writeString(out, (String)value);
+    }
+    else if (value instanceof Remote) {
+      int id = conn.remoteIdOf(value);
+      if (id >= 0) {
+	// a reference to an object exported by the receiver
+	out.writeByte(remoteBackTag);
+	writeVarint(out, id);
+      }
+      else
+	writeRemote(out, value, conn);
+    }
+    else if (value instanceof Symbol) {
+      writeSymbol(out, (Symbol)value);
+    }
+    else if (value.getClass() == SexpList.class) {
+      SexpList list = (SexpList)value;
+      int size = list.length();
+      out.writeByte(sexpListTag);
+      writeVarint(out, size);
+      for (int i = 0; i < size; i++)
+	writeValue(out, list.get(i), conn);
+    }
+    else if (value.getClass() == NumberedObject.class) {
+      NumberedObject numObj = (NumberedObject)value;
+      out.writeByte(numberedObjectTag);
+      writeVarint(out, numObj.number());
+      writeVarint(out, numObj.fileId());
+      out.writeBoolean(numObj.processed());
+      writeValue(out, numObj.get(), conn);
+    }
+    else if (value instanceof int[]) {
+      int[] arr = (int[])value;
+      out.writeByte(intArrayTag);
+      writeVarint(out, arr.length);
+      for (int i = 0; i < arr.length; i++)
+	out.writeInt(arr[i]);
+    }
+    else if (value instanceof long[]) {
+      long[] arr = (long[])value;
+      out.writeByte(longArrayTag);
+      writeVarint(out, arr.length);
+      for (int i = 0; i < arr.length; i++)
+	out.writeLong(arr[i]);
+    }
+    else if (value instanceof double[]) {
+      double[] arr = (double[])value;
+      out.writeByte(doubleArrayTag);
+      writeVarint(out, arr.length);
+      for (int i = 0; i < arr.length; i++)
+	out.writeDouble(arr[i]);
+    }
+    else if (value instanceof byte[]) {
+      byte[] arr = (byte[])value;
+      out.writeByte(byteArrayTag);
+      writeVarint(out, arr.length);
+      out.write(arr);
+    }
+    else if (value instanceof Object[] &&
+	     !value.getClass().getComponentType().isArray()) {
+      Object[] arr = (Object[])value;
+      out.writeByte(objectArrayTag);
+      writeName(out, value.getClass().getComponentType().getName());
+      writeVarint(out, arr.length);
+      for (int i = 0; i < arr.length; i++)
+	writeValue(out, arr[i], conn);
+    }
+    else if (value.getClass() == ArrayList.class ||
+	     value.getClass() == LinkedList.class) {
+      List list = (List)value;
+      out.writeByte(listTag);
+      writeVarint(out, list.size());
+      for (Iterator it = list.iterator(); it.hasNext(); )
+	writeValue(out, it.next(), conn);
+    }
+    else {
+      String sexp = sexpString(value);
+      if (sexp != null) {
+	out.writeByte(sexpObjectTag);
+	writeName(out, value.getClass().getName());
+	writeSexp(out, sexp);
+      }
+      else
+	writeSerialized(out, value);
+    }
+  }
+
+  private void writeRemote(DataOutputStream out, Object value,
+			   FrameConnection conn) throws IOException {
+    int id = conn.export(value);
+    out.writeByte(remoteTag);
+    writeVarint(out, id);
+    Class[] interfaces = FrameConnection.remoteInterfaces(value.getClass());
+    writeVarint(out, interfaces.length);
+    for (int i = 0; i < interfaces.length; i++)
+      writeName(out, interfaces[i].getName());
+  }
+
+  private void writeSerialized(DataOutputStream out, Object value)
+    throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+    oos.writeObject(value);
+    oos.close();
+    out.writeByte(serializedTag);
+    writeVarint(out, bytes.size());
+    bytes.writeTo(out);
+  }
+
+  private void writeSymbol(DataOutputStream out, Symbol sym)
+    throws IOException {
+    if (sym instanceof IntSymbol) {
+      out.writeByte(intSymbolTag);
+      out.writeInt(sym.getInteger().intValue());
+      return;
+    }
+    out.writeByte(symbolTag);
+    writeSymbolToken(out, sym.toString());
+  }
+
+  /**
+   * Writes the tokens of the specified string representation of an
+   * S-expression, splitting tokens exactly where a {@link SexpTokenizer}
+   * would.
+   */
+  private void writeSexp(DataOutputStream out, String sexp)
+    throws IOException {
+    int len = sexp.length();
+    for (int i = 0; i < len; ) {
+      char ch = sexp.charAt(i);
+      if (ch == '(') {
+	writeVarint(out, openToken);
+	i++;
+      }
+      else if (ch == ')') {
+	writeVarint(out, closeToken);
+	i++;
+      }
+      else if (Character.isWhitespace(ch))
+	i++;
+      else {
+	int tokenStart = i;
+	for (i++; i < len; i++) {
+	  ch = sexp.charAt(i);
+	  if (ch == '(' || ch == ')' || Character.isWhitespace(ch))
+	    break;
+	}
+	writeSymbolToken(out, sexp.substring(tokenStart, i));
+      }
+    }
+  }
+
+  private void writeSymbolToken(DataOutputStream out, String printName)
+    throws IOException {
+    Integer id = sentSymbols.get(printName);
+    if (id != null) {
+      writeVarint(out, id.intValue() + firstSymbolToken);
+      return;
+    }
+    int newId = sentSymbols.size();
+    sentSymbols.put(printName, Integer.valueOf(newId));
+    writeVarint(out, newId + firstSymbolToken);
+    writeString(out, printName);
+  }
+
+  /**
+   * Writes the specified name, such as a class name, as an index into a
+   * table of names that is defined as it is used, in the same way as the
+   * symbol table.
+   */
+  void writeName(DataOutputStream out, String name) throws IOException {
+    Integer id = sentNames.get(name);
+    if (id != null) {
+      writeVarint(out, id.intValue() + 1);
+      return;
+    }
+    sentNames.put(name, Integer.valueOf(sentNames.size()));
+    writeVarint(out, 0);
+    writeString(out, name);
+  }
+
+  private static void writeString(DataOutputStream out, String str)
+    throws IOException {
+    byte[] bytes = str.getBytes("UTF-8");
+    writeVarint(out, bytes.length);
+    out.write(bytes);
+  }
+
+  static void writeVarint(DataOutputStream out, int value)
+    throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  // decoding
+
+  /**
+   * Reads a value written by {@link #writeValue}.
+   *
+   * @param in the stream from which to read, whose available bytes are the
+   * remainder of the frame being read
+   * @param conn the connection over which the value was received, which
+   * resolves references to remote objects
+   * @throws IOException if the underlying stream throws an
+   * <code>IOException</code> or the value cannot be decoded
+   */
+  public Object readValue(DataInputStream in, FrameConnection conn)
+    throws IOException {
+    int tag = in.readUnsignedByte();
+    switch (tag) {
+    case nullTag:
+      return null;
+    case falseTag:
+      return Boolean.FALSE;
+    case trueTag:
+      return Boolean.TRUE;
+    case intTag:
+      return Integer.valueOf(in.readInt());
+    case longTag:
+      return Long.valueOf(in.readLong());
+    case doubleTag:
+      return Double.valueOf(in.readDouble());
+    case floatTag:
+      return Float.valueOf(in.readFloat());
+    case stringTag:
+      return readString(in);
+    case symbolTag:
+      return readSymbolToken(in, readVarint(in));
+    case intSymbolTag:
+      return Symbol.add(in.readInt());
+    case sexpListTag: {
+      int size = readLength(in, 1);
+      SexpList list = new SexpList(size);
+      for (int i = 0; i < size; i++)
+	list.add((Sexp)readValue(in, conn));
+      return list;
+    }
+    case sexpObjectTag:
+      return readSexpObject(in);
+    case numberedObjectTag: {
+      int number = readVarint(in);
+      int fileId = readVarint(in);
+      boolean processed = in.readBoolean();
+      return new NumberedObject(number, fileId, processed,
+				readValue(in, conn));
+    }
+    case intArrayTag: {
+      int[] arr = new int[readLength(in, 4)];
+      for (int i = 0; i < arr.length; i++)
+	arr[i] = in.readInt();
+      return arr;
+    }
+    case longArrayTag: {
+      long[] arr = new long[readLength(in, 8)];
+      for (int i = 0; i < arr.length; i++)
+	arr[i] = in.readLong();
+      return arr;
+    }
+    case doubleArrayTag: {
+      double[] arr = new double[readLength(in, 8)];
+      for (int i = 0; i < arr.length; i++)
+	arr[i] = in.readDouble();
+      return arr;
+    }
+    case byteArrayTag: {
+      byte[] arr = new byte[readLength(in, 1)];
+      in.readFully(arr);
+      return arr;
+    }
+    case objectArrayTag: {
+      Class componentType = classForName(readName(in));
+      Object[] arr = (Object[])Array.newInstance(componentType,
+						 readLength(in, 1));
+      for (int i = 0; i < arr.length; i++)
+	arr[i] = readValue(in, conn);
+      return arr;
+    }
+    case listTag: {
+      int size = readLength(in, 1);
+      List list = new ArrayList(size);
+      for (int i = 0; i < size; i++)
+	list.add(readValue(in, conn));
+      return list;
+    }
+    case remoteTag: {
+      int id = readVarint(in);
+      Class[] interfaces = new Class[readLength(in, 1)];
+      for (int i = 0; i < interfaces.length; i++)
+	interfaces[i] = remoteInterfaceForName(readName(in));
+      return conn.proxyFor(id, interfaces);
+    }
+    case remoteBackTag:
+      return conn.exported(readVarint(in));
+    case serializedTag: {
+      final byte[] bytes = new byte[readLength(in, 1)];
+      in.readFully(bytes);
+      ObjectInputStream ois =
+	new ObjectInputStream(new ByteArrayInputStream(bytes));
+      ois.setObjectInputFilter(new ObjectInputFilter() {
+	public Status checkInput(FilterInfo info) {
+	  // no valid stream holds an array longer than the stream itself
+	  if (info.depth() > maxSerialDepth ||
+	      info.arrayLength() > bytes.length)
+	    return Status.REJECTED;
+	  Class cl = info.serialClass();
+	  if (cl == null)
+	    return Status.UNDECIDED;
+	  return serializable(cl) ? Status.ALLOWED : Status.REJECTED;
+	}
+      });
+      try {
+	return ois.readObject();
+      }
+      catch (ClassNotFoundException cnfe) {
+	throw new InvalidClassException(cnfe.getMessage());
+      }
+    }
+    default:
+      throw new StreamCorruptedException("unknown value tag: " + tag);
+    }
+  }
+
+  /**
+   * Returns whether instances of the specified class may be deserialized
+   * from a received frame.
+   */
+  private static boolean serializable(Class cl) {
+    while (cl.isArray())
+      cl = cl.getComponentType();
+    if (cl.isPrimitive())
+      return true;
+    String name = cl.getName();
+    if (name.startsWith("danbikel."))
+      return true;
+    String packageName = cl.getPackageName();
+    if (packageName.equals("java.lang") || packageName.equals("java.util"))
+      return true;
+    // exceptions are sent as the results of failed invocations
+    return Throwable.class.isAssignableFrom(cl) && name.startsWith("java.");
+  }
+
+  private Object readSexpObject(DataInputStream in) throws IOException {
+    String className = readName(in);
+    Constructor constructor = sexpConstructors.get(className);
+    if (constructor == null)
+      throw new InvalidClassException(className, "not registered for " +
+				      "S-expression decoding");
+    Sexp sexp = readSexp(in, readVarint(in));
+    try {
+      return constructor.newInstance(new Object[] {sexp});
+    }
+    catch (Exception e) {
+      throw new InvalidObjectException("couldn't construct " + className +
+				       " from " + sexp + " (" + e + ")");
+    }
+  }
+
+  private Sexp readSexp(DataInputStream in, int token) throws IOException {
+    if (token == openToken) {
+      SexpList list = new SexpList();
+      while ((token = readVarint(in)) != closeToken)
+	list.add(readSexp(in, token));
+      return list;
+    }
+    return readSymbolToken(in, token);
+  }
+
+  private Symbol readSymbolToken(DataInputStream in, int token)
+    throws IOException {
+    int id = token - firstSymbolToken;
+    if (id < receivedSymbols.size())
+      return receivedSymbols.get(id);
+    if (id > receivedSymbols.size() || id < 0)
+      throw new StreamCorruptedException("undefined symbol: " + id);
+    Symbol sym = Symbol.add(readString(in));
+    receivedSymbols.add(sym);
+    return sym;
+  }
+
+  String readName(DataInputStream in) throws IOException {
+    int token = readVarint(in);
+    if (token > 0) {
+      if (token > receivedNames.size())
+	throw new StreamCorruptedException("undefined name: " + token);
+      return receivedNames.get(token - 1);
+    }
+    String name = readString(in);
+    receivedNames.add(name);
+    return name;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readLength(in, 1)];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * Reads a varint written by {@link #writeVarint}, which is at most five
+   * bytes long.
+   */
+  static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      // the fifth byte holds only the four highest bits of an int
+      if (shift == 28 && (b & 0xf0) != 0)
+	throw new StreamCorruptedException("varint too long");
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+	return value;
+    }
+  }
+
+  /**
+   * Reads the length of a sequence whose elements each take at least the
+   * specified number of bytes, checking that the sequence fits in the
+   * remainder of the frame being read.
+   *
+   * @param in the stream from which to read, whose available bytes are the
+   * remainder of the frame being read
+   * @param minElementSize the minimum number of bytes taken by each element
+   * of the sequence
+   * @throws StreamCorruptedException if the length read is negative or
+   * the sequence cannot fit in the remainder of the frame
+   */
+  static int readLength(DataInputStream in, int minElementSize)
+    throws IOException {
+    int length = readVarint(in);
+    if (length < 0 || (long)length * minElementSize > in.available())
+      throw new StreamCorruptedException("invalid length: " + length);
+    return length;
+  }
+
+  /**
+   * Returns the class with the specified name, without initializing it, so
+   * that no code of a class named by a peer is run merely by naming it.
+   */
+  static Class classForName(String name) throws IOException {
+    try {
+      return Class.forName(name, false, FrameCodec.class.getClassLoader());
+    }
+    catch (ClassNotFoundException cnfe) {
+      throw new InvalidClassException(name, "class not found");
+    }
+  }
+
+  /**
+   * Returns the remote interface with the specified name, without
+   * initializing it.
+   *
+   * @throws InvalidClassException if there is no such class or it is not an
+   * interface that extends {@link Remote}
+   */
+  static Class remoteInterfaceForName(String name) throws IOException {
+    Class cl = classForName(name);
+    if (!cl.isInterface() || !Remote.class.isAssignableFrom(cl))
+      throw new InvalidClassException(name, "not a remote interface");
+    return cl;
+  }
+}
@@ -0,0 +1,654 @@
+package danbikel.switchboard;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.lang.reflect.Proxy;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.rmi.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * One end of a connection over which remote method invocations are sent as
+ * length-prefixed binary frames, as an alternative to Java RMI.  Both ends of
+ * a connection are symmetric: each may export objects and invoke methods on
+ * the objects exported by the other, so that a single connection carries
+ * all calls between a switchboard user and the switchboard, including calls
+ * the switchboard makes back to the user (such as
+ * {@link SwitchboardUser#alive}).  A client calls its server over a
+ * separate, direct connection when the server is a {@link FrameEndpoint};
+ * otherwise, its calls to the server are relayed by the switchboard.
+ * <p>
+ * Calls are pipelined: any number of threads may have calls outstanding on
+ * a connection at once, each call being tagged with a number that the
+ * response carries back, and the calls received by one end are executed
+ * concurrently by a pool of threads.  Every frame consists of a four-byte
+ * length followed by that many bytes: a one-byte frame type, an eight-byte
+ * call number and then, for a request, the varint-encoded number of the
+ * target object, the method to invoke and the arguments, or, for a
+ * response, the return value or thrown exception, all encoded by a
+ * {@link FrameCodec}.  A method is sent as its declaring interface, name and
+ * parameter types the first time it is invoked over a connection, and as a
+ * number thereafter.
+ * <p>
+ * An argument or return value that implements {@link java.rmi.Remote} is
+ * exported by the sending end, and the receiving end gets a dynamic proxy
+ * that implements all the remote interfaces of the exported object.
+ * Exported objects remain exported until the connection is closed.  The
+ * object numbered {@link #registryId} at each end is a {@link
+ * FrameRegistry}, from which the other end may obtain objects by name, via
+ * {@link #lookup(String)}.
+ * <p>
+ * When a connection fails or is closed, every outstanding call and every
+ * later call on a proxy from the connection throws a
+ * <code>RemoteException</code>, so that the fault-tolerance machinery of
+ * this package treats the failure exactly as it would the failure of an RMI
+ * call.  Each call on a proxy also throws a <code>RemoteException</code> if
+ * no response arrives within the connection's timeout, just as a call on an
+ * RMI stub would using a {@link danbikel.util.TimeoutSocketFactory}.
+ *
+ * @see FrameServer
+ * @see FrameCodec
+ */
+public class FrameConnection implements Runnable {
+  // constants
+  /** The number of the registry object exported by each end. */
+  public final static int registryId = 0;
+
+  /**
+   * The maximum length of a frame, not counting its four-byte length.  A
+   * connection that receives a longer frame is closed, as is a connection
+   * on which a longer frame would be sent.
+   * <p>
+   * The value of this constant is <code>1 &lt;&lt; 28</code> (256 MB).
+   */
+  public final static int maxFrameLength = 1 << 28;
+  // the length of the frame type and call number that begin every frame
+  private final static int minFrameLength = 9;
+
+  private final static int requestFrame = 0;
+  private final static int responseFrame = 1;
+  private final static int exceptionFrame = 2;
+
+  private static Map<Class, Class[]> remoteInterfaceCache =
+    new HashMap<Class, Class[]>();
+
+  // inner classes
+  private static class PendingCall {
+    Object result;
+    boolean exception;
+    boolean done;
+  }
+
+  /** Sends the method invocations on a proxy over this connection. */
+  private class RemoteRef implements InvocationHandler {
+    private int id;
+
+    RemoteRef(int id) {
+      this.id = id;
+    }
+
+    FrameConnection connection() { return FrameConnection.this; }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+      throws Throwable {
+      if (method.getDeclaringClass() == Object.class) {
+	String name = method.getName();
+	if (name.equals("equals"))
+	  return Boolean.valueOf(proxy == args[0]);
+	if (name.equals("hashCode"))
+	  return Integer.valueOf(System.identityHashCode(proxy));
+	return "FrameProxy[" + FrameConnection.this + ", id=" + id + "]";
+      }
+      return call(id, method, args);
+    }
+  }
+
+  /** The registry at this end, which looks names up in a shared map. */
+  private static class Registry implements FrameRegistry {
+    private Map<String, Remote> bindings;
+
+    Registry(Map<String, Remote> bindings) {
+      this.bindings = bindings;
+    }
+
+    public Remote lookup(String name) throws NotBoundException {
+      Remote obj;
+      synchronized (bindings) {
+	obj = bindings.get(name);
+      }
+      if (obj == null)
+	throw new NotBoundException(name);
+      return obj;
+    }
+  }
+
+  // data members
+  private SocketChannel channel;
+  private FrameCodec codec;
+  private int timeout;
+  private String remoteAddress;
+  private volatile boolean closed = false;
+  private Throwable closeCause;
+  private Thread reader;
+  private ExecutorService dispatcher;
+
+  // objects exported by this end, indexed by their numbers
+  private List<Object> exported = new ArrayList<Object>();
+  private Map<Object, Integer> exportIds =
+    new IdentityHashMap<Object, Integer>();
+  // proxies for objects exported by the other end, by their numbers
+  private Map<Integer, Object> proxies =
+    new HashMap<Integer, Object>();
+  // calls awaiting responses, by their numbers
+  private Map<Long, PendingCall> pending =
+    new HashMap<Long, PendingCall>();
+  private long nextCallId = 0;
+
+  // state used only while holding writeLock
+  private Object writeLock = new Object();
+  private ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+  private DataOutputStream frameOut = new DataOutputStream(frameBytes);
+  private Map<Method, Integer> sentMethods =
+    new HashMap<Method, Integer>();
+  // state used only by the reader thread
+  private List<Method> receivedMethods = new ArrayList<Method>();
+
+  /**
+   * Constructs a new connection over the specified channel, which must be
+   * connected and in blocking mode.  The connection does not begin reading
+   * frames until {@link #start} is invoked.
+   *
+   * @param channel the connected channel
+   * @param codec the codec with which to encode and decode values, which
+   * must not be used by any other connection
+   * @param bindings the map of names to objects to be served by the
+   * registry at this end, which may be shared among connections and
+   * modified (while synchronized on the map) at any time
+   * @param timeout the number of milliseconds to wait for the response to
+   * a call before it fails, or <tt>0</tt> to wait indefinitely
+   */
+  public FrameConnection(SocketChannel channel, FrameCodec codec,
+			 Map<String, Remote> bindings, int timeout) {
+    this.channel = channel;
+    this.codec = codec;
+    this.timeout = timeout;
+    Socket socket = channel.socket();
+    remoteAddress = socket.getInetAddress().getHostAddress() + ":" +
+      socket.getPort();
+    try {
+      socket.setTcpNoDelay(true);
+    }
+    catch (SocketException se) {}
+    export(new Registry(bindings));
+    dispatcher = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+	Thread thread = new Thread(r, "FrameConnection dispatcher for " +
+				   remoteAddress);
+	thread.setDaemon(true);
+	return thread;
+      }
+    });
+  }
+
+  /**
+   * Opens a new connection to the specified host and port, and starts it.
+   *
+   * @param host the host to which to connect
+   * @param port the port to which to connect
+   * @param codec a codec of the type to be used by the new connection; a
+   * new codec for the connection is obtained via {@link
+   * FrameCodec#newCodec()}
+   * @param timeout the number of milliseconds to wait for the response to
+   * a call before it fails, or <tt>0</tt> to wait indefinitely
+   * @return the new connection
+   * @throws IOException if the connection cannot be opened
+   */
+  public static FrameConnection connect(String host, int port,
+					FrameCodec codec, int timeout)
+    throws IOException {
+    SocketChannel channel =
+      SocketChannel.open(new InetSocketAddress(host, port));
+    Map<String, Remote> noBindings = new HashMap<String, Remote>();
+    FrameConnection conn =
+      new FrameConnection(channel, codec.newCodec(), noBindings, timeout);
+    conn.start();
+    return conn;
+  }
+
+  /** Starts the thread that reads frames from this connection. */
+  public void start() {
+    reader = new Thread(this, "FrameConnection reader for " + remoteAddress);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Gets the object bound to the specified name in the registry at the other
+   * end of this connection.
+   *
+   * @param name the name of the object
+   * @return a proxy for the object bound to the specified name
+   * @throws NotBoundException if no object is bound to the specified name
+   * @throws RemoteException if the call to the registry fails
+   */
+  public Remote lookup(String name) throws RemoteException, NotBoundException {
+    FrameRegistry registry =
+      (FrameRegistry)proxyFor(registryId, new Class[] {FrameRegistry.class});
+    return registry.lookup(name);
+  }
+
+  /** Returns the local address of this connection's socket. */
+  public InetAddress getLocalAddress() {
+    return channel.socket().getLocalAddress();
+  }
+
+  /** Returns whether this connection has been closed. */
+  public boolean isClosed() { return closed; }
+
+  /**
+   * Closes this connection, causing all outstanding calls to fail.
+   */
+  public void close() {
+    close(null);
+  }
+
+  private void close(Throwable cause) {
+    List<PendingCall> failed;
+    synchronized (pending) {
+      if (closed)
+	return;
+      closed = true;
+      closeCause = cause;
+      failed = new ArrayList<PendingCall>(pending.values());
+      pending.clear();
+    }
+    try {
+      channel.close();
+    }
+    catch (IOException ioe) {}
+    dispatcher.shutdown();
+    for (PendingCall call : failed)
+      complete(call, newClosedException(), true);
+  }
+
+  private RemoteException newClosedException() {
+    return new RemoteException("connection to " + remoteAddress + " closed",
+			       closeCause);
+  }
+
+  // exporting and proxies
+
+  /**
+   * Returns the interfaces extending {@link java.rmi.Remote} that are
+   * implemented by the specified class or any of its superclasses.
+   */
+  static Class[] remoteInterfaces(Class cl) {
+    synchronized (remoteInterfaceCache) {
+      Class[] interfaces = remoteInterfaceCache.get(cl);
+      if (interfaces == null) {
+	Set<Class> interfaceSet = new LinkedHashSet<Class>();
+	for (Class curr = cl; curr != null; curr = curr.getSuperclass())
+	  addRemoteInterfaces(curr.getInterfaces(), interfaceSet);
+	interfaces = interfaceSet.toArray(new Class[interfaceSet.size()]);
+	remoteInterfaceCache.put(cl, interfaces);
+      }
+      return interfaces;
+    }
+  }
+
+  private static void addRemoteInterfaces(Class[] interfaces,
+					  Set<Class> interfaceSet) {
+    for (int i = 0; i < interfaces.length; i++) {
+      if (interfaces[i] != Remote.class &&
+	  Remote.class.isAssignableFrom(interfaces[i]))
+	interfaceSet.add(interfaces[i]);
+      addRemoteInterfaces(interfaces[i].getInterfaces(), interfaceSet);
+    }
+  }
+
+  /**
+   * Exports the specified object from this end, if it is not already
+   * exported, and returns its number.
+   */
+  int export(Object obj) {
+    synchronized (exportIds) {
+      Integer id = exportIds.get(obj);
+      if (id == null) {
+	id = Integer.valueOf(exported.size());
+	exported.add(obj);
+	exportIds.put(obj, id);
+      }
+      return id.intValue();
+    }
+  }
+
+  /** Returns the object exported from this end with the specified number. */
+  Object exported(int id) throws IOException {
+    synchronized (exportIds) {
+      if (id < 0 || id >= exported.size())
+	throw new NoSuchObjectException("no object No. " + id + " exported " +
+					"over connection to " + remoteAddress);
+      return exported.get(id);
+    }
+  }
+
+  /**
+   * If the specified object is a proxy for an object exported by the other
+   * end of this connection, returns that object's number; otherwise, returns
+   * <tt>-1</tt>.
+   */
+  int remoteIdOf(Object obj) {
+    if (!Proxy.isProxyClass(obj.getClass()))
+      return -1;
+    InvocationHandler handler = Proxy.getInvocationHandler(obj);
+    if (handler instanceof RemoteRef &&
+	((RemoteRef)handler).connection() == this)
+      return ((RemoteRef)handler).id;
+    return -1;
+  }
+
+  /**
+   * If the specified object is a proxy obtained from a frame connection,
+   * returns that connection; otherwise, returns <code>null</code>.
+   *
+   * @param obj the object whose connection is to be returned
+   * @return the connection from which the specified proxy was obtained, or
+   * <code>null</code> if the specified object is not such a proxy
+   */
+  public static FrameConnection connectionOf(Object obj) {
+    if (obj == null || !Proxy.isProxyClass(obj.getClass()))
+      return null;
+    InvocationHandler handler = Proxy.getInvocationHandler(obj);
+    if (handler instanceof RemoteRef)
+      return ((RemoteRef)handler).connection();
+    return null;
+  }
+
+  /**
+   * Returns the proxy for the object exported by the other end with the
+   * specified number, creating it if necessary.
+   */
+  Object proxyFor(int id, Class[] interfaces) {
+    synchronized (proxies) {
+      Integer idInteger = Integer.valueOf(id);
+      Object proxy = proxies.get(idInteger);
+      if (proxy == null) {
+	proxy = Proxy.newProxyInstance(interfaces[0].getClassLoader(),
+				       interfaces, new RemoteRef(id));
+	proxies.put(idInteger, proxy);
+      }
+      return proxy;
+    }
+  }
+
+  // calls
+
+  private Object call(int objectId, Method method, Object[] args)
+    throws Throwable {
+    PendingCall call = new PendingCall();
+    long callId;
+    synchronized (pending) {
+      if (closed)
+	throw newClosedException();
+      callId = nextCallId++;
+      pending.put(Long.valueOf(callId), call);
+    }
+
+    try {
+      synchronized (writeLock) {
+	frameBytes.reset();
+	frameOut.writeByte(requestFrame);
+	frameOut.writeLong(callId);
+	FrameCodec.writeVarint(frameOut, objectId);
+	writeMethod(method);
+	int numArgs = args == null ? 0 : args.length;
+	FrameCodec.writeVarint(frameOut, numArgs);
+	for (int i = 0; i < numArgs; i++)
+	  codec.writeValue(frameOut, args[i], this);
+	writeFrame();
+      }
+    }
+    catch (IOException ioe) {
+      // a partially encoded frame may have defined symbols that the other
+      // end will never see, so this connection is no longer usable
+      close(ioe);
+      throw new MarshalException("error sending call to " + method.getName() +
+				 " over connection to " + remoteAddress, ioe);
+    }
+
+    awaitResponse(call, callId, method);
+
+    if (call.exception) {
+      Throwable thrown = (Throwable)call.result;
+      if (thrown instanceof RuntimeException || thrown instanceof Error)
+	throw thrown;
+      Class[] exceptionTypes = method.getExceptionTypes();
+      for (int i = 0; i < exceptionTypes.length; i++)
+	if (exceptionTypes[i].isInstance(thrown))
+	  throw thrown;
+      throw new UnexpectedException("undeclared exception from " +
+				    method.getName(), (Exception)thrown);
+    }
+    return call.result;
+  }
+
+  private void awaitResponse(PendingCall call, long callId, Method method)
+    throws RemoteException {
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    synchronized (call) {
+      try {
+	while (!call.done) {
+	  if (timeout > 0) {
+	    long remaining = deadline - System.currentTimeMillis();
+	    if (remaining <= 0)
+	      break;
+	    call.wait(remaining);
+	  }
+	  else
+	    call.wait();
+	}
+      }
+      catch (InterruptedException ie) {
+	Thread.currentThread().interrupt();
+      }
+      if (call.done)
+	return;
+    }
+    synchronized (pending) {
+      pending.remove(Long.valueOf(callId));
+    }
+    throw new RemoteException("no response to call to " + method.getName() +
+			      " over connection to " + remoteAddress +
+			      " within " + timeout + " ms");
+  }
+
+  private void writeMethod(Method method) throws IOException {
+    Integer id = sentMethods.get(method);
+    if (id != null) {
+      FrameCodec.writeVarint(frameOut, id.intValue() + 1);
+      return;
+    }
+    sentMethods.put(method, Integer.valueOf(sentMethods.size()));
+    FrameCodec.writeVarint(frameOut, 0);
+    codec.writeName(frameOut, method.getDeclaringClass().getName());
+    codec.writeName(frameOut, method.getName());
+    Class[] paramTypes = method.getParameterTypes();
+    FrameCodec.writeVarint(frameOut, paramTypes.length);
+    for (int i = 0; i < paramTypes.length; i++)
+      codec.writeName(frameOut, paramTypes[i].getName());
+  }
+
+  private Method readMethod(DataInputStream in) throws IOException {
+    int token = FrameCodec.readVarint(in);
+    if (token > 0) {
+      if (token > receivedMethods.size())
+	throw new StreamCorruptedException("undefined method: " + token);
+      return receivedMethods.get(token - 1);
+    }
+    String className = codec.readName(in);
+    String name = codec.readName(in);
+    String[] paramTypeNames = new String[FrameCodec.readLength(in, 1)];
+    for (int i = 0; i < paramTypeNames.length; i++)
+      paramTypeNames[i] = codec.readName(in);
+    // only methods of remote interfaces may be invoked, exactly as with RMI
+    Class declaringClass = FrameCodec.remoteInterfaceForName(className);
+    Method[] methods = declaringClass.getMethods();
+    for (int i = 0; i < methods.length; i++) {
+      if (methods[i].getName().equals(name) &&
+	  methods[i].getDeclaringClass() == declaringClass &&
+	  sameTypes(methods[i].getParameterTypes(), paramTypeNames)) {
+	receivedMethods.add(methods[i]);
+	return methods[i];
+      }
+    }
+    throw new InvalidClassException(declaringClass.getName(),
+				    "no method " + name);
+  }
+
+  private static boolean sameTypes(Class[] types, String[] names) {
+    if (types.length != names.length)
+      return false;
+    for (int i = 0; i < types.length; i++)
+      if (!types[i].getName().equals(names[i]))
+	return false;
+    return true;
+  }
+
+  /** Writes the frame in <code>frameBytes</code> to the channel. */
+  private void writeFrame() throws IOException {
+    frameOut.flush();
+    if (frameBytes.size() > maxFrameLength)
+      throw new IOException("frame of " + frameBytes.size() + " bytes " +
+			    "exceeds maximum of " + maxFrameLength);
+    ByteBuffer header = ByteBuffer.allocate(4);
+    header.putInt(frameBytes.size());
+    header.flip();
+    ByteBuffer body = ByteBuffer.wrap(frameBytes.toByteArray());
+    ByteBuffer[] buffers = {header, body};
+    while (body.hasRemaining())
+      channel.write(buffers);
+  }
+
+  private void readFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      if (channel.read(buffer) < 0)
+	throw new EOFException("connection closed by " + remoteAddress);
+  }
+
+  // receiving
+
+  /**
+   * Reads frames from this connection until it is closed, dispatching
+   * requests to the pool of dispatcher threads and handing responses to
+   * the threads awaiting them.  Any error reading or decoding a frame
+   * closes this connection, since the state of its symbol and method tables
+   * is then unknown.
+   */
+  public void run() {
+    ByteBuffer header = ByteBuffer.allocate(4);
+    try {
+      while (!closed) {
+	header.clear();
+	readFully(header);
+	header.flip();
+	int length = header.getInt();
+	if (length < minFrameLength || length > maxFrameLength)
+	  throw new StreamCorruptedException("invalid frame length " +
+					     length + " from " +
+					     remoteAddress);
+	ByteBuffer body = ByteBuffer.allocate(length);
+	readFully(body);
+	DataInputStream in =
+	  new DataInputStream(new ByteArrayInputStream(body.array()));
+	int frameType = in.readUnsignedByte();
+	long callId = in.readLong();
+	if (frameType == requestFrame)
+	  dispatch(callId, in);
+	else {
+	  Object value = codec.readValue(in, this);
+	  PendingCall call;
+	  synchronized (pending) {
+	    call = pending.remove(Long.valueOf(callId));
+	  }
+	  // a call that has timed out is no longer pending
+	  if (call != null)
+	    complete(call, value, frameType == exceptionFrame);
+	}
+      }
+    }
+    catch (Throwable t) {
+      close(t);
+    }
+  }
+
+  private void complete(PendingCall call, Object result, boolean exception) {
+    synchronized (call) {
+      call.result = result;
+      call.exception = exception;
+      call.done = true;
+      call.notifyAll();
+    }
+  }
+
+  private void dispatch(final long callId, DataInputStream in)
+    throws IOException {
+    final Object target = exported(FrameCodec.readVarint(in));
+    final Method method = readMethod(in);
+    final Object[] args = new Object[FrameCodec.readLength(in, 1)];
+    for (int i = 0; i < args.length; i++)
+      args[i] = codec.readValue(in, this);
+    if (!method.getDeclaringClass().isInstance(target)) {
+      respond(callId,
+	      new NoSuchObjectException("object does not implement " +
+					method.getDeclaringClass().getName()),
+	      true);
+      return;
+    }
+    try {
+      dispatcher.execute(new Runnable() {
+	public void run() {
+	  Object result;
+	  boolean exception = false;
+	  try {
+	    result = method.invoke(target, args);
+	  }
+	  catch (InvocationTargetException ite) {
+	    result = ite.getCause();
+	    exception = true;
+	  }
+	  catch (Exception e) {
+	    result = new ServerException("error invoking " + method.getName(),
+					 e);
+	    exception = true;
+	  }
+	  respond(callId, result, exception);
+	}
+      });
+    }
+    catch (RejectedExecutionException ree) {
+      // this connection has been closed
+    }
+  }
+
+  private void respond(long callId, Object result, boolean exception) {
+    try {
+      synchronized (writeLock) {
+	frameBytes.reset();
+	frameOut.writeByte(exception ? exceptionFrame : responseFrame);
+	frameOut.writeLong(callId);
+	codec.writeValue(frameOut, result, this);
+	writeFrame();
+      }
+    }
+    catch (IOException ioe) {
+      close(ioe);
+    }
+  }
+
+  public String toString() {
+    return "connection to " + remoteAddress;
+  }
+}
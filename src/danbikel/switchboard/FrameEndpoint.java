@@ -0,0 +1,25 @@
+package danbikel.switchboard;
+
+import java.rmi.*;
+
+/**
+ * Implemented by switchboard users that accept frame connections of their
+ * own.  A user that obtains such an object from the switchboard over a
+ * frame connection gets a proxy whose calls are relayed by the switchboard;
+ * by connecting to the name returned by {@link #frameName()}, it may
+ * instead call the object directly.
+ *
+ * @see AbstractServer
+ * @see AbstractClient#getServer()
+ */
+public interface FrameEndpoint extends Remote {
+  /**
+   * Returns a name of the form
+   * <tt>frame://</tt><i>host</i><tt>:</tt><i>port</i><tt>/</tt><i>name</i>
+   * by which this object may be obtained over a direct frame connection, or
+   * <code>null</code> if this object does not accept frame connections.
+   *
+   * @see AbstractSwitchboardUser#frameNamePrefix
+   */
+  public String frameName() throws RemoteException;
+}
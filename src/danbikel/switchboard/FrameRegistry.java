@@ -0,0 +1,22 @@
+package danbikel.switchboard;
+
+import java.rmi.*;
+
+/**
+ * The registry exported by each end of a {@link FrameConnection}, from which
+ * the other end may obtain objects by name, playing the role of the RMI
+ * bootstrap registry.
+ *
+ * @see FrameConnection#lookup(String)
+ * @see FrameServer#bind(String,Remote)
+ */
+public interface FrameRegistry extends Remote {
+  /**
+   * Returns the object bound to the specified name.
+   *
+   * @param name the name of the object
+   * @return the object bound to the specified name
+   * @throws NotBoundException if no object is bound to the specified name
+   */
+  public Remote lookup(String name) throws RemoteException, NotBoundException;
+}
@@ -0,0 +1,203 @@
+package danbikel.switchboard;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.rmi.*;
+import java.util.*;
+
+/**
+ * Accepts {@link FrameConnection}s on a server socket, serving the objects
+ * bound to it by name through the registry of each connection.  This class
+ * plays the role for frame connections that the RMI bootstrap registry
+ * plays for RMI: a server binds itself under a name, and a client connects
+ * to the server's port and looks the server up by that name, via {@link
+ * FrameConnection#lookup(String)}.
+ *
+ * @see Switchboard#exportFrames(int)
+ */
+public class FrameServer implements Runnable {
+  private ServerSocketChannel serverChannel;
+  private FrameCodec codec;
+  private int timeout;
+  private Map<String, Remote> bindings = new HashMap<String, Remote>();
+  private List<FrameConnection> connections = new ArrayList<FrameConnection>();
+  private volatile boolean closed = false;
+  private Thread acceptor;
+
+  /**
+   * Constructs a new frame server listening on the specified port of all
+   * local addresses, and starts the thread that accepts connections.
+   *
+   * @param port the port on which to listen, or <tt>0</tt> for any free port
+   * @param codec a codec of the type to be used by all connections accepted
+   * by this server; a new codec for each connection is obtained via {@link
+   * FrameCodec#newCodec()}
+   * @param timeout the number of milliseconds that calls made by this server
+   * over its connections wait for responses before they fail, or
+   * <tt>0</tt> to wait indefinitely
+   * @throws IOException if the server socket cannot be bound
+   */
+  public FrameServer(int port, FrameCodec codec, int timeout)
+    throws IOException {
+    this(new InetSocketAddress(port), codec, timeout);
+  }
+
+  /**
+   * Constructs a new frame server listening on the specified address, and
+   * starts the thread that accepts connections.
+   *
+   * @param address the address on which to listen
+   * @param codec a codec of the type to be used by all connections accepted
+   * by this server; a new codec for each connection is obtained via {@link
+   * FrameCodec#newCodec()}
+   * @param timeout the number of milliseconds that calls made by this server
+   * over its connections wait for responses before they fail, or
+   * <tt>0</tt> to wait indefinitely
+   * @throws IOException if the server socket cannot be bound
+   */
+  public FrameServer(InetSocketAddress address, FrameCodec codec, int timeout)
+    throws IOException {
+    this.codec = codec;
+    this.timeout = timeout;
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().setReuseAddress(true);
+    serverChannel.socket().bind(address);
+    acceptor = new Thread(this, "FrameServer on port " + getPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /** Returns the port on which this server is listening. */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Binds the specified object to the specified name, replacing any object
+   * already bound to that name.
+   */
+  public void bind(String name, Remote obj) {
+    synchronized (bindings) {
+      bindings.put(name, obj);
+    }
+  }
+
+  /** Removes the binding for the specified name, if any. */
+  public void unbind(String name) {
+    synchronized (bindings) {
+      bindings.remove(name);
+    }
+  }
+
+  /** Accepts connections until this server is closed. */
+  public void run() {
+    while (!closed) {
+      try {
+	SocketChannel channel = serverChannel.accept();
+	FrameConnection conn =
+	  new FrameConnection(channel, codec.newCodec(), bindings, timeout);
+	synchronized (connections) {
+	  if (closed) {
+	    conn.close();
+	    break;
+	  }
+	  // forget connections that have since been closed
+	  Iterator<FrameConnection> it = connections.iterator();
+	  while (it.hasNext())
+	    if (it.next().isClosed())
+	      it.remove();
+	  connections.add(conn);
+	}
+	conn.start();
+      }
+      catch (IOException ioe) {
+	if (!closed)
+	  System.err.println(getClass().getName() + ": error accepting " +
+			     "connection: " + ioe);
+      }
+    }
+  }
+
+  /**
+   * Stops accepting connections and closes all connections accepted by this
+   * server.
+   */
+  public void close() {
+    List<FrameConnection> toClose;
+    synchronized (connections) {
+      if (closed)
+	return;
+      closed = true;
+      toClose = new ArrayList<FrameConnection>(connections);
+      connections.clear();
+    }
+    try {
+      serverChannel.close();
+    }
+    catch (IOException ioe) {}
+    for (FrameConnection conn : toClose)
+      conn.close();
+  }
+
+  /** A trivial remote interface used by {@link FrameServer#main}. */
+  public static interface Echo extends Remote {
+    /** Returns its argument. */
+    public Object echo(Object obj) throws RemoteException;
+  }
+
+  /**
+   * A loopback test harness that binds an echo server to a free port of the
+   * loopback address, connects to it and times pipelined calls made
+   * concurrently by several threads.
+   * <pre>usage: [numThreads [numCalls]]</pre>
+   */
+  public static void main(String[] args) throws Exception {
+    final int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    final int numCalls = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    InetSocketAddress loopback =
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    FrameServer server = new FrameServer(loopback, new FrameCodec(), 0);
+    server.bind("echo", new Echo() {
+      public Object echo(Object obj) { return obj; }
+    });
+    FrameConnection conn =
+      FrameConnection.connect(loopback.getAddress().getHostAddress(),
+			      server.getPort(), new FrameCodec(), 0);
+    final Echo echo = (Echo)conn.lookup("echo");
+    final Object arg = danbikel.lisp.Sexp.read("(S (NP (DT the) (NN dog)) " +
+					       "(VP (VBD barked)))");
+    Thread[] threads = new Thread[numThreads];
+    final Throwable[] failure = new Throwable[1];
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+	public void run() {
+	  try {
+	    for (int j = 0; j < numCalls; j++)
+	      if (!echo.echo(arg).equals(arg))
+		throw new IllegalStateException("echo mismatch");
+	  }
+	  catch (Throwable t) {
+	    failure[0] = t;
+	  }
+	}
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < numThreads; i++)
+      threads[i].join();
+    long elapsed = System.currentTimeMillis() - start;
+    conn.close();
+    server.close();
+    if (failure[0] != null) {
+      failure[0].printStackTrace();
+      System.exit(1);
+    }
+    int total = numThreads * numCalls;
+    System.err.println(total + " calls from " + numThreads + " threads in " +
+		       elapsed + " ms (" +
+		       (elapsed == 0 ? total : total * 1000L / elapsed) +
+		       " calls/s)");
+  }
+}
@@ -0,0 +1,27 @@
+package danbikel.switchboard;
+
+import danbikel.lisp.*;
+import java.util.*;
+
+/**
+ * The default cost function used by the switchboard, which estimates the
+ * cost of processing an object to be its length.  The length of a list,
+ * such as a sentence read as an S-expression list of words or of
+ * words with their part-of-speech tags, is its number of elements; the
+ * length of a string is its number of whitespace-delimited tokens.  All
+ * other objects have unit cost.
+ */
+public class LengthCostFunction implements ObjectCostFunction {
+  /** Constructs a new length cost function. */
+  public LengthCostFunction() {}
+
+  public double cost(Object obj) {
+    if (obj instanceof Sexp && ((Sexp)obj).isList())
+      return ((Sexp)obj).list().length();
+    if (obj instanceof Collection)
+      return ((Collection)obj).size();
+    if (obj instanceof String)
+      return new StringTokenizer((String)obj).countTokens();
+    return 1;
+  }
+}
@@ -14,12 +14,23 @@ import java.io.Serializable;
  * @see Switchboard
  */
 public class NumberedObject implements Comparable, Serializable {
+  // the value computed for the original version of this class, so that
+  // existing switchboard log files remain readable
+  private static final long serialVersionUID = 3291158852776357606L;
+
   // data members
   private int number;
   private int fileId;
   private IntPair uid = null;
   private Object obj;
   private boolean processed;
+  // the estimated cost of processing obj, used only by the switchboard
+  private transient double cost;
+  // when the switchboard first handed out obj, used only by the switchboard
+  private transient long handOutTime;
+  // the number of objects in the batch in which obj was handed out, used
+  // only by the switchboard
+  private transient int batchSize;
 
   /** Constructs a new <code>NumberedObject</code> object with the
       specified object, processed flag and object number. */
@@ -57,6 +68,15 @@ public class NumberedObject implements Comparable, Serializable {
   /** Sets the file ID number of this <code>NumberedObject</code>. */
   void setFileId(int fileId) { this.fileId = fileId; }
 
+  double cost() { return cost; }
+  void setCost(double cost) { this.cost = cost; }
+
+  long handOutTime() { return handOutTime; }
+  void setHandOutTime(long handOutTime) { this.handOutTime = handOutTime; }
+
+  int batchSize() { return batchSize; }
+  void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
   IntPair uid() {
     if (uid == null)
       uid = new IntPair(fileId, number);
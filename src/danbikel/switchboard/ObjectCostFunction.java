@@ -0,0 +1,23 @@
+package danbikel.switchboard;
+
+/**
+ * Specifies a method for estimating the relative cost of processing an
+ * object read by the switchboard.  When the switchboard schedules objects by
+ * cost, it hands out the most expensive objects of its read-ahead window
+ * first, so that the last objects of a run are cheap ones.  Costs need only
+ * be comparable with one another; they are in no particular unit.
+ *
+ * @see SwitchboardRemote#costFunction
+ * @see SwitchboardRemote#scheduleWindow
+ * @see LengthCostFunction
+ */
+public interface ObjectCostFunction {
+  /**
+   * Returns an estimate of the cost of processing the specified object,
+   * which must be non-negative.
+   *
+   * @param obj an object read by the switchboard from an input file
+   * @return an estimate of the cost of processing the specified object
+   */
+  public double cost(Object obj);
+}
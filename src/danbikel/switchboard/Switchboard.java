@@ -9,6 +9,8 @@ import java.net.MalformedURLException;
 import java.util.*;
 import java.rmi.*;
 import java.rmi.server.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * The switchboard serves as the central "hub" in a distributed RMI
@@ -61,6 +63,16 @@ public class Switchboard
    */
   public static final String logFilenameSuffix = ".log";
 
+  /**
+   * The suffix added to an output file name to form the name of the file to
+   * which sorted output is streamed while its input file is being
+   * processed.  When processing is complete, this file is renamed to the
+   * output file name.  The value of this constant is <tt>".partial"</tt>.
+   *
+   * @see SwitchboardRemote#reorderBufferSize
+   */
+  public static final String partialFilenameSuffix = ".partial";
+
   /**
    * The default filename to use for printing out messages.  If this
    * default name is used, the messages file will be created in the
@@ -107,6 +119,68 @@ public class Switchboard
    */
   public static final boolean defaultSortOutput = true;
 
+  /**
+   * The default size of the read-ahead window used to schedule objects by
+   * cost, which is <code>0</code>, meaning that objects are handed out in
+   * the order in which they appear in their input file.
+   *
+   * @see SwitchboardRemote#scheduleWindow
+   */
+  public static final int defaultScheduleWindow = 0;
+
+  /**
+   * The default maximum number of out-of-order objects held in memory when
+   * streaming sorted output, which is <code>0</code>, meaning that sorted
+   * output is not streamed but written after all objects of an input file
+   * have been processed.
+   *
+   * @see SwitchboardRemote#reorderBufferSize
+   */
+  public static final int defaultReorderBufferSize = 0;
+
+  /**
+   * The default factor by which an object must have been out longer than the
+   * median processing time before it is speculatively duplicated, which is
+   * <code>0</code>, meaning that objects are never duplicated.
+   *
+   * @see SwitchboardRemote#speculationFactor
+   */
+  public static final double defaultSpeculationFactor = 0.0;
+
+  /**
+   * The default port on which the switchboard accepts frame connections,
+   * which is <code>0</code>, meaning that the switchboard is available only
+   * via RMI.
+   *
+   * @see SwitchboardRemote#framePort
+   */
+  public static final int defaultFramePort = 0;
+
+  /**
+   * The name to which the switchboard is bound in the registry of each frame
+   * connection, which is <tt>"switchboard"</tt>.
+   *
+   * @see #exportFrames(int)
+   */
+  public static final String frameBindingName = "switchboard";
+
+  // the number of recent processing times from which to compute the median
+  private static final int numProcessingTimeSamples = 1001;
+  // the minimum number of processing times needed before speculating
+  private static final int minSpeculationSamples = 10;
+
+  /**
+   * Orders the objects of a read-ahead window from most to least expensive,
+   * breaking ties by object number.
+   */
+  private static final Comparator<NumberedObject> costOrder =
+    new Comparator<NumberedObject>() {
+      public int compare(NumberedObject o1, NumberedObject o2) {
+	int cmp = Double.compare(o2.cost(), o1.cost());
+	return cmp != 0 ? cmp : o1.number() - o2.number();
+      }
+    };
+
   /**
    * The default port on which to receive RMI calls, which is 0, indicating
    * an anonymous port.  Unlike the RMI API, we encourage the use of this
@@ -221,9 +295,203 @@ public class Switchboard
    */
   protected static int defaultBufSize = 8192;
 
+  /**
+   * The maximum number of sorted runs of out-of-order objects that the
+   * buffer used when streaming sorted output holds open at once; when
+   * spilling objects would exceed this number, all runs are merged into a
+   * single run.
+   * <p>
+   * The value of this data member is <code>16</code>.
+   *
+   * @see SwitchboardRemote#reorderBufferSize
+   */
+  private static final int maxReorderRuns = 16;
+
 
   // inner classes
 
+  /**
+   * Writes processed objects to an output file in order of their numbers,
+   * as soon as all lower-numbered objects have been written, regardless of
+   * the order in which the objects arrive.  Objects that arrive early are
+   * held in memory until there are more than a fixed number of them, at
+   * which point they are all spilled to a temporary file as a sorted run.
+   * Runs are read back, one object at a time, as the objects they contain
+   * become the next ones to write.  Since each run holds a file open, the
+   * runs are merged into a single run whenever there are more than {@link
+   * #maxReorderRuns} of them.  Run files are deleted as soon as they have
+   * been read or merged, and when the buffer is closed.
+   */
+  private class ReorderBuffer {
+    // inner class
+    private class Run {
+      File file;
+      ObjectReader reader;
+      NumberedObject head;
+
+      Run(File file) throws IOException {
+	this.file = file;
+	try {
+	  reader = numObjReaderFactory.get(file.getPath(), encoding, bufSize);
+	  advance();
+	}
+	catch (IOException ioe) {
+	  discard();
+	  throw ioe;
+	}
+      }
+
+      void advance() throws IOException {
+	head = (NumberedObject)reader.readObject();
+	if (head == null)
+	  discard();
+      }
+
+      /** Closes this run's reader, if any, and deletes its file. */
+      void discard() {
+	try {
+	  if (reader != null)
+	    reader.close();
+	}
+	catch (IOException ioe) {}
+	file.delete();
+      }
+    }
+
+    // data members
+    private ObjectWriter out;
+    private int maxBuffered;
+    private int nextNumber = 0;
+    private SortedMap<Integer, NumberedObject> buffered =
+      new TreeMap<Integer, NumberedObject>();
+    private PriorityQueue<Run> runs =
+      new PriorityQueue<Run>(11, new Comparator<Run>() {
+	public int compare(Run r1, Run r2) {
+	  return r1.head.number() - r2.head.number();
+	}
+      });
+
+    ReorderBuffer(ObjectWriter out, int maxBuffered) {
+      this.out = out;
+      this.maxBuffered = maxBuffered;
+    }
+
+    /** Returns the number of the next object to be written. */
+    int nextNumber() { return nextNumber; }
+
+    /**
+     * Adds the specified processed object, writing it and as many of the
+     * objects that follow it as are available if it is the next object to
+     * be written.  An object whose number has already been written is
+     * ignored.
+     */
+    void add(NumberedObject numObj) throws IOException {
+      int number = numObj.number();
+      if (number < nextNumber)
+	return;
+      if (number > nextNumber) {
+	buffered.put(number, numObj);
+	if (buffered.size() > maxBuffered)
+	  spill();
+	return;
+      }
+      write(numObj);
+      while (true) {
+	if (!buffered.isEmpty() && buffered.firstKey() <= nextNumber) {
+	  NumberedObject next = buffered.remove(buffered.firstKey());
+	  if (next.number() == nextNumber)
+	    write(next);
+	}
+	else if (!runs.isEmpty() && runs.peek().head.number() <= nextNumber) {
+	  Run run = runs.poll();
+	  NumberedObject next = run.head;
+	  if (next.number() == nextNumber)
+	    write(next);
+	  run.advance();
+	  if (run.head != null)
+	    runs.add(run);
+	}
+	else
+	  break;
+      }
+    }
+
+    private void write(NumberedObject numObj) throws IOException {
+      out.writeObject(numObj.get());
+      nextNumber++;
+    }
+
+    /** Writes all buffered objects to a new run and clears the buffer. */
+    private void spill() throws IOException {
+      File file = File.createTempFile("switchboard-reorder-", ".log");
+      ObjectWriter writer = null;
+      try {
+	writer = numObjWriterFactory.get(new FileOutputStream(file), encoding,
+					 bufSize, false, true);
+	for (NumberedObject numObj : buffered.values())
+	  writer.writeObject(numObj);
+	writer.close();
+	writer = null;
+      }
+      finally {
+	if (writer != null) {
+	  try { writer.close(); } catch (IOException ioe) {}
+	  file.delete();
+	}
+      }
+      if (verbose)
+	log("spilled " + buffered.size() + " out-of-order objects to " + file);
+      buffered.clear();
+      runs.add(new Run(file));
+      if (runs.size() > maxReorderRuns)
+	mergeRuns();
+    }
+
+    /**
+     * Merges all runs into a single run, so that only one file is held open.
+     * The files of the merged runs are deleted as they are exhausted.
+     */
+    private void mergeRuns() throws IOException {
+      File file = File.createTempFile("switchboard-reorder-", ".log");
+      ObjectWriter writer = null;
+      int numRuns = runs.size();
+      try {
+	writer = numObjWriterFactory.get(new FileOutputStream(file), encoding,
+					 bufSize, false, true);
+	while (!runs.isEmpty()) {
+	  Run run = runs.poll();
+	  writer.writeObject(run.head);
+	  run.advance();
+	  if (run.head != null)
+	    runs.add(run);
+	}
+	writer.close();
+	writer = null;
+      }
+      finally {
+	if (writer != null) {
+	  try { writer.close(); } catch (IOException ioe) {}
+	  file.delete();
+	}
+      }
+      if (verbose)
+	log("merged " + numRuns + " runs of out-of-order objects to " + file);
+      runs.add(new Run(file));
+    }
+
+    /**
+     * Closes the output file and discards any runs, which are empty unless
+     * some objects were never added.
+     */
+    void close() throws IOException {
+      for (Run run : runs)
+	run.discard();
+      runs.clear();
+      buffered.clear();
+      out.close();
+    }
+  }
+
   private class IOData implements Runnable {
     // data members
 
@@ -238,12 +506,18 @@ public class Switchboard
     // log file
     String logName;
     ObjectWriter log;
+    // when streaming sorted output, the buffer that writes to the output file
+    ReorderBuffer reorder;
 
     // next object to be returned by nextObject method
     NumberedObject nextNumberedObject;
+    // when scheduling by cost, the objects read ahead but not yet handed out
+    SortedSet<NumberedObject> window;
 
     // state of object processing
     private int currObjectNum = 0;
+    // the numbers of the objects logged during this run
+    private BitSet logged = new BitSet();
     private int numObjectsProcessed = 0;
     @SuppressWarnings({"UnusedDeclaration"})
     private int numObjectsProcessedThisRun = 0;
@@ -284,6 +558,8 @@ public class Switchboard
 
     void open() throws IOException {
       open = true;
+      if (scheduleWindow > 0)
+	window = new TreeSet<NumberedObject>(costOrder);
       // if clobber is false and output file exists, then file processing is
       // effectively done (because it was done in a prior run)
       if (outName != null) {
@@ -341,6 +617,19 @@ public class Switchboard
 	  OutputStream logOS = new FileOutputStream(logName, append);
 	  log = numObjWriterFactory.get(logOS, encoding, bufSize,
 					append, emptyFile);
+
+	  // objects logged in a previous run are only in the log file, so
+	  // they can only be sorted into the output after processing is done
+	  if (reorderBufferSize > 0 && sortOutput && outName != null &&
+	      emptyFile) {
+	    String partialName = outName + partialFilenameSuffix;
+	    msg = className + ": streaming sorted output to \"" + partialName +
+		  "\"";
+	    log(msg);
+	    ObjectWriter partialOut =
+	      objWriterFactory.get(partialName, encoding, bufSize, false);
+	    reorder = new ReorderBuffer(partialOut, reorderBufferSize);
+	  }
 	}
       }
     }
@@ -370,11 +659,32 @@ public class Switchboard
     /**
      * Reads the next object from the input file, constructs a NumberedObject
      * (with the appropriate number) and sets the {@link #nextNumberedObject}
-     * data member.
+     * data member.  When scheduling by cost, this method instead reads
+     * objects until the read-ahead {@link #window} is full.
      *
      * @param clientId the ID number of the client calling this method
      */
     void readNextObject(int clientId) {
+      if (window == null) {
+	nextNumberedObject = readNumberedObject(clientId);
+	return;
+      }
+      while (moreObjects && window.size() < scheduleWindow) {
+	NumberedObject numObj = readNumberedObject(clientId);
+	if (numObj != null)
+	  window.add(numObj);
+      }
+    }
+
+    /**
+     * Reads the next object from the input file and returns it as a
+     * NumberedObject with the appropriate number and estimated cost, or
+     * returns <code>null</code> and notes that there are no more objects if
+     * the end of the file has been reached.
+     *
+     * @param clientId the ID number of the client calling this method
+     */
+    private NumberedObject readNumberedObject(int clientId) {
       Object nextObject = null;
       try { nextObject = in.readObject(); }
       catch (IOException ioe) {
@@ -389,7 +699,7 @@ public class Switchboard
       }
       if (nextObject == null) {
 	moreObjects = false;
-	nextNumberedObject = null;
+	return null;
 	/*
 	if (verbose) {
 	  String msg = "IOData.readNextObject: no more objects";
@@ -412,23 +722,43 @@ public class Switchboard
 	    log(msg, clientId);
 	}
 	*/
-	nextNumberedObject =
+	NumberedObject numObj =
 	  new NumberedObject(currObjectNum++, id, false, nextObject);
+	if (window != null)
+	  numObj.setCost(costFunction.cost(nextObject));
+	return numObj;
       }
     }
 
     /**
-     * Gets the next numbered object from the input file or stream.
+     * Gets the next numbered object from the input file or stream.  When
+     * scheduling by cost, this is the object of the read-ahead window at the
+     * specified position in order of decreasing cost, or the least
+     * expensive object if the window has no such position.
      *
      * @param clientId the ID of the client requesting the object (used
      * by this method only for error-reporting purposes)
+     * @param rank the number of more expensive objects to leave in the
+     * read-ahead window for faster clients; ignored when not scheduling by
+     * cost
      * @return the next object to be processed from the file represented by
      * this <code>IOData</code> object, or <code>null</code> if there are
      * no more objects to process (all objects in the file have already
      * been doled out to clients)
      */
     @SuppressWarnings({"UnusedDeclaration"})
-    synchronized NumberedObject nextObject(int clientId) {
+    synchronized NumberedObject nextObject(int clientId, int rank) {
+      if (window != null) {
+	if (window.isEmpty())
+	  return null;
+	Iterator<NumberedObject> it = window.iterator();
+	NumberedObject retval = it.next();
+	for (int i = 0; i < rank && it.hasNext(); i++)
+	  retval = it.next();
+	it.remove();
+	readNextObject(clientId);
+	return retval;
+      }
       /*
       if (!moreObjects) {
 	notifyIfDone();
@@ -452,7 +782,21 @@ public class Switchboard
       return retval;
     }
 
-    synchronized void writeToLog(NumberedObject numObj) throws RemoteException {
+    /**
+     * Hands the specified processed object to all consumers, writes it to the
+     * log file and, if streaming sorted output, to the reorder buffer, unless
+     * an object with the same number has already been logged during this run,
+     * as may happen when an object has been speculatively duplicated.
+     *
+     * @param numObj the processed object
+     * @return whether the specified object was logged, which is
+     * <code>false</code> if it is a duplicate
+     */
+    synchronized boolean writeToLog(NumberedObject numObj)
+      throws RemoteException {
+      if (logged.get(numObj.number()))
+	return false;
+      logged.set(numObj.number());
       synchronized (consumers) {
 	if (consumers.size() > 0) {
 	  for (Consumer consumer : consumers) {
@@ -469,8 +813,18 @@ public class Switchboard
 		     ioe + ")");
 	}
       }
+      if (reorder != null) {
+	try {
+	  reorder.add(numObj);
+	}
+	catch (IOException ioe) {
+	  logFailure("putObject: error writing " + numObj + " to output " +
+		     "file! (" + ioe + ")");
+	}
+      }
       numObjectsProcessed++;
       numObjectsProcessedThisRun++;
+      return true;
     }
 
     /**
@@ -502,7 +856,7 @@ public class Switchboard
      *         file
      */
     synchronized boolean moreObjectsToRead() {
-      return moreObjects;
+      return moreObjects || (window != null && !window.isEmpty());
     }
 
     /**
@@ -530,6 +884,11 @@ public class Switchboard
       if (interrupted)
 	return;
 
+      if (reorder != null) {
+	finishStreamingOutput();
+	return;
+      }
+
       if (Switchboard.this.verbose)
 	System.out.println(Switchboard.className +
 			   ": processing on \"" + inName + "\" finished; " +
@@ -594,6 +953,47 @@ public class Switchboard
       closeWriter(out, outName);
     }
 
+    /**
+     * Closes the output file to which sorted output has been streamed and
+     * renames it to the output file name, once processing is done.
+     */
+    private void finishStreamingOutput() {
+      String partialName = outName + partialFilenameSuffix;
+      boolean complete = reorder.nextNumber() == currObjectNum;
+      if (!complete) {
+	String errMsg = Switchboard.className + ": error: only " +
+	  reorder.nextNumber() + " of " + currObjectNum + " objects were " +
+	  "written to \"" + partialName + "\"";
+	logFailure(errMsg);
+	System.err.println(errMsg);
+      }
+      try {
+	reorder.close();
+      }
+      catch (IOException ioe) {
+	String errMsg = Switchboard.className +
+	  ": error closing output stream for file \"" + partialName + "\"" +
+	  "(" + ioe + ")";
+	logFailure(errMsg);
+	System.err.println(errMsg);
+	complete = false;
+      }
+      if (!complete)
+	return;
+      File outFile = new File(outName);
+      outFile.delete();
+      if (!new File(partialName).renameTo(outFile)) {
+	String errMsg = Switchboard.className + ": error: couldn't rename \"" +
+	  partialName + "\" to \"" + outName + "\"";
+	logFailure(errMsg);
+	System.err.println(errMsg);
+      }
+      else if (Switchboard.this.verbose)
+	System.out.println(Switchboard.className +
+			   ": processing on \"" + inName + "\" finished; " +
+			   "output is in \"" + outName + "\"");
+    }
+
     private void closeReader(ObjectReader reader, String name) {
       if (reader == null) {
 	return;
@@ -882,6 +1282,13 @@ public class Switchboard
     // a map from object uid's to NumberedObject objects
     private Map<IntPair, NumberedObject> objectsInProgress;
     private Client client;
+    // the total estimated cost of, and the total time this client took to
+    // process, the objects it has put back whose costs were estimated
+    private double totalCost;
+    private long totalMillis;
+    // the uid's of objects this client holds whose results are no longer
+    // needed, because a duplicate was processed first by another client
+    private Set<IntPair> abandoned = new HashSet<IntPair>();
 
     // constructor
     private ClientData(int id, String host, Client client) {
@@ -900,6 +1307,27 @@ public class Switchboard
 
     protected SwitchboardUser switchboardUser() { return client; }
 
+    /**
+     * Adds the specified object, which this client processed in the
+     * specified number of milliseconds, to the measurements of the speed of
+     * this client.
+     */
+    void addProcessingTime(NumberedObject obj, long millis) {
+      if (obj.cost() > 0) {
+	totalCost += obj.cost();
+	totalMillis += millis;
+      }
+    }
+
+    /**
+     * Returns the number of milliseconds this client has taken per unit of
+     * estimated cost, or <tt>NaN</tt> if it has not yet put back an object
+     * whose cost was estimated.
+     */
+    double millisPerCost() {
+      return totalCost > 0 ? totalMillis / totalCost : Double.NaN;
+    }
+
     protected void cleanup() {
       cleanup(true);
     }
@@ -926,8 +1354,11 @@ public class Switchboard
 	      serverData.clients.remove(thisIdInteger);
 	  }
 
-	  // push all objects handed out to the client back on toProcess deque
+	  // push all objects handed out to the client back on toProcess deque,
+	  // except those of which another client is processing a duplicate
 	  for (NumberedObject numObj : objectsInProgress.values()) {
+	    if (heldByAnyClient(numObj.uid()))
+	      continue;
 	    if (verbose)
 	      log("cleanup: pushing object No. " + numObj.uid(), id);
 	    Switchboard.this.toProcess.addLast(numObj);
@@ -1124,6 +1555,17 @@ public class Switchboard
   private int keepAliveInterval;
   private boolean serverDeathKillClients;
   private boolean sortOutput;
+  private int scheduleWindow;
+  private int reorderBufferSize;
+  private double speculationFactor;
+  private int framePort;
+  private int socketTimeout;
+  private FrameCodec frameCodec = new FrameCodec();
+  private FrameServer frameServer;
+  // a circular buffer of the most recent processing times
+  private long[] recentProcessingTimes = new long[numProcessingTimeSamples];
+  private int numProcessingTimes = 0;
+  private ObjectCostFunction costFunction;
 
   // other data
   /** A timer object used to collect stats on object processing; set
@@ -1686,6 +2128,10 @@ public class Switchboard
     this.keepAliveMaxRetries = defaultKeepAliveMaxRetries;
     this.serverDeathKillClients = defaultServerDeathKillClients;
     this.sortOutput = defaultSortOutput;
+    this.scheduleWindow = defaultScheduleWindow;
+    this.reorderBufferSize = defaultReorderBufferSize;
+    this.speculationFactor = defaultSpeculationFactor;
+    this.framePort = defaultFramePort;
 
     this.msgs = msgs;
 
@@ -1841,6 +2287,59 @@ public class Switchboard
       setEncoding(encoding);
     export();
     Naming.rebind(bindingName, this);
+    if (framePort > 0) {
+      try {
+	exportFrames(framePort);
+      }
+      catch (IOException ioe) {
+	throw new ExportException("couldn't accept frame connections on " +
+				  "port " + framePort, ioe);
+      }
+    }
+  }
+
+  /**
+   * Sets the codec used to encode values sent over frame connections, which
+   * must be invoked before {@link #exportFrames(int)} in order to have any
+   * effect.  By default, the switchboard uses an instance of
+   * {@link FrameCodec}; a subclass of <code>FrameCodec</code> may encode the
+   * objects being processed more compactly.
+   *
+   * @param codec the codec of which each frame connection is to use a new
+   * instance, obtained via {@link FrameCodec#newCodec()}
+   */
+  public void setFrameCodec(FrameCodec codec) {
+    this.frameCodec = codec;
+  }
+
+  /**
+   * Begins accepting frame connections on the specified port, binding this
+   * switchboard to the name {@link #frameBindingName} in the registry of
+   * each connection.  Switchboard users may then obtain this switchboard
+   * via a name of the form
+   * <tt>frame://</tt><i>host</i><tt>:</tt><i>port</i>, and all their calls
+   * to the switchboard, the switchboard's calls back to them and their
+   * calls to any server obtained from the switchboard are carried over the
+   * one connection.  This switchboard remains available via RMI.
+   * This method is called by {@link #bind(Properties,String)} when the
+   * {@link SwitchboardRemote#framePort} setting is greater than <tt>0</tt>.
+   *
+   * @param port the port on which to accept frame connections, or
+   * <tt>0</tt> for any free port
+   * @return the port on which frame connections are accepted
+   * @throws IOException if the port cannot be bound
+   *
+   * @see FrameServer
+   * @see AbstractSwitchboardUser#getSwitchboard(String,boolean,PrintWriter)
+   */
+  public synchronized int exportFrames(int port) throws IOException {
+    if (frameServer == null) {
+      frameServer = new FrameServer(port, frameCodec, socketTimeout);
+      frameServer.bind(frameBindingName, this);
+      if (verbose)
+	log("accepting frame connections on port " + frameServer.getPort());
+    }
+    return frameServer.getPort();
   }
 
 
@@ -2034,6 +2533,11 @@ public class Switchboard
    * @see SwitchboardRemote#keepAliveInterval
    * @see SwitchboardRemote#keepAliveMaxRetries
    * @see SwitchboardRemote#serverDeathKillClients
+   * @see SwitchboardRemote#scheduleWindow
+   * @see SwitchboardRemote#costFunction
+   * @see SwitchboardRemote#reorderBufferSize
+   * @see SwitchboardRemote#speculationFactor
+   * @see SwitchboardRemote#framePort
    */
   public void setSettings(Properties settings) {
     this.settings = settings;
@@ -2042,6 +2546,10 @@ public class Switchboard
     setKeepAliveMaxRetries();
     setServerDeathKillClients();
     setSortOutput();
+    setReorderBufferSize();
+    setScheduling();
+    setSpeculationFactor();
+    setFramePort();
     setDisableHttp();
   }
 
@@ -2054,6 +2562,7 @@ public class Switchboard
 	timeout = Integer.parseInt(socketTimeoutStr);
     }
     tsf.setTimeout(timeout, timeout);
+    socketTimeout = timeout;
   }
 
   private void setKeepAliveInterval() {
@@ -2092,6 +2601,78 @@ public class Switchboard
     }
   }
 
+  private void setReorderBufferSize() {
+    if (settings != null) {
+      String reorderBufferSizeStr =
+	settings.getProperty(SwitchboardRemote.reorderBufferSize);
+      if (reorderBufferSizeStr != null)
+	reorderBufferSize = Integer.parseInt(reorderBufferSizeStr);
+    }
+  }
+
+  private void setSpeculationFactor() {
+    if (settings != null) {
+      String speculationFactorStr =
+	settings.getProperty(SwitchboardRemote.speculationFactor);
+      if (speculationFactorStr != null)
+	speculationFactor = Double.parseDouble(speculationFactorStr);
+    }
+  }
+
+  private void setFramePort() {
+    if (settings != null) {
+      String framePortStr = settings.getProperty(SwitchboardRemote.framePort);
+      if (framePortStr != null)
+	framePort = Integer.parseInt(framePortStr);
+    }
+  }
+
+  private void setScheduling() {
+    if (settings != null) {
+      String scheduleWindowStr =
+	settings.getProperty(SwitchboardRemote.scheduleWindow);
+      if (scheduleWindowStr != null)
+	scheduleWindow = Integer.parseInt(scheduleWindowStr);
+    }
+    if (scheduleWindow <= 0)
+      return;
+    String costFunctionClass = settings == null ? null :
+      settings.getProperty(SwitchboardRemote.costFunction);
+    if (costFunctionClass == null)
+      costFunctionClass = LengthCostFunction.class.getName();
+    try {
+      Class costFunctionCls = Class.forName(costFunctionClass);
+      Constructor cons = costFunctionCls.getDeclaredConstructor();
+      costFunction = (ObjectCostFunction)cons.newInstance();
+    }
+    catch (ClassNotFoundException cnfe) {
+      useDefaultCostFunction(costFunctionClass, cnfe);
+    }
+    catch (NoSuchMethodException nsme) {
+      useDefaultCostFunction(costFunctionClass, nsme);
+    }
+    catch (InstantiationException ie) {
+      useDefaultCostFunction(costFunctionClass, ie);
+    }
+    catch (IllegalAccessException iae) {
+      useDefaultCostFunction(costFunctionClass, iae);
+    }
+    catch (InvocationTargetException ite) {
+      useDefaultCostFunction(costFunctionClass, ite.getTargetException());
+    }
+    catch (ClassCastException cce) {
+      useDefaultCostFunction(costFunctionClass, cce);
+    }
+  }
+
+  private void useDefaultCostFunction(String costFunctionClass, Throwable t) {
+    String errMsg = className + ": error: couldn't create cost function " +
+      costFunctionClass + " (" + t + "); using default";
+    logFailure(errMsg);
+    System.err.println(errMsg);
+    costFunction = new LengthCostFunction();
+  }
+
   private void setDisableHttp() {
     if (settings != null) {
       String disableHttpStr =
@@ -2363,18 +2944,85 @@ public class Switchboard
   NumberedObject getObjectFromCurrFileAndAssignToClient(ClientData clientData) {
     NumberedObject numObj = null;
     if (currFile != null) {
-      numObj = currFile.nextObject(clientData.id);
+      int rank = scheduleWindow > 0 ? speedRank(clientData) : 0;
+      numObj = currFile.nextObject(clientData.id, rank);
       if (numObj != null)
 	clientData.objectsInProgress.put(numObj.uid(), numObj);
     }
     return numObj;
   }
 
+  /**
+   * Returns the number of registered clients that have been measured to be
+   * faster than the specified client, or <tt>0</tt> if the specified client
+   * has not yet been measured.  The caller must hold this switchboard's
+   * lock.
+   *
+   * @see ClientData#millisPerCost()
+   */
+  private int speedRank(ClientData clientData) {
+    double millisPerCost = clientData.millisPerCost();
+    if (Double.isNaN(millisPerCost))
+      return 0;
+    int rank = 0;
+    for (ClientData other : clients.values())
+      if (other.millisPerCost() < millisPerCost)
+	rank++;
+    return rank;
+  }
+
   public synchronized NumberedObject nextObject(int clientId)
     throws RemoteException {
 
     ClientData clientData = checkValidClient("nextObject", clientId);
+    NumberedObject numObj = nextUnassignedObject(clientData);
+    if (numObj != null)
+      numObj.setBatchSize(1);
+    else if (speculationFactor > 0)
+      numObj = speculativeObject(clientData);
+    return numObj;
+  }
+
+  public synchronized List<NumberedObject> nextObjects(int clientId,
+						       int maxObjects)
+    throws RemoteException {
+
+    ClientData clientData = checkValidClient("nextObjects", clientId);
+
+    List<NumberedObject> objs = new ArrayList<NumberedObject>(maxObjects);
+    for (int i = 0; i < maxObjects; i++) {
+      NumberedObject numObj = nextUnassignedObject(clientData);
+      if (numObj == null)
+	break;
+      objs.add(numObj);
+    }
+    int batchSize = objs.size();
+    for (int i = 0; i < batchSize; i++)
+      objs.get(i).setBatchSize(batchSize);
+    if (speculationFactor > 0) {
+      while (objs.size() < maxObjects) {
+	NumberedObject numObj = speculativeObject(clientData);
+	if (numObj == null)
+	  break;
+	objs.add(numObj);
+      }
+    }
+    return objs;
+  }
 
+  /**
+   * Gets the next object to be processed that is not yet assigned to any
+   * client, assigns it to the specified client and records its hand-out
+   * time.  The caller must hold this switchboard's lock, and must set the
+   * size of the batch in which the object is handed out.
+   *
+   * @param clientData the client to which to assign the object
+   * @return the newly-assigned object, or <code>null</code> if there are no
+   * unassigned objects to hand out
+   */
+  private NumberedObject nextUnassignedObject(ClientData clientData)
+    throws RemoteException {
+    int clientId = clientData.id;
     NumberedObject numObj = null;
     if (toProcess.size() == 0) {
       // we've got to grab something from a file
@@ -2396,6 +3044,9 @@ public class Switchboard
 	    clientId);
     }
 
+    if (numObj != null)
+      numObj.setHandOutTime(System.currentTimeMillis());
+
     // start timer if this is the first object of switchboard's life
     if (timer == null)
       timer = new Time();
@@ -2403,6 +3054,84 @@ public class Switchboard
     return numObj;
   }
 
+  /**
+   * Returns whether any registered client is processing the object with
+   * the specified uid.  The caller must hold this switchboard's lock.
+   */
+  private boolean heldByAnyClient(IntPair uid) {
+    for (ClientData clientData : clients.values())
+      if (clientData.objectsInProgress.containsKey(uid))
+	return true;
+    return false;
+  }
+
+  /**
+   * Returns the median of the most recent processing times reported to
+   * {@link #putObject(int,NumberedObject,long)}.  The caller must hold this
+   * switchboard's lock.
+   */
+  private long medianProcessingTime() {
+    int n = Math.min(numProcessingTimes, recentProcessingTimes.length);
+    long[] times = new long[n];
+    System.arraycopy(recentProcessingTimes, 0, times, 0, n);
+    Arrays.sort(times);
+    return times[n / 2];
+  }
+
+  /**
+   * Finds the object that is most overdue, among those that have been out
+   * for more than {@link #speculationFactor} times the median processing
+   * time, and assigns a duplicate of it to the specified client, unless
+   * the object has already been duplicated.  Since a client processes a
+   * batch of objects one after another and returns all of their results
+   * together, no object of a batch of size <i>n</i> is expected back until
+   * <i>n</i> processing times have elapsed, and so the time it may be out
+   * before it is duplicated is scaled by <i>n</i>.  The caller must hold
+   * this switchboard's lock.
+   *
+   * @return the object that is now also assigned to the specified client, or
+   * <code>null</code> if there is no object to duplicate
+   *
+   * @see SwitchboardRemote#speculationFactor
+   */
+  private NumberedObject speculativeObject(ClientData clientData) {
+    if (numProcessingTimes < minSpeculationSamples)
+      return null;
+    long now = System.currentTimeMillis();
+    long median = medianProcessingTime();
+    long threshold = (long)(speculationFactor * median);
+
+    Map<IntPair, Integer> numHolders = new HashMap<IntPair, Integer>();
+    for (ClientData other : clients.values()) {
+      for (IntPair uid : other.objectsInProgress.keySet()) {
+	Integer count = numHolders.get(uid);
+	numHolders.put(uid, count == null ? 1 : count + 1);
+      }
+    }
+    NumberedObject oldest = null;
+    long oldestDeadline = 0;
+    for (ClientData other : clients.values()) {
+      if (other == clientData)
+	continue;
+      for (NumberedObject numObj : other.objectsInProgress.values()) {
+	long deadline = numObj.handOutTime() + threshold * numObj.batchSize();
+	if (numHolders.get(numObj.uid()) > 1 || now <= deadline)
+	  continue;
+	if (oldest == null || deadline < oldestDeadline) {
+	  oldest = numObj;
+	  oldestDeadline = deadline;
+	}
+      }
+    }
+    if (oldest != null) {
+      clientData.objectsInProgress.put(oldest.uid(), oldest);
+      log("speculatively handing out object " + oldest.uid() + ", out for " +
+	  Time.elapsedTime(now - oldest.handOutTime()) + " (median " +
+	  "processing time: " + Time.elapsedTime(median) + ")", clientData.id);
+    }
+    return oldest;
+  }
+
   /**
    * Registers the specified consumer of processed objects with this
    * switchboard.  It is guaranteed that the consumer's
@@ -2444,7 +3173,15 @@ public class Switchboard
       clientData = checkValidClient("putObject", clientId);
       objectId = obj.uid();
       if (clientData.objectsInProgress.containsKey(objectId)) {
-	clientData.objectsInProgress.remove(objectId);
+	NumberedObject handedOut =
+	  clientData.objectsInProgress.remove(objectId);
+	clientData.addProcessingTime(handedOut, millis);
+      }
+      else if (clientData.abandoned.remove(objectId)) {
+	if (verbose)
+	  log("putObject: discarding duplicate result for object No. " +
+	      objectId, clientId);
+	return;
       }
       else {
 	String errMsg =
@@ -2470,9 +3207,24 @@ public class Switchboard
 	  logFailure(errMsg, clientId);
 	throw new RemoteException(errMsg);
       }
+
+      // the first result for an object wins: any other client processing a
+      // duplicate of it will have its result discarded
+      for (ClientData other : clients.values()) {
+	if (other.objectsInProgress.remove(objectId) != null)
+	  other.abandoned.add(objectId);
+      }
+
+      recentProcessingTimes[numProcessingTimes++ %
+			    recentProcessingTimes.length] = millis;
     }
 
-    file.writeToLog(obj);
+    if (!file.writeToLog(obj)) {
+      if (verbose)
+	log("putObject: discarding duplicate result for object No. " +
+	    objectId, clientId);
+      return;
+    }
 
     synchronized (msgs) {
       int numClients = clients.size();
@@ -2509,6 +3261,27 @@ public class Switchboard
     file.notifyIfDone();
   }
 
+  public void putObjects(int clientId,
+			 List<NumberedObject> objs,
+			 long[] millis) throws RemoteException {
+    RemoteException firstException = null;
+    for (int i = 0; i < objs.size(); i++) {
+      try {
+	putObject(clientId, objs.get(i), millis[i]);
+      }
+      catch (UnrecognizedClientException uce) {
+	// no other object from this client will be accepted either
+	throw uce;
+      }
+      catch (RemoteException re) {
+	if (firstException == null)
+	  firstException = re;
+      }
+    }
+    if (firstException != null)
+      throw firstException;
+  }
+
   public void waitUntilAllFilesAreDone() {
     synchronized (this) {
       try {
@@ -2584,6 +3357,11 @@ public class Switchboard
     System.err.println("No. of servers left in database: " + servers.size());
     */
 
+    synchronized (this) {
+      if (frameServer != null)
+	frameServer.close();
+    }
+
     try { Naming.unbind(bindingName); }
     catch (MalformedURLException mue) {
       System.err.println(mue);
@@ -82,6 +82,131 @@ public interface SwitchboardRemote extends Remote {
   public final static String sortOutput =
     "switchboard.sortOutput";
 
+  /**
+   * The property to specify the maximum number of processed objects the
+   * switchboard holds in memory while streaming sorted output.  When the
+   * value of this property is greater than <tt>0</tt> and {@link #sortOutput}
+   * is <tt>true</tt>, the switchboard writes each processed object to the
+   * output file as soon as all lower-numbered objects of its input file have
+   * been processed, instead of sorting the entire log file after the input
+   * file has been processed.  Objects that arrive before some lower-numbered
+   * object are held in memory; when there are more than this many of them,
+   * they are spilled to a temporary file.  Output is streamed to a file whose
+   * name is the output file name plus
+   * {@link Switchboard#partialFilenameSuffix}, which is renamed to the output
+   * file name when processing is complete, so that an output file always
+   * indicates a completed input file.  Output is not streamed for an input
+   * file whose processing is being recovered from its log file.  When the
+   * value of this property is <tt>0</tt> (the default), output is not
+   * streamed.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.reorderBufferSize"</code>.
+   *
+   * @see Switchboard#setSettings(Properties)
+   */
+  public final static String reorderBufferSize =
+    "switchboard.reorderBufferSize";
+
+  /**
+   * The property to specify the number of objects the switchboard reads ahead
+   * of those it has handed out from the current input file, in order to
+   * schedule them by cost.  When the value of this property is greater than
+   * <tt>0</tt>, the switchboard keeps a window of this many objects read
+   * from the current file and hands out the most expensive of them first,
+   * as estimated by the {@link #costFunction}.  A client that the switchboard
+   * has found to be slower than others, as measured by the processing times
+   * it reports to {@link #putObject(int,NumberedObject,long)}, gets a
+   * correspondingly cheaper object from the window, so that the most
+   * expensive objects go to the fastest clients.  Since objects are
+   * processed out of order, output files are in input order only when
+   * {@link #sortOutput} is <tt>true</tt>.  When the value of this property is
+   * <tt>0</tt> (the default), objects are handed out in the order in which
+   * they appear in their input file.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.scheduleWindow"</code>.
+   *
+   * @see Switchboard#setSettings(Properties)
+   */
+  public final static String scheduleWindow =
+    "switchboard.scheduleWindow";
+
+  /**
+   * The property to specify the fully-qualified name of the class
+   * implementing {@link ObjectCostFunction} that the switchboard uses to
+   * estimate the cost of processing each object when scheduling objects by
+   * cost.  The class must have a public no-argument constructor.  The
+   * default is {@link LengthCostFunction}.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.costFunction"</code>.
+   *
+   * @see #scheduleWindow
+   */
+  public final static String costFunction =
+    "switchboard.costFunction";
+
+  /**
+   * The property to specify how many times longer than the median processing
+   * time an object must have been out before the switchboard speculatively
+   * hands a duplicate of it to an idle client.  When the value of this
+   * property is greater than <tt>0</tt> and there are no more objects to
+   * hand out, a client asking for an object gets a duplicate of the object
+   * that is most overdue, provided that it has been out for more than this
+   * factor times the median of the processing times reported to {@link
+   * #putObject(int,NumberedObject,long)} and that it has not already been
+   * duplicated.  For an object handed out in a batch of <i>n</i> objects
+   * returned by {@link #nextObjects(int,int)}, this time is multiplied by
+   * <i>n</i>, since the client processes the objects of a batch one after
+   * another and returns their results together.  Whichever of the
+   * two results arrives first is kept; the other is silently discarded.
+   * This property should be a floating-point number; its default value is
+   * <tt>0</tt>, meaning that objects are never duplicated.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.speculationFactor"</code>.
+   *
+   * @see Switchboard#setSettings(Properties)
+   */
+  public final static String speculationFactor =
+    "switchboard.speculationFactor";
+
+  /**
+   * The property to specify the port on which the switchboard accepts
+   * connections over which calls are sent as length-prefixed binary frames
+   * instead of via RMI.  When the value of this property is greater than
+   * <tt>0</tt>, switchboard users may obtain the switchboard via a name of
+   * the form <tt>frame://</tt><i>host</i><tt>:</tt><i>port</i>, in which
+   * case each user multiplexes all its calls on a single connection.  This
+   * property should be an integer; its default value is <tt>0</tt>,
+   * meaning that the switchboard is available only via RMI.
+   * <p>
+   * The value of this constant is <code>"switchboard.framePort"</code>.
+   *
+   * @see Switchboard#exportFrames(int)
+   * @see FrameConnection
+   */
+  public final static String framePort = "switchboard.framePort";
+
+  /**
+   * The property to specify the port on which a server that has registered
+   * with the switchboard over a frame connection accepts frame connections
+   * from its clients.  A client that reaches the switchboard over a frame
+   * connection and is assigned such a server connects to it directly, so
+   * that its calls to the server are not relayed by the switchboard.  A
+   * value of <tt>0</tt> means any free port; a negative value means that
+   * servers do not accept frame connections, so that all calls to them are
+   * relayed.  This property should be an integer; its default value is
+   * <tt>0</tt>.
+   * <p>
+   * The value of this constant is <code>"switchboard.serverFramePort"</code>.
+   *
+   * @see AbstractServer#frameName()
+   * @see FrameEndpoint
+   */
+  public final static String serverFramePort = "switchboard.serverFramePort";
+
   public final static String switchboardPolicyFile =
     "switchboard.policyFile";
 
@@ -108,6 +233,46 @@ public interface SwitchboardRemote extends Remote {
   public final static String clientNextObjectInterval =
     "switchboard.client.nextObjectInterval";
 
+  /**
+   * The property to specify the maximum number of objects that a client
+   * obtains from the switchboard in a single call to
+   * {@link #nextObjects(int,int)}.  Clients that adapt the number of objects
+   * they request to their own throughput, such as {@link AbstractClient},
+   * never request more than this many.  A value of <tt>1</tt> (the default
+   * used by {@link AbstractClient} when this property is absent) means that
+   * clients get and put one object at a time, via the
+   * {@link #nextObject(int)} and {@link #putObject(int,NumberedObject,long)}
+   * methods.
+   * <p>
+   * As with {@link #clientNextObjectInterval}, this property applies only to
+   * clients.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.client.maxPrefetch"</code>.
+   *
+   * @see #clientPrefetchMillis
+   */
+  public final static String clientMaxPrefetch =
+    "switchboard.client.maxPrefetch";
+
+  /**
+   * The property to specify the approximate number of milliseconds of work
+   * that a client should obtain from the switchboard in a single batch,
+   * when {@link #clientMaxPrefetch} is greater than <tt>1</tt>.  A client
+   * that takes <i>t</i> milliseconds on average to process an object will
+   * request roughly the value of this property divided by <i>t</i> objects
+   * at a time, so that clients with short objects amortize the cost of
+   * communicating with the switchboard over many objects, while clients with
+   * long objects do not hoard work that idle clients could be doing.
+   * <p>
+   * The value of this constant is
+   * <code>"switchboard.client.prefetchMillis"</code>.
+   *
+   * @see #clientMaxPrefetch
+   */
+  public final static String clientPrefetchMillis =
+    "switchboard.client.prefetchMillis";
+
   public final static String clientPolicyFile =
     "switchboard.client.policyFile";
 
@@ -316,6 +481,51 @@ public interface SwitchboardRemote extends Remote {
 			NumberedObject obj,
 			long millis) throws RemoteException;
 
+  /**
+   * Gets up to the specified number of objects for the specified client, as
+   * though by that many calls to {@link #nextObject(int)}, but in a single
+   * remote call.  The objects are returned in the order in which they would
+   * have been returned by successive calls to {@link #nextObject(int)}.
+   * The same caveat about using <i>the very same</i>
+   * <code>NumberedObject</code> instances when putting processed objects
+   * back to the switchboard applies to each of the objects returned.
+   *
+   * @param clientId the ID number of the client requesting objects
+   * @param maxObjects the maximum number of objects to return
+   * @return a list of between zero and <code>maxObjects</code>
+   * <code>NumberedObject</code> instances to process, which is empty if
+   * there is not currently an object to be processed
+   *
+   * @throws UnrecognizedClientException if the specified client ID is not valid
+   *
+   * @see #clientMaxPrefetch
+   * @see #putObjects(int,List,long[])
+   */
+  public List<NumberedObject> nextObjects(int clientId, int maxObjects)
+    throws RemoteException;
+
+  /**
+   * Sends several processed objects back to the switchboard, as though by
+   * successive calls to {@link #putObject(int,NumberedObject,long)}, but in a
+   * single remote call.  Every object in the list is put back, even if
+   * putting back an earlier object fails; the first such failure is then
+   * thrown.
+   *
+   * @param clientId the ID number of the client putting the objects
+   * @param objs the processed objects, each of which must be <i>the very
+   * same</i> instance that was obtained from the switchboard
+   * @param millis an array whose <i>i</i>th element is the number of
+   * milliseconds the client took to process the <i>i</i>th object of
+   * <code>objs</code>
+   *
+   * @throws UnrecognizedClientException if the specified client ID is not valid
+   *
+   * @see #nextObjects(int,int)
+   */
+  public void putObjects(int clientId,
+			 List<NumberedObject> objs,
+			 long[] millis) throws RemoteException;
+
   public int getKeepAliveInterval() throws RemoteException;
   public int getKeepAliveMaxRetries() throws RemoteException;
 }
@@ -0,0 +1,199 @@
+package danbikel.util;
+
+import java.util.*;
+import java.io.Serializable;
+
+/**
+ * A thread-safe {@link FlexibleMap} that partitions its keys among a fixed
+ * number of {@link HashMap} segments, each guarded by its own lock, so that
+ * threads accessing keys in different segments never contend with one
+ * another.  This class is intended for use as a reflexive map of canonical
+ * objects shared by several threads, and so provides an atomic
+ * {@link #putIfAbsent(Object,Object)} operation.
+ * <p>
+ * The views returned by {@link #entrySet()}, {@link #keySet()} and
+ * {@link #values()} are <i>not</i> thread-safe: they may only be used once
+ * all threads modifying this map have finished.
+ */
+public class ConcurrentFlexibleMap<K,V> extends AbstractMap<K,V>
+  implements FlexibleMap<K,V>, Serializable {
+
+  private HashMap<K,V>[] segments;
+  private int segmentShift;
+  private float loadFactor;
+
+  /**
+   * Constructs a new, empty map with the specified initial capacity, load
+   * factor and concurrency level.
+   *
+   * @param initialCapacity the initial capacity of the underlying hash maps,
+   * taken together
+   * @param loadFactor the load factor of each of the underlying hash maps
+   * @param concurrencyLevel the minimum number of segments into which to
+   * divide this map (rounded up to the nearest power of two)
+   * @throws IllegalArgumentException if the specified concurrency level is
+   * zero or negative
+   */
+  public ConcurrentFlexibleMap(int initialCapacity, float loadFactor,
+			       int concurrencyLevel) {
+    if (concurrencyLevel <= 0)
+      throw new IllegalArgumentException();
+    int numSegments = 1;
+    int log2NumSegments = 0;
+    while (numSegments < concurrencyLevel) {
+      numSegments <<= 1;
+      log2NumSegments++;
+    }
+    segmentShift = 32 - log2NumSegments;
+    this.loadFactor = loadFactor;
+    segments = new HashMap[numSegments];
+    int segmentInitialCapacity = Math.max(1, initialCapacity / numSegments);
+    for (int i = 0; i < numSegments; i++)
+      segments[i] = new HashMap<K,V>(segmentInitialCapacity, loadFactor);
+  }
+
+  /**
+   * Returns the segment in which a key with the specified hash code is
+   * stored.  The segment is chosen using the high-order bits of the scrambled
+   * hash code, since the low-order bits determine the bucket within a
+   * segment.
+   */
+  private final HashMap<K,V> segmentFor(int keyHash) {
+    if (segments.length == 1)
+      return segments[0];
+    int h = keyHash * 0x9e3779b9;
+    return segments[h >>> segmentShift];
+  }
+
+  private final static int keyHash(Object key) {
+    return key == null ? 0 : key.hashCode();
+  }
+
+  public V get(Object key) {
+    int keyHash = keyHash(key);
+    HashMap<K,V> segment = segmentFor(keyHash);
+    synchronized (segment) {
+      return segment.get(key, keyHash);
+    }
+  }
+
+  public V get(K key, int hashCode) {
+    HashMap<K,V> segment = segmentFor(hashCode);
+    synchronized (segment) {
+      return segment.get(key, hashCode);
+    }
+  }
+
+  public boolean containsKey(Object key) {
+    HashMap<K,V> segment = segmentFor(keyHash(key));
+    synchronized (segment) {
+      return segment.containsKey(key);
+    }
+  }
+
+  public V put(K key, V value) {
+    HashMap<K,V> segment = segmentFor(keyHash(key));
+    synchronized (segment) {
+      return segment.put(key, value);
+    }
+  }
+
+  /**
+   * Atomically maps the specified key to the specified value if this map
+   * does not already contain a mapping for the key.
+   *
+   * @param key the key to be mapped
+   * @param value the value to map to the key if it is absent
+   * @return the value already mapped to the specified key, or
+   * <code>null</code> if there was no such mapping (in which case the
+   * specified value has been added)
+   */
+  public V putIfAbsent(K key, V value) {
+    int keyHash = keyHash(key);
+    HashMap<K,V> segment = segmentFor(keyHash);
+    synchronized (segment) {
+      V existing = segment.get(key, keyHash);
+      if (existing == null)
+	segment.put(key, value);
+      return existing;
+    }
+  }
+
+  public V remove(Object key) {
+    HashMap<K,V> segment = segmentFor(keyHash(key));
+    synchronized (segment) {
+      return segment.remove(key);
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i < segments.length; i++)
+      synchronized (segments[i]) {
+	segments[i].clear();
+      }
+  }
+
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < segments.length; i++)
+      synchronized (segments[i]) {
+	size += segments[i].size();
+      }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Returns the total number of buckets in the segments of this map.
+   */
+  public int getCapacity() {
+    int capacity = 0;
+    for (int i = 0; i < segments.length; i++)
+      capacity += segments[i].getCapacity();
+    return capacity;
+  }
+
+  public float getLoadFactor() {
+    return loadFactor;
+  }
+
+  public String getStats() {
+    return "size=" + size() + "; capacity=" + getCapacity() +
+	   "; load factor=" + getLoadFactor() +
+	   "; segments=" + segments.length;
+  }
+
+  public Set<Map.Entry<K,V>> entrySet() {
+    return new AbstractSet<Map.Entry<K,V>>() {
+      public int size() {
+	return ConcurrentFlexibleMap.this.size();
+      }
+      public Iterator<Map.Entry<K,V>> iterator() {
+	return new Iterator<Map.Entry<K,V>>() {
+	  int segmentIdx = 0;
+	  Iterator<Map.Entry<K,V>> it = segments[0].entrySet().iterator();
+
+	  public boolean hasNext() {
+	    while (!it.hasNext()) {
+	      if (++segmentIdx == segments.length)
+		return false;
+	      it = segments[segmentIdx].entrySet().iterator();
+	    }
+	    return true;
+	  }
+	  public Map.Entry<K,V> next() {
+	    if (!hasNext())
+	      throw new NoSuchElementException();
+	    return it.next();
+	  }
+	  public void remove() {
+	    it.remove();
+	  }
+	};
+      }
+    };
+  }
+}
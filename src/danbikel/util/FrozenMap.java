@@ -0,0 +1,169 @@
+package danbikel.util;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * An immutable hash map, for large maps that are constructed once and then
+ * only read, possibly by many threads at once.  Keys and values are stored in
+ * parallel arrays, using open addressing with linear probing, along with an
+ * array of the hash codes of the keys, so that a lookup allocates nothing,
+ * follows no chains of entry objects and invokes <code>equals</code> only on
+ * keys whose hash codes match that of the key being looked up.  Since
+ * instances of this class cannot be modified, they may be shared freely
+ * among threads without synchronization.
+ * <p>
+ * The hash codes of many keys, such as {@link danbikel.lisp.Symbol} objects,
+ * are only valid within a single virtual machine, so a frozen map is
+ * serialized as a sequence of its mappings and rebuilt when it is
+ * deserialized.
+ *
+ * @see FrozenSet
+ */
+public class FrozenMap<K,V> extends AbstractMap<K,V> implements Serializable {
+  private final static float loadFactor = 0.5f;
+
+  private transient Object[] keys;
+  private transient Object[] values;
+  private transient int[] hashes;
+  private transient int mask;
+  private transient int size;
+
+  /**
+   * Constructs a new frozen map containing the mappings of the specified map.
+   *
+   * @param map the map whose mappings are to be copied
+   * @throws NullPointerException if the specified map contains a
+   * <code>null</code> key
+   */
+  public FrozenMap(Map<? extends K, ? extends V> map) {
+    allocate(map.size());
+    Iterator it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry entry = (Map.Entry)it.next();
+      insert(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Allocates the tables of this map to hold the specified number of mappings.
+   */
+  private void allocate(int numMappings) {
+    int tableSize = 2;
+    while (tableSize < numMappings / loadFactor + 1)
+      tableSize <<= 1;
+    keys = new Object[tableSize];
+    values = new Object[tableSize];
+    hashes = new int[tableSize];
+    mask = tableSize - 1;
+    size = 0;
+  }
+
+  /**
+   * Spreads the bits of the specified hash code, so that keys whose hash
+   * codes differ only in their high-order bits are spread across the table.
+   */
+  static int spread(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private void insert(Object key, Object value) {
+    if (key == null)
+      throw new NullPointerException();
+    int hash = key.hashCode();
+    int idx = spread(hash) & mask;
+    for ( ; keys[idx] != null; idx = (idx + 1) & mask) {
+      if (hashes[idx] == hash && keys[idx].equals(key)) {
+	values[idx] = value;
+	return;
+      }
+    }
+    keys[idx] = key;
+    values[idx] = value;
+    hashes[idx] = hash;
+    size++;
+  }
+
+  /**
+   * Returns the slot of the specified key, or <tt>-1</tt> if this map
+   * contains no mapping for the key.
+   */
+  private int find(Object key) {
+    if (key == null)
+      return -1;
+    int hash = key.hashCode();
+    Object[] keys = this.keys;
+    for (int idx = spread(hash) & mask; ; idx = (idx + 1) & mask) {
+      Object curr = keys[idx];
+      if (curr == null)
+	return -1;
+      if (hashes[idx] == hash && (curr == key || curr.equals(key)))
+	return idx;
+    }
+  }
+
+  public V get(Object key) {
+    int idx = find(key);
+    return idx == -1 ? null : (V)values[idx];
+  }
+
+  public boolean containsKey(Object key) {
+    return find(key) != -1;
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  public Set<Map.Entry<K,V>> entrySet() {
+    return new AbstractSet<Map.Entry<K,V>>() {
+      public int size() { return size; }
+      public Iterator<Map.Entry<K,V>> iterator() {
+	return new Iterator<Map.Entry<K,V>>() {
+	  int idx = advance(0);
+	  private int advance(int from) {
+	    while (from < keys.length && keys[from] == null)
+	      from++;
+	    return from;
+	  }
+	  public boolean hasNext() { return idx < keys.length; }
+	  public Map.Entry<K,V> next() {
+	    if (idx >= keys.length)
+	      throw new NoSuchElementException();
+	    Map.Entry<K,V> entry =
+	      new AbstractMap.SimpleImmutableEntry<K,V>((K)keys[idx],
+							(V)values[idx]);
+	    idx = advance(idx + 1);
+	    return entry;
+	  }
+	  public void remove() {
+	    throw new UnsupportedOperationException();
+	  }
+	};
+      }
+    };
+  }
+
+  private void writeObject(ObjectOutputStream s) throws IOException {
+    s.defaultWriteObject();
+    s.writeInt(size);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+	s.writeObject(keys[i]);
+	s.writeObject(values[i]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream s)
+    throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    int numMappings = s.readInt();
+    allocate(numMappings);
+    for (int i = 0; i < numMappings; i++) {
+      Object key = s.readObject();
+      insert(key, s.readObject());
+    }
+  }
+}
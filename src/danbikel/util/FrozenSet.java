@@ -0,0 +1,119 @@
+package danbikel.util;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * An immutable hash set, for large sets that are constructed once and then
+ * only read, possibly by many threads at once.  Elements are stored in an
+ * array, using open addressing with linear probing, along with an array of
+ * their hash codes, exactly as the keys of a {@link FrozenMap} are stored.
+ * Since instances of this class cannot be modified, they may be shared
+ * freely among threads without synchronization.  A frozen set is serialized
+ * as a sequence of its elements and rebuilt when it is deserialized.
+ *
+ * @see FrozenMap
+ */
+public class FrozenSet<E> extends AbstractSet<E> implements Serializable {
+  private final static float loadFactor = 0.5f;
+
+  private transient Object[] elements;
+  private transient int[] hashes;
+  private transient int mask;
+  private transient int size;
+
+  /**
+   * Constructs a new frozen set containing the elements of the specified
+   * collection.
+   *
+   * @param c the collection whose elements are to be copied
+   * @throws NullPointerException if the specified collection contains
+   * <code>null</code>
+   */
+  public FrozenSet(Collection<? extends E> c) {
+    allocate(c.size());
+    Iterator it = c.iterator();
+    while (it.hasNext())
+      insert(it.next());
+  }
+
+  private void allocate(int numElements) {
+    int tableSize = 2;
+    while (tableSize < numElements / loadFactor + 1)
+      tableSize <<= 1;
+    elements = new Object[tableSize];
+    hashes = new int[tableSize];
+    mask = tableSize - 1;
+    size = 0;
+  }
+
+  private void insert(Object element) {
+    if (element == null)
+      throw new NullPointerException();
+    int hash = element.hashCode();
+    int idx = FrozenMap.spread(hash) & mask;
+    for ( ; elements[idx] != null; idx = (idx + 1) & mask)
+      if (hashes[idx] == hash && elements[idx].equals(element))
+	return;
+    elements[idx] = element;
+    hashes[idx] = hash;
+    size++;
+  }
+
+  public boolean contains(Object o) {
+    if (o == null)
+      return false;
+    int hash = o.hashCode();
+    Object[] elements = this.elements;
+    for (int idx = FrozenMap.spread(hash) & mask; ; idx = (idx + 1) & mask) {
+      Object curr = elements[idx];
+      if (curr == null)
+	return false;
+      if (hashes[idx] == hash && (curr == o || curr.equals(o)))
+	return true;
+    }
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      int idx = advance(0);
+      private int advance(int from) {
+	while (from < elements.length && elements[from] == null)
+	  from++;
+	return from;
+      }
+      public boolean hasNext() { return idx < elements.length; }
+      public E next() {
+	if (idx >= elements.length)
+	  throw new NoSuchElementException();
+	E element = (E)elements[idx];
+	idx = advance(idx + 1);
+	return element;
+      }
+      public void remove() {
+	throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private void writeObject(ObjectOutputStream s) throws IOException {
+    s.defaultWriteObject();
+    s.writeInt(size);
+    for (int i = 0; i < elements.length; i++)
+      if (elements[i] != null)
+	s.writeObject(elements[i]);
+  }
+
+  private void readObject(ObjectInputStream s)
+    throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    int numElements = s.readInt();
+    allocate(numElements);
+    for (int i = 0; i < numElements; i++)
+      insert(s.readObject());
+  }
+}
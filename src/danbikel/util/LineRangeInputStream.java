@@ -0,0 +1,111 @@
+package danbikel.util;
+
+import java.io.*;
+
+/**
+ * An input stream over the lines of a file that begin within a specified
+ * range of byte offsets.  A line begins at offset 0 or just after a newline
+ * (<tt>'\n'</tt>) byte.  Since every line belongs to exactly one range, a
+ * file may be split into contiguous ranges that are read independently and
+ * concurrently, for example by several threads that each read complete
+ * S-expressions, one per line, from a large file.
+ */
+public class LineRangeInputStream extends InputStream {
+  private InputStream in;
+  private long pos;
+  private long end;
+  private boolean atLineStart;
+  private boolean done;
+
+  /**
+   * Constructs a new stream over the lines of the specified file that begin
+   * at offsets greater than or equal to <code>start</code> and less than
+   * <code>end</code>.
+   *
+   * @param file the file to read
+   * @param start the offset of the first byte of the range
+   * @param end the offset just past the last byte of the range
+   * @param bufSize the size of the buffer to construct around the file
+   * @throws IOException if the file cannot be opened or positioned
+   */
+  public LineRangeInputStream(File file, long start, long end, int bufSize)
+    throws IOException {
+    FileInputStream fis = new FileInputStream(file);
+    long skipPos = Math.max(0, start - 1);
+    // skipping within a file is a seek
+    while (pos < skipPos) {
+      long skipped = fis.skip(skipPos - pos);
+      if (skipped <= 0)
+	break;
+      pos += skipped;
+    }
+    in = new BufferedInputStream(fis, bufSize);
+    this.end = end;
+    atLineStart = start == 0;
+    if (start > 0) {
+      // skip the remainder of the line in progress at start - 1, which
+      // belongs to the previous range
+      int b;
+      while ((b = in.read()) != -1) {
+	pos++;
+	if (b == '\n')
+	  break;
+      }
+      atLineStart = true;
+    }
+  }
+
+  /**
+   * Returns the offsets at which to split the specified file into the
+   * specified number of roughly equal ranges.
+   *
+   * @param file the file to be split
+   * @param numRanges the number of ranges
+   * @return an array of <code>numRanges&nbsp;+&nbsp;1</code> offsets, where
+   * range <i>i</i> begins at element <i>i</i> and ends just before element
+   * <i>i</i>&nbsp;+&nbsp;1
+   */
+  public static long[] split(File file, int numRanges) {
+    long length = file.length();
+    long[] offsets = new long[numRanges + 1];
+    for (int i = 0; i <= numRanges; i++)
+      offsets[i] = length * i / numRanges;
+    return offsets;
+  }
+
+  public int read() throws IOException {
+    if (done)
+      return -1;
+    if (atLineStart && pos >= end) {
+      done = true;
+      return -1;
+    }
+    int b = in.read();
+    if (b == -1) {
+      done = true;
+      return -1;
+    }
+    pos++;
+    atLineStart = b == '\n';
+    return b;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    int numRead = 0;
+    while (numRead < len) {
+      int c = read();
+      if (c == -1)
+	break;
+      b[off + numRead++] = (byte)c;
+      if (c == '\n')
+	break;
+    }
+    return numRead == 0 ? -1 : numRead;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
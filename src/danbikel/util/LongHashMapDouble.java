@@ -0,0 +1,288 @@
+package danbikel.util;
+
+import java.io.*;
+
+/**
+ * A map from <code>long</code> keys to <code>double</code> values, using open
+ * addressing with linear probing.  Keys and values are stored in parallel
+ * primitive arrays, so that, unlike {@link HashMapDouble}, this map allocates
+ * no objects per mapping and a lookup requires no pointer chasing.
+ * <p>
+ * This class does not support removal of individual mappings, and is not
+ * synchronized.
+ */
+public class LongHashMapDouble implements Cloneable, Serializable {
+  /** The default initial capacity of instances of this class. */
+  public final static int defaultInitialCapacity = 16;
+  /**
+   * The default load factor of instances of this class.  Linear probing
+   * degrades quickly as a table fills, so this is lower than the default
+   * load factor of {@link HashMapPrimitive}.
+   */
+  public final static float defaultLoadFactor = 0.5f;
+
+  // the key used to mark free slots; a mapping for this key is stored
+  // separately, in freeKeyValue
+  private final static long freeKey = 0L;
+
+  private transient long[] keys;
+  private transient double[] values;
+  private transient int size;
+  private transient int threshold;
+  private transient int mask;
+  private transient boolean hasFreeKey;
+  private transient double freeKeyValue;
+  private float loadFactor;
+
+  /**
+   * Constructs a new, empty map with the specified initial capacity and the
+   * specified load factor.
+   *
+   * @param initialCapacity the number of mappings this map should be able to
+   * hold before having to grow its tables
+   * @param loadFactor the load factor of this map
+   * @throws IllegalArgumentException if the initial capacity is less than zero,
+   * or if the load factor is not in the range (0,1)
+   */
+  public LongHashMapDouble(int initialCapacity, float loadFactor) {
+    if (initialCapacity < 0)
+      throw new IllegalArgumentException("Illegal Initial Capacity: " +
+					 initialCapacity);
+    if (loadFactor <= 0 || loadFactor >= 1)
+      throw new IllegalArgumentException("Illegal Load factor: " + loadFactor);
+    this.loadFactor = loadFactor;
+    allocate(tableSizeFor(initialCapacity));
+  }
+
+  /**
+   * Constructs a new, empty map with the specified initial capacity and the
+   * {@linkplain #defaultLoadFactor default load factor}.
+   *
+   * @param initialCapacity the number of mappings this map should be able to
+   * hold before having to grow its tables
+   */
+  public LongHashMapDouble(int initialCapacity) {
+    this(initialCapacity, defaultLoadFactor);
+  }
+
+  /**
+   * Constructs a new, empty map with the
+   * {@linkplain #defaultInitialCapacity default initial capacity} and the
+   * {@linkplain #defaultLoadFactor default load factor}.
+   */
+  public LongHashMapDouble() {
+    this(defaultInitialCapacity, defaultLoadFactor);
+  }
+
+  private int tableSizeFor(int numMappings) {
+    long needed = (long)Math.ceil(numMappings / (double)loadFactor) + 1;
+    int tableSize = 2;
+    while (tableSize < needed)
+      tableSize <<= 1;
+    return tableSize;
+  }
+
+  private void allocate(int tableSize) {
+    keys = new long[tableSize];
+    values = new double[tableSize];
+    mask = tableSize - 1;
+    threshold = Math.min(tableSize - 1, (int)(tableSize * loadFactor));
+  }
+
+  /**
+   * Scrambles the bits of the specified key (the finalization step of
+   * MurmurHash3), so that keys that differ only in their high-order bits
+   * are spread across the table.
+   */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int)key;
+  }
+
+  /**
+   * Returns the value to which the specified key is mapped, or the specified
+   * default value if this map contains no mapping for the key.
+   *
+   * @param key the key whose value is to be looked up
+   * @param defaultValue the value to return if there is no mapping for the
+   * specified key
+   * @return the value to which the specified key is mapped, or
+   * <code>defaultValue</code>
+   */
+  public double get(long key, double defaultValue) {
+    if (key == freeKey)
+      return hasFreeKey ? freeKeyValue : defaultValue;
+    long[] keys = this.keys;
+    int mask = this.mask;
+    for (int idx = hash(key) & mask; ; idx = (idx + 1) & mask) {
+      long curr = keys[idx];
+      if (curr == key)
+	return values[idx];
+      if (curr == freeKey)
+	return defaultValue;
+    }
+  }
+
+  /**
+   * Returns whether this map contains a mapping for the specified key.
+   *
+   * @param key the key to look up
+   * @return whether this map contains a mapping for the specified key
+   */
+  public boolean containsKey(long key) {
+    if (key == freeKey)
+      return hasFreeKey;
+    for (int idx = hash(key) & mask; ; idx = (idx + 1) & mask) {
+      long curr = keys[idx];
+      if (curr == key)
+	return true;
+      if (curr == freeKey)
+	return false;
+    }
+  }
+
+  /**
+   * Maps the specified key to the specified value.
+   *
+   * @param key the key to be mapped
+   * @param value the value to map to the specified key
+   * @return the previous value to which the specified key was mapped, or
+   * {@link Double#NaN} if there was no such mapping
+   */
+  public double put(long key, double value) {
+    if (key == freeKey) {
+      double old = hasFreeKey ? freeKeyValue : Double.NaN;
+      if (!hasFreeKey)
+	size++;
+      hasFreeKey = true;
+      freeKeyValue = value;
+      return old;
+    }
+    int idx = hash(key) & mask;
+    for ( ; keys[idx] != freeKey; idx = (idx + 1) & mask) {
+      if (keys[idx] == key) {
+	double old = values[idx];
+	values[idx] = value;
+	return old;
+      }
+    }
+    keys[idx] = key;
+    values[idx] = value;
+    if (++size > threshold)
+      rehash(keys.length << 1);
+    return Double.NaN;
+  }
+
+  private void rehash(int newTableSize) {
+    long[] oldKeys = keys;
+    double[] oldValues = values;
+    allocate(newTableSize);
+    for (int i = 0; i < oldKeys.length; i++) {
+      long key = oldKeys[i];
+      if (key == freeKey)
+	continue;
+      int idx = hash(key) & mask;
+      while (keys[idx] != freeKey)
+	idx = (idx + 1) & mask;
+      keys[idx] = key;
+      values[idx] = oldValues[i];
+    }
+  }
+
+  /**
+   * Shrinks the tables of this map to the smallest size that accommodates its
+   * current mappings at its load factor.  This method is intended to be
+   * invoked once a map has been completely filled.
+   */
+  public void trimToSize() {
+    int tableSize = tableSizeFor(size);
+    if (tableSize < keys.length)
+      rehash(tableSize);
+  }
+
+  /** Returns the number of mappings in this map. */
+  public int size() { return size; }
+
+  /** Returns whether this map contains no mappings. */
+  public boolean isEmpty() { return size == 0; }
+
+  /** Returns the number of slots in the tables of this map. */
+  public int getCapacity() { return keys.length; }
+
+  /** Returns the load factor of this map. */
+  public float getLoadFactor() { return loadFactor; }
+
+  /**
+   * Returns the keys of this map, in no particular order.
+   *
+   * @return a new array containing the keys of this map
+   */
+  public long[] keys() {
+    long[] result = new long[size];
+    int i = 0;
+    if (hasFreeKey)
+      result[i++] = freeKey;
+    for (int idx = 0; idx < keys.length; idx++)
+      if (keys[idx] != freeKey)
+	result[i++] = keys[idx];
+    return result;
+  }
+
+  /**
+   * Returns a deep copy of this map.
+   *
+   * @return a deep copy of this map
+   */
+  public Object clone() {
+    try {
+      LongHashMapDouble result = (LongHashMapDouble)super.clone();
+      result.keys = (long[])keys.clone();
+      result.values = (double[])values.clone();
+      return result;
+    }
+    catch (CloneNotSupportedException cnse) {
+      throw new InternalError(cnse.toString());
+    }
+  }
+
+  /**
+   * Returns a human-readable string of statistics for this map.
+   *
+   * @return a human-readable string of statistics for this map
+   */
+  public String getStats() {
+    return "size: " + size() + "; load factor: " + loadFactor +
+	   ";\n\tNo. of slots: " + getCapacity();
+  }
+
+  // only the mappings are written, not the (mostly empty) tables
+  private void writeObject(ObjectOutputStream s) throws IOException {
+    s.defaultWriteObject();
+    s.writeInt(size);
+    if (hasFreeKey) {
+      s.writeLong(freeKey);
+      s.writeDouble(freeKeyValue);
+    }
+    for (int idx = 0; idx < keys.length; idx++) {
+      if (keys[idx] != freeKey) {
+	s.writeLong(keys[idx]);
+	s.writeDouble(values[idx]);
+      }
+    }
+  }
+
+  private void readObject(ObjectInputStream s)
+    throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    int numMappings = s.readInt();
+    allocate(tableSizeFor(numMappings));
+    for (int i = 0; i < numMappings; i++) {
+      long key = s.readLong();
+      put(key, s.readDouble());
+    }
+  }
+}